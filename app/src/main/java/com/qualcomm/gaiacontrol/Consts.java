@@ -70,6 +70,73 @@ public final class Consts {
      * The key to use for the shared preferences to store the type of transport which is used.
      */
     public static final String TRANSPORT_KEY = "Transport type";
+    /**
+     * <p>The number of VM Upgrade data packets which can be sent to the device before receiving their
+     * acknowledgement. 1 keeps the stop-and-wait transfer: increase it for devices which can buffer several
+     * packets.</p>
+     */
+    public static final int UPGRADE_DATA_WINDOW_SIZE = 1;
+    /**
+     * <p>The maximum number of upload progress updates per second the upgrade sends to the UI.</p>
+     */
+    public static final int UPGRADE_PROGRESS_MAX_RATE = 10;
+    /**
+     * <p>The ATT MTU requested to a BLE device which supports GAIA: 247 bytes fill one LE data packet of 251 bytes
+     * when the device supports the LE data length extension. The device can accept a smaller MTU.</p>
+     */
+    public static final int BLE_REQUESTED_MTU = 247;
+    /**
+     * <p>The name of the file in which the digests of the upgrade files are saved.</p>
+     */
+    public static final String UPGRADE_DIGEST_CACHE_FILE = "upgrade_digests";
+    /**
+     * <p>The name of the file in which the progress of the upgrades is recorded.</p>
+     */
+    public static final String UPGRADE_JOURNAL_FILE = "upgrade_journal";
+    /**
+     * <p>The name of the file in which the time the devices take to be ready for an upgrade is saved.</p>
+     */
+    public static final String UPGRADE_READINESS_CACHE_FILE = "upgrade_readiness";
+    /**
+     * <p>The name of the file in which what the devices have received of the image of their last upgrade is
+     * saved.</p>
+     */
+    public static final String UPGRADE_CHECKPOINTS_FILE = "upgrade_checkpoints";
+    /**
+     * <p>The maximum number of protocol events recorded in the timeline of an upgrade.</p>
+     */
+    public static final int UPGRADE_TIMELINE_CAPACITY = 8192;
+    /**
+     * <p>The minimum time in ms without any protocol event to report a stall of an upgrade.</p>
+     */
+    public static final long UPGRADE_STALL_THRESHOLD = 2000;
+    /**
+     * <p>The name of the file in which the timeline of the last upgrade is saved.</p>
+     */
+    public static final String UPGRADE_TIMELINE_FILE = "upgrade_timeline";
+    /**
+     * <p>The name of the file in which the report of the timeline of the last upgrade is saved.</p>
+     */
+    public static final String UPGRADE_TIMELINE_REPORT_FILE = "upgrade_timeline_report.txt";
+    /**
+     * <p>The time in ms to wait before the first attempt to reconnect a device which has been disconnected during
+     * an upgrade, such as when it reboots into its new image. The delay is doubled after each failed attempt.</p>
+     */
+    public static final long UPGRADE_RECONNECTION_DELAY = 200;
+    /**
+     * <p>The maximum time in ms to wait between two attempts to reconnect a device during an upgrade.</p>
+     */
+    public static final long UPGRADE_RECONNECTION_MAX_DELAY = 1000;
+    /**
+     * <p>The maximum number of direct connection attempts to reconnect a device during an upgrade, the device is
+     * then reconnected in the background.</p>
+     */
+    public static final int UPGRADE_RECONNECTION_ATTEMPTS = 8;
+    /**
+     * <p>The time in ms after which a direct connection attempt to reconnect a device during an upgrade is
+     * cancelled and made again.</p>
+     */
+    public static final long UPGRADE_RECONNECTION_ATTEMPT_TIMEOUT = 5000;
     /**
      * To display or hide the debug logs of the application.
      */
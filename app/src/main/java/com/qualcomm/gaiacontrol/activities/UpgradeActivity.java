@@ -28,6 +28,7 @@ import com.qualcomm.libraries.vmupgrade.UpgradeManager;
 import com.qualcomm.libraries.vmupgrade.UploadProgress;
 import com.qualcomm.libraries.vmupgrade.codes.ResumePoints;
 import com.qualcomm.libraries.vmupgrade.codes.ReturnCodes;
+import com.qualcomm.libraries.vmupgrade.journal.UpgradeSession;
 
 import java.io.File;
 
@@ -149,6 +150,10 @@ public class UpgradeActivity extends ServiceActivity implements FilePickerFragme
 
     @Override // ServiceActivity
     protected void onServiceConnected() {
+        UpgradeSession session = mService.getInterruptedUpgrade();
+        if (session != null) {
+            displayResumeDialog(session);
+        }
     }
 
     @Override
@@ -163,6 +168,13 @@ public class UpgradeActivity extends ServiceActivity implements FilePickerFragme
         startUpgrade(file);
     }
 
+    @Override // FilePickerFragment.FilePickerFragmentListener
+    public void onFilePicked(File file) {
+        if (mService != null) {
+            mService.prepareUpgrade(file);
+        }
+    }
+
     /**
      * @see VMUpgradeDialog.UpgradeDialogListener#abortUpgrade()
      * This implementation does not check if the VMUpgradeDialog has been dismissed or is still displayed.
@@ -283,6 +295,12 @@ public class UpgradeActivity extends ServiceActivity implements FilePickerFragme
                 mUpgradeDialog.displayTransferProgress(progress);
                 handleMessage.append("UPGRADE_UPLOAD_PROGRESS");
                 break;
+
+            case BluetoothService.UpgradeMessage.UPGRADE_PREFLIGHT_FAILED:
+                // the picked file cannot be used, the user is informed before they start the upgrade
+                displayFileError();
+                handleMessage.append("UPGRADE_PREFLIGHT_FAILED");
+                break;
         }
 
         if (DEBUG && message != BluetoothService.UpgradeMessage.UPGRADE_UPLOAD_PROGRESS) {
@@ -467,6 +485,35 @@ public class UpgradeActivity extends ServiceActivity implements FilePickerFragme
         builder.show();
     }
 
+    /**
+     * <p>To display a dialog which offers to resume an upgrade which has been interrupted by the end of the
+     * application.</p>
+     *
+     * @param session
+     *        The interrupted upgrade as it has been recorded by the service.
+     */
+    private void displayResumeDialog(final UpgradeSession session) {
+        String message = getString(R.string.alert_upgrade_interrupted_message, session.getFile().getName(),
+                ResumePoints.getLabel(session.getResumePoint()));
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(message)
+                .setTitle(R.string.alert_upgrade_interrupted_title)
+                .setPositiveButton(R.string.button_resume, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        startUpgrade(session.getFile());
+                    }
+                })
+                .setNegativeButton(R.string.button_discard, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        mService.discardInterruptedUpgrade();
+                    }
+                });
+        builder.setCancelable(false);
+        builder.show();
+    }
+
     /**
      * <p>To display a confirmation dialog for the user to pick a choice when the Upgrade process needs to
      * know if it should carry on.</p>
@@ -0,0 +1,79 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.gaiacontrol.fleet;
+
+import com.qualcomm.libraries.gaia.GAIA;
+
+/**
+ * <p>This interface represents the connection with one Device which is upgraded by an
+ * {@link UpgradeOrchestrator UpgradeOrchestrator}. Each {@link DeviceUpgrade DeviceUpgrade} has its own link, so
+ * that several Devices can be upgraded at the same time.</p>
+ * <p>All the methods of the {@link Listener Listener} have to be called on the thread on which the
+ * {@link com.qualcomm.libraries.scheduler.Scheduler Scheduler} of the orchestrator runs its tasks.</p>
+ */
+public interface DeviceLink {
+
+    /**
+     * <p>To get the Bluetooth address of the Device.</p>
+     */
+    String getAddress();
+
+    /**
+     * <p>To get the transport used to communicate with the Device, it defines the format of the GAIA packets.</p>
+     *
+     * @return {@link GAIA.Transport#BLE BLE} or {@link GAIA.Transport#BR_EDR BR_EDR}.
+     */
+    @GAIA.Transport int getTransport();
+
+    /**
+     * <p>To initiate the connection with the Device. The result is given asynchronously through
+     * {@link Listener#onLinkConnected() onLinkConnected} once GAIA packets can be exchanged, or through
+     * {@link Listener#onLinkDisconnected() onLinkDisconnected} if the connection fails.</p>
+     *
+     * @param listener
+     *          The listener to inform about the state of the link and the received packets.
+     */
+    void connect(Listener listener);
+
+    /**
+     * <p>To send a GAIA packet to the Device.</p>
+     * <p>The array is reused by the caller once this method returns: a link which sends the packet later must keep
+     * a copy of it.</p>
+     *
+     * @param packet
+     *          The bytes of the packet.
+     *
+     * @return true if the sending could be initiated.
+     */
+    boolean send(byte[] packet);
+
+    /**
+     * <p>To disconnect from the Device. No event is sent to the listener after this call.</p>
+     */
+    void disconnect();
+
+    /**
+     * <p>The listener which is informed of the events of a {@link DeviceLink DeviceLink}.</p>
+     */
+    interface Listener {
+        /**
+         * <p>This method is called when the link is ready to exchange GAIA packets.</p>
+         */
+        void onLinkConnected();
+
+        /**
+         * <p>This method is called when the connection fails or is lost.</p>
+         */
+        void onLinkDisconnected();
+
+        /**
+         * <p>This method is called when a GAIA packet has been received from the Device.</p>
+         *
+         * @param packet
+         *          The bytes of the packet.
+         */
+        void onPacketReceived(byte[] packet);
+    }
+}
@@ -0,0 +1,527 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.gaiacontrol.fleet;
+
+import android.support.annotation.IntDef;
+import android.util.Log;
+
+import com.qualcomm.gaiacontrol.gaia.UpgradeGaiaManager;
+import com.qualcomm.libraries.scheduler.Scheduler;
+import com.qualcomm.libraries.vmupgrade.UpgradeError;
+import com.qualcomm.libraries.vmupgrade.UpgradeManager;
+import com.qualcomm.libraries.vmupgrade.UploadProgress;
+import com.qualcomm.libraries.vmupgrade.codes.ResumePoints;
+import com.qualcomm.libraries.vmupgrade.codes.ReturnCodes;
+
+import java.io.File;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * <p>This class runs the upgrade of one Device for an {@link UpgradeOrchestrator UpgradeOrchestrator}.</p>
+ * <p>Each upgrade has its own {@link DeviceLink DeviceLink} and its own {@link UpgradeGaiaManager
+ * UpgradeGaiaManager}, so it has its own VM Upgrade state machine and progress. The upgrade connects the link,
+ * runs the upgrade, reconnects the link when the Device reboots and disconnects the link once the upgrade has
+ * ended.</p>
+ * <p>As nobody is expected to confirm the steps of the upgrades of a fleet, all the confirmations are given
+ * automatically: the upgrade goes on, except when the battery of the Device is low.</p>
+ * <p>This class also accounts for the bytes which go through its link.</p>
+ */
+@SuppressWarnings("unused")
+public class DeviceUpgrade implements UpgradeGaiaManager.GaiaManagerListener, DeviceLink.Listener {
+
+    // ====== CONSTS FIELDS =======================================================================
+
+    /**
+     * <p>The time in ms to wait before a new connection attempt after the link has been lost or could not be
+     * established.</p>
+     */
+    private static final long RECONNECTION_DELAY = 1000;
+    /**
+     * <p>The time in ms after which the upgrade fails if the link could not be connected again.</p>
+     */
+    private static final long CONNECTION_TIMEOUT = 60000;
+    /**
+     * <p>The time in ms given to the Device to acknowledge the end of the upgrade - or its abortion - before the link
+     * is disconnected.</p>
+     */
+    private static final long DISCONNECTION_DELAY = 2000;
+
+
+    // ====== PRIVATE FIELDS =======================================================================
+
+    /**
+     * <p>The tag to display for logs.</p>
+     */
+    private final String TAG = "DeviceUpgrade";
+    /**
+     * <p>The orchestrator which runs this upgrade.</p>
+     */
+    private final UpgradeOrchestrator mOrchestrator;
+    /**
+     * <p>The link with the Device.</p>
+     */
+    private final DeviceLink mLink;
+    /**
+     * <p>The file to upgrade the Device with.</p>
+     */
+    private final File mFile;
+    /**
+     * <p>The scheduler to run the delayed tasks and to measure the time.</p>
+     */
+    private final Scheduler mScheduler;
+    /**
+     * <p>The manager which runs the VM Upgrade protocol with the Device.</p>
+     */
+    private final UpgradeGaiaManager mManager;
+    /**
+     * <p>The state of this upgrade.</p>
+     */
+    private @State int mState = State.QUEUED;
+    /**
+     * <p>The error which has made this upgrade fail, null if there is none.</p>
+     */
+    private UpgradeError mError = null;
+    /**
+     * <p>The last progress of the file upload, null if the upload has not started.</p>
+     */
+    private UploadProgress mProgress = null;
+    /**
+     * <p>The current step of the upgrade.</p>
+     */
+    private @ResumePoints.Enum int mResumePoint = ResumePoints.Enum.DATA_TRANSFER;
+    /**
+     * <p>The time at which this upgrade has started, -1 if it has not started.</p>
+     */
+    private long mStartTime = -1;
+    /**
+     * <p>The time at which this upgrade has ended, -1 if it has not ended.</p>
+     */
+    private long mEndTime = -1;
+    /**
+     * <p>The number of times the link has been lost during the upgrade.</p>
+     */
+    private int mDisconnections = 0;
+
+    /**
+     * <p>The number of bytes which have been sent to the Device over the link.</p>
+     */
+    private long mBytesSent = 0;
+    /**
+     * <p>The number of bytes which have been received from the Device over the link.</p>
+     */
+    private long mBytesReceived = 0;
+    /**
+     * <p>The number of GAIA packets which have been sent to the Device.</p>
+     */
+    private int mPacketsSent = 0;
+    /**
+     * <p>The number of GAIA packets which have been received from the Device.</p>
+     */
+    private int mPacketsReceived = 0;
+    /**
+     * <p>The time at which the throughput has last been sampled.</p>
+     */
+    private long mSampleTime = 0;
+    /**
+     * <p>The number of bytes which had been sent when the throughput has last been sampled.</p>
+     */
+    private long mSampleBytes = 0;
+    /**
+     * <p>The throughput of the link in bytes per second, as calculated at the last sample.</p>
+     */
+    private double mThroughput = 0;
+
+    /**
+     * <p>The task to attempt a new connection of the link.</p>
+     */
+    private final Runnable mReconnection = new Runnable() {
+        @Override
+        public void run() {
+            mLink.connect(DeviceUpgrade.this);
+        }
+    };
+    /**
+     * <p>The task to end the upgrade when the link could not be connected in time.</p>
+     */
+    private final Runnable mConnectionTimeout = new Runnable() {
+        @Override
+        public void run() {
+            Log.w(TAG, "Connection with " + mLink.getAddress() + " could not be established.");
+            mScheduler.cancel(mReconnection);
+            mManager.reset();
+            // a connection attempt may still be running
+            mLink.disconnect();
+            end(State.FAILED);
+        }
+    };
+    /**
+     * <p>The task to disconnect the link once the Device has been told that the upgrade has ended.</p>
+     */
+    private final Runnable mDisconnection = new Runnable() {
+        @Override
+        public void run() {
+            release();
+        }
+    };
+
+
+    // ====== ENUMS ================================================================================
+
+    /**
+     * <p>All the states of an upgrade.</p>
+     */
+    @IntDef({ State.QUEUED, State.CONNECTING, State.UPGRADING, State.RECONNECTING, State.COMPLETE, State.FAILED,
+            State.CANCELLED })
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface State {
+        /**
+         * <p>The upgrade waits for the orchestrator to start it.</p>
+         */
+        int QUEUED = 0;
+        /**
+         * <p>The link is being connected for the first time.</p>
+         */
+        int CONNECTING = 1;
+        /**
+         * <p>The upgrade is running.</p>
+         */
+        int UPGRADING = 2;
+        /**
+         * <p>The link has been lost - for instance when the Device reboots - and is being connected again.</p>
+         */
+        int RECONNECTING = 3;
+        /**
+         * <p>The Device has committed the new image.</p>
+         */
+        int COMPLETE = 4;
+        /**
+         * <p>The upgrade has failed, see {@link #getError() getError}.</p>
+         */
+        int FAILED = 5;
+        /**
+         * <p>The upgrade has been cancelled.</p>
+         */
+        int CANCELLED = 6;
+    }
+
+
+    // ====== CONSTRUCTOR ==========================================================================
+
+    /**
+     * <p>To build the upgrade of a Device.</p>
+     *
+     * @param orchestrator
+     *          The orchestrator which runs this upgrade.
+     * @param link
+     *          The link with the Device.
+     * @param file
+     *          The file to upgrade the Device with.
+     * @param scheduler
+     *          The scheduler of the orchestrator.
+     */
+    /*package*/ DeviceUpgrade(UpgradeOrchestrator orchestrator, DeviceLink link, File file, Scheduler scheduler) {
+        mOrchestrator = orchestrator;
+        mLink = link;
+        mFile = file;
+        mScheduler = scheduler;
+        mManager = new UpgradeGaiaManager(this, link.getTransport(), scheduler);
+    }
+
+
+    // ====== PUBLIC METHODS =======================================================================
+
+    public DeviceLink getLink() {
+        return mLink;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * <p>To get the manager which runs the VM Upgrade protocol with the Device, in order to configure it before
+     * the upgrade starts.</p>
+     */
+    public UpgradeGaiaManager getManager() {
+        return mManager;
+    }
+
+    public @State int getState() {
+        return mState;
+    }
+
+    /**
+     * <p>To know if this upgrade has ended, successfully or not.</p>
+     */
+    public boolean hasEnded() {
+        return mState == State.COMPLETE || mState == State.FAILED || mState == State.CANCELLED;
+    }
+
+    /**
+     * <p>To get the error which has made this upgrade fail.</p>
+     *
+     * @return the error or null if there is none or if the link with the Device could not be established.
+     */
+    public UpgradeError getError() {
+        return mError;
+    }
+
+    public UploadProgress getProgress() {
+        return mProgress;
+    }
+
+    public @ResumePoints.Enum int getResumePoint() {
+        return mResumePoint;
+    }
+
+    public int getDisconnections() {
+        return mDisconnections;
+    }
+
+    /**
+     * <p>To get the time in ms this upgrade has been running, or has run if it has ended.</p>
+     */
+    public long getDuration() {
+        return mStartTime < 0 ? 0 : (mEndTime < 0 ? mScheduler.now() : mEndTime) - mStartTime;
+    }
+
+    public long getBytesSent() {
+        return mBytesSent;
+    }
+
+    public long getBytesReceived() {
+        return mBytesReceived;
+    }
+
+    public int getPacketsSent() {
+        return mPacketsSent;
+    }
+
+    public int getPacketsReceived() {
+        return mPacketsReceived;
+    }
+
+    /**
+     * <p>To get the number of bytes per second sent to the Device during the last reporting interval of the
+     * orchestrator.</p>
+     */
+    public double getThroughput() {
+        return mThroughput;
+    }
+
+    /**
+     * <p>To get the number of bytes per second sent to the Device since the upgrade has started.</p>
+     */
+    public double getAverageThroughput() {
+        long duration = getDuration();
+        return duration > 0 ? mBytesSent * 1000.0 / duration : 0;
+    }
+
+
+    // ====== PACKAGE METHODS ======================================================================
+
+    /**
+     * <p>To start this upgrade by connecting its link.</p>
+     */
+    /*package*/ void start() {
+        if (mState != State.QUEUED) {
+            return;
+        }
+        mStartTime = mScheduler.now();
+        mSampleTime = mStartTime;
+        setState(State.CONNECTING);
+        mScheduler.schedule(mConnectionTimeout, CONNECTION_TIMEOUT);
+        mLink.connect(this);
+    }
+
+    /**
+     * <p>To cancel this upgrade: the Device is told to abort the upgrade if it is running.</p>
+     */
+    /*package*/ void cancel() {
+        if (hasEnded()) {
+            return;
+        }
+        boolean wasUpgrading = mState == State.UPGRADING;
+        mScheduler.cancel(mReconnection);
+        mScheduler.cancel(mConnectionTimeout);
+        if (wasUpgrading) {
+            mManager.abortUpgrade();
+            mScheduler.schedule(mDisconnection, DISCONNECTION_DELAY);
+        }
+        else {
+            mManager.reset();
+            if (mState != State.QUEUED) {
+                mLink.disconnect();
+            }
+        }
+        end(State.CANCELLED);
+    }
+
+    /**
+     * <p>To release the resources of this upgrade once it has ended: the manager drops its pending requests - and
+     * their slots within its request scheduler - and the link is disconnected.</p>
+     */
+    private void release() {
+        mManager.reset();
+        mLink.disconnect();
+    }
+
+    /**
+     * <p>To calculate the throughput of the link since the last sample.</p>
+     *
+     * @param now
+     *          The current time.
+     */
+    /*package*/ void sample(long now) {
+        long elapsed = now - mSampleTime;
+        if (elapsed > 0) {
+            mThroughput = (mBytesSent - mSampleBytes) * 1000.0 / elapsed;
+            mSampleTime = now;
+            mSampleBytes = mBytesSent;
+        }
+    }
+
+
+    // ====== DeviceLink.Listener ==================================================================
+
+    @Override // DeviceLink.Listener
+    public void onLinkConnected() {
+        switch (mState) {
+            case State.CONNECTING:
+                mScheduler.cancel(mConnectionTimeout);
+                setState(State.UPGRADING);
+                mManager.startUpgrade(mFile);
+                break;
+            case State.RECONNECTING:
+                mScheduler.cancel(mConnectionTimeout);
+                setState(State.UPGRADING);
+                mManager.onGaiaReady();
+                break;
+        }
+    }
+
+    @Override // DeviceLink.Listener
+    public void onLinkDisconnected() {
+        switch (mState) {
+            case State.UPGRADING:
+                mDisconnections++;
+                mManager.reset();
+                setState(State.RECONNECTING);
+                mScheduler.schedule(mConnectionTimeout, CONNECTION_TIMEOUT);
+                mScheduler.schedule(mReconnection, RECONNECTION_DELAY);
+                break;
+            case State.CONNECTING:
+            case State.RECONNECTING:
+                // the connection attempt has failed, the timeout is still running
+                mScheduler.schedule(mReconnection, RECONNECTION_DELAY);
+                break;
+            case State.COMPLETE:
+            case State.FAILED:
+            case State.CANCELLED:
+                // the link has been lost before the Device could acknowledge the end of the upgrade
+                mScheduler.cancel(mDisconnection);
+                release();
+                break;
+        }
+    }
+
+    @Override // DeviceLink.Listener
+    public void onPacketReceived(byte[] packet) {
+        mBytesReceived += packet.length;
+        mPacketsReceived++;
+        mManager.onReceiveGAIAPacket(packet);
+    }
+
+
+    // ====== UpgradeGaiaManager.GaiaManagerListener ===============================================
+
+    @Override // UpgradeGaiaManager.GaiaManagerListener
+    public void onVMUpgradeDisconnected() {
+        if (hasEnded()) {
+            // the Device has acknowledged the end of the upgrade
+            mScheduler.cancel(mDisconnection);
+            release();
+        }
+    }
+
+    @Override // UpgradeGaiaManager.GaiaManagerListener
+    public void onResumePointChanged(@ResumePoints.Enum int point) {
+        mResumePoint = point;
+    }
+
+    @Override // UpgradeGaiaManager.GaiaManagerListener
+    public void onUpgradeError(UpgradeError error) {
+        Log.w(TAG, "Upgrade of " + mLink.getAddress() + " failed: " + error.getString());
+        if (hasEnded()) {
+            return;
+        }
+        mError = error;
+        mScheduler.cancel(mReconnection);
+        mScheduler.cancel(mConnectionTimeout);
+        // the manager aborts the upgrade with the Device before the link is disconnected
+        mScheduler.schedule(mDisconnection, DISCONNECTION_DELAY);
+        end(State.FAILED);
+    }
+
+    @Override // UpgradeGaiaManager.GaiaManagerListener
+    public void onUploadProgress(UploadProgress progress) {
+        mProgress = progress;
+        mOrchestrator.onUploadProgress(this, progress);
+    }
+
+    @Override // UpgradeGaiaManager.GaiaManagerListener
+    public boolean sendGAIAUpgradePacket(byte[] packet) {
+        boolean sent = mLink.send(packet);
+        if (sent) {
+            mBytesSent += packet.length;
+            mPacketsSent++;
+        }
+        return sent;
+    }
+
+    @Override // UpgradeGaiaManager.GaiaManagerListener
+    public void onUpgradeFinish() {
+        mScheduler.schedule(mDisconnection, DISCONNECTION_DELAY);
+        end(State.COMPLETE);
+    }
+
+    @Override // UpgradeGaiaManager.GaiaManagerListener
+    public void askConfirmation(@UpgradeManager.ConfirmationType int type) {
+        if (type == UpgradeManager.ConfirmationType.BATTERY_LOW_ON_DEVICE) {
+            mManager.sendConfirmation(type, false);
+            onUpgradeError(new UpgradeError(UpgradeError.ErrorTypes.RECEIVED_ERROR_FROM_BOARD,
+                    ReturnCodes.Enum.ERROR_BATTERY_LOW));
+        }
+        else {
+            mManager.sendConfirmation(type, true);
+        }
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    /**
+     * <p>To define the state of this upgrade and to inform the orchestrator.</p>
+     */
+    private void setState(@State int state) {
+        mState = state;
+        mOrchestrator.onStateChanged(this);
+    }
+
+    /**
+     * <p>To end this upgrade with the given state.</p>
+     */
+    private void end(@State int state) {
+        mEndTime = mScheduler.now();
+        sample(mEndTime);
+        setState(state);
+    }
+
+    @Override // Object
+    public String toString() {
+        return mLink.getAddress() + " [state=" + mState + ", sent=" + mBytesSent + " bytes]";
+    }
+}
@@ -0,0 +1,119 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.gaiacontrol.fleet;
+
+/**
+ * <p>This class is a snapshot of the upgrades run by an {@link UpgradeOrchestrator UpgradeOrchestrator}: how many
+ * upgrades are in each state and the throughput of all the links together.</p>
+ * <p>All times are in ms and all throughputs in bytes per second.</p>
+ */
+@SuppressWarnings("unused")
+public class FleetStatistics {
+
+    // ====== PRIVATE FIELDS =======================================================================
+
+    private final long mElapsedTime;
+    private final int mQueued;
+    private final int mActive;
+    private final int mComplete;
+    private final int mFailed;
+    private final int mCancelled;
+    private final long mBytesSent;
+    private final double mThroughput;
+
+
+    // ====== CONSTRUCTOR ==========================================================================
+
+    /**
+     * <p>To build a snapshot of the upgrades of a fleet.</p>
+     *
+     * @param elapsedTime
+     *          The time since the orchestrator has started.
+     * @param queued
+     *          The number of upgrades which have not started yet.
+     * @param active
+     *          The number of upgrades which are running.
+     * @param complete
+     *          The number of upgrades which have succeeded.
+     * @param failed
+     *          The number of upgrades which have failed.
+     * @param cancelled
+     *          The number of upgrades which have been cancelled.
+     * @param bytesSent
+     *          The number of bytes sent over all the links.
+     * @param throughput
+     *          The throughput of all the links together during the last reporting interval.
+     */
+    /*package*/ FleetStatistics(long elapsedTime, int queued, int active, int complete, int failed, int cancelled,
+                                long bytesSent, double throughput) {
+        mElapsedTime = elapsedTime;
+        mQueued = queued;
+        mActive = active;
+        mComplete = complete;
+        mFailed = failed;
+        mCancelled = cancelled;
+        mBytesSent = bytesSent;
+        mThroughput = throughput;
+    }
+
+
+    // ====== PUBLIC METHODS =======================================================================
+
+    public long getElapsedTime() {
+        return mElapsedTime;
+    }
+
+    public int getQueued() {
+        return mQueued;
+    }
+
+    public int getActive() {
+        return mActive;
+    }
+
+    public int getComplete() {
+        return mComplete;
+    }
+
+    public int getFailed() {
+        return mFailed;
+    }
+
+    public int getCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * <p>To get the total number of upgrades run by the orchestrator.</p>
+     */
+    public int getTotal() {
+        return mQueued + mActive + mComplete + mFailed + mCancelled;
+    }
+
+    public long getBytesSent() {
+        return mBytesSent;
+    }
+
+    /**
+     * <p>To get the throughput of all the links together during the last reporting interval.</p>
+     */
+    public double getThroughput() {
+        return mThroughput;
+    }
+
+    /**
+     * <p>To get the throughput of all the links together since the orchestrator has started.</p>
+     */
+    public double getAverageThroughput() {
+        return mElapsedTime > 0 ? mBytesSent * 1000.0 / mElapsedTime : 0;
+    }
+
+    @Override // Object
+    public String toString() {
+        return "queued=" + mQueued + ", active=" + mActive + ", complete=" + mComplete + ", failed=" + mFailed
+                + ", cancelled=" + mCancelled + ", sent=" + mBytesSent + " bytes, throughput="
+                + Math.round(mThroughput) + " B/s";
+    }
+}
@@ -0,0 +1,441 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.gaiacontrol.fleet;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.qualcomm.libraries.gaia.GaiaReadCache;
+import com.qualcomm.libraries.gaia.GaiaRequestScheduler;
+import com.qualcomm.libraries.scheduler.HandlerScheduler;
+import com.qualcomm.libraries.scheduler.Scheduler;
+import com.qualcomm.libraries.vmupgrade.UploadProgress;
+import com.qualcomm.libraries.vmupgrade.image.ImageDigestCache;
+import com.qualcomm.libraries.vmupgrade.image.ImagePreflightAnalyser;
+import com.qualcomm.libraries.vmupgrade.journal.TransferCheckpoints;
+import com.qualcomm.libraries.vmupgrade.retry.ReadinessCache;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * <p>This class upgrades several Devices at the same time, for instance on a production line.</p>
+ * <p>Each Device is upgraded by a {@link DeviceUpgrade DeviceUpgrade} which has its own {@link DeviceLink
+ * DeviceLink} and its own VM Upgrade state machine. The upgrades are started in the order they have been
+ * {@link #add(DeviceLink, File) added}, and no more than {@link #setMaxConcurrentUpgrades(int)
+ * setMaxConcurrentUpgrades} upgrades run at the same time: a new one starts each time one ends.</p>
+ * <p>While upgrades are running, the {@link OrchestratorListener OrchestratorListener} gets the throughput of each
+ * link and of the whole fleet every {@link #REPORT_INTERVAL REPORT_INTERVAL} ms.</p>
+ * <p>All the calls to this orchestrator and to its upgrades have to be made on the thread on which the
+ * {@link Scheduler Scheduler} runs its tasks.</p>
+ */
+@SuppressWarnings("unused")
+public class UpgradeOrchestrator {
+
+    // ====== CONSTS FIELDS =======================================================================
+
+    /**
+     * <p>The default maximum number of upgrades which run at the same time.</p>
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_UPGRADES = 4;
+    /**
+     * <p>The time in ms between two reports of the fleet throughput.</p>
+     */
+    public static final long REPORT_INTERVAL = 1000;
+
+
+    // ====== PRIVATE FIELDS =======================================================================
+
+    /**
+     * <p>The tag to display for logs.</p>
+     */
+    private final String TAG = "UpgradeOrchestrator";
+    /**
+     * <p>The listener which is informed about the upgrades.</p>
+     */
+    private final OrchestratorListener mListener;
+    /**
+     * <p>The scheduler shared by all the upgrades.</p>
+     */
+    private final Scheduler mScheduler;
+    /**
+     * <p>All the upgrades in the order they have been added.</p>
+     */
+    private final List<DeviceUpgrade> mUpgrades = new ArrayList<>();
+    /**
+     * <p>The upgrades which have not started yet.</p>
+     */
+    private final Queue<DeviceUpgrade> mQueue = new ArrayDeque<>();
+    /**
+     * <p>The upgrades which are running.</p>
+     */
+    private final List<DeviceUpgrade> mActive = new ArrayList<>();
+    /**
+     * <p>The maximum number of upgrades which run at the same time.</p>
+     */
+    private int mMaxConcurrentUpgrades = DEFAULT_MAX_CONCURRENT_UPGRADES;
+    /**
+     * <p>The cache shared by the upgrades for the digests of their files, can be null.</p>
+     */
+    private ImageDigestCache mDigestCache;
+    /**
+     * <p>The analyser shared by the upgrades for the pre-flight analysis of their files, can be null.</p>
+     */
+    private ImagePreflightAnalyser mPreflightAnalyser;
+    /**
+     * <p>The cache shared by the upgrades to learn how long each Device takes to be ready, can be null.</p>
+     */
+    private ReadinessCache mReadinessCache;
+    /**
+     * <p>The store shared by the upgrades to record what each Device has received of its image, can be null.</p>
+     */
+    private TransferCheckpoints mCheckpoints;
+    /**
+     * <p>To know if the upgrades are being dispatched.</p>
+     */
+    private boolean isRunning = false;
+    /**
+     * <p>The time at which the orchestrator has started.</p>
+     */
+    private long mStartTime = 0;
+    /**
+     * <p>The time of the last report.</p>
+     */
+    private long mReportTime = 0;
+    /**
+     * <p>The number of bytes sent over all the links at the time of the last report.</p>
+     */
+    private long mReportBytes = 0;
+    /**
+     * <p>The throughput of all the links during the last reporting interval.</p>
+     */
+    private double mThroughput = 0;
+    /**
+     * <p>The task which reports the throughput of the links.</p>
+     */
+    private final Runnable mReport = new Runnable() {
+        @Override
+        public void run() {
+            report();
+            if (isRunning) {
+                mScheduler.schedule(mReport, REPORT_INTERVAL);
+            }
+        }
+    };
+
+
+    // ====== CONSTRUCTORS =========================================================================
+
+    /**
+     * <p>To build an orchestrator which runs on the Looper of the calling thread.</p>
+     *
+     * @param listener
+     *          The listener to inform about the upgrades.
+     */
+    public UpgradeOrchestrator(@NonNull OrchestratorListener listener) {
+        this(listener, new HandlerScheduler());
+    }
+
+    /**
+     * <p>To build an orchestrator which uses the given scheduler for itself and all its upgrades.</p>
+     *
+     * @param listener
+     *          The listener to inform about the upgrades.
+     * @param scheduler
+     *          The scheduler to run the delayed tasks and to measure the time.
+     */
+    public UpgradeOrchestrator(@NonNull OrchestratorListener listener, @NonNull Scheduler scheduler) {
+        mListener = listener;
+        mScheduler = scheduler;
+    }
+
+
+    // ====== PUBLIC METHODS =======================================================================
+
+    /**
+     * <p>To define the maximum number of upgrades which run at the same time. If the limit is lowered while
+     * upgrades are running, they are not stopped: no upgrade starts until the number of running upgrades is below
+     * the new limit.</p>
+     *
+     * @param max
+     *          The maximum number of upgrades, any value lower than 1 is considered as 1.
+     */
+    public void setMaxConcurrentUpgrades(int max) {
+        mMaxConcurrentUpgrades = max < 1 ? 1 : max;
+        dispatch();
+    }
+
+    public int getMaxConcurrentUpgrades() {
+        return mMaxConcurrentUpgrades;
+    }
+
+    /**
+     * <p>To define the cache for the digests of the upgrade files. When all the Devices are upgraded with the same
+     * file, its digest is only computed once.</p>
+     *
+     * @param cache
+     *          The cache to use, null to not use any cache.
+     */
+    public void setDigestCache(ImageDigestCache cache) {
+        mDigestCache = cache;
+    }
+
+    /**
+     * <p>To define the analyser which has run the pre-flight analysis of the upgrade files. The upgrades of an
+     * analysed file start without reading the file.</p>
+     *
+     * @param analyser
+     *          The analyser to use, null to analyse the file when each upgrade starts.
+     */
+    public void setPreflightAnalyser(ImagePreflightAnalyser analyser) {
+        mPreflightAnalyser = analyser;
+    }
+
+    /**
+     * <p>To define the cache which learns how long each Device takes to be ready for an upgrade. The Devices are
+     * identified by their address.</p>
+     *
+     * @param cache
+     *          The cache to use, null to not use any cache.
+     */
+    public void setReadinessCache(ReadinessCache cache) {
+        mReadinessCache = cache;
+    }
+
+    /**
+     * <p>To define the store which records what each Device has received of its image, so that the upgrade of a
+     * Device which is added again continues from where the Device is. The Devices are identified by their
+     * address.</p>
+     *
+     * @param checkpoints
+     *          The store to use, null to not record the checkpoints.
+     */
+    public void setCheckpoints(TransferCheckpoints checkpoints) {
+        mCheckpoints = checkpoints;
+    }
+
+    /**
+     * <p>To add the upgrade of a Device. If the orchestrator is running, the upgrade starts as soon as the limit of
+     * concurrent upgrades allows it.</p>
+     *
+     * @param link
+     *          The link with the Device.
+     * @param file
+     *          The file to upgrade the Device with.
+     *
+     * @return the upgrade of the Device, its manager can be configured as long as the upgrade is
+     * {@link DeviceUpgrade.State#QUEUED QUEUED}.
+     */
+    public DeviceUpgrade add(@NonNull DeviceLink link, @NonNull File file) {
+        DeviceUpgrade upgrade = new DeviceUpgrade(this, link, file, mScheduler);
+        // each Device has its own link: its requests do not wait for the requests of the other Devices
+        upgrade.getManager().setRequestScheduler(new GaiaRequestScheduler(GaiaRequestScheduler.DEFAULT_MAX_IN_FLIGHT));
+        // and its reads are not answered with the values of the other Devices
+        upgrade.getManager().setReadCache(new GaiaReadCache());
+        upgrade.getManager().setDigestCache(mDigestCache);
+        upgrade.getManager().setPreflightAnalyser(mPreflightAnalyser);
+        upgrade.getManager().setReadinessCache(mReadinessCache, link.getAddress());
+        upgrade.getManager().setCheckpoints(mCheckpoints, link.getAddress());
+        mUpgrades.add(upgrade);
+        mQueue.add(upgrade);
+        dispatch();
+        return upgrade;
+    }
+
+    /**
+     * <p>To start the upgrades which have been added and the ones which will be added.</p>
+     */
+    public void start() {
+        if (isRunning) {
+            return;
+        }
+        isRunning = true;
+        mStartTime = mScheduler.now();
+        mReportTime = mStartTime;
+        mReportBytes = getBytesSent();
+        mScheduler.schedule(mReport, REPORT_INTERVAL);
+        dispatch();
+        checkFinished();
+    }
+
+    /**
+     * <p>To cancel an upgrade. A running upgrade is aborted with its Device.</p>
+     */
+    public void cancel(DeviceUpgrade upgrade) {
+        mQueue.remove(upgrade);
+        upgrade.cancel();
+    }
+
+    /**
+     * <p>To cancel all the upgrades which have not ended.</p>
+     */
+    public void cancelAll() {
+        // the queued upgrades are removed first so that no new upgrade is dispatched
+        List<DeviceUpgrade> queued = new ArrayList<>(mQueue);
+        mQueue.clear();
+        for (DeviceUpgrade upgrade : queued) {
+            upgrade.cancel();
+        }
+        for (DeviceUpgrade upgrade : new ArrayList<>(mActive)) {
+            upgrade.cancel();
+        }
+    }
+
+    /**
+     * <p>To know if the orchestrator has been started and has upgrades which have not ended.</p>
+     */
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    /**
+     * <p>To get all the upgrades in the order they have been added.</p>
+     */
+    public List<DeviceUpgrade> getUpgrades() {
+        return Collections.unmodifiableList(mUpgrades);
+    }
+
+    /**
+     * <p>To get a snapshot of the upgrades of the fleet.</p>
+     */
+    public FleetStatistics getStatistics() {
+        int complete = 0, failed = 0, cancelled = 0;
+        for (DeviceUpgrade upgrade : mUpgrades) {
+            switch (upgrade.getState()) {
+                case DeviceUpgrade.State.COMPLETE:
+                    complete++;
+                    break;
+                case DeviceUpgrade.State.FAILED:
+                    failed++;
+                    break;
+                case DeviceUpgrade.State.CANCELLED:
+                    cancelled++;
+                    break;
+            }
+        }
+        long elapsed = isRunning ? mScheduler.now() - mStartTime : mReportTime - mStartTime;
+        return new FleetStatistics(elapsed, mQueue.size(), mActive.size(), complete, failed, cancelled, getBytesSent(),
+                mThroughput);
+    }
+
+
+    // ====== PACKAGE METHODS ======================================================================
+
+    /**
+     * <p>This method is called by an upgrade when its state has changed.</p>
+     */
+    /*package*/ void onStateChanged(DeviceUpgrade upgrade) {
+        if (upgrade.hasEnded()) {
+            mQueue.remove(upgrade);
+            mActive.remove(upgrade);
+        }
+        mListener.onUpgradeStateChanged(upgrade);
+        if (upgrade.hasEnded()) {
+            dispatch();
+            checkFinished();
+        }
+    }
+
+    /**
+     * <p>This method is called by an upgrade when the progress of its file upload has changed.</p>
+     */
+    /*package*/ void onUploadProgress(DeviceUpgrade upgrade, UploadProgress progress) {
+        mListener.onUploadProgress(upgrade, progress);
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    /**
+     * <p>To start the queued upgrades within the limit of concurrent upgrades.</p>
+     */
+    private void dispatch() {
+        while (isRunning && mActive.size() < mMaxConcurrentUpgrades && !mQueue.isEmpty()) {
+            DeviceUpgrade upgrade = mQueue.poll();
+            mActive.add(upgrade);
+            upgrade.start();
+        }
+    }
+
+    /**
+     * <p>To end the orchestrator once all its upgrades have ended.</p>
+     */
+    private void checkFinished() {
+        if (isRunning && mActive.isEmpty() && mQueue.isEmpty()) {
+            mScheduler.cancel(mReport);
+            report();
+            isRunning = false;
+            FleetStatistics statistics = getStatistics();
+            Log.i(TAG, "All upgrades have ended: " + statistics);
+            mListener.onFleetFinished(statistics);
+        }
+    }
+
+    /**
+     * <p>To calculate the throughput of each running link and of the whole fleet since the last report, and to
+     * give them to the listener.</p>
+     */
+    private void report() {
+        long now = mScheduler.now();
+        for (DeviceUpgrade upgrade : mActive) {
+            upgrade.sample(now);
+        }
+        long bytes = getBytesSent();
+        long elapsed = now - mReportTime;
+        if (elapsed > 0) {
+            mThroughput = (bytes - mReportBytes) * 1000.0 / elapsed;
+            mReportTime = now;
+            mReportBytes = bytes;
+        }
+        mListener.onFleetProgress(getStatistics());
+    }
+
+    /**
+     * <p>To get the number of bytes sent over all the links.</p>
+     */
+    private long getBytesSent() {
+        long bytes = 0;
+        for (DeviceUpgrade upgrade : mUpgrades) {
+            bytes += upgrade.getBytesSent();
+        }
+        return bytes;
+    }
+
+
+    // ====== INTERFACES ===========================================================================
+
+    /**
+     * <p>The listener which is informed about the upgrades run by an {@link UpgradeOrchestrator
+     * UpgradeOrchestrator}.</p>
+     */
+    public interface OrchestratorListener {
+        /**
+         * <p>This method is called when an upgrade has changed its state, see {@link DeviceUpgrade.State
+         * State}.</p>
+         */
+        void onUpgradeStateChanged(DeviceUpgrade upgrade);
+
+        /**
+         * <p>This method is called when the progress of the file upload of an upgrade has changed.</p>
+         */
+        void onUploadProgress(DeviceUpgrade upgrade, UploadProgress progress);
+
+        /**
+         * <p>This method is called every {@link UpgradeOrchestrator#REPORT_INTERVAL REPORT_INTERVAL} ms while
+         * upgrades are running with the throughput of the fleet. The throughput of each link is given by
+         * {@link DeviceUpgrade#getThroughput() getThroughput}.</p>
+         */
+        void onFleetProgress(FleetStatistics statistics);
+
+        /**
+         * <p>This method is called once all the upgrades have ended.</p>
+         */
+        void onFleetFinished(FleetStatistics statistics);
+    }
+}
@@ -5,10 +5,12 @@
 package com.qualcomm.gaiacontrol.gaia;
 
 import com.qualcomm.libraries.gaia.GAIA;
+import com.qualcomm.libraries.gaia.GaiaException;
 import com.qualcomm.libraries.gaia.GaiaManager;
 import com.qualcomm.libraries.gaia.packets.GaiaPacket;
 import com.qualcomm.libraries.gaia.packets.GaiaPacketBLE;
 import com.qualcomm.libraries.gaia.packets.GaiaPacketBREDR;
+import com.qualcomm.libraries.scheduler.Scheduler;
 
 /**
  * <p>This abstract class defines generic methods to create GAIA packets depending on the transport type.</p>
@@ -28,6 +30,11 @@ import com.qualcomm.libraries.gaia.packets.GaiaPacketBREDR;
      * The vendor to use to create packets
      */
     private final int mVendor = GAIA.VENDOR_QUALCOMM;
+    /**
+     * <p>The maximum length of the payloads the link can carry, as negotiated with the device. The packets written
+     * with {@link #writePacket(byte[], int, int) writePacket} are checked against it.</p>
+     */
+    private int mMaxPayloadLength;
 
     /**
      * <p>Constructor of the class.</p>
@@ -38,6 +45,22 @@ import com.qualcomm.libraries.gaia.packets.GaiaPacketBREDR;
      */
     /*package*/ AGaiaManager(@GAIA.Transport int transportType) {
         super(transportType);
+        mMaxPayloadLength = getDefaultMaxPayloadLength(transportType);
+        showDebugLogs(false); // when needed the child managers can activate this to display more logs
+    }
+
+    /**
+     * <p>Constructor of the class which defines the scheduler to run the delayed tasks.</p>
+     *
+     * @param transportType
+     *          The type of Bluetooth transport to use with this manager. It should be one of the transports defined in
+     *          {@link com.qualcomm.libraries.gaia.GAIA.Transport Transport}.
+     * @param scheduler
+     *          The scheduler to run the delayed tasks of this manager.
+     */
+    /*package*/ AGaiaManager(@GAIA.Transport int transportType, Scheduler scheduler) {
+        super(transportType, scheduler);
+        mMaxPayloadLength = getDefaultMaxPayloadLength(transportType);
         showDebugLogs(false); // when needed the child managers can activate this to display more logs
     }
 
@@ -80,4 +103,79 @@ import com.qualcomm.libraries.gaia.packets.GaiaPacketBREDR;
                 new GaiaPacketBLE(mVendor, command, payload)
                 : new GaiaPacketBREDR(mVendor, command, payload, hasChecksum);
     }
+
+    /**
+     * <p>To get the number of bytes which precede the payload in a GAIA packet for the transport of this
+     * manager.</p>
+     *
+     * @return the offset of the payload in a GAIA packet.
+     */
+    /*package*/ int getPacketHeaderLength() {
+        return getTransportType() == GAIA.Transport.BLE ? GaiaPacketBLE.OFFSET_PAYLOAD
+                : GaiaPacketBREDR.OFFSET_PAYLOAD;
+    }
+
+    /**
+     * <p>To get the number of bytes which follow the payload in a GAIA packet for the transport of this
+     * manager.</p>
+     *
+     * @return the number of bytes after the payload in a GAIA packet.
+     */
+    /*package*/ int getPacketTrailerLength() {
+        return getTransportType() == GAIA.Transport.BR_EDR && hasChecksum ? GaiaPacketBREDR.CHECK_LENGTH : 0;
+    }
+
+    /**
+     * <p>To get the maximum length of the payloads the link can carry.</p>
+     *
+     * @return the length given to {@link #setLinkMaxPayloadLength(int) setLinkMaxPayloadLength} or, if it has not
+     * been called, the payload length any link of the transport can carry.
+     */
+    /*package*/ int getLinkMaxPayloadLength() {
+        return mMaxPayloadLength;
+    }
+
+    /**
+     * <p>To define the maximum length of the payloads the link can carry, as negotiated with the device - for
+     * instance from the ATT MTU over BLE.</p>
+     *
+     * @param length
+     *          The maximum payload length, it is reduced to the maximum payload of the transport of this manager.
+     */
+    /*package*/ void setLinkMaxPayloadLength(int length) {
+        int max = getTransportType() == GAIA.Transport.BLE ? GaiaPacketBLE.MAX_EXTENDED_PAYLOAD
+                : GaiaPacketBREDR.MAX_PAYLOAD;
+        mMaxPayloadLength = length < max ? length : max;
+    }
+
+    /**
+     * <p>To write the GAIA fields of a packet around a payload which has already been written in the given array
+     * at {@link #getPacketHeaderLength() getPacketHeaderLength}.</p>
+     * <p>Over BLE the payload is checked against the {@link #setLinkMaxPayloadLength(int) length negotiated} with the
+     * device: a packet longer than the ATT MTU would not reach it.</p>
+     *
+     * @param packet
+     *          The array which contains the payload.
+     * @param command
+     *          The GAIA command to put in the GAIA packet.
+     * @param payloadLength
+     *          The number of bytes of the payload.
+     *
+     * @throws GaiaException if the payload is too long for the transport.
+     */
+    /*package*/ void writePacket(byte[] packet, int command, int payloadLength) throws GaiaException {
+        if (getTransportType() == GAIA.Transport.BLE) {
+            GaiaPacketBLE.writeFrame(packet, mVendor, command, payloadLength, mMaxPayloadLength);
+        }
+        else {
+            GaiaPacketBREDR.writeFrame(packet, mVendor, command, payloadLength, hasChecksum);
+        }
+    }
+
+    /**
+     * <p>To get the payload length any link of the given transport can carry.</p>
+     */
+    private static int getDefaultMaxPayloadLength(@GAIA.Transport int transport) {
+        return transport == GAIA.Transport.BLE ? GaiaPacketBLE.MAX_PAYLOAD : GaiaPacketBREDR.MAX_PAYLOAD;
+    }
 }
@@ -13,10 +13,21 @@ import com.qualcomm.libraries.gaia.GaiaException;
 import com.qualcomm.libraries.gaia.packets.GaiaPacket;
 import com.qualcomm.libraries.gaia.packets.GaiaPacketBLE;
 import com.qualcomm.libraries.gaia.packets.GaiaPacketBREDR;
+import com.qualcomm.libraries.scheduler.HandlerScheduler;
+import com.qualcomm.libraries.scheduler.Scheduler;
+import com.qualcomm.libraries.vmupgrade.RetryStatistics;
 import com.qualcomm.libraries.vmupgrade.UpgradeError;
 import com.qualcomm.libraries.vmupgrade.UpgradeManager;
 import com.qualcomm.libraries.vmupgrade.UploadProgress;
 import com.qualcomm.libraries.vmupgrade.codes.ResumePoints;
+import com.qualcomm.libraries.vmupgrade.image.ImageDigestCache;
+import com.qualcomm.libraries.vmupgrade.image.ImageDigester;
+import com.qualcomm.libraries.vmupgrade.image.ImagePreflightAnalyser;
+import com.qualcomm.libraries.vmupgrade.journal.TransferCheckpoints;
+import com.qualcomm.libraries.vmupgrade.journal.UpgradeJournal;
+import com.qualcomm.libraries.vmupgrade.retry.ReadinessCache;
+import com.qualcomm.libraries.vmupgrade.retry.RetryPolicy;
+import com.qualcomm.libraries.vmupgrade.timeline.UpgradeTimeline;
 
 import java.io.File;
 
@@ -25,7 +36,8 @@ import java.io.File;
  * order to process an upgrade using the VM Upgrade protocol.</p>
  * <p>For all GAIA commands used in this class, the Vendor ID is always {@link GAIA#VENDOR_QUALCOMM}.</p>
  */
-public class UpgradeGaiaManager extends AGaiaManager implements UpgradeManager.UpgradeManagerListener {
+public class UpgradeGaiaManager extends AGaiaManager implements UpgradeManager.UpgradeManagerListener,
+        UpgradeManager.UpgradeFrameListener {
 
     // ====== PRIVATE FIELDS =======================================================================
 
@@ -58,11 +70,31 @@ public class UpgradeGaiaManager extends AGaiaManager implements UpgradeManager.U
      *          {@link com.qualcomm.libraries.gaia.GAIA.Transport#BR_EDR BR/EDR}.
      */
     public UpgradeGaiaManager(GaiaManagerListener myListener, @GAIA.Transport int transport) {
-        super(transport);
+        this(myListener, transport, new HandlerScheduler());
+    }
+
+    /**
+     * <p>Constructor of this class which defines the scheduler used by this manager and its
+     * {@link UpgradeManager UpgradeManager} to run their delayed tasks. This allows the upgrade to run on a plain
+     * JVM or under a virtual clock, see {@link Scheduler Scheduler}.</p>
+     *
+     * @param myListener
+     *         An object which implements the {@link GaiaManagerListener MyGaiaManagerListener} interface.
+     * @param transport
+     *          The type of transport this manager should use for the GAIA packet format:
+     *          {@link com.qualcomm.libraries.gaia.GAIA.Transport#BLE BLE} or
+     *          {@link com.qualcomm.libraries.gaia.GAIA.Transport#BR_EDR BR/EDR}.
+     * @param scheduler
+     *          The scheduler to run the delayed tasks.
+     */
+    public UpgradeGaiaManager(GaiaManagerListener myListener, @GAIA.Transport int transport, Scheduler scheduler) {
+        super(transport, scheduler);
         this.mListener = myListener;
-        int packetLength = transport == GAIA.Transport.BR_EDR ? GaiaPacketBREDR.MAX_PAYLOAD : GaiaPacketBLE.MAX_PAYLOAD;
-        mUpgradeManager = new UpgradeManager(this, packetLength);
+        mUpgradeManager = new UpgradeManager(this, getMaxPacketLength(transport), scheduler);
         mUpgradeManager.showDebugLogs(Consts.DEBUG);
+        mUpgradeManager.setFrameListener(this);
+        mUpgradeManager.setWindowSize(Consts.UPGRADE_DATA_WINDOW_SIZE);
+        mUpgradeManager.setProgressMaxRate(Consts.UPGRADE_PROGRESS_MAX_RATE);
     }
 
 
@@ -83,6 +115,173 @@ public class UpgradeGaiaManager extends AGaiaManager implements UpgradeManager.U
         }
     }
 
+    /**
+     * <p>To define how many VM Upgrade data packets can be sent to the device before receiving their
+     * acknowledgement. A window of 1 waits for each packet to be acknowledged before sending the next one.</p>
+     * <p>This cannot be changed while an upgrade is processing.</p>
+     *
+     * @param size
+     *          The maximum number of unacknowledged data packets.
+     *
+     * @return true if the window size has been set.
+     */
+    public boolean setWindowSize(int size) {
+        return mUpgradeManager.setWindowSize(size);
+    }
+
+    /**
+     * <p>To define the maximum number of {@link GaiaManagerListener#onUploadProgress(UploadProgress)
+     * onUploadProgress} events per second. The latest progress is delivered at the end of each interval and the end
+     * of the upload is always reported.</p>
+     *
+     * @param rate
+     *          The maximum number of events per second, 0 to get the progress before each data packet.
+     */
+    public void setProgressMaxRate(int rate) {
+        mUpgradeManager.setProgressMaxRate(rate);
+    }
+
+    /**
+     * <p>To define the cache which keeps the digests of the upgrade files, so that the digest of a file which has
+     * already been used does not have to be computed again.</p>
+     *
+     * @param cache
+     *          The cache to use, null to not use any cache.
+     */
+    public void setDigestCache(ImageDigestCache cache) {
+        mUpgradeManager.setDigestCache(cache);
+    }
+
+    /**
+     * <p>To define the analyser which has run the pre-flight analysis of the upgrade files, so that the upgrade of
+     * an analysed file can start without reading the file.</p>
+     *
+     * @param analyser
+     *          The analyser to use, null to analyse the file when the upgrade starts.
+     */
+    public void setPreflightAnalyser(ImagePreflightAnalyser analyser) {
+        mUpgradeManager.setPreflightAnalyser(analyser);
+    }
+
+    /**
+     * <p>To define the digester which computes the identifier of a file which has not been analysed, so that the
+     * upgrade does not block the calling thread while the file is read.</p>
+     *
+     * @param digester
+     *          The digester to use, null to compute the identifier on the calling thread.
+     */
+    public void setImageDigester(ImageDigester digester) {
+        mUpgradeManager.setImageDigester(digester);
+    }
+
+    /**
+     * <p>To get the maximum number of file bytes in a VM upgrade data packet for the given transport. This is the
+     * chunk length to use to analyse an upgrade file with an
+     * {@link ImagePreflightAnalyser ImagePreflightAnalyser}.</p>
+     *
+     * @param transport
+     *          The type of transport: {@link com.qualcomm.libraries.gaia.GAIA.Transport#BLE BLE} or
+     *          {@link com.qualcomm.libraries.gaia.GAIA.Transport#BR_EDR BR/EDR}.
+     *
+     * @return The maximum number of file bytes in a data packet.
+     */
+    public static int getChunkLength(@GAIA.Transport int transport) {
+        return UpgradeManager.getChunkLength(getMaxPacketLength(transport));
+    }
+
+    /**
+     * <p>To define the maximum length of the GAIA payloads the link can carry, as negotiated with the device - for
+     * instance from the ATT MTU over BLE, see {@link GaiaPacketBLE#getMaxPayload(int) getMaxPayload}. The VM
+     * upgrade data packets are built within that length and their length is then adjusted from the latency of their
+     * acknowledgements and from the errors of the link.</p>
+     * <p>This can be called during an upgrade, for instance when the link has been connected again with another
+     * MTU.</p>
+     *
+     * @param length
+     *          The maximum payload length, it is reduced to the maximum payload of the transport of this manager.
+     */
+    public void setMaxPayloadLength(int length) {
+        setLinkMaxPayloadLength(length);
+        mUpgradeManager.setMaxPacketLength(getLinkMaxPayloadLength());
+    }
+
+    /**
+     * <p>To define the journal which records the progress of the upgrade, so that an upgrade interrupted by the end
+     * of the application can be resumed.</p>
+     *
+     * @param journal
+     *          The journal to use, null to not record the upgrade.
+     */
+    public void setJournal(UpgradeJournal journal) {
+        mUpgradeManager.setJournal(journal);
+    }
+
+    /**
+     * <p>To define the timeline which records the protocol events of the upgrade, so that the time spent in each
+     * step can be analysed once the upgrade has ended.</p>
+     *
+     * @param timeline
+     *          The timeline to use, null to not record the upgrade.
+     */
+    public void setTimeline(UpgradeTimeline timeline) {
+        mUpgradeManager.setTimeline(timeline);
+    }
+
+    /**
+     * <p>To define the cache which learns how long the device takes to be ready for an upgrade, so that the
+     * UPGRADE_START_REQ message is sent again when the device is expected to be ready.</p>
+     *
+     * @param cache
+     *          The cache to use, null to not learn the readiness time.
+     * @param address
+     *          The Bluetooth address of the device.
+     */
+    public void setReadinessCache(ReadinessCache cache, String address) {
+        mUpgradeManager.setReadinessCache(cache, address);
+    }
+
+    /**
+     * <p>To define the store which records what the device has received of the image, so that an upgrade which is
+     * started again with the same image continues from where the device is.</p>
+     *
+     * @param checkpoints
+     *          The store to use, null to not record the checkpoints.
+     * @param address
+     *          The Bluetooth address of the device.
+     */
+    public void setCheckpoints(TransferCheckpoints checkpoints, String address) {
+        mUpgradeManager.setCheckpoints(checkpoints, address);
+    }
+
+    /**
+     * <p>To define when the UPGRADE_START_REQ message is sent again while the device is not ready.</p>
+     *
+     * @param policy
+     *          The policy to use, null to use the default one.
+     */
+    public void setStartRetryPolicy(RetryPolicy policy) {
+        mUpgradeManager.setStartRetryPolicy(policy);
+    }
+
+    /**
+     * <p>To define when the UPGRADE_IS_VALIDATION_DONE_REQ message is sent again while the device validates the
+     * image.</p>
+     *
+     * @param policy
+     *          The policy to use, null to use the default one.
+     */
+    public void setValidationRetryPolicy(RetryPolicy policy) {
+        mUpgradeManager.setValidationRetryPolicy(policy);
+    }
+
+    /**
+     * <p>To get the counters of the retries made during the upgrade while the device was not ready or was
+     * validating the image.</p>
+     */
+    public RetryStatistics getRetryStatistics() {
+        return mUpgradeManager.getRetryStatistics();
+    }
+
     /**
      * <p>To abort an ongoing upgrade.</p>
      */
@@ -119,6 +318,28 @@ public class UpgradeGaiaManager extends AGaiaManager implements UpgradeManager.U
         sendUpgradeControl(bytes);
     }
 
+    @Override // UpgradeManager.UpgradeFrameListener
+    public int getFrameHeaderLength() {
+        return getPacketHeaderLength();
+    }
+
+    @Override // UpgradeManager.UpgradeFrameListener
+    public int getFrameTrailerLength() {
+        return getPacketTrailerLength();
+    }
+
+    @Override // UpgradeManager.UpgradeFrameListener
+    public void sendUpgradeFrame(byte[] frame, int packetLength) {
+        try {
+            writePacket(frame, GAIA.COMMAND_VM_UPGRADE_CONTROL, packetLength);
+            createRequest(frame);
+        } catch (GaiaException e) {
+            Log.e(TAG, e.getMessage());
+            // the frame is not sent: it would hold its place within the data window forever
+            mUpgradeManager.receiveUpgradeFrameFailed();
+        }
+    }
+
     @Override // UpgradeManager.UpgradeManagerListener
     public void onUpgradeProcessError(UpgradeError error) {
         mListener.onUpgradeError(error);
@@ -184,6 +405,36 @@ public class UpgradeGaiaManager extends AGaiaManager implements UpgradeManager.U
         }
     }
 
+    /**
+     * <p>To inform this manager that the Bluetooth connection with the device has been lost, so that the time
+     * without connection is recorded in the timeline of the upgrade.</p>
+     */
+    public void onLinkLost() {
+        mUpgradeManager.onLinkLost();
+    }
+
+    /**
+     * <p>To inform this manager that the Bluetooth connection with the device has been established again, so that
+     * the time without connection is recorded in the timeline of the upgrade.</p>
+     *
+     * @param attempts
+     *          The number of connection attempts made since the connection has been lost.
+     */
+    public void onLinkRestored(int attempts) {
+        mUpgradeManager.onLinkRestored(attempts);
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    /**
+     * <p>To get the maximum length of the VMU messages for the given transport: a VMU message is the payload of a
+     * GAIA packet.</p>
+     */
+    private static int getMaxPacketLength(@GAIA.Transport int transport) {
+        return transport == GAIA.Transport.BR_EDR ? GaiaPacketBREDR.MAX_PAYLOAD : GaiaPacketBLE.MAX_PAYLOAD;
+    }
+
 
     // ====== PRIVATE METHODS - SENDING =============================================================
 
@@ -265,15 +516,15 @@ public class UpgradeGaiaManager extends AGaiaManager implements UpgradeManager.U
      *          true if an acknowledgement has been sent.
      */
     private boolean receiveEventNotification(GaiaPacket packet) {
-        byte[] payload = packet.getPayload();
+        int length = packet.getPayloadLength();
 
-        if (payload.length > 0) {
+        if (length > 0) {
             @GAIA.NotificationEvents int event = packet.getEvent();
             if (event == GAIA.NotificationEvents.VMU_PACKET && mUpgradeManager != null) {
                 createAcknowledgmentRequest(packet, GAIA.Status.SUCCESS, null);
-                byte[] data = new byte[payload.length - 1];
-                System.arraycopy(payload, 1, data, 0, payload.length - 1);
-                mUpgradeManager.receiveVMUPacket(data);
+                // the VMU packet follows the event: it is read in place in the received bytes
+                mUpgradeManager.receiveVMUPacket(packet.getPayloadBuffer(), packet.getPayloadOffset() + 1,
+                        length - 1);
                 return true;
             }
             else {
@@ -334,6 +585,9 @@ public class UpgradeGaiaManager extends AGaiaManager implements UpgradeManager.U
         if (packet.getCommand() == GAIA.COMMAND_DISCONNECT) {
             mListener.onVMUpgradeDisconnected();
         }
+        else if (packet.getCommand() == GAIA.COMMAND_VM_UPGRADE_CONTROL) {
+            mUpgradeManager.receiveVMControlFailed();
+        }
     }
 
     @Override // GaiaManager
@@ -348,6 +602,8 @@ public class UpgradeGaiaManager extends AGaiaManager implements UpgradeManager.U
 
     @Override // GaiaManager
     protected boolean sendGAIAPacket(byte[] packet) {
+        // a packet which is not sent is never acknowledged: the failure is reported once by the time out of its
+        // request, see hasNotReceivedAcknowledgementPacket
         return mListener.sendGAIAUpgradePacket(packet);
     }
 
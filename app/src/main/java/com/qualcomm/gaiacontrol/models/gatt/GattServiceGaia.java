@@ -152,6 +152,20 @@ public class GattServiceGaia {
         return mGaiaResponseCharacteristic;
     }
 
+    /**
+     * <p>To get the attribute handles of the GAIA Service and of its characteristics, as given by their instance
+     * IDs. Two connections which get the same handles use the same GATT database of the device.</p>
+     *
+     * @return null if the service is not supported.
+     */
+    public int[] getHandles() {
+        if (!isSupported()) {
+            return null;
+        }
+        return new int[] { mGattService.getInstanceId(), mGaiaCommandCharacteristic.getInstanceId(),
+                mGaiaDataCharacteristic.getInstanceId(), mGaiaResponseCharacteristic.getInstanceId() };
+    }
+
     /**
      * <p>To fully reset this object.</p>
      */
@@ -0,0 +1,171 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.gaiacontrol.services;
+
+import android.bluetooth.BluetoothManager;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.qualcomm.gaiacontrol.fleet.DeviceLink;
+import com.qualcomm.libraries.gaia.GAIA;
+import com.qualcomm.libraries.gaia.packets.BREDRDataAnalyser;
+
+/**
+ * <p>This class is a {@link DeviceLink DeviceLink} over its own RFCOMM connection, so that an
+ * {@link com.qualcomm.gaiacontrol.fleet.UpgradeOrchestrator UpgradeOrchestrator} can upgrade several BR/EDR Devices
+ * at the same time.</p>
+ * <p>The events of the connection come from the threads of the {@link BREDRProvider BREDRProvider}: they are posted
+ * to the Looper given at construction, which has to be the one on which the orchestrator runs.</p>
+ */
+public class BREDRDeviceLink implements DeviceLink, BREDRDataAnalyser.DataAnalyserListener {
+
+    /**
+     * <p>The address of the Device.</p>
+     */
+    private final String mAddress;
+    /**
+     * <p>The handler to deliver the events of the link on the thread of the orchestrator.</p>
+     */
+    private final Handler mHandler;
+    /**
+     * <p>To build the GAIA packets from the bytes received over RFCOMM.</p>
+     */
+    private final BREDRDataAnalyser mAnalyser = new BREDRDataAnalyser(this);
+    /**
+     * <p>The provider of the RFCOMM connection with the Device.</p>
+     */
+    private final Provider mProvider;
+    /**
+     * <p>The listener of the link, null when the link has been disconnected on request.</p>
+     */
+    private Listener mListener;
+
+    /**
+     * <p>To build a link with the given Device.</p>
+     *
+     * @param manager
+     *          The BluetoothManager to get the BluetoothAdapter from.
+     * @param address
+     *          The Bluetooth address of the Device.
+     * @param looper
+     *          The looper on which the events of the link are delivered.
+     */
+    public BREDRDeviceLink(BluetoothManager manager, String address, Looper looper) {
+        mProvider = new Provider(manager);
+        mAddress = address;
+        mHandler = new Handler(looper);
+    }
+
+
+    // ====== DeviceLink ===========================================================================
+
+    @Override // DeviceLink
+    public String getAddress() {
+        return mAddress;
+    }
+
+    @Override // DeviceLink
+    public @GAIA.Transport int getTransport() {
+        return GAIA.Transport.BR_EDR;
+    }
+
+    @Override // DeviceLink
+    public void connect(Listener listener) {
+        mListener = listener;
+        if (mProvider.isGaiaReady()) {
+            postConnected();
+        }
+        else if (mProvider.getState() != BREDRProvider.State.CONNECTING && !mProvider.connect(mAddress)) {
+            postDisconnected();
+        }
+    }
+
+    @Override // DeviceLink
+    public boolean send(byte[] packet) {
+        return mProvider.sendData(packet);
+    }
+
+    @Override // DeviceLink
+    public void disconnect() {
+        mListener = null;
+        mProvider.disconnect();
+    }
+
+
+    // ====== BREDRDataAnalyser.DataAnalyserListener ===============================================
+
+    @Override // BREDRDataAnalyser.DataAnalyserListener
+    public void onGAIAPacketFound(final byte[] data) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mListener != null) {
+                    mListener.onPacketReceived(data);
+                }
+            }
+        });
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    private void postConnected() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mListener != null) {
+                    mListener.onLinkConnected();
+                }
+            }
+        });
+    }
+
+    private void postDisconnected() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mListener != null) {
+                    mListener.onLinkDisconnected();
+                }
+            }
+        });
+    }
+
+
+    // ====== INNER CLASS ==========================================================================
+
+    /**
+     * <p>The provider of the RFCOMM connection which forwards its events to the link.</p>
+     */
+    private class Provider extends BREDRProvider {
+
+        private Provider(BluetoothManager manager) {
+            super(manager);
+        }
+
+        @Override // BREDRProvider
+        void onConnectionStateChanged(@State int state) {
+            if (state != State.CONNECTED) {
+                mAnalyser.reset();
+            }
+        }
+
+        @Override // BREDRProvider
+        void onConnectionError(@Errors int error) {
+            postDisconnected();
+        }
+
+        @Override // BREDRProvider
+        void onCommunicationRunning() {
+            // called from the communication thread which has to go on as soon as possible
+            postConnected();
+        }
+
+        @Override // BREDRProvider
+        void onDataFound(byte[] data) {
+            mAnalyser.analyse(data);
+        }
+    }
+}
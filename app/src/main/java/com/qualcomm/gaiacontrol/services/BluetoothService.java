@@ -16,6 +16,7 @@ import com.qualcomm.libraries.vmupgrade.UpgradeError;
 import com.qualcomm.libraries.vmupgrade.UpgradeManager;
 import com.qualcomm.libraries.vmupgrade.UploadProgress;
 import com.qualcomm.libraries.vmupgrade.codes.ResumePoints;
+import com.qualcomm.libraries.vmupgrade.journal.UpgradeSession;
 
 import java.io.File;
 import java.lang.annotation.Retention;
@@ -170,7 +171,8 @@ public interface BluetoothService {
     @IntDef(flag = true, value = { BluetoothService.UpgradeMessage.UPGRADE_FINISHED,
             BluetoothService.UpgradeMessage.UPGRADE_REQUEST_CONFIRMATION,
             BluetoothService.UpgradeMessage.UPGRADE_STEP_HAS_CHANGED, BluetoothService.UpgradeMessage.UPGRADE_ERROR,
-            BluetoothService.UpgradeMessage.UPGRADE_UPLOAD_PROGRESS })
+            BluetoothService.UpgradeMessage.UPGRADE_UPLOAD_PROGRESS,
+            BluetoothService.UpgradeMessage.UPGRADE_PREFLIGHT_FAILED })
     @Retention(RetentionPolicy.SOURCE)
     @SuppressLint("ShiftFlags") // values are more readable this way
     @interface UpgradeMessage {
@@ -215,6 +217,16 @@ public interface BluetoothService {
          * </ul>
          */
         int UPGRADE_UPLOAD_PROGRESS = 4;
+        /**
+         * <p>To inform that the file given to {@link #prepareUpgrade(File) prepareUpgrade} cannot be used for an
+         * upgrade.</p>
+         * <p>This type of {@link android.os.Message Message} also contains:</p>
+         * <ul>
+         *     <li>{@link com.qualcomm.libraries.vmupgrade.packet.VMUException VMUException}
+         *     information contained in <code>{@link android.os.Message#obj obj}</code>.</li>
+         * </ul>
+         */
+        int UPGRADE_PREFLIGHT_FAILED = 5;
     }
 
 
@@ -327,6 +339,17 @@ public interface BluetoothService {
 
     // ====== UPGRADE METHODS ======================================================================
 
+    /**
+     * <p>To analyse the given file in the background before the upgrade is started with it: once the file has been
+     * analysed, {@link #startUpgrade(File) startUpgrade} does not need to read it.</p>
+     * <p>If the file cannot be used for an upgrade, an {@link UpgradeMessage#UPGRADE_PREFLIGHT_FAILED
+     * UPGRADE_PREFLIGHT_FAILED} message is sent.</p>
+     *
+     * @param file
+     *        The file which has been picked to upgrade the Device.
+     */
+    void prepareUpgrade(File file);
+
     /**
      * <p>To start the Upgrade process with the given file.</p>
      *
@@ -335,6 +358,19 @@ public interface BluetoothService {
      */
     void startUpgrade(File file);
 
+    /**
+     * <p>To get the upgrade which has been interrupted by the end of the application and which can be resumed.</p>
+     *
+     * @return The interrupted upgrade or null if there is none or if an upgrade is going on.
+     */
+    UpgradeSession getInterruptedUpgrade();
+
+    /**
+     * <p>To forget the upgrade which has been interrupted by the end of the application: it will not be offered to
+     * be resumed anymore.</p>
+     */
+    void discardInterruptedUpgrade();
+
     /**
      * <p>To get the current {@link ResumePoints ResumePoints} of the Upgrade process.</p>
      * <p>If there is no ongoing upgrade this information is useless and not accurate.</p>
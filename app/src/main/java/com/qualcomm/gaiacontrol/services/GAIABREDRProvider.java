@@ -6,6 +6,7 @@ package com.qualcomm.gaiacontrol.services;
 
 import android.annotation.SuppressLint;
 import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothManager;
 import android.os.Handler;
 import android.support.annotation.IntDef;
@@ -15,11 +16,19 @@ import android.util.Log;
 import com.qualcomm.gaiacontrol.Utils;
 import com.qualcomm.gaiacontrol.gaia.UpgradeGaiaManager;
 import com.qualcomm.libraries.gaia.GAIA;
-import com.qualcomm.libraries.gaia.packets.GaiaPacketBREDR;
+import com.qualcomm.libraries.gaia.GaiaTrafficPolicy;
+import com.qualcomm.libraries.gaia.packets.BREDRDataAnalyser;
 import com.qualcomm.libraries.vmupgrade.UpgradeError;
 import com.qualcomm.libraries.vmupgrade.UpgradeManager;
 import com.qualcomm.libraries.vmupgrade.UploadProgress;
 import com.qualcomm.libraries.vmupgrade.codes.ResumePoints;
+import com.qualcomm.libraries.vmupgrade.image.ImageDigestCache;
+import com.qualcomm.libraries.vmupgrade.image.ImageDigester;
+import com.qualcomm.libraries.vmupgrade.image.ImagePreflightAnalyser;
+import com.qualcomm.libraries.vmupgrade.journal.TransferCheckpoints;
+import com.qualcomm.libraries.vmupgrade.journal.UpgradeJournal;
+import com.qualcomm.libraries.vmupgrade.retry.ReadinessCache;
+import com.qualcomm.libraries.vmupgrade.timeline.UpgradeTimeline;
 
 import java.io.File;
 import java.lang.annotation.Retention;
@@ -36,7 +45,8 @@ import java.lang.annotation.RetentionPolicy;
  * there is an upgrade going on, any data corresponding to a potential GAIA packet is sent to the Upgrade GAIA
  * Manager and any registered listener is no longer informed about them.</p>
  */
-/*package*/ class GAIABREDRProvider extends BREDRProvider implements UpgradeGaiaManager.GaiaManagerListener {
+/*package*/ class GAIABREDRProvider extends BREDRProvider implements UpgradeGaiaManager.GaiaManagerListener,
+        BREDRDataAnalyser.DataAnalyserListener {
     /**
      * <p>The tag to display for logs.</p>
      */
@@ -57,7 +67,7 @@ import java.lang.annotation.RetentionPolicy;
     /**
      * The analyser of data used to build GAIA packets from bytes received from the Provider.
      */
-    private final DataAnalyser mAnalyser = new DataAnalyser();
+    private final BREDRDataAnalyser mAnalyser = new BREDRDataAnalyser(this);
     /**
      * To manage the GAIA packets which had been received from the device during the process of an upgrade. If there
      * is no upgrade processing, this field is null.
@@ -162,9 +172,36 @@ import java.lang.annotation.RetentionPolicy;
      *
      * @param file
      *        The file to use to upgrade the Device.
+     * @param cache
+     *        The cache which keeps the digests of the upgrade files, can be null.
+     * @param analyser
+     *        The analyser which has run the pre-flight analysis of the upgrade files, can be null.
+     * @param digester
+     *        The digester which computes the identifier of a file which has not been analysed, can be null.
+     * @param journal
+     *        The journal which records the progress of the upgrade, can be null.
+     * @param readiness
+     *        The cache which learns how long the Device takes to be ready for an upgrade, can be null.
+     * @param checkpoints
+     *        The store which records what the Device has received of the image, can be null.
+     * @param timeline
+     *        The timeline which records the protocol events of the upgrade, can be null.
      */
-    /*package*/ void startUpgrade(File file) {
+    /*package*/ void startUpgrade(File file, ImageDigestCache cache, ImagePreflightAnalyser analyser,
+                                  ImageDigester digester, UpgradeJournal journal, ReadinessCache readiness,
+                                  TransferCheckpoints checkpoints, UpgradeTimeline timeline) {
         mUpgradeGaiaManager = new UpgradeGaiaManager(this, GAIA.Transport.BR_EDR);
+        // the packets are written to the socket before sendGAIAUpgradePacket returns
+        mUpgradeGaiaManager.setSentBytesReusable(true);
+        mUpgradeGaiaManager.setDigestCache(cache);
+        mUpgradeGaiaManager.setPreflightAnalyser(analyser);
+        mUpgradeGaiaManager.setImageDigester(digester);
+        mUpgradeGaiaManager.setJournal(journal);
+        mUpgradeGaiaManager.setTimeline(timeline);
+        BluetoothDevice device = getDevice();
+        mUpgradeGaiaManager.setReadinessCache(readiness, device != null ? device.getAddress() : null);
+        mUpgradeGaiaManager.setCheckpoints(checkpoints, device != null ? device.getAddress() : null);
+        GaiaTrafficPolicy.getDefault().startUpgradeSession();
         mUpgradeGaiaManager.startUpgrade(file);
     }
 
@@ -218,6 +255,7 @@ import java.lang.annotation.RetentionPolicy;
         if (!isUpgrading()) {
             mUpgradeGaiaManager.reset();
             mUpgradeGaiaManager = null;
+            GaiaTrafficPolicy.getDefault().endUpgradeSession();
         }
     }
 
@@ -246,6 +284,7 @@ import java.lang.annotation.RetentionPolicy;
 
     @Override // UpgradeGaiaManager.GaiaManagerListener
     public void onUpgradeFinish() {
+        GaiaTrafficPolicy.getDefault().endUpgradeSession();
         sendMessageToListener(Messages.UPGRADE_MESSAGE, BluetoothService.UpgradeMessage.UPGRADE_FINISHED, null);
     }
 
@@ -308,18 +347,16 @@ import java.lang.annotation.RetentionPolicy;
         mAnalyser.analyse(data);
     }
 
-
-    // ====== PRIVATE METHODS =========================================================================
-
     /**
-     * <p>This method is called when the {@link DataAnalyser DataAnalyser} has built a potential GAIA packet from
-     * incoming data from the connected device.</p>
+     * <p>This method is called when the {@link BREDRDataAnalyser BREDRDataAnalyser} has built a potential GAIA
+     * packet from incoming data from the connected device.</p>
      * <p>This method will dispatch the packet to its listener if there is no active upgrade.</p>
      *
      * @param data
      *          The potential packet.
      */
-    private void onGAIAPacketFound(byte[] data) {
+    @Override // BREDRDataAnalyser.DataAnalyserListener
+    public void onGAIAPacketFound(byte[] data) {
         if (mShowDebugLogs) {
             Log.d(TAG, "Receive potential GAIA packet: " + Utils.getStringFromBytes(data));
         }
@@ -331,6 +368,9 @@ import java.lang.annotation.RetentionPolicy;
         }
     }
 
+
+    // ====== PRIVATE METHODS =========================================================================
+
     /**
      * <p>To inform the listener by sending it a message.</p>
      *
@@ -374,99 +414,4 @@ import java.lang.annotation.RetentionPolicy;
         }
     }
 
-
-    // ====== PRIVATE INNER CLASS ========================================================================
-
-    /**
-     * <p>This class analyses incoming data in order to build a packet corresponding to the GAIA protocol.</p>
-     */
-    private class DataAnalyser {
-        /**
-         * <p>This array contains the data received from the device and which might correspond to a GAIA packet.</p>
-         */
-        final byte[] mmData = new byte[GaiaPacketBREDR.MAX_PACKET];
-        /**
-         * <p>While building the data of a GAIA packet, this contain the flags information of the packet.</p>
-         */
-        int mmFlags;
-        /**
-         * <p>To get how many bytes had been received so far.</p>
-         */
-        int mmReceivedLength = 0;
-        /**
-         * <p>The number of bytes which are expected to build a current GAIA packet.</p>
-         */
-        int mmExpectedLength = GaiaPacketBREDR.MAX_PACKET;
-
-        /**
-         * <p>To reset the data of the analyser: no current packet at the moment.</p>
-         */
-        private void reset() {
-            mmReceivedLength = 0;
-            mmExpectedLength = GaiaPacketBREDR.MAX_PACKET;
-        }
-
-        /**
-         * <p>This method will build a GAIA packet as defined in {@link GaiaPacketBREDR GaiaPacketBREDR}.</p>
-         * <p>This method uses the data provided at each call to build a GAIA packet following this process:
-         * <ol>
-         *     <li>Looks for the start of the packet known as "start of frame": <code>{@link GaiaPacketBREDR#SOF SOF} =
-         *     0xFF</code>.</li>
-         *     <li>Gets the expected length of the GAIA packet using the bytes which follow SOF: flags and length.</li>
-         *     <li>For each byte of a packet, copies the byte in the data array until it reaches the
-         *     expectedLength.</li>
-         *     <li>Calls {@link #onDataFound(byte[]) onDataFound} when the number of accumulated data reaches the
-         *     expected length.</li>
-         * </ol></p>
-         *
-         * @param data
-         *          The data to analyse in order to build GAIA packet(s).
-         */
-        private void analyse(byte[] data) {
-            int length = data.length;
-
-            // go through the received data
-            //noinspection ForLoopReplaceableByForEach // it is more efficient to not use foreach
-            for (int i = 0; i < length; ++i) {
-                // has started to get data of a GAIA packet
-                if ((this.mmReceivedLength > 0) && (this.mmReceivedLength < GaiaPacketBREDR.MAX_PACKET)) {
-                    // gets the data
-                    mmData[this.mmReceivedLength] = data[i];
-
-                    // gets the flags to know if there is a checksum which has impact on the GAIA packet length
-                    if (this.mmReceivedLength == GaiaPacketBREDR.OFFSET_FLAGS)  { // = 2
-                        mmFlags = data[i];
-                    }
-                    // gets the expected length
-                    else if (this.mmReceivedLength == GaiaPacketBREDR.OFFSET_LENGTH) { // = 3
-                        mmExpectedLength = data[i] // payload length
-                                + GaiaPacketBREDR.OFFSET_PAYLOAD // number of bytes before
-                                + (((mmFlags & GaiaPacketBREDR.FLAG_CHECK_MASK) != 0) ? 1 : 0);
-                    }
-
-                    // number of received bytes can be incremented
-                    ++this.mmReceivedLength;
-
-                    // if GAIA packet is complete, it is dispatched
-                    if (this.mmReceivedLength == mmExpectedLength) {
-                        byte[] packet = new byte[mmReceivedLength];
-                        System.arraycopy(mmData, 0, packet, 0, mmReceivedLength);
-                        reset();
-                        onGAIAPacketFound(packet);
-                    }
-                }
-                // look for the start of frame
-                else if (data[i] == GaiaPacketBREDR.SOF) {
-                    this.mmReceivedLength = 1;
-                }
-                // number of received bytes is too big for a GAIA packet
-                else if (mmReceivedLength >= GaiaPacketBREDR.MAX_PACKET) {
-                    Log.w(TAG, "Packet is too long: received length is bigger than the maximum length of a GAIA " +
-                            "packet. Resetting analyser.");
-                    reset();
-                }
-            }
-        }
-
-    }
 }
@@ -18,11 +18,24 @@ import android.widget.Toast;
 
 import com.qualcomm.gaiacontrol.Consts;
 import com.qualcomm.gaiacontrol.R;
+import com.qualcomm.gaiacontrol.gaia.UpgradeGaiaManager;
 import com.qualcomm.gaiacontrol.models.gatt.GATTServices;
 import com.qualcomm.gaiacontrol.receivers.BondStateReceiver;
 import com.qualcomm.libraries.ble.BLEUtils;
+import com.qualcomm.libraries.gaia.GAIA;
+import com.qualcomm.libraries.gaia.GaiaTrafficPolicy;
+import com.qualcomm.libraries.scheduler.HandlerScheduler;
 import com.qualcomm.libraries.vmupgrade.UpgradeManager;
 import com.qualcomm.libraries.vmupgrade.codes.ResumePoints;
+import com.qualcomm.libraries.vmupgrade.image.ImageDigestCache;
+import com.qualcomm.libraries.vmupgrade.image.ImageDigester;
+import com.qualcomm.libraries.vmupgrade.image.ImagePreflight;
+import com.qualcomm.libraries.vmupgrade.image.ImagePreflightAnalyser;
+import com.qualcomm.libraries.vmupgrade.journal.TransferCheckpoints;
+import com.qualcomm.libraries.vmupgrade.journal.UpgradeJournal;
+import com.qualcomm.libraries.vmupgrade.journal.UpgradeSession;
+import com.qualcomm.libraries.vmupgrade.packet.VMUException;
+import com.qualcomm.libraries.vmupgrade.retry.ReadinessCache;
 
 import java.io.File;
 import java.lang.ref.WeakReference;
@@ -72,6 +85,51 @@ public class GAIABREDRService extends Service implements BluetoothService, BondS
      * The Provider of a BR/EDR connection with a BluetoothDevice able to detect GAIA packets.
      */
     private GAIABREDRProvider mGAIABREDRProvider;
+    /**
+     * <p>The cache which keeps the digests of the files used to upgrade a device.</p>
+     */
+    private ImageDigestCache mDigestCache;
+    /**
+     * <p>The analyser which runs the pre-flight analysis of the files picked to upgrade a device.</p>
+     */
+    private ImagePreflightAnalyser mPreflightAnalyser;
+    /**
+     * <p>The digester which computes the identifier of a file which has not been analysed when its upgrade
+     * starts.</p>
+     */
+    private ImageDigester mImageDigester;
+    /**
+     * <p>The journal which records the progress of the upgrades.</p>
+     */
+    private UpgradeJournal mUpgradeJournal;
+    /**
+     * <p>The cache which learns how long the devices take to be ready for an upgrade.</p>
+     */
+    private ReadinessCache mReadinessCache;
+    /**
+     * <p>The store which records what the devices have received of the image of their last upgrade.</p>
+     */
+    private TransferCheckpoints mCheckpoints;
+    /**
+     * <p>To record, analyse and save the timeline of the upgrades.</p>
+     */
+    private UpgradeTimelineRecorder mTimelineRecorder;
+    /**
+     * <p>The listener which informs the application when a picked file cannot be used for an upgrade.</p>
+     */
+    private final ImagePreflightAnalyser.PreflightListener mPreflightListener =
+            new ImagePreflightAnalyser.PreflightListener() {
+        @Override
+        public void onPreflightComplete(ImagePreflight preflight) {
+            if (DEBUG) Log.d(TAG, "Upgrade file ready: " + preflight.toString());
+        }
+
+        @Override
+        public void onPreflightFailed(File file, VMUException exception) {
+            Log.w(TAG, "Upgrade file cannot be used: " + exception.toString());
+            sendMessageToListener(Messages.UPGRADE_MESSAGE, UpgradeMessage.UPGRADE_PREFLIGHT_FAILED, exception);
+        }
+    };
 
 
     // ====== SERVICE METHODS ========================================================================
@@ -102,6 +160,14 @@ public class GAIABREDRService extends Service implements BluetoothService, BondS
                     (BluetoothManager) getSystemService(BLUETOOTH_SERVICE));
         }
         mGAIABREDRProvider.showDebugLogs(DEBUG);
+        mDigestCache = new ImageDigestCache(new File(getFilesDir(), Consts.UPGRADE_DIGEST_CACHE_FILE));
+        mPreflightAnalyser = new ImagePreflightAnalyser(new HandlerScheduler());
+        mPreflightAnalyser.setDigestCache(mDigestCache);
+        mImageDigester = new ImageDigester(new HandlerScheduler());
+        mUpgradeJournal = new UpgradeJournal(new File(getFilesDir(), Consts.UPGRADE_JOURNAL_FILE));
+        mReadinessCache = new ReadinessCache(new File(getFilesDir(), Consts.UPGRADE_READINESS_CACHE_FILE));
+        mCheckpoints = new TransferCheckpoints(new File(getFilesDir(), Consts.UPGRADE_CHECKPOINTS_FILE));
+        mTimelineRecorder = new UpgradeTimelineRecorder(getFilesDir());
     }
 
     /*
@@ -111,7 +177,11 @@ public class GAIABREDRService extends Service implements BluetoothService, BondS
      */
     @Override // Service
     public void onDestroy() {
+        GaiaTrafficPolicy.getDefault().endUpgradeSession();
         disconnectDevice();
+        mPreflightAnalyser.release();
+        mImageDigester.release();
+        mUpgradeJournal.close();
         if (DEBUG) Log.i(TAG, "Service destroyed");
         super.onDestroy();
     }
@@ -206,9 +276,29 @@ public class GAIABREDRService extends Service implements BluetoothService, BondS
 
     // ====== UPGRADE METHODS ========================================================================
 
+    @Override // BluetoothService
+    public void prepareUpgrade(File file) {
+        mPreflightAnalyser.analyse(file, UpgradeGaiaManager.getChunkLength(GAIA.Transport.BR_EDR),
+                mPreflightListener);
+    }
+
     @Override // BluetoothService
     public void startUpgrade(File file) {
-        mGAIABREDRProvider.startUpgrade(file);
+        mGAIABREDRProvider.startUpgrade(file, mDigestCache, mPreflightAnalyser, mImageDigester, mUpgradeJournal,
+                mReadinessCache, mCheckpoints, mTimelineRecorder.start());
+    }
+
+    @Override // BluetoothService
+    public UpgradeSession getInterruptedUpgrade() {
+        UpgradeSession session = isUpgrading() ? null : mUpgradeJournal.getSession();
+        return (session != null && session.isFileUnchanged()) ? session : null;
+    }
+
+    @Override // BluetoothService
+    public void discardInterruptedUpgrade() {
+        if (!isUpgrading()) {
+            mUpgradeJournal.endSession();
+        }
     }
 
     @Override // BluetoothService
@@ -436,6 +526,10 @@ public class GAIABREDRService extends Service implements BluetoothService, BondS
             case GAIABREDRProvider.Messages.UPGRADE_MESSAGE:
                 @UpgradeMessage int upgradeMessage = msg.arg1;
                 Object content = msg.obj;
+                if (upgradeMessage == UpgradeMessage.UPGRADE_FINISHED
+                        || (upgradeMessage == UpgradeMessage.UPGRADE_ERROR && !isUpgrading())) {
+                    mTimelineRecorder.onUpgradeEnded();
+                }
                 sendMessageToListener(Messages.UPGRADE_MESSAGE, upgradeMessage, content);
                 break;
 
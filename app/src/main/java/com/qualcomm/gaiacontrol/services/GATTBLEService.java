@@ -30,15 +30,29 @@ import com.qualcomm.libraries.ble.BLEService;
 import com.qualcomm.libraries.ble.BLEUtils;
 import com.qualcomm.libraries.ble.Characteristics;
 import com.qualcomm.libraries.gaia.GAIA;
+import com.qualcomm.libraries.gaia.GaiaTrafficPolicy;
+import com.qualcomm.libraries.gaia.packets.GaiaPacketBLE;
+import com.qualcomm.libraries.scheduler.HandlerScheduler;
 import com.qualcomm.libraries.vmupgrade.UpgradeError;
 import com.qualcomm.libraries.vmupgrade.UpgradeManager;
 import com.qualcomm.libraries.vmupgrade.UploadProgress;
 import com.qualcomm.libraries.vmupgrade.codes.ResumePoints;
+import com.qualcomm.libraries.vmupgrade.image.ImageDigestCache;
+import com.qualcomm.libraries.vmupgrade.image.ImageDigester;
+import com.qualcomm.libraries.vmupgrade.image.ImagePreflight;
+import com.qualcomm.libraries.vmupgrade.image.ImagePreflightAnalyser;
+import com.qualcomm.libraries.vmupgrade.journal.TransferCheckpoints;
+import com.qualcomm.libraries.vmupgrade.journal.UpgradeJournal;
+import com.qualcomm.libraries.vmupgrade.journal.UpgradeSession;
+import com.qualcomm.libraries.vmupgrade.packet.VMUException;
+import com.qualcomm.libraries.vmupgrade.retry.ReadinessCache;
+import com.qualcomm.libraries.vmupgrade.retry.RetryPolicy;
 
 import java.io.File;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 
@@ -102,6 +116,50 @@ public class GATTBLEService extends BLEService implements BondStateReceiver.Bond
      * is no upgrade processing, this field is null.
      */
     private UpgradeGaiaManager mUpgradeGaiaManager;
+    /**
+     * <p>The cache which keeps the digests of the files used to upgrade a device.</p>
+     */
+    private ImageDigestCache mDigestCache;
+    /**
+     * <p>The analyser which runs the pre-flight analysis of the files picked to upgrade a device.</p>
+     */
+    private ImagePreflightAnalyser mPreflightAnalyser;
+    /**
+     * <p>The digester which computes the identifier of a file which has not been analysed when its upgrade
+     * starts.</p>
+     */
+    private ImageDigester mImageDigester;
+    /**
+     * <p>The journal which records the progress of the upgrades.</p>
+     */
+    private UpgradeJournal mUpgradeJournal;
+    /**
+     * <p>The cache which learns how long the devices take to be ready for an upgrade.</p>
+     */
+    private ReadinessCache mReadinessCache;
+    /**
+     * <p>The store which records what the devices have received of the image of their last upgrade.</p>
+     */
+    private TransferCheckpoints mCheckpoints;
+    /**
+     * <p>To record, analyse and save the timeline of the upgrades.</p>
+     */
+    private UpgradeTimelineRecorder mTimelineRecorder;
+    /**
+     * <p>To reconnect the device when the link is lost during an upgrade, such as when the device reboots into its
+     * new image.</p>
+     */
+    private UpgradeReconnection mReconnection;
+    /**
+     * <p>The handles of the GAIA Service and characteristics of the device the last time GATT was ready, null if GATT
+     * has not been ready with the device yet.</p>
+     */
+    private int[] mGaiaHandles = null;
+    /**
+     * <p>True when the device has been reconnected during an upgrade and GATT is not ready yet: the connection is
+     * set up through the fast path if the device still has the same GAIA handles.</p>
+     */
+    private boolean isUpgradeReconnection = false;
     /**
      * <p>To know the GATT services and characteristics which are supported by the remote device.</p>
      */
@@ -115,16 +173,57 @@ public class GATTBLEService extends BLEService implements BondStateReceiver.Bond
      */
     private final Handler mHandler = new Handler();
     /**
-     * The Runnable to post delayed in order to request the RSSI level.
+     * The Runnable to post delayed in order to request the RSSI level. During an upgrade the request is deferred
+     * until the end of the upgrade.
      */
     private final Runnable mRssiRunnable = new Runnable() {
         @Override
         public void run() {
-            if (mUpdateRssi) {
+            if (mUpdateRssi && !GaiaTrafficPolicy.getDefault().deferBackground(this, mDeferredRssiRunnable)) {
                 requestReadRssi();
             }
         }
     };
+    /**
+     * The Runnable deferred during an upgrade: the upgrade can end on a binder thread, the RSSI request is posted
+     * to the handler.
+     */
+    private final Runnable mDeferredRssiRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mHandler.post(mRssiRunnable);
+        }
+    };
+    /**
+     * <p>The connector used by {@link #mReconnection mReconnection} to reconnect the device.</p>
+     */
+    private final UpgradeReconnection.Connector mReconnectionConnector = new UpgradeReconnection.Connector() {
+        @Override // UpgradeReconnection.Connector
+        public boolean connect(boolean direct) {
+            return reconnectToDevice(!direct);
+        }
+
+        @Override // UpgradeReconnection.Connector
+        public void cancel() {
+            cancelConnectionAttempt();
+        }
+    };
+    /**
+     * <p>The listener which informs the application when a picked file cannot be used for an upgrade.</p>
+     */
+    private final ImagePreflightAnalyser.PreflightListener mPreflightListener =
+            new ImagePreflightAnalyser.PreflightListener() {
+        @Override
+        public void onPreflightComplete(ImagePreflight preflight) {
+            if (DEBUG) Log.d(TAG, "Upgrade file ready: " + preflight.toString());
+        }
+
+        @Override
+        public void onPreflightFailed(File file, VMUException exception) {
+            Log.w(TAG, "Upgrade file cannot be used: " + exception.toString());
+            sendMessageToListener(Messages.UPGRADE_MESSAGE, UpgradeMessage.UPGRADE_PREFLIGHT_FAILED, exception);
+        }
+    };
 
 
     // ====== ENUM =================================================================================
@@ -230,6 +329,11 @@ public class GATTBLEService extends BLEService implements BondStateReceiver.Bond
 
     @Override // BluetoothService
     public void disconnectDevice() {
+        mReconnection.stop();
+        if (super.getConnectionState() == BLEService.State.CONNECTING) {
+            // a reconnection attempt is pending
+            cancelConnectionAttempt();
+        }
         if (super.getConnectionState() == BLEService.State.DISCONNECTED) {
             resetDeviceInformation();
         }
@@ -257,7 +361,7 @@ public class GATTBLEService extends BLEService implements BondStateReceiver.Bond
 
     @Override // BluetoothService
     public boolean sendGAIAPacket(byte[] packet) {
-        return sendGaiaCommandEndpoint(packet);
+        return sendGaiaCommandEndpoint(packet, false);
     }
 
     /**
@@ -294,12 +398,40 @@ public class GATTBLEService extends BLEService implements BondStateReceiver.Bond
 
     // ====== UPGRADE METHODS ======================================================================
 
+    @Override // BluetoothService
+    public void prepareUpgrade(File file) {
+        mPreflightAnalyser.analyse(file, UpgradeGaiaManager.getChunkLength(GAIA.Transport.BLE), mPreflightListener);
+    }
+
     @Override // BluetoothService
     public void startUpgrade(File file) {
         mUpgradeGaiaManager = new UpgradeGaiaManager(this, GAIA.Transport.BLE);
+        mUpgradeGaiaManager.setMaxPayloadLength(GaiaPacketBLE.getMaxPayload(getMtu()));
+        mUpgradeGaiaManager.setDigestCache(mDigestCache);
+        mUpgradeGaiaManager.setPreflightAnalyser(mPreflightAnalyser);
+        mUpgradeGaiaManager.setImageDigester(mImageDigester);
+        mUpgradeGaiaManager.setJournal(mUpgradeJournal);
+        mUpgradeGaiaManager.setTimeline(mTimelineRecorder.start());
+        BluetoothDevice device = getDevice();
+        mUpgradeGaiaManager.setReadinessCache(mReadinessCache, device != null ? device.getAddress() : null);
+        mUpgradeGaiaManager.setCheckpoints(mCheckpoints, device != null ? device.getAddress() : null);
+        GaiaTrafficPolicy.getDefault().startUpgradeSession();
         mUpgradeGaiaManager.startUpgrade(file);
     }
 
+    @Override // BluetoothService
+    public UpgradeSession getInterruptedUpgrade() {
+        UpgradeSession session = isUpgrading() ? null : mUpgradeJournal.getSession();
+        return (session != null && session.isFileUnchanged()) ? session : null;
+    }
+
+    @Override // BluetoothService
+    public void discardInterruptedUpgrade() {
+        if (!isUpgrading()) {
+            mUpgradeJournal.endSession();
+        }
+    }
+
     @Override // BluetoothService
     public @ResumePoints.Enum int getResumePoint() {
         return (mUpgradeGaiaManager!= null) ? mUpgradeGaiaManager.getResumePoint() : ResumePoints.Enum.DATA_TRANSFER;
@@ -428,6 +560,7 @@ public class GATTBLEService extends BLEService implements BondStateReceiver.Bond
         else if (!start && mUpdateRssi) {
             mUpdateRssi = false;
             mHandler.removeCallbacks(mRssiRunnable);
+            GaiaTrafficPolicy.getDefault().cancelDeferred(mRssiRunnable);
         }
         return mUpdateRssi;
     }
@@ -458,6 +591,19 @@ public class GATTBLEService extends BLEService implements BondStateReceiver.Bond
         this.initialize();
         this.setDelayForRequest(60000); // with ADK there can be a long delay after pairing, observed time: 32s
         registerBondReceiver();
+        mDigestCache = new ImageDigestCache(new File(getFilesDir(), Consts.UPGRADE_DIGEST_CACHE_FILE));
+        mPreflightAnalyser = new ImagePreflightAnalyser(new HandlerScheduler());
+        mPreflightAnalyser.setDigestCache(mDigestCache);
+        mImageDigester = new ImageDigester(new HandlerScheduler());
+        mUpgradeJournal = new UpgradeJournal(new File(getFilesDir(), Consts.UPGRADE_JOURNAL_FILE));
+        mReadinessCache = new ReadinessCache(new File(getFilesDir(), Consts.UPGRADE_READINESS_CACHE_FILE));
+        mCheckpoints = new TransferCheckpoints(new File(getFilesDir(), Consts.UPGRADE_CHECKPOINTS_FILE));
+        mTimelineRecorder = new UpgradeTimelineRecorder(getFilesDir());
+        RetryPolicy reconnectionPolicy = new RetryPolicy(Consts.UPGRADE_RECONNECTION_DELAY,
+                Consts.UPGRADE_RECONNECTION_MAX_DELAY, 2, 0.1, Consts.UPGRADE_RECONNECTION_ATTEMPTS,
+                RetryPolicy.UNLIMITED);
+        mReconnection = new UpgradeReconnection(new HandlerScheduler(), mReconnectionConnector, reconnectionPolicy,
+                Consts.UPGRADE_RECONNECTION_ATTEMPT_TIMEOUT);
     }
 
     /*
@@ -467,8 +613,13 @@ public class GATTBLEService extends BLEService implements BondStateReceiver.Bond
      */
     @Override
     public void onDestroy() {
+        GaiaTrafficPolicy.getDefault().cancelDeferred(mRssiRunnable);
+        GaiaTrafficPolicy.getDefault().endUpgradeSession();
         disconnectDevice();
         unregisterBondReceiver();
+        mPreflightAnalyser.release();
+        mImageDigester.release();
+        mUpgradeJournal.close();
         if (DEBUG) Log.i(TAG, "Service destroyed");
         super.onDestroy();
     }
@@ -480,6 +631,9 @@ public class GATTBLEService extends BLEService implements BondStateReceiver.Bond
     public void onVMUpgradeDisconnected() {
         if (!isUpgrading()) {
             mUpgradeGaiaManager = null;
+            // the upgrade has been aborted or has ended
+            mTimelineRecorder.onUpgradeEnded();
+            GaiaTrafficPolicy.getDefault().endUpgradeSession();
         }
     }
 
@@ -501,11 +655,14 @@ public class GATTBLEService extends BLEService implements BondStateReceiver.Bond
 
     @Override // UpgradeGaiaManager.GaiaManagerListener
     public boolean sendGAIAUpgradePacket(byte[] packet) {
-        return sendGaiaCommandEndpoint(packet);
+        // the upgrade packets go ahead of the other queued requests
+        return sendGaiaCommandEndpoint(packet, true);
     }
 
     @Override // UpgradeGaiaManager.GaiaManagerListener
     public void onUpgradeFinish() {
+        mTimelineRecorder.onUpgradeEnded();
+        GaiaTrafficPolicy.getDefault().endUpgradeSession();
         sendMessageToListener(Messages.UPGRADE_MESSAGE, UpgradeMessage.UPGRADE_FINISHED, null);
     }
 
@@ -542,6 +699,11 @@ public class GATTBLEService extends BLEService implements BondStateReceiver.Bond
 
     @Override // BLEService, BluetoothService
     public boolean connectToDevice(String address) {
+        BluetoothDevice device = getDevice();
+        if (device == null || !device.getAddress().equals(address)) {
+            // the known handles belong to another device
+            mGaiaHandles = null;
+        }
         return super.connectToDevice(address);
         // then wait for onConnectionStateChange in order to communicate over GATT with the device
     }
@@ -640,19 +802,28 @@ public class GATTBLEService extends BLEService implements BondStateReceiver.Bond
     protected void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
         if (DEBUG) Log.i(TAG, "onConnectionStateChange: " + BLEUtils.getGattStatusName(status, true));
         if (status == BluetoothGatt.GATT_SUCCESS && newState == BluetoothProfile.STATE_CONNECTED) {
+            if (mReconnection.isRunning()) {
+                int attempts = mReconnection.onConnected();
+                isUpgradeReconnection = isUpgrading();
+                if (isUpgradeReconnection) {
+                    mUpgradeGaiaManager.onLinkRestored(attempts);
+                }
+            }
+            // Android serves the discovery from its cache for a bonded device which has not changed its database
             Log.i(TAG, "Attempting to start service discovery: " + gatt.discoverServices());
             // now wait for onServicesDiscovered to be called in order to communicate over GATT with the device
         }
         else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
             resetDeviceInformation();
-            if (isUpgrading()) {
-                // delays the reconnection about 1s for ADK6.0 implementation
-                mHandler.postDelayed(new Runnable() {
-                    @Override
-                    public void run() {
-                        reconnectToDevice();
-                    }
-                }, 1000);
+            if (mReconnection.isRunning()) {
+                // a reconnection attempt has failed
+                mReconnection.onAttemptFailed();
+            }
+            else if (isUpgrading()) {
+                // the device reboots into its new image or the link has been lost: it is reconnected as soon as it
+                // advertises again
+                mUpgradeGaiaManager.onLinkLost();
+                mReconnection.start();
             }
         }
     }
@@ -671,7 +842,14 @@ public class GATTBLEService extends BLEService implements BondStateReceiver.Bond
             // So we read a characteristic in order to induce pairing for BLE.
             // By definition, if pairing is required the GAIA DATA characteristic requires encryption for the READ
             // property.
-            if (mGattServices.gattServiceGaia.isSupported()) {
+            if (isUpgradeReconnection && mGaiaHandles != null
+                    && Arrays.equals(mGaiaHandles, mGattServices.gattServiceGaia.getHandles())) {
+                // the device is reconnected during an upgrade with the same GATT database: pairing had already been
+                // induced with the same handles, GAIA can be registered straight away
+                if (DEBUG) Log.i(TAG, "Same GAIA handles after reconnection: pairing induction skipped.");
+                onGattReady();
+            }
+            else if (mGattServices.gattServiceGaia.isSupported()) {
                 requestReadCharacteristicForPairing(mGattServices.gattServiceGaia.getGaiaDataCharacteristic());
 
                 // then wait for one of these events to happen in order to communicate over GATT with the device:
@@ -805,6 +983,15 @@ public class GATTBLEService extends BLEService implements BondStateReceiver.Bond
         }
     }
 
+    @Override // extends BLEService
+    protected void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+        if (DEBUG) Log.i(TAG, "MTU exchange: mtu=" + mtu + ", status=" + BLEUtils.getGattStatusName(status, false));
+        if (status == BluetoothGatt.GATT_SUCCESS && mUpgradeGaiaManager != null) {
+            // the upgrade packets use the bigger MTU from now on
+            mUpgradeGaiaManager.setMaxPayloadLength(GaiaPacketBLE.getMaxPayload(mtu));
+        }
+    }
+
     @Override // extends BLEService
     protected void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
         if (status == BluetoothGatt.GATT_SUCCESS && descriptor.getCharacteristic().getUuid().equals(GATT.UUIDs
@@ -835,8 +1022,11 @@ public class GATTBLEService extends BLEService implements BondStateReceiver.Bond
     private void resetDeviceInformation() {
         mIsGattReady = false;
         mIsGaiaReady = false;
+        isUpgradeReconnection = false;
         if (mUpgradeGaiaManager != null) {
             mUpgradeGaiaManager.reset();
+            // the MTU has to be exchanged again with the next connection
+            mUpgradeGaiaManager.setMaxPayloadLength(GaiaPacketBLE.MAX_PAYLOAD);
         }
 //        mGattServices.reset();
     }
@@ -872,14 +1062,18 @@ public class GATTBLEService extends BLEService implements BondStateReceiver.Bond
      * <p>This method informs any attached listener that the the GATT connection is ready.</p>
      * <p>This method also sends the following requests:
      * <ul>
-     *     <li>If the GAIA Service is supported: it requests to register for the GAIA RESPONSE characteristic
-     *     notifications.</li>
+     *     <li>If the GAIA Service is supported: it requests a bigger MTU and to register for the GAIA RESPONSE
+     *     characteristic notifications.</li>
      *     <li>If there is at least one BATTERY Service: it does a read descriptor request for each PRESENTATION
-     *     FORMAT descriptor.</li>
+     *     FORMAT descriptor. These reads are skipped when the device has been reconnected during an upgrade, so
+     *     that the upgrade is resumed as soon as possible.</li>
      * </ul></p>
      */
     private void onGattReady() {
         mIsGattReady = true;
+        mGaiaHandles = mGattServices.gattServiceGaia.getHandles();
+        boolean wasReconnected = isUpgradeReconnection;
+        isUpgradeReconnection = false;
 
         if (DEBUG) {
             Log.i(TAG, "GATT connection is ready to be used.");
@@ -892,12 +1086,14 @@ public class GATTBLEService extends BLEService implements BondStateReceiver.Bond
             if (DEBUG) {
                 Log.i(TAG, "GAIA is supported, start request for GAIA notifications.");
             }
+            // a bigger MTU allows the upgrade to send more bytes in each packet, it is exchanged before GAIA is used
+            requestMtu(Consts.BLE_REQUESTED_MTU);
             requestCharacteristicNotification(mGattServices.gattServiceGaia.getGaiaResponseCharacteristic(), true);
             // then wait for onDescriptorWrite in order to use GAIA
         }
 
         // if there is at least one battery service we request the descriptor value if descriptor available
-        if (mGattServices.isBatteryServiceSupported()) {
+        if (mGattServices.isBatteryServiceSupported() && !wasReconnected) {
             for (int i=0; i<mGattServices.gattServiceBatteries.size(); i++) {
                 if (DEBUG) {
                     Log.i(TAG, "Battery service is supported, request presentation format descriptors for service " +
@@ -919,12 +1115,17 @@ public class GATTBLEService extends BLEService implements BondStateReceiver.Bond
      *
      * @param data
      *          The byte array to send to a device.
+     * @param priority
+     *          True to send the data before the other queued requests, see
+     *          {@link BLEService#requestWriteCharacteristic(BluetoothGattCharacteristic, byte[], boolean)
+     *          requestWriteCharacteristic}.
      *
      * @return true if the sending could be done.
      */
-    private boolean sendGaiaCommandEndpoint(byte[] data) {
+    private boolean sendGaiaCommandEndpoint(byte[] data, boolean priority) {
         if (mGattServices.gattServiceGaia.isCharacteristicGaiaCommandAvailable()) {
-            return requestWriteCharacteristic(mGattServices.gattServiceGaia.getGaiaCommandCharacteristic(), data);
+            return requestWriteCharacteristic(mGattServices.gattServiceGaia.getGaiaCommandCharacteristic(), data,
+                    priority);
         }
         else {
             Log.w(TAG, "Attempt to send data over CHARACTERISTIC_CSR_GAIA_COMMAND_ENDPOINT failed: characteristic not" +
@@ -0,0 +1,254 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.gaiacontrol.services;
+
+import android.util.Log;
+
+import com.qualcomm.libraries.scheduler.Scheduler;
+import com.qualcomm.libraries.vmupgrade.retry.RetryPolicy;
+
+import java.util.Random;
+
+/**
+ * <p>This class reconnects a service to the device it was upgrading once the link has been lost, for instance when
+ * the device reboots into its new image.</p>
+ * <p>The reconnection starts with a bounded loop of direct connection attempts: a direct connection connects as
+ * soon as the device advertises again. Each attempt which fails or which does not succeed within the attempt timeout
+ * is followed by another one, after a delay given by the {@link RetryPolicy RetryPolicy}. Once the policy does not
+ * allow any more attempts, the reconnection falls back to a background connection which is kept pending until the
+ * device is found.</p>
+ * <p>This class is not thread safe: all its methods and its tasks must run on the thread of its
+ * {@link Scheduler Scheduler}.</p>
+ */
+/*package*/ class UpgradeReconnection {
+
+    // ====== CONSTS FIELDS ========================================================================
+
+    /**
+     * <p>The tag to display for logs.</p>
+     */
+    private static final String TAG = "UpgradeReconnection";
+
+
+    // ====== PRIVATE FIELDS =======================================================================
+
+    /**
+     * <p>The scheduler to run the attempts and their timeouts.</p>
+     */
+    private final Scheduler mScheduler;
+    /**
+     * <p>The connector which initiates and cancels the connection attempts.</p>
+     */
+    private final Connector mConnector;
+    /**
+     * <p>The policy which gives the delay between two direct attempts and bounds their number.</p>
+     */
+    private final RetryPolicy mPolicy;
+    /**
+     * <p>The time in ms after which a direct attempt which has not succeeded is cancelled.</p>
+     */
+    private final long mAttemptTimeout;
+    /**
+     * <p>To spread the delays between the attempts.</p>
+     */
+    private final Random mRandom = new Random();
+    /**
+     * <p>True while the link is being reconnected.</p>
+     */
+    private boolean isRunning = false;
+    /**
+     * <p>True once the direct attempts have been exhausted and a background connection is pending.</p>
+     */
+    private boolean isInBackground = false;
+    /**
+     * <p>The number of connection attempts made since the link has been lost.</p>
+     */
+    private int mAttempts = 0;
+    /**
+     * <p>The time when the link has been lost.</p>
+     */
+    private long mStartTime = 0;
+    /**
+     * <p>The task which initiates the next connection attempt.</p>
+     */
+    private final Runnable mAttemptRunnable = new Runnable() {
+        @Override
+        public void run() {
+            attempt();
+        }
+    };
+    /**
+     * <p>The task which cancels a direct attempt which has not succeeded in time.</p>
+     */
+    private final Runnable mTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Log.i(TAG, "Connection attempt " + mAttempts + " timed out.");
+            mConnector.cancel();
+            onAttemptFailed();
+        }
+    };
+
+
+    // ====== CONSTRUCTORS =========================================================================
+
+    /**
+     * <p>To build a reconnection.</p>
+     *
+     * @param scheduler
+     *          The scheduler to run the attempts and their timeouts.
+     * @param connector
+     *          The connector which initiates and cancels the connection attempts.
+     * @param policy
+     *          The policy which gives the delay before each direct attempt and bounds their number and their total
+     *          time.
+     * @param attemptTimeout
+     *          The time in ms after which a direct attempt which has not succeeded is cancelled.
+     */
+    /*package*/ UpgradeReconnection(Scheduler scheduler, Connector connector, RetryPolicy policy,
+                                    long attemptTimeout) {
+        mScheduler = scheduler;
+        mConnector = connector;
+        mPolicy = policy;
+        mAttemptTimeout = attemptTimeout;
+    }
+
+
+    // ====== PACKAGE METHODS ======================================================================
+
+    /**
+     * <p>To start to reconnect the link which has just been lost. This does nothing if a reconnection is already
+     * running.</p>
+     */
+    /*package*/ void start() {
+        if (isRunning) {
+            return;
+        }
+        isRunning = true;
+        isInBackground = false;
+        mAttempts = 0;
+        mStartTime = mScheduler.now();
+        mScheduler.schedule(mAttemptRunnable, mPolicy.getDelay(1, 0, mRandom.nextDouble()));
+    }
+
+    /**
+     * <p>To be called when the pending attempt has failed: the link has been disconnected before it was
+     * connected.</p>
+     */
+    /*package*/ void onAttemptFailed() {
+        if (!isRunning) {
+            return;
+        }
+        mScheduler.cancel(mTimeoutRunnable);
+
+        if (isInBackground) {
+            // the background connection is not expected to fail, it is initiated again
+            mScheduler.schedule(mAttemptRunnable, mPolicy.getMaxDelay());
+            return;
+        }
+
+        long delay = mPolicy.getDelay(mAttempts + 1, 0, mRandom.nextDouble());
+        if (!mPolicy.canRetry(mAttempts, getElapsedTime(), delay)) {
+            Log.w(TAG, "Device not reconnected after " + mAttempts + " attempts and " + getElapsedTime()
+                    + " ms, falling back to a background connection.");
+            isInBackground = true;
+            delay = 0;
+        }
+        mScheduler.schedule(mAttemptRunnable, delay);
+    }
+
+    /**
+     * <p>To be called when the link has been connected: this ends the reconnection.</p>
+     *
+     * @return the number of connection attempts which have been made.
+     */
+    /*package*/ int onConnected() {
+        Log.i(TAG, "Device reconnected after " + mAttempts + " attempts and " + getElapsedTime() + " ms.");
+        stop();
+        return mAttempts;
+    }
+
+    /**
+     * <p>To stop the reconnection: no more attempt is made. This does not cancel the pending attempt.</p>
+     */
+    /*package*/ void stop() {
+        isRunning = false;
+        mScheduler.cancel(mAttemptRunnable);
+        mScheduler.cancel(mTimeoutRunnable);
+    }
+
+    /**
+     * <p>To know if the link is being reconnected.</p>
+     */
+    /*package*/ boolean isRunning() {
+        return isRunning;
+    }
+
+    /**
+     * <p>To know if the direct attempts have been exhausted and a background connection has been initiated.</p>
+     */
+    /*package*/ boolean isInBackground() {
+        return isInBackground;
+    }
+
+    /**
+     * <p>To get the number of connection attempts made since the link has been lost.</p>
+     */
+    /*package*/ int getAttempts() {
+        return mAttempts;
+    }
+
+    /**
+     * <p>To get the time in ms since the link has been lost.</p>
+     */
+    /*package*/ long getElapsedTime() {
+        return mScheduler.now() - mStartTime;
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    /**
+     * <p>To initiate the next connection attempt.</p>
+     */
+    private void attempt() {
+        if (!isRunning) {
+            return;
+        }
+        mAttempts++;
+        boolean direct = !isInBackground;
+        if (!mConnector.connect(direct)) {
+            Log.w(TAG, "Connection attempt " + mAttempts + " could not be initiated.");
+            onAttemptFailed();
+        }
+        else if (direct) {
+            mScheduler.schedule(mTimeoutRunnable, mAttemptTimeout);
+        }
+    }
+
+
+    // ====== INTERFACES ===========================================================================
+
+    /**
+     * <p>The interface to initiate and cancel the connection attempts.</p>
+     */
+    /*package*/ interface Connector {
+        /**
+         * <p>To initiate a connection attempt with the device.</p>
+         *
+         * @param direct
+         *          True for a direct connection, false for a background connection.
+         *
+         * @return true if the attempt has been initiated, the result is then given to
+         * {@link #onConnected() onConnected} or {@link #onAttemptFailed() onAttemptFailed}.
+         */
+        boolean connect(boolean direct);
+
+        /**
+         * <p>To cancel the pending connection attempt.</p>
+         */
+        void cancel();
+    }
+}
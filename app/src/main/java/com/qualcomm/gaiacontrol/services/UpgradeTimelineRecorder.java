@@ -0,0 +1,95 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.gaiacontrol.services;
+
+import android.util.Log;
+
+import com.qualcomm.gaiacontrol.Consts;
+import com.qualcomm.libraries.vmupgrade.AtomicFile;
+import com.qualcomm.libraries.vmupgrade.timeline.TimelineAnalyser;
+import com.qualcomm.libraries.vmupgrade.timeline.TimelineReport;
+import com.qualcomm.libraries.vmupgrade.timeline.UpgradeTimeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+
+/**
+ * <p>This class keeps the {@link UpgradeTimeline UpgradeTimeline} of the upgrades run by a service.</p>
+ * <p>When an upgrade ends, successfully or not, its timeline is analysed: the report is logged and both the timeline
+ * and the report are saved in the given directory, replacing the ones of the previous upgrade, so that they can be
+ * pulled from the device and compared offline. Each file is replaced as a whole: a file pulled while it is being
+ * saved is the one of the previous upgrade.</p>
+ */
+/*package*/ class UpgradeTimelineRecorder {
+
+    /**
+     * <p>The tag to display for logs.</p>
+     */
+    private static final String TAG = "UpgradeTimelineRecorder";
+    /**
+     * <p>The timeline of the current or last upgrade.</p>
+     */
+    private final UpgradeTimeline mTimeline = new UpgradeTimeline(Consts.UPGRADE_TIMELINE_CAPACITY);
+    /**
+     * <p>The analyser to build the report of an upgrade.</p>
+     */
+    private final TimelineAnalyser mAnalyser = new TimelineAnalyser(Consts.UPGRADE_STALL_THRESHOLD);
+    /**
+     * <p>The directory in which the timeline and its report are saved.</p>
+     */
+    private final File mDirectory;
+    /**
+     * <p>True if an upgrade has been started and its timeline has not been saved yet.</p>
+     */
+    private boolean isRecording = false;
+
+    /**
+     * <p>To build a recorder which saves the timelines in the given directory.</p>
+     */
+    /*package*/ UpgradeTimelineRecorder(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * <p>To get an empty timeline for an upgrade which is starting.</p>
+     *
+     * @return the timeline to give to the {@link com.qualcomm.gaiacontrol.gaia.UpgradeGaiaManager
+     * UpgradeGaiaManager}.
+     */
+    /*package*/ UpgradeTimeline start() {
+        mTimeline.clear();
+        isRecording = true;
+        return mTimeline;
+    }
+
+    /**
+     * <p>To analyse and save the timeline of the upgrade which has ended. This does nothing if the timeline has
+     * already been saved.</p>
+     */
+    /*package*/ void onUpgradeEnded() {
+        if (!isRecording) {
+            return;
+        }
+        isRecording = false;
+
+        final TimelineReport report = mAnalyser.analyse(mTimeline);
+        Log.i(TAG, "Upgrade timeline: " + report.toString());
+
+        new AtomicFile(new File(mDirectory, Consts.UPGRADE_TIMELINE_FILE)).write(new AtomicFile.Content() {
+            @Override // AtomicFile.Content
+            public void writeTo(OutputStream output) throws IOException {
+                mTimeline.writeTo(output);
+            }
+        });
+        new AtomicFile(new File(mDirectory, Consts.UPGRADE_TIMELINE_REPORT_FILE)).write(new AtomicFile.Content() {
+            @Override // AtomicFile.Content
+            public void writeTo(OutputStream output) throws IOException {
+                report.writeTo(new OutputStreamWriter(output, AtomicFile.CHARSET));
+            }
+        });
+    }
+}
@@ -150,7 +150,8 @@ public class VMUpgradeDialog extends DialogFragment {
             double percentage = progress.getPercentage();
             mTVPercentage.setText(Utils.getStringForPercentage(percentage));
             mProgressBar.setProgress((int) percentage);
-            mTVTime.setText(Utils.getStringForTime(progress.getRemainingTime()));
+            // the remaining time is unknown until the throughput of the link has been measured
+            mTVTime.setText(progress.hasRemainingTime() ? Utils.getStringForTime(progress.getRemainingTime()) : "");
         }
     }
 
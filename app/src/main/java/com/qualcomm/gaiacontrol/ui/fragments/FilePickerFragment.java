@@ -122,6 +122,11 @@ public class FilePickerFragment extends Fragment implements View.OnClickListener
     @Override
     public void onFileSelected(boolean itemSelected) {
         enableValidateButton(itemSelected);
+        File file = itemSelected ? mFilesAdapter.getSelectedItem() : null;
+        if (file != null && isBinFile(file) && mListener != null) {
+            // the file can be analysed while the user confirms the selection
+            mListener.onFilePicked(file);
+        }
     }
 
     @Override
@@ -191,10 +196,7 @@ public class FilePickerFragment extends Fragment implements View.OnClickListener
         }
 
         if (mFile != null) {
-            String[] fileNameSplit = mFile.getName().split("\\.");
-            String extension = fileNameSplit[fileNameSplit.length-1];
-
-            if (extension.equalsIgnoreCase("bin")) {
+            if (isBinFile(mFile)) {
                 // file exists and is a bin file, it can provided to the UpgradeActivity in order to start the update
                 mListener.onStartUpgradePressed(mFile);
             }
@@ -217,6 +219,20 @@ public class FilePickerFragment extends Fragment implements View.OnClickListener
         }
     }
 
+    /**
+     * To know if the given file has the extension of an upgrade file.
+     *
+     * @param file
+     *            The file to check.
+     *
+     * @return true if the file is a bin file.
+     */
+    private boolean isBinFile(File file) {
+        String[] fileNameSplit = file.getName().split("\\.");
+        String extension = fileNameSplit[fileNameSplit.length-1];
+        return extension.equalsIgnoreCase("bin");
+    }
+
     /**
      * To activate or deactivate the UI which allows validation of the selection and continuation to the next step.
      *
@@ -259,5 +275,10 @@ public class FilePickerFragment extends Fragment implements View.OnClickListener
     public interface FilePickerFragmentListener {
 
         void onStartUpgradePressed(File file);
+
+        /**
+         * Called when the user has selected an upgrade file, before they confirm it with the start button.
+         */
+        void onFilePicked(File file);
     }
 }
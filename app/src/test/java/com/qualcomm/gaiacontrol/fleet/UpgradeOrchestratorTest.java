@@ -0,0 +1,239 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.gaiacontrol.fleet;
+
+import com.qualcomm.gaiacontrol.simulator.SimulatedDeviceLink;
+import com.qualcomm.libraries.gaia.GAIA;
+import com.qualcomm.libraries.gaia.GaiaReadCache;
+import com.qualcomm.libraries.gaia.GaiaRequestScheduler;
+import com.qualcomm.libraries.scheduler.VirtualScheduler;
+import com.qualcomm.libraries.vmupgrade.UploadProgress;
+import com.qualcomm.libraries.vmupgrade.VMUUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Tests of the {@link UpgradeOrchestrator UpgradeOrchestrator} against simulated Devices.</p>
+ */
+public class UpgradeOrchestratorTest implements UpgradeOrchestrator.OrchestratorListener {
+
+    private static final long TIME_LIMIT = 10 * 60 * 1000;
+
+    private final VirtualScheduler mScheduler = new VirtualScheduler();
+    private UpgradeOrchestrator mOrchestrator;
+    private final List<SimulatedDeviceLink> mLinks = new ArrayList<>();
+    private File mImage;
+    private int mMaxActive = 0;
+    private int mFleetReports = 0;
+    private FleetStatistics mFinalStatistics;
+
+    @Before
+    public void setUp() throws IOException {
+        byte[] bytes = new byte[4000];
+        new Random(1).nextBytes(bytes);
+        mImage = File.createTempFile("image", ".bin");
+        FileOutputStream stream = new FileOutputStream(mImage);
+        try {
+            stream.write(bytes);
+        }
+        finally {
+            stream.close();
+        }
+        mOrchestrator = new UpgradeOrchestrator(this, mScheduler);
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        mImage.delete();
+    }
+
+    @Test
+    public void allDevices_areUpgradedWithinTheConcurrencyLimit() throws Exception {
+        mOrchestrator.setMaxConcurrentUpgrades(2);
+        for (int i = 0; i < 6; i++) {
+            addDevice(i % 2 == 0 ? GAIA.Transport.BLE : GAIA.Transport.BR_EDR);
+        }
+        run();
+
+        assertNotNull(mFinalStatistics);
+        assertEquals(6, mFinalStatistics.getComplete());
+        assertEquals(0, mFinalStatistics.getFailed());
+        assertEquals(2, mMaxActive);
+        assertTrue(mFleetReports > 0);
+
+        byte[] image = VMUUtils.getBytesFromFile(mImage);
+        long bytesSent = 0;
+        for (int i = 0; i < mLinks.size(); i++) {
+            assertArrayEquals(image, mLinks.get(i).getDevice().getCommittedImage());
+            DeviceUpgrade upgrade = mOrchestrator.getUpgrades().get(i);
+            assertEquals(DeviceUpgrade.State.COMPLETE, upgrade.getState());
+            assertEquals(1, upgrade.getDisconnections());
+            assertEquals(mLinks.get(i).getLoopback().getBytesToDevice(), upgrade.getBytesSent());
+            bytesSent += upgrade.getBytesSent();
+        }
+        assertEquals(bytesSent, mOrchestrator.getStatistics().getBytesSent());
+        assertTrue(mFinalStatistics.getAverageThroughput() > 0);
+    }
+
+    @Test
+    public void concurrentUpgrades_endSoonerThanSequentialOnes() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            addDevice(GAIA.Transport.BLE);
+        }
+        mOrchestrator.setMaxConcurrentUpgrades(1);
+        run();
+        long sequential = mFinalStatistics.getElapsedTime();
+
+        tearDown();
+        setUp();
+        mLinks.clear();
+        for (int i = 0; i < 4; i++) {
+            addDevice(GAIA.Transport.BLE);
+        }
+        mOrchestrator.setMaxConcurrentUpgrades(4);
+        run();
+
+        assertEquals(4, mFinalStatistics.getComplete());
+        assertTrue(mFinalStatistics.getElapsedTime() * 2 < sequential);
+    }
+
+    @Test
+    public void devices_doNotShareTheirRequestScheduler() throws Exception {
+        DeviceUpgrade first = mOrchestrator.add(new SimulatedDeviceLink(mScheduler, "00:02:5B:00:00:01",
+                GAIA.Transport.BLE, 1), mImage);
+        DeviceUpgrade second = mOrchestrator.add(new SimulatedDeviceLink(mScheduler, "00:02:5B:00:00:02",
+                GAIA.Transport.BLE, 2), mImage);
+
+        assertNotNull(first.getManager().getRequestScheduler());
+        assertNotSame(GaiaRequestScheduler.getDefault(), first.getManager().getRequestScheduler());
+        assertNotSame(first.getManager().getRequestScheduler(), second.getManager().getRequestScheduler());
+    }
+
+    @Test
+    public void devices_doNotShareTheirReadCache() throws Exception {
+        DeviceUpgrade first = mOrchestrator.add(new SimulatedDeviceLink(mScheduler, "00:02:5B:00:00:01",
+                GAIA.Transport.BLE, 1), mImage);
+        DeviceUpgrade second = mOrchestrator.add(new SimulatedDeviceLink(mScheduler, "00:02:5B:00:00:02",
+                GAIA.Transport.BLE, 2), mImage);
+
+        assertNotNull(first.getManager().getReadCache());
+        assertNotSame(GaiaReadCache.getDefault(), first.getManager().getReadCache());
+        assertNotSame(first.getManager().getReadCache(), second.getManager().getReadCache());
+    }
+
+    @Test
+    public void cancelledUpgrades_releaseTheirRequestsWhenTheDeviceDoesNotAnswer() throws Exception {
+        mOrchestrator.setMaxConcurrentUpgrades(2);
+        for (int i = 0; i < 2; i++) {
+            addDevice(GAIA.Transport.BLE);
+        }
+        mOrchestrator.start();
+        mScheduler.advanceBy(500);
+        for (SimulatedDeviceLink link : mLinks) {
+            // the Device does not acknowledge the abortion before the link is disconnected
+            link.getLoopback().setLatency(60000);
+        }
+
+        mOrchestrator.cancelAll();
+        mScheduler.advanceBy(3000);
+
+        for (int i = 0; i < mLinks.size(); i++) {
+            assertTrue(mLinks.get(i).isDisconnected());
+            assertEquals(0, mOrchestrator.getUpgrades().get(i).getManager().getRequestScheduler().getInFlight());
+        }
+    }
+
+    @Test
+    public void unreachableDevice_failsWithoutBlockingTheOthers() throws Exception {
+        mOrchestrator.setMaxConcurrentUpgrades(1);
+        addDevice(GAIA.Transport.BLE).setReachable(false);
+        addDevice(GAIA.Transport.BLE);
+        run();
+
+        assertEquals(1, mFinalStatistics.getComplete());
+        assertEquals(1, mFinalStatistics.getFailed());
+        DeviceUpgrade failed = mOrchestrator.getUpgrades().get(0);
+        assertEquals(DeviceUpgrade.State.FAILED, failed.getState());
+        assertNull(failed.getError());
+        assertTrue(mLinks.get(0).isDisconnected());
+        assertNotNull(mLinks.get(1).getDevice().getCommittedImage());
+    }
+
+    @Test
+    public void cancelAll_endsQueuedAndRunningUpgrades() throws Exception {
+        mOrchestrator.setMaxConcurrentUpgrades(2);
+        for (int i = 0; i < 4; i++) {
+            addDevice(GAIA.Transport.BLE);
+        }
+        mOrchestrator.start();
+        mScheduler.advanceBy(500);
+        assertEquals(2, mOrchestrator.getStatistics().getActive());
+
+        mOrchestrator.cancelAll();
+        mScheduler.runUntilIdle(100000);
+
+        assertNotNull(mFinalStatistics);
+        assertEquals(4, mFinalStatistics.getCancelled());
+        assertFalse(mOrchestrator.isRunning());
+        for (SimulatedDeviceLink link : mLinks) {
+            assertNull(link.getDevice().getCommittedImage());
+        }
+    }
+
+
+    // ====== UpgradeOrchestrator.OrchestratorListener =============================================
+
+    @Override // UpgradeOrchestrator.OrchestratorListener
+    public void onUpgradeStateChanged(DeviceUpgrade upgrade) {
+        mMaxActive = Math.max(mMaxActive, mOrchestrator.getStatistics().getActive());
+    }
+
+    @Override // UpgradeOrchestrator.OrchestratorListener
+    public void onUploadProgress(DeviceUpgrade upgrade, UploadProgress progress) {
+    }
+
+    @Override // UpgradeOrchestrator.OrchestratorListener
+    public void onFleetProgress(FleetStatistics statistics) {
+        mFleetReports++;
+    }
+
+    @Override // UpgradeOrchestrator.OrchestratorListener
+    public void onFleetFinished(FleetStatistics statistics) {
+        mFinalStatistics = statistics;
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    private SimulatedDeviceLink addDevice(@GAIA.Transport int transport) {
+        int index = mLinks.size();
+        SimulatedDeviceLink link = new SimulatedDeviceLink(mScheduler, String.format("00:02:5B:00:00:%02X", index),
+                transport, index);
+        mLinks.add(link);
+        mOrchestrator.add(link, mImage);
+        return link;
+    }
+
+    private void run() {
+        mFinalStatistics = null;
+        mOrchestrator.start();
+        while (mFinalStatistics == null && mScheduler.hasPendingTasks()
+                && mScheduler.getNextTaskTime() <= TIME_LIMIT) {
+            mScheduler.runUntilIdle(1);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.gaiacontrol.gaia;
+
+import com.qualcomm.gaiacontrol.simulator.SimulatedUpgrade;
+import com.qualcomm.libraries.gaia.GAIA;
+import com.qualcomm.libraries.gaia.packets.GaiaPacketBLE;
+import com.qualcomm.libraries.vmupgrade.VMUUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Unit tests for the {@link UpgradeGaiaManager UpgradeGaiaManager} which need to reach its package-private
+ * members.</p>
+ */
+public class UpgradeGaiaManagerTest {
+
+    private static final long TIME_LIMIT = 10 * 60 * 1000;
+
+    private File mImage;
+
+    @Before
+    public void setUp() throws IOException {
+        byte[] bytes = new byte[5000];
+        new Random(1).nextBytes(bytes);
+        mImage = File.createTempFile("image", ".bin");
+        FileOutputStream stream = new FileOutputStream(mImage);
+        try {
+            stream.write(bytes);
+        }
+        finally {
+            stream.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        mImage.delete();
+    }
+
+    @Test
+    public void framesLongerThanTheLink_areSentAgainWithinShorterPackets() throws Exception {
+        SimulatedUpgrade upgrade = new SimulatedUpgrade(GAIA.Transport.BLE, 12);
+        upgrade.getHost().setMaxPayloadLength(GaiaPacketBLE.getMaxPayload(247));
+        // the link can carry less than the upgrade manager has been told
+        upgrade.getHost().setLinkMaxPayloadLength(GaiaPacketBLE.getMaxPayload(100));
+        SimulatedUpgrade.Result result = upgrade.run(mImage, TIME_LIMIT);
+
+        assertTrue(result.isComplete());
+        assertArrayEquals(VMUUtils.getBytesFromFile(mImage), upgrade.getDevice().getCommittedImage());
+        assertTrue(result.getLastProgress().getPacketLength() < GaiaPacketBLE.getMaxPayload(100));
+    }
+}
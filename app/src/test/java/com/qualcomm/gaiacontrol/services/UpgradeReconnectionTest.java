@@ -0,0 +1,132 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.gaiacontrol.services;
+
+import com.qualcomm.libraries.scheduler.VirtualScheduler;
+import com.qualcomm.libraries.vmupgrade.retry.RetryPolicy;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Unit tests for the {@link UpgradeReconnection UpgradeReconnection}.</p>
+ */
+public class UpgradeReconnectionTest {
+
+    private static final long ATTEMPT_TIMEOUT = 5000;
+
+    private final VirtualScheduler mScheduler = new VirtualScheduler();
+    private final TestConnector mConnector = new TestConnector();
+    private UpgradeReconnection mReconnection;
+
+    @Before
+    public void setUp() {
+        // 100, 200, 400 ms between the attempts, at most 4 direct attempts
+        RetryPolicy policy = new RetryPolicy(100, 400, 2, 0, 4, 30000);
+        mReconnection = new UpgradeReconnection(mScheduler, mConnector, policy, ATTEMPT_TIMEOUT);
+    }
+
+    @Test
+    public void start_attemptsADirectConnectionAfterTheInitialDelay() {
+        mReconnection.start();
+        mScheduler.advanceBy(99);
+        assertTrue(mConnector.mAttempts.isEmpty());
+
+        mScheduler.advanceBy(1);
+        assertEquals(1, mConnector.mAttempts.size());
+        assertEquals(100, (long) mConnector.mAttempts.get(0));
+        assertTrue(mConnector.mDirect.get(0));
+
+        mScheduler.advanceBy(300);
+        assertEquals(1, mReconnection.onConnected());
+        assertFalse(mReconnection.isRunning());
+        assertEquals(400, mReconnection.getElapsedTime());
+        assertFalse(mScheduler.hasPendingTasks());
+    }
+
+    @Test
+    public void failedAttempts_areRetriedThenFallBackToABackgroundConnection() {
+        mReconnection.start();
+        for (int i = 0; i < 4; i++) {
+            mScheduler.advanceBy(400);
+            mReconnection.onAttemptFailed();
+        }
+        mScheduler.runUntilIdle(10);
+
+        assertEquals(5, mConnector.mAttempts.size());
+        // 100 ms, then 200, 400 and 400 ms after each failure
+        assertEquals(100, (long) mConnector.mAttempts.get(0));
+        assertEquals(600, (long) mConnector.mAttempts.get(1));
+        assertEquals(1200, (long) mConnector.mAttempts.get(2));
+        assertEquals(1600, (long) mConnector.mAttempts.get(3));
+        assertEquals(Boolean.TRUE, mConnector.mDirect.get(3));
+        assertEquals(Boolean.FALSE, mConnector.mDirect.get(4));
+        assertTrue(mReconnection.isInBackground());
+        // the background connection has no timeout
+        assertFalse(mScheduler.hasPendingTasks());
+        assertEquals(5, mReconnection.onConnected());
+    }
+
+    @Test
+    public void attemptTimeout_cancelsTheAttemptAndRetries() {
+        mReconnection.start();
+        mScheduler.advanceBy(100 + ATTEMPT_TIMEOUT);
+
+        assertEquals(1, mConnector.mCancellations);
+        mScheduler.advanceBy(200);
+        assertEquals(2, mConnector.mAttempts.size());
+        assertEquals(2, mReconnection.getAttempts());
+    }
+
+    @Test
+    public void attemptWhichCannotBeInitiated_isRetried() {
+        mConnector.mAccept = false;
+        mReconnection.start();
+        mScheduler.advanceBy(100 + 200 + 400);
+
+        assertEquals(3, mConnector.mAttempts.size());
+        assertEquals(0, mConnector.mCancellations);
+    }
+
+    @Test
+    public void stop_preventsAnyOtherAttempt() {
+        mReconnection.start();
+        mScheduler.advanceBy(100);
+        mReconnection.stop();
+        mReconnection.onAttemptFailed();
+        mScheduler.advanceBy(ATTEMPT_TIMEOUT * 2);
+
+        assertEquals(1, mConnector.mAttempts.size());
+        assertFalse(mReconnection.isRunning());
+    }
+
+
+    // ====== INNER CLASS ==========================================================================
+
+    private class TestConnector implements UpgradeReconnection.Connector {
+
+        private final List<Long> mAttempts = new ArrayList<>();
+        private final List<Boolean> mDirect = new ArrayList<>();
+        private int mCancellations = 0;
+        private boolean mAccept = true;
+
+        @Override // UpgradeReconnection.Connector
+        public boolean connect(boolean direct) {
+            mAttempts.add(mScheduler.now());
+            mDirect.add(direct);
+            return mAccept;
+        }
+
+        @Override // UpgradeReconnection.Connector
+        public void cancel() {
+            mCancellations++;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.gaiacontrol.simulator;
+
+import com.qualcomm.libraries.scheduler.VirtualScheduler;
+
+import java.util.Random;
+
+/**
+ * <p>This class simulates the Bluetooth link between the Host and a {@link SimulatedVMUDevice SimulatedVMUDevice}
+ * on the clock of a {@link VirtualScheduler VirtualScheduler}.</p>
+ * <p>Each direction of the link is modelled as follows:</p>
+ * <ul>
+ *     <li>A frame occupies the link for the time needed to send its bytes at the configured bandwidth: frames are
+ *     queued behind each other.</li>
+ *     <li>A frame is delivered after the configured latency once it has been sent.</li>
+ *     <li>A lost frame is sent again by the link layer after the retransmission delay, as GAIA relies on a reliable
+ *     link. Loss therefore delays the frame and all the frames queued behind it, but frames are never dropped or
+ *     reordered while the link is connected.</li>
+ * </ul>
+ * <p>When the link is disconnected, all the frames which have not been delivered yet are dropped.</p>
+ */
+public class LoopbackTransport {
+
+    // ====== PRIVATE FIELDS =======================================================================
+
+    /**
+     * <p>The scheduler which provides the clock of the simulation.</p>
+     */
+    private final VirtualScheduler mScheduler;
+    /**
+     * <p>The random generator used to simulate the loss, seeded to get reproducible runs.</p>
+     */
+    private final Random mRandom;
+    /**
+     * <p>The direction from the Host to the Device.</p>
+     */
+    private final Channel mToDevice = new Channel();
+    /**
+     * <p>The direction from the Device to the Host.</p>
+     */
+    private final Channel mToHost = new Channel();
+    /**
+     * <p>The one way latency of the link in milliseconds.</p>
+     */
+    private long mLatency = 15;
+    /**
+     * <p>The bandwidth of the link in bytes per second, 0 for an infinite bandwidth.</p>
+     */
+    private long mBandwidth = 0;
+    /**
+     * <p>The probability for a frame to be lost, from 0 to 1.</p>
+     */
+    private double mLossRate = 0;
+    /**
+     * <p>The time the link layer waits before to send a lost frame again.</p>
+     */
+    private long mRetransmissionDelay = 30;
+    /**
+     * <p>The endpoint which receives the frames sent to the Host.</p>
+     */
+    private Endpoint mHost;
+    /**
+     * <p>The endpoint which receives the frames sent to the Device.</p>
+     */
+    private Endpoint mDevice;
+    /**
+     * <p>To know if the link is connected.</p>
+     */
+    private boolean isConnected = true;
+    /**
+     * <p>Incremented at each disconnection in order to drop the frames sent before it.</p>
+     */
+    private int mConnectionCount = 0;
+    /**
+     * <p>The number of frames which had to be sent again.</p>
+     */
+    private long mRetransmissions = 0;
+
+
+    // ====== CONSTRUCTOR ==========================================================================
+
+    /**
+     * <p>To build a link which runs on the given scheduler.</p>
+     *
+     * @param scheduler
+     *          The scheduler which provides the clock of the simulation.
+     * @param seed
+     *          The seed of the random generator which simulates the loss.
+     */
+    public LoopbackTransport(VirtualScheduler scheduler, long seed) {
+        mScheduler = scheduler;
+        mRandom = new Random(seed);
+    }
+
+
+    // ====== PUBLIC METHODS =======================================================================
+
+    /**
+     * <p>To define the one way latency of the link.</p>
+     */
+    public LoopbackTransport setLatency(long millis) {
+        mLatency = millis;
+        return this;
+    }
+
+    /**
+     * <p>To define the bandwidth of the link in bytes per second, 0 for an infinite bandwidth.</p>
+     */
+    public LoopbackTransport setBandwidth(long bytesPerSecond) {
+        mBandwidth = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * <p>To define the probability for a frame to be lost and the time the link layer waits before to send it
+     * again.</p>
+     */
+    public LoopbackTransport setLoss(double rate, long retransmissionDelay) {
+        mLossRate = rate;
+        mRetransmissionDelay = retransmissionDelay;
+        return this;
+    }
+
+    /**
+     * <p>To define the endpoints of the link.</p>
+     */
+    public void setEndpoints(Endpoint host, Endpoint device) {
+        mHost = host;
+        mDevice = device;
+    }
+
+    /**
+     * <p>To send a frame from the Host to the Device.</p>
+     *
+     * @return false if the link is not connected.
+     */
+    public boolean sendToDevice(byte[] frame) {
+        return send(mToDevice, mDevice, frame);
+    }
+
+    /**
+     * <p>To send a frame from the Device to the Host.</p>
+     *
+     * @return false if the link is not connected.
+     */
+    public boolean sendToHost(byte[] frame) {
+        return send(mToHost, mHost, frame);
+    }
+
+    /**
+     * <p>To connect or disconnect the link. A disconnection drops all the frames which have not been delivered
+     * yet.</p>
+     */
+    public void setConnected(boolean connected) {
+        if (isConnected && !connected) {
+            mConnectionCount++;
+            mToDevice.reset();
+            mToHost.reset();
+        }
+        isConnected = connected;
+    }
+
+    /**
+     * <p>To know if the link is connected.</p>
+     */
+    public boolean isConnected() {
+        return isConnected;
+    }
+
+    /**
+     * <p>To get the number of frames which had to be sent again.</p>
+     */
+    public long getRetransmissions() {
+        return mRetransmissions;
+    }
+
+    /**
+     * <p>To get the number of bytes sent from the Host to the Device.</p>
+     */
+    public long getBytesToDevice() {
+        return mToDevice.mBytes;
+    }
+
+    /**
+     * <p>To get the number of frames sent from the Host to the Device.</p>
+     */
+    public long getFramesToDevice() {
+        return mToDevice.mFrames;
+    }
+
+    /**
+     * <p>To get the number of frames sent from the Device to the Host.</p>
+     */
+    public long getFramesToHost() {
+        return mToHost.mFrames;
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    /**
+     * <p>To queue a frame on the given channel and to schedule its delivery.</p>
+     */
+    private boolean send(Channel channel, final Endpoint endpoint, byte[] frame) {
+        if (!isConnected || endpoint == null) {
+            return false;
+        }
+
+        long now = mScheduler.now();
+        long start = channel.mAvailableTime > now ? channel.mAvailableTime : now;
+        long transmission = mBandwidth > 0 ? (frame.length * 1000L) / mBandwidth : 0;
+        long end = start + transmission;
+        while (mLossRate > 0 && mRandom.nextDouble() < mLossRate) {
+            end += mRetransmissionDelay + transmission;
+            mRetransmissions++;
+        }
+        channel.mAvailableTime = end;
+        channel.mFrames++;
+        channel.mBytes += frame.length;
+
+        // the sender can reuse its buffer once the frame has been written
+        final byte[] copy = frame.clone();
+        final int connection = mConnectionCount;
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (connection == mConnectionCount) {
+                    endpoint.onReceive(copy);
+                }
+            }
+        }, end + mLatency - now);
+        return true;
+    }
+
+
+    // ====== INNER CLASSES ========================================================================
+
+    /**
+     * <p>The state of one direction of the link.</p>
+     */
+    private static final class Channel {
+        /**
+         * <p>The time at which the link is free to send the next frame.</p>
+         */
+        long mAvailableTime = 0;
+        /**
+         * <p>The number of frames sent over this channel.</p>
+         */
+        long mFrames = 0;
+        /**
+         * <p>The number of bytes sent over this channel.</p>
+         */
+        long mBytes = 0;
+
+        void reset() {
+            mAvailableTime = 0;
+        }
+    }
+
+
+    // ====== INTERFACES ===========================================================================
+
+    /**
+     * <p>An end of the link which receives the frames.</p>
+     */
+    public interface Endpoint {
+        /**
+         * <p>Called when a frame has been delivered.</p>
+         */
+        void onReceive(byte[] frame);
+    }
+}
@@ -0,0 +1,171 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.gaiacontrol.simulator;
+
+import com.qualcomm.gaiacontrol.fleet.DeviceLink;
+import com.qualcomm.libraries.gaia.GAIA;
+import com.qualcomm.libraries.scheduler.VirtualScheduler;
+
+/**
+ * <p>This class is a {@link DeviceLink DeviceLink} with a {@link SimulatedVMUDevice SimulatedVMUDevice} over its
+ * own {@link LoopbackTransport LoopbackTransport}, so that several simulated Devices can be upgraded at the same
+ * time on the clock of one {@link VirtualScheduler VirtualScheduler}.</p>
+ * <p>A connection takes {@link #CONNECTION_TIME CONNECTION_TIME} ms. While the Device reboots the connection waits
+ * for the Device to be back.</p>
+ */
+public class SimulatedDeviceLink implements DeviceLink, SimulatedVMUDevice.ConnectionListener {
+
+    /**
+     * <p>The time the connection of the link takes.</p>
+     */
+    public static final long CONNECTION_TIME = 100;
+
+    private final VirtualScheduler mScheduler;
+    private final String mAddress;
+    private final @GAIA.Transport int mTransportType;
+    private final LoopbackTransport mTransport;
+    private final SimulatedVMUDevice mDevice;
+    private Listener mListener;
+    private boolean isReachable = true;
+    private boolean isConnecting = false;
+    private boolean isConnected = false;
+    private int mConnections = 0;
+
+    private final Runnable mConnection = new Runnable() {
+        @Override
+        public void run() {
+            isConnecting = false;
+            if (mListener == null) {
+                return;
+            }
+            if (isReachable) {
+                isConnected = true;
+                mConnections++;
+                mListener.onLinkConnected();
+            }
+            else {
+                mListener.onLinkDisconnected();
+            }
+        }
+    };
+
+    /**
+     * <p>To build a link with a new simulated Device.</p>
+     *
+     * @param scheduler
+     *          The clock of the simulation.
+     * @param address
+     *          The address of the Device.
+     * @param transport
+     *          The GAIA transport: {@link GAIA.Transport#BLE BLE} or {@link GAIA.Transport#BR_EDR BR/EDR}.
+     * @param seed
+     *          The seed of the random generator which simulates the loss on the link.
+     */
+    public SimulatedDeviceLink(VirtualScheduler scheduler, String address, @GAIA.Transport int transport,
+                               long seed) {
+        mScheduler = scheduler;
+        mAddress = address;
+        mTransportType = transport;
+        mTransport = new LoopbackTransport(scheduler, seed);
+        mDevice = new SimulatedVMUDevice(scheduler, mTransport, transport);
+        mDevice.setConnectionListener(this);
+        mTransport.setEndpoints(new LoopbackTransport.Endpoint() {
+            @Override
+            public void onReceive(byte[] frame) {
+                if (isConnected && mListener != null) {
+                    mListener.onPacketReceived(frame);
+                }
+            }
+        }, mDevice);
+    }
+
+    public LoopbackTransport getLoopback() {
+        return mTransport;
+    }
+
+    public SimulatedVMUDevice getDevice() {
+        return mDevice;
+    }
+
+    /**
+     * <p>To define if the Device can be connected: when it is not reachable all the connection attempts fail.</p>
+     */
+    public SimulatedDeviceLink setReachable(boolean reachable) {
+        isReachable = reachable;
+        return this;
+    }
+
+    /**
+     * <p>To get the number of times the link has been connected.</p>
+     */
+    public int getConnections() {
+        return mConnections;
+    }
+
+    /**
+     * <p>To know if the link has been released: it is not connected, not connecting and has no listener.</p>
+     */
+    public boolean isDisconnected() {
+        return mListener == null && !isConnected && !isConnecting;
+    }
+
+
+    // ====== DeviceLink ===========================================================================
+
+    @Override // DeviceLink
+    public String getAddress() {
+        return mAddress;
+    }
+
+    @Override // DeviceLink
+    public @GAIA.Transport int getTransport() {
+        return mTransportType;
+    }
+
+    @Override // DeviceLink
+    public void connect(Listener listener) {
+        mListener = listener;
+        if (isConnected || isConnecting) {
+            return;
+        }
+        isConnecting = true;
+        if (mTransport.isConnected() || !isReachable) {
+            mScheduler.schedule(mConnection, CONNECTION_TIME);
+        }
+        // otherwise the Device is rebooting: the connection is made when it is back
+    }
+
+    @Override // DeviceLink
+    public boolean send(byte[] packet) {
+        return isConnected && mTransport.sendToDevice(packet);
+    }
+
+    @Override // DeviceLink
+    public void disconnect() {
+        mListener = null;
+        isConnected = false;
+        isConnecting = false;
+        mScheduler.cancel(mConnection);
+    }
+
+
+    // ====== SimulatedVMUDevice.ConnectionListener ================================================
+
+    @Override // SimulatedVMUDevice.ConnectionListener
+    public void onDisconnected() {
+        boolean wasConnected = isConnected;
+        isConnected = false;
+        if (wasConnected && mListener != null) {
+            mListener.onLinkDisconnected();
+        }
+    }
+
+    @Override // SimulatedVMUDevice.ConnectionListener
+    public void onConnected() {
+        if (isConnecting) {
+            mScheduler.schedule(mConnection, CONNECTION_TIME);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.gaiacontrol.simulator;
+
+import com.qualcomm.gaiacontrol.gaia.UpgradeGaiaManager;
+import com.qualcomm.libraries.gaia.GAIA;
+import com.qualcomm.libraries.gaia.GaiaRequestScheduler;
+import com.qualcomm.libraries.scheduler.VirtualScheduler;
+import com.qualcomm.libraries.vmupgrade.UpgradeError;
+import com.qualcomm.libraries.vmupgrade.UpgradeManager;
+import com.qualcomm.libraries.vmupgrade.UploadProgress;
+import com.qualcomm.libraries.vmupgrade.codes.ResumePoints;
+
+import java.io.File;
+
+/**
+ * <p>This class runs a whole upgrade between an {@link UpgradeGaiaManager UpgradeGaiaManager} and a
+ * {@link SimulatedVMUDevice SimulatedVMUDevice} connected by a {@link LoopbackTransport LoopbackTransport}, on the
+ * clock of a {@link VirtualScheduler VirtualScheduler}.</p>
+ * <p>The Host confirms every step of the upgrade as soon as it is asked, and resumes the upgrade when the Device
+ * reconnects after its reboot, as the application does.</p>
+ */
+public class SimulatedUpgrade implements UpgradeGaiaManager.GaiaManagerListener,
+        SimulatedVMUDevice.ConnectionListener {
+
+    // ====== PRIVATE FIELDS =======================================================================
+
+    private final VirtualScheduler mScheduler = new VirtualScheduler();
+    private final LoopbackTransport mTransport;
+    private final SimulatedVMUDevice mDevice;
+    private final UpgradeGaiaManager mHost;
+
+    private boolean isFinished = false;
+    private UpgradeError mError = null;
+    private UploadProgress mLastProgress = null;
+    private long mValidationTime = -1;
+
+
+    // ====== CONSTRUCTOR ==========================================================================
+
+    /**
+     * <p>To build the Host, the Device and the link between them.</p>
+     *
+     * @param transport
+     *          The GAIA transport: {@link GAIA.Transport#BLE BLE} or {@link GAIA.Transport#BR_EDR BR/EDR}.
+     * @param seed
+     *          The seed of the random generator which simulates the loss on the link.
+     */
+    public SimulatedUpgrade(@GAIA.Transport int transport, long seed) {
+        mTransport = new LoopbackTransport(mScheduler, seed);
+        mDevice = new SimulatedVMUDevice(mScheduler, mTransport, transport);
+        mHost = new UpgradeGaiaManager(this, transport, mScheduler);
+        // the simulation does not share the scheduler of the application
+        mHost.setRequestScheduler(new GaiaRequestScheduler(GaiaRequestScheduler.DEFAULT_MAX_IN_FLIGHT));
+
+        mDevice.setConnectionListener(this);
+        mTransport.setEndpoints(new LoopbackTransport.Endpoint() {
+            @Override
+            public void onReceive(byte[] frame) {
+                mHost.onReceiveGAIAPacket(frame);
+            }
+        }, mDevice);
+    }
+
+
+    // ====== PUBLIC METHODS =======================================================================
+
+    public LoopbackTransport getTransport() {
+        return mTransport;
+    }
+
+    public SimulatedVMUDevice getDevice() {
+        return mDevice;
+    }
+
+    public UpgradeGaiaManager getHost() {
+        return mHost;
+    }
+
+    public VirtualScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    /**
+     * <p>To run the upgrade of the given image until it finishes, fails or the clock reaches the time limit.</p>
+     *
+     * @param image
+     *          The image to upload.
+     * @param timeLimit
+     *          The time of the simulation after which the upgrade is considered as failed.
+     *
+     * @return the result of the upgrade.
+     */
+    public Result run(File image, long timeLimit) {
+        long startTime = mScheduler.now();
+        long wallStart = System.nanoTime();
+        isFinished = false;
+        mError = null;
+
+        mHost.startUpgrade(image);
+        while (!isFinished && mError == null && mScheduler.hasPendingTasks()
+                && mScheduler.getNextTaskTime() <= timeLimit) {
+            mScheduler.runUntilIdle(1);
+        }
+
+        return new Result(image.length(), startTime, System.nanoTime() - wallStart);
+    }
+
+
+    // ====== UpgradeGaiaManager.GaiaManagerListener ===============================================
+
+    @Override // UpgradeGaiaManager.GaiaManagerListener
+    public void onVMUpgradeDisconnected() {
+    }
+
+    @Override // UpgradeGaiaManager.GaiaManagerListener
+    public void onResumePointChanged(@ResumePoints.Enum int point) {
+        if (point == ResumePoints.Enum.VALIDATION) {
+            mValidationTime = mScheduler.now();
+        }
+    }
+
+    @Override // UpgradeGaiaManager.GaiaManagerListener
+    public void onUpgradeError(UpgradeError error) {
+        mError = error;
+    }
+
+    @Override // UpgradeGaiaManager.GaiaManagerListener
+    public void onUploadProgress(UploadProgress progress) {
+        mLastProgress = progress;
+    }
+
+    @Override // UpgradeGaiaManager.GaiaManagerListener
+    public boolean sendGAIAUpgradePacket(byte[] packet) {
+        return mTransport.sendToDevice(packet);
+    }
+
+    @Override // UpgradeGaiaManager.GaiaManagerListener
+    public void onUpgradeFinish() {
+        isFinished = true;
+    }
+
+    @Override // UpgradeGaiaManager.GaiaManagerListener
+    public void askConfirmation(@UpgradeManager.ConfirmationType int type) {
+        mHost.sendConfirmation(type, true);
+    }
+
+
+    // ====== SimulatedVMUDevice.ConnectionListener ================================================
+
+    @Override // SimulatedVMUDevice.ConnectionListener
+    public void onDisconnected() {
+        mHost.reset();
+    }
+
+    @Override // SimulatedVMUDevice.ConnectionListener
+    public void onConnected() {
+        mHost.onGaiaReady();
+    }
+
+
+    // ====== INNER CLASSES ========================================================================
+
+    /**
+     * <p>The result of a simulated upgrade. All the times are given in milliseconds of the simulation clock.</p>
+     */
+    public final class Result {
+        private final long mImageLength;
+        private final long mStartTime;
+        private final long mWallTime;
+
+        private Result(long imageLength, long startTime, long wallTime) {
+            mImageLength = imageLength;
+            mStartTime = startTime;
+            mWallTime = wallTime;
+        }
+
+        /**
+         * <p>To know if the Device has committed the upgrade and the Host has been informed of it.</p>
+         */
+        public boolean isComplete() {
+            return isFinished && mDevice.getCompleteTime() >= 0;
+        }
+
+        public UpgradeError getError() {
+            return mError;
+        }
+
+        public UploadProgress getLastProgress() {
+            return mLastProgress;
+        }
+
+        /**
+         * <p>To get the time between the first UPGRADE_DATA message and the start of the validation.</p>
+         */
+        public long getTransferTime() {
+            return mDevice.getTransferStartTime() < 0 || mValidationTime < 0 ? -1
+                    : mValidationTime - mDevice.getTransferStartTime();
+        }
+
+        /**
+         * <p>To get the throughput of the image data during the transfer in bytes per second.</p>
+         */
+        public double getTransferThroughput() {
+            long time = getTransferTime();
+            return time > 0 ? mImageLength * 1000.0 / time : 0;
+        }
+
+        /**
+         * <p>To get the time between the start of the upgrade and the commit of the image by the Device.</p>
+         */
+        public long getTimeToCommit() {
+            return mDevice.getCompleteTime() < 0 ? -1 : mDevice.getCompleteTime() - mStartTime;
+        }
+
+        /**
+         * <p>To get the real time the simulation took in nanoseconds.</p>
+         */
+        public long getWallTime() {
+            return mWallTime;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.gaiacontrol.simulator;
+
+import com.qualcomm.gaiacontrol.gaia.UpgradeGaiaManager;
+import com.qualcomm.libraries.gaia.GAIA;
+import com.qualcomm.libraries.gaia.packets.GaiaPacketBLE;
+import com.qualcomm.libraries.scheduler.VirtualScheduler;
+import com.qualcomm.libraries.vmupgrade.UpgradeError;
+import com.qualcomm.libraries.vmupgrade.VMUUtils;
+import com.qualcomm.libraries.vmupgrade.codes.ResumePoints;
+import com.qualcomm.libraries.vmupgrade.image.ImageDigester;
+import com.qualcomm.libraries.vmupgrade.image.ImagePreflight;
+import com.qualcomm.libraries.vmupgrade.image.ImagePreflightAnalyser;
+import com.qualcomm.libraries.vmupgrade.journal.TransferCheckpoint;
+import com.qualcomm.libraries.vmupgrade.journal.TransferCheckpoints;
+import com.qualcomm.libraries.vmupgrade.packet.VMUException;
+import com.qualcomm.libraries.vmupgrade.retry.ReadinessCache;
+import com.qualcomm.libraries.vmupgrade.retry.RetryPolicy;
+import com.qualcomm.libraries.vmupgrade.timeline.TimelineAnalyser;
+import com.qualcomm.libraries.vmupgrade.timeline.TimelineReport;
+import com.qualcomm.libraries.vmupgrade.timeline.UpgradeTimeline;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>End to end tests of the upgrade process between the {@link com.qualcomm.gaiacontrol.gaia.UpgradeGaiaManager
+ * UpgradeGaiaManager} and a {@link SimulatedVMUDevice SimulatedVMUDevice}.</p>
+ */
+public class SimulatedUpgradeTest {
+
+    private static final long TIME_LIMIT = 10 * 60 * 1000;
+    private static final String DEVICE = "00:02:5B:00:00:01";
+
+    private File mImage;
+
+    @Before
+    public void setUp() throws IOException {
+        mImage = createImage(5000, 1);
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        mImage.delete();
+    }
+
+    @Test
+    public void upgradeOverBLE_commitsTheWholeImage() throws Exception {
+        SimulatedUpgrade upgrade = new SimulatedUpgrade(GAIA.Transport.BLE, 1);
+        SimulatedUpgrade.Result result = upgrade.run(mImage, TIME_LIMIT);
+
+        assertNull(result.getError());
+        assertTrue(result.isComplete());
+        assertArrayEquals(VMUUtils.getBytesFromFile(mImage), upgrade.getDevice().getCommittedImage());
+        assertEquals(1, upgrade.getDevice().getReboots());
+        assertEquals(100, result.getLastProgress().getPercentage(), 0);
+        assertTrue(result.getTransferTime() > 0);
+        assertTrue(result.getTimeToCommit() > result.getTransferTime());
+    }
+
+    @Test
+    public void upgradeOverBREDR_withLossAndOddChunks_commitsTheWholeImage() throws Exception {
+        SimulatedUpgrade upgrade = new SimulatedUpgrade(GAIA.Transport.BR_EDR, 2);
+        upgrade.getTransport().setBandwidth(50000).setLoss(0.2, 20);
+        upgrade.getDevice().setChunkSize(1000);
+        SimulatedUpgrade.Result result = upgrade.run(mImage, TIME_LIMIT);
+
+        assertTrue(result.isComplete());
+        assertArrayEquals(VMUUtils.getBytesFromFile(mImage), upgrade.getDevice().getCommittedImage());
+        assertTrue(upgrade.getTransport().getRetransmissions() > 0);
+    }
+
+    @Test
+    public void negotiatedMtu_sendsBiggerDataPackets() throws Exception {
+        SimulatedUpgrade upgrade = new SimulatedUpgrade(GAIA.Transport.BLE, 11);
+        upgrade.getTransport().setBandwidth(20000);
+        SimulatedUpgrade.Result result = upgrade.run(mImage, TIME_LIMIT);
+        assertTrue(result.isComplete());
+        assertEquals(12, result.getLastProgress().getPacketLength());
+        int defaultPackets = upgrade.getDevice().getDataPackets();
+        long defaultTime = result.getTransferTime();
+
+        upgrade = new SimulatedUpgrade(GAIA.Transport.BLE, 11);
+        upgrade.getTransport().setBandwidth(20000);
+        upgrade.getHost().setMaxPayloadLength(GaiaPacketBLE.getMaxPayload(247));
+        result = upgrade.run(mImage, TIME_LIMIT);
+
+        assertTrue(result.isComplete());
+        assertArrayEquals(VMUUtils.getBytesFromFile(mImage), upgrade.getDevice().getCommittedImage());
+        // 247 bytes of MTU minus the ATT, GAIA and VMU headers and the last packet flag
+        assertEquals(236, result.getLastProgress().getPacketLength());
+        assertTrue(upgrade.getDevice().getDataPackets() * 10 < defaultPackets);
+        assertTrue(result.getTransferTime() * 5 < defaultTime);
+    }
+
+    @Test
+    public void appNotReady_isRetriedUntilTheDeviceIsReady() throws Exception {
+        SimulatedUpgrade upgrade = new SimulatedUpgrade(GAIA.Transport.BLE, 3);
+        upgrade.getDevice().setAppNotReadyCount(2);
+        SimulatedUpgrade.Result result = upgrade.run(mImage, TIME_LIMIT);
+
+        assertTrue(result.isComplete());
+        // before the transfer and after the reboot
+        assertEquals(4, upgrade.getDevice().getAppNotReadyAnswers());
+    }
+
+    @Test
+    public void appNotReady_abortsTheUpgradeWhenTheDeviceIsNeverReady() throws Exception {
+        SimulatedUpgrade upgrade = new SimulatedUpgrade(GAIA.Transport.BLE, 4);
+        upgrade.getDevice().setAppNotReadyCount(Integer.MAX_VALUE);
+        SimulatedUpgrade.Result result = upgrade.run(mImage, TIME_LIMIT);
+
+        assertFalse(result.isComplete());
+        assertNotNull(result.getError());
+        assertEquals(UpgradeError.ErrorTypes.ERROR_BOARD_NOT_READY, result.getError().getError());
+        assertNull(upgrade.getDevice().getCommittedImage());
+    }
+
+    @Test
+    public void learntReadinessTime_reducesTheStartRetries() throws Exception {
+        SimulatedUpgrade upgrade = new SimulatedUpgrade(GAIA.Transport.BLE, 5);
+        upgrade.getDevice().setAppNotReadyTime(1500);
+        SimulatedUpgrade.Result result = upgrade.run(mImage, TIME_LIMIT);
+        assertTrue(result.isComplete());
+        int notReadyWithoutCache = upgrade.getDevice().getAppNotReadyAnswers();
+
+        File storage = File.createTempFile("readiness", ".txt");
+        try {
+            ReadinessCache cache = new ReadinessCache(storage);
+            cache.recordReadinessTime(DEVICE, 1500);
+            upgrade = new SimulatedUpgrade(GAIA.Transport.BLE, 5);
+            upgrade.getDevice().setAppNotReadyTime(1500);
+            upgrade.getHost().setReadinessCache(cache, DEVICE);
+            result = upgrade.run(mImage, TIME_LIMIT);
+
+            assertTrue(result.isComplete());
+            // the first retry of each start is sent when the device is expected to be ready
+            assertTrue(upgrade.getDevice().getAppNotReadyAnswers() < notReadyWithoutCache);
+            assertTrue(upgrade.getDevice().getAppNotReadyAnswers() <= 4);
+            assertTrue(upgrade.getHost().getRetryStatistics().getLastReadinessTime() >= 1500);
+            assertTrue(cache.getReadinessTime(DEVICE) >= 1500);
+        }
+        finally {
+            //noinspection ResultOfMethodCallIgnored
+            storage.delete();
+        }
+    }
+
+    @Test
+    public void validation_followsTheWaitingTimeOfTheDevice() throws Exception {
+        SimulatedUpgrade upgrade = new SimulatedUpgrade(GAIA.Transport.BLE, 6);
+        upgrade.getDevice().setValidationTime(3000);
+        SimulatedUpgrade.Result result = upgrade.run(mImage, TIME_LIMIT);
+
+        assertTrue(result.isComplete());
+        // one poll to get the waiting time, then about one poll at the end of the validation
+        assertTrue(upgrade.getDevice().getValidationPolls() <= 4);
+        assertTrue(upgrade.getHost().getRetryStatistics().getValidationTime() >= 2700);
+    }
+
+    @Test
+    public void validation_abortsTheUpgradeAfterTheDeadline() throws Exception {
+        SimulatedUpgrade upgrade = new SimulatedUpgrade(GAIA.Transport.BLE, 7);
+        upgrade.getDevice().setValidationTime(60000);
+        upgrade.getHost().setValidationRetryPolicy(new RetryPolicy(100, 5000, 2, 0, RetryPolicy.UNLIMITED, 10000));
+        SimulatedUpgrade.Result result = upgrade.run(mImage, TIME_LIMIT);
+
+        assertFalse(result.isComplete());
+        assertNotNull(result.getError());
+        assertEquals(UpgradeError.ErrorTypes.ERROR_BOARD_NOT_READY, result.getError().getError());
+        assertEquals(1, upgrade.getHost().getRetryStatistics().getExhaustedPolicies());
+    }
+
+    @Test
+    public void checkpoint_letsTheNextUpgradeContinueWhereTheDeviceIs() throws Exception {
+        File storage = File.createTempFile("checkpoints", ".txt");
+        try {
+            TransferCheckpoints checkpoints = new TransferCheckpoints(storage);
+            SimulatedUpgrade upgrade = new SimulatedUpgrade(GAIA.Transport.BLE, 8);
+            upgrade.getDevice().setValidationTime(20000);
+            upgrade.getHost().setCheckpoints(checkpoints, DEVICE);
+            upgrade.getHost().setValidationRetryPolicy(new RetryPolicy(100, 5000, 2, 0, RetryPolicy.UNLIMITED, 10000));
+            SimulatedUpgrade.Result result = upgrade.run(mImage, TIME_LIMIT);
+
+            // the upgrade is stopped without being aborted: the device keeps the image
+            assertFalse(result.isComplete());
+            assertEquals(UpgradeError.ErrorTypes.ERROR_BOARD_NOT_READY, result.getError().getError());
+            assertEquals(ResumePoints.Enum.VALIDATION, upgrade.getDevice().getResumePoint());
+            TransferCheckpoint checkpoint = new TransferCheckpoints(storage).get(DEVICE);
+            assertNotNull(checkpoint);
+            assertEquals(mImage.length(), checkpoint.getAcknowledgedBytes());
+            assertEquals(ResumePoints.Enum.VALIDATION, checkpoint.getResumePoint());
+            int dataPackets = upgrade.getDevice().getDataPackets();
+
+            upgrade.getHost().setValidationRetryPolicy(null);
+            result = upgrade.run(mImage, TIME_LIMIT);
+
+            assertTrue(result.isComplete());
+            assertEquals(dataPackets, upgrade.getDevice().getDataPackets());
+            assertArrayEquals(VMUUtils.getBytesFromFile(mImage), upgrade.getDevice().getCommittedImage());
+            assertEquals(mImage.length(), upgrade.getHost().getRetryStatistics().getSkippedBytes());
+            assertEquals(0, upgrade.getHost().getRetryStatistics().getResentBytes());
+            assertNull(checkpoints.get(DEVICE));
+        }
+        finally {
+            //noinspection ResultOfMethodCallIgnored
+            storage.delete();
+        }
+    }
+
+    @Test
+    public void analysedImage_isNotOpenedAgainByTheUpgrade() throws Exception {
+        ImagePreflightAnalyser analyser = new ImagePreflightAnalyser(new VirtualScheduler(), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        analyser.analyse(mImage, UpgradeGaiaManager.getChunkLength(GAIA.Transport.BLE), null);
+        ImagePreflight preflight = analyser.getPreflight(mImage);
+        assertNotNull(preflight);
+
+        SimulatedUpgrade upgrade = new SimulatedUpgrade(GAIA.Transport.BLE, 8);
+        upgrade.getHost().setPreflightAnalyser(analyser);
+        SimulatedUpgrade.Result result = upgrade.run(mImage, TIME_LIMIT);
+
+        assertTrue(result.isComplete());
+        assertArrayEquals(VMUUtils.getBytesFromFile(mImage), upgrade.getDevice().getCommittedImage());
+        // the source opened by the analysis has been used by the upgrade
+        assertNull(preflight.takeSource());
+        analyser.release();
+    }
+
+    @Test
+    public void imageDigester_computesTheIdentifierBeforeTheFirstRequest() throws Exception {
+        SimulatedUpgrade upgrade = new SimulatedUpgrade(GAIA.Transport.BLE, 12);
+        final List<Runnable> digests = new ArrayList<>();
+        ImageDigester digester = new ImageDigester(upgrade.getScheduler(), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                digests.add(command);
+                // the digest is computed while the Host waits for it
+                command.run();
+            }
+        });
+        upgrade.getHost().setImageDigester(digester);
+        UpgradeTimeline timeline = new UpgradeTimeline();
+        upgrade.getHost().setTimeline(timeline);
+        SimulatedUpgrade.Result result = upgrade.run(mImage, TIME_LIMIT);
+
+        assertTrue(result.isComplete());
+        assertEquals(1, digests.size());
+        assertArrayEquals(VMUUtils.getBytesFromFile(mImage), upgrade.getDevice().getCommittedImage());
+        assertEquals(UpgradeTimeline.Event.UPGRADE_STARTED, timeline.getEvent(0));
+    }
+
+    @Test
+    public void emptyImage_isRejectedBeforeTheTransfer() throws Exception {
+        File empty = createImage(0, 9);
+        try {
+            SimulatedUpgrade upgrade = new SimulatedUpgrade(GAIA.Transport.BLE, 9);
+            SimulatedUpgrade.Result result = upgrade.run(empty, TIME_LIMIT);
+
+            assertFalse(result.isComplete());
+            assertNotNull(result.getError());
+            assertEquals(UpgradeError.ErrorTypes.EXCEPTION, result.getError().getError());
+            assertEquals(VMUException.Type.INVALID_IMAGE, result.getError().getException().getType());
+            assertEquals(0, upgrade.getDevice().getValidationPolls());
+        }
+        finally {
+            //noinspection ResultOfMethodCallIgnored
+            empty.delete();
+        }
+    }
+
+    @Test
+    public void timeline_recordsThePhasesOfTheUpgrade() throws Exception {
+        SimulatedUpgrade upgrade = new SimulatedUpgrade(GAIA.Transport.BLE, 10);
+        upgrade.getDevice().setAppNotReadyCount(2);
+        UpgradeTimeline timeline = new UpgradeTimeline();
+        upgrade.getHost().setTimeline(timeline);
+        SimulatedUpgrade.Result result = upgrade.run(mImage, TIME_LIMIT);
+
+        assertTrue(result.isComplete());
+        assertEquals(UpgradeTimeline.Event.UPGRADE_STARTED, timeline.getEvent(0));
+        assertEquals(5000, timeline.getValue(0));
+        assertEquals(UpgradeTimeline.Event.ENDED, timeline.getEvent(timeline.size() - 1));
+        assertEquals(1, timeline.getValue(timeline.size() - 1));
+
+        TimelineReport report = new TimelineAnalyser().analyse(timeline);
+        assertEquals(0, report.getDroppedEvents());
+        assertEquals(4, report.getAppNotReadyAnswers());
+        assertTrue(report.getAckCount() > 0);
+        assertTrue(report.getDataRequests() > 0);
+        assertTrue(report.getPhaseDuration(TimelineReport.Phase.START) > 0);
+        assertTrue(report.getPhaseDuration(TimelineReport.Phase.DATA_TRANSFER) > 0);
+        assertTrue(report.getPhaseDuration(TimelineReport.Phase.REBOOT) > 0);
+    }
+
+    /**
+     * <p>To create a file of random bytes.</p>
+     */
+    static File createImage(int length, long seed) throws IOException {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        File file = File.createTempFile("image", ".bin");
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            stream.write(bytes);
+        }
+        finally {
+            stream.close();
+        }
+        return file;
+    }
+}
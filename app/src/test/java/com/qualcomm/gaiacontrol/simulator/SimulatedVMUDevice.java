@@ -0,0 +1,578 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.gaiacontrol.simulator;
+
+import com.qualcomm.libraries.gaia.GAIA;
+import com.qualcomm.libraries.gaia.GaiaException;
+import com.qualcomm.libraries.gaia.packets.GaiaPacket;
+import com.qualcomm.libraries.gaia.packets.GaiaPacketBLE;
+import com.qualcomm.libraries.gaia.packets.GaiaPacketBREDR;
+import com.qualcomm.libraries.scheduler.VirtualScheduler;
+import com.qualcomm.libraries.vmupgrade.VMUUtils;
+import com.qualcomm.libraries.vmupgrade.codes.OpCodes;
+import com.qualcomm.libraries.vmupgrade.codes.ResumePoints;
+import com.qualcomm.libraries.vmupgrade.packet.VMUException;
+import com.qualcomm.libraries.vmupgrade.packet.VMUPacket;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * <p>This class simulates the bootloader side of the VM Upgrade protocol of a Device, as seen by the Host through
+ * GAIA: it acknowledges the GAIA commands it receives and answers each VM Upgrade message handled by the
+ * {@link com.qualcomm.libraries.vmupgrade.UpgradeManager UpgradeManager} with a
+ * {@link GAIA.NotificationEvents#VMU_PACKET VMU_PACKET} notification.</p>
+ * <p>The Device can be configured to:</p>
+ * <ul>
+ *     <li>request the image in chunks of a given size with UPGRADE_DATA_BYTES_REQ messages,</li>
+ *     <li>answer a number of UPGRADE_START_REQ messages with
+ *     {@link OpCodes.UpgradeStartCFM.Status#ERROR_APP_NOT_READY ERROR_APP_NOT_READY} after each connection,</li>
+ *     <li>take a given time to validate the image and to reboot.</li>
+ * </ul>
+ * <p>After the Host has confirmed the transfer, the Device reboots: it disconnects the link, reconnects it after the
+ * reboot time and expects the Host to resume the upgrade from the
+ * {@link ResumePoints.Enum#IN_PROGRESS IN_PROGRESS} resume point.</p>
+ */
+public class SimulatedVMUDevice implements LoopbackTransport.Endpoint {
+
+    // ====== CONSTANTS ============================================================================
+
+    /**
+     * <p>The protocol version the Device sends in its UPGRADE_SYNC_CFM messages.</p>
+     */
+    private static final byte PROTOCOL_VERSION = 0x02;
+    /**
+     * <p>The maximum waiting time an UPGRADE_IS_VALIDATION_DONE_CFM message can contain.</p>
+     */
+    private static final long MAX_WAITING_TIME = 0xFFFF;
+    /**
+     * <p>The time between the reception of the UPGRADE_TRANSFER_COMPLETE_RES message and the disconnection of the
+     * link, to let the acknowledgement reach the Host.</p>
+     */
+    private static final long REBOOT_DELAY = 100;
+
+
+    // ====== PRIVATE FIELDS =======================================================================
+
+    /**
+     * <p>The scheduler which provides the clock of the simulation.</p>
+     */
+    private final VirtualScheduler mScheduler;
+    /**
+     * <p>The link to the Host.</p>
+     */
+    private final LoopbackTransport mTransport;
+    /**
+     * <p>The GAIA transport used to format the packets.</p>
+     */
+    private final @GAIA.Transport int mTransportType;
+    /**
+     * <p>The listener to inform about the reboots of the Device.</p>
+     */
+    private ConnectionListener mListener;
+    /**
+     * <p>The number of bytes the Device requests at each UPGRADE_DATA_BYTES_REQ message.</p>
+     */
+    private int mChunkSize = 4096;
+    /**
+     * <p>The number of UPGRADE_START_REQ messages answered with ERROR_APP_NOT_READY after each connection.</p>
+     */
+    private int mAppNotReadyCount = 0;
+    /**
+     * <p>The time after the first UPGRADE_START_REQ message of a connection during which the Device answers
+     * ERROR_APP_NOT_READY.</p>
+     */
+    private long mAppNotReadyTime = 0;
+    /**
+     * <p>The time the Device takes to validate the image.</p>
+     */
+    private long mValidationTime = 1000;
+    /**
+     * <p>The time the Device takes to reboot.</p>
+     */
+    private long mRebootTime = 3000;
+    /**
+     * <p>The battery level the Device sends in its UPGRADE_START_CFM messages.</p>
+     */
+    private int mBatteryLevel = 3700;
+    /**
+     * <p>The identifier of the image which is being upgraded.</p>
+     */
+    private int mIdentifier = 0;
+    /**
+     * <p>The step the upgrade has reached.</p>
+     */
+    private @ResumePoints.Enum int mResumePoint = ResumePoints.Enum.DATA_TRANSFER;
+    /**
+     * <p>The bytes of the image which have been received.</p>
+     */
+    private final ByteArrayOutputStream mImage = new ByteArrayOutputStream();
+    /**
+     * <p>The number of bytes of the current chunk which have not been received yet.</p>
+     */
+    private int mChunkRemaining = 0;
+    /**
+     * <p>The time at which the validation of the image ends.</p>
+     */
+    private long mValidationEndTime = 0;
+    /**
+     * <p>The number of UPGRADE_START_REQ messages received since the last connection.</p>
+     */
+    private int mStartRequests = 0;
+    /**
+     * <p>The time of the first UPGRADE_START_REQ message received since the last connection, -1 if none.</p>
+     */
+    private long mFirstStartRequestTime = -1;
+    /**
+     * <p>To know if the Host has connected to the VM Upgrade protocol.</p>
+     */
+    private boolean isUpgradeConnected = false;
+
+    // statistics
+    private int mDataPackets = 0;
+    private int mValidationPolls = 0;
+    private int mAppNotReadyAnswers = 0;
+    private int mReboots = 0;
+    private long mTransferStartTime = -1;
+    private long mTransferEndTime = -1;
+    private long mCompleteTime = -1;
+    private byte[] mCommittedImage = null;
+
+
+    // ====== CONSTRUCTOR ==========================================================================
+
+    /**
+     * <p>To build a Device which communicates with the Host over the given link.</p>
+     *
+     * @param scheduler
+     *          The scheduler which provides the clock of the simulation.
+     * @param transport
+     *          The link to the Host.
+     * @param transportType
+     *          The GAIA transport used to format the packets.
+     */
+    public SimulatedVMUDevice(VirtualScheduler scheduler, LoopbackTransport transport,
+                              @GAIA.Transport int transportType) {
+        mScheduler = scheduler;
+        mTransport = transport;
+        mTransportType = transportType;
+    }
+
+
+    // ====== PUBLIC METHODS - CONFIGURATION =======================================================
+
+    /**
+     * <p>To define the number of bytes the Device requests at each UPGRADE_DATA_BYTES_REQ message.</p>
+     */
+    public SimulatedVMUDevice setChunkSize(int size) {
+        mChunkSize = size;
+        return this;
+    }
+
+    /**
+     * <p>To define the number of UPGRADE_START_REQ messages answered with ERROR_APP_NOT_READY after each
+     * connection.</p>
+     */
+    public SimulatedVMUDevice setAppNotReadyCount(int count) {
+        mAppNotReadyCount = count;
+        return this;
+    }
+
+    /**
+     * <p>To define the time the Device takes to be ready after the first UPGRADE_START_REQ message of each
+     * connection.</p>
+     */
+    public SimulatedVMUDevice setAppNotReadyTime(long millis) {
+        mAppNotReadyTime = millis;
+        return this;
+    }
+
+    /**
+     * <p>To define the time the Device takes to validate the image.</p>
+     */
+    public SimulatedVMUDevice setValidationTime(long millis) {
+        mValidationTime = millis;
+        return this;
+    }
+
+    /**
+     * <p>To define the time the Device takes to reboot.</p>
+     */
+    public SimulatedVMUDevice setRebootTime(long millis) {
+        mRebootTime = millis;
+        return this;
+    }
+
+    /**
+     * <p>To define the listener to inform about the reboots of the Device.</p>
+     */
+    public void setConnectionListener(ConnectionListener listener) {
+        mListener = listener;
+    }
+
+
+    // ====== PUBLIC METHODS - STATISTICS ==========================================================
+
+    /**
+     * <p>To get the image which has been committed, null if no upgrade has been committed.</p>
+     */
+    public byte[] getCommittedImage() {
+        return mCommittedImage;
+    }
+
+    /**
+     * <p>To get the step the upgrade has reached on the Device.</p>
+     */
+    public @ResumePoints.Enum int getResumePoint() {
+        return mResumePoint;
+    }
+
+    /**
+     * <p>To get the number of UPGRADE_DATA messages received.</p>
+     */
+    public int getDataPackets() {
+        return mDataPackets;
+    }
+
+    /**
+     * <p>To get the number of UPGRADE_IS_VALIDATION_DONE_REQ messages received.</p>
+     */
+    public int getValidationPolls() {
+        return mValidationPolls;
+    }
+
+    /**
+     * <p>To get the number of UPGRADE_START_REQ messages answered with ERROR_APP_NOT_READY.</p>
+     */
+    public int getAppNotReadyAnswers() {
+        return mAppNotReadyAnswers;
+    }
+
+    /**
+     * <p>To get the number of times the Device has rebooted.</p>
+     */
+    public int getReboots() {
+        return mReboots;
+    }
+
+    /**
+     * <p>To get the time at which the first UPGRADE_DATA message has been received, -1 if none.</p>
+     */
+    public long getTransferStartTime() {
+        return mTransferStartTime;
+    }
+
+    /**
+     * <p>To get the time at which the last UPGRADE_DATA message has been received, -1 if none.</p>
+     */
+    public long getTransferEndTime() {
+        return mTransferEndTime;
+    }
+
+    /**
+     * <p>To get the time at which the upgrade has been committed, -1 if it has not been.</p>
+     */
+    public long getCompleteTime() {
+        return mCompleteTime;
+    }
+
+
+    // ====== GAIA =================================================================================
+
+    @Override // LoopbackTransport.Endpoint
+    public void onReceive(byte[] frame) {
+        GaiaPacket packet;
+        try {
+            packet = mTransportType == GAIA.Transport.BR_EDR ? new GaiaPacketBREDR(frame) : new GaiaPacketBLE(frame);
+        } catch (GaiaException e) {
+            throw new IllegalStateException("Device received an invalid GAIA frame: " + e.getMessage());
+        }
+
+        if (packet.isAcknowledgement()) {
+            // the Host acknowledges the notifications: nothing to do
+            return;
+        }
+
+        switch (packet.getCommand()) {
+            case GAIA.COMMAND_VM_UPGRADE_CONNECT:
+                isUpgradeConnected = true;
+                acknowledge(packet, GAIA.Status.SUCCESS);
+                break;
+            case GAIA.COMMAND_VM_UPGRADE_DISCONNECT:
+                isUpgradeConnected = false;
+                acknowledge(packet, GAIA.Status.SUCCESS);
+                break;
+            case GAIA.COMMAND_REGISTER_NOTIFICATION:
+            case GAIA.COMMAND_CANCEL_NOTIFICATION:
+                acknowledge(packet, GAIA.Status.SUCCESS);
+                break;
+            case GAIA.COMMAND_VM_UPGRADE_CONTROL:
+                if (isUpgradeConnected) {
+                    acknowledge(packet, GAIA.Status.SUCCESS);
+                    receiveVMUPacket(packet.getPayload());
+                }
+                else {
+                    acknowledge(packet, GAIA.Status.INCORRECT_STATE);
+                }
+                break;
+            default:
+                acknowledge(packet, GAIA.Status.NOT_SUPPORTED);
+                break;
+        }
+    }
+
+    /**
+     * <p>To send the acknowledgement of a received GAIA command.</p>
+     */
+    private void acknowledge(GaiaPacket packet, @GAIA.Status int status) {
+        try {
+            mTransport.sendToHost(packet.getAcknowledgementPacketBytes(status, null));
+        } catch (GaiaException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    /**
+     * <p>To send a VM Upgrade message to the Host within a VMU_PACKET notification.</p>
+     */
+    private void sendVMUPacket(@OpCodes.Enum int opCode, byte[] data) {
+        byte[] bytes = new VMUPacket(opCode, data).getBytes();
+        try {
+            GaiaPacket packet = GaiaPacket.buildGaiaNotificationPacket(GAIA.VENDOR_QUALCOMM,
+                    GAIA.COMMAND_EVENT_NOTIFICATION, GAIA.NotificationEvents.VMU_PACKET, bytes, mTransportType);
+            mTransport.sendToHost(packet.getBytes());
+        } catch (GaiaException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+
+    // ====== VM UPGRADE ===========================================================================
+
+    /**
+     * <p>To manage a VM Upgrade message received from the Host.</p>
+     */
+    private void receiveVMUPacket(byte[] bytes) {
+        VMUPacket packet;
+        try {
+            packet = new VMUPacket(bytes);
+        } catch (VMUException e) {
+            throw new IllegalStateException("Device received an invalid VMU packet: " + e.getMessage());
+        }
+
+        byte[] data = packet.getData();
+        switch (packet.getOpCode()) {
+            case OpCodes.Enum.UPGRADE_SYNC_REQ:
+                receiveSyncREQ(data);
+                break;
+            case OpCodes.Enum.UPGRADE_START_REQ:
+                receiveStartREQ();
+                break;
+            case OpCodes.Enum.UPGRADE_START_DATA_REQ:
+                // on resume the offset makes the Host skip the bytes which have already been received
+                sendDataBytesREQ(mImage.size());
+                break;
+            case OpCodes.Enum.UPGRADE_DATA:
+                receiveData(data);
+                break;
+            case OpCodes.Enum.UPGRADE_IS_VALIDATION_DONE_REQ:
+                receiveIsValidationDoneREQ();
+                break;
+            case OpCodes.Enum.UPGRADE_TRANSFER_COMPLETE_RES:
+                receiveTransferCompleteRES(data);
+                break;
+            case OpCodes.Enum.UPGRADE_IN_PROGRESS_RES:
+                receiveInProgressRES(data);
+                break;
+            case OpCodes.Enum.UPGRADE_COMMIT_CFM:
+                receiveCommitCFM(data);
+                break;
+            case OpCodes.Enum.UPGRADE_ABORT_REQ:
+                resetUpgrade();
+                sendVMUPacket(OpCodes.Enum.UPGRADE_ABORT_CFM, null);
+                break;
+            case OpCodes.Enum.UPGRADE_ERROR_WARN_RES:
+            default:
+                // nothing to answer
+                break;
+        }
+    }
+
+    private void receiveSyncREQ(byte[] data) {
+        int identifier = VMUUtils.extractIntFromByteArray(data, OpCodes.UpgradeSyncREQ.IDENTIFIER_OFFSET,
+                OpCodes.UpgradeSyncREQ.IDENTIFIER_LENGTH, false);
+        if (identifier != mIdentifier) {
+            // another image: the upgrade starts from the beginning
+            resetUpgrade();
+            mIdentifier = identifier;
+        }
+
+        byte[] cfm = new byte[OpCodes.UpgradeSyncCFM.DATA_LENGTH];
+        cfm[OpCodes.UpgradeSyncCFM.RESUME_POINT_OFFSET] = (byte) mResumePoint;
+        VMUUtils.copyIntIntoByteArray(mIdentifier, cfm, OpCodes.UpgradeSyncCFM.IDENTIFIER_OFFSET,
+                OpCodes.UpgradeSyncCFM.IDENTIFIER_LENGTH, false);
+        cfm[OpCodes.UpgradeSyncCFM.PROTOCOL_VERSION_OFFSET] = PROTOCOL_VERSION;
+        sendVMUPacket(OpCodes.Enum.UPGRADE_SYNC_CFM, cfm);
+    }
+
+    private void receiveStartREQ() {
+        byte[] cfm = new byte[OpCodes.UpgradeStartCFM.DATA_LENGTH];
+        mStartRequests++;
+        long now = mScheduler.now();
+        if (mFirstStartRequestTime < 0) {
+            mFirstStartRequestTime = now;
+        }
+        if (mStartRequests <= mAppNotReadyCount || now - mFirstStartRequestTime < mAppNotReadyTime) {
+            mAppNotReadyAnswers++;
+            cfm[OpCodes.UpgradeStartCFM.STATUS_OFFSET] = OpCodes.UpgradeStartCFM.Status.ERROR_APP_NOT_READY;
+        }
+        else {
+            cfm[OpCodes.UpgradeStartCFM.STATUS_OFFSET] = OpCodes.UpgradeStartCFM.Status.SUCCESS;
+        }
+        VMUUtils.copyIntIntoByteArray(mBatteryLevel, cfm, OpCodes.UpgradeStartCFM.BATTERY_LEVEL_OFFSET,
+                OpCodes.UpgradeStartCFM.BATTERY_LEVEL_LENGTH, false);
+        sendVMUPacket(OpCodes.Enum.UPGRADE_START_CFM, cfm);
+    }
+
+    private void sendDataBytesREQ(int offset) {
+        mChunkRemaining = mChunkSize;
+        byte[] req = new byte[OpCodes.UpgradeDataBytesREQ.DATA_LENGTH];
+        VMUUtils.copyIntIntoByteArray(mChunkSize, req, OpCodes.UpgradeDataBytesREQ.NB_BYTES_OFFSET,
+                OpCodes.UpgradeDataBytesREQ.NB_BYTES_LENGTH, false);
+        VMUUtils.copyIntIntoByteArray(offset, req, OpCodes.UpgradeDataBytesREQ.FILE_OFFSET_OFFSET,
+                OpCodes.UpgradeDataBytesREQ.FILE_OFFSET_LENGTH, false);
+        sendVMUPacket(OpCodes.Enum.UPGRADE_DATA_BYTES_REQ, req);
+    }
+
+    private void receiveData(byte[] data) {
+        if (mResumePoint != ResumePoints.Enum.DATA_TRANSFER || data.length < OpCodes.UpgradeData.MIN_DATA_LENGTH) {
+            return;
+        }
+
+        long now = mScheduler.now();
+        if (mTransferStartTime < 0) {
+            mTransferStartTime = now;
+        }
+        mTransferEndTime = now;
+        mDataPackets++;
+
+        int length = data.length - OpCodes.UpgradeData.FILE_BYTES_OFFSET;
+        mImage.write(data, OpCodes.UpgradeData.FILE_BYTES_OFFSET, length);
+        mChunkRemaining -= length;
+
+        if (data[OpCodes.UpgradeData.LAST_PACKET_OFFSET] == OpCodes.UpgradeData.LastPacket.IS_LAST_PACKET) {
+            mResumePoint = ResumePoints.Enum.VALIDATION;
+            mValidationEndTime = now + mValidationTime;
+        }
+        else if (mChunkRemaining <= 0) {
+            sendDataBytesREQ(0);
+        }
+    }
+
+    private void receiveIsValidationDoneREQ() {
+        mValidationPolls++;
+        long now = mScheduler.now();
+        if (mResumePoint == ResumePoints.Enum.VALIDATION && now < mValidationEndTime) {
+            long wait = mValidationEndTime - now;
+            byte[] cfm = new byte[OpCodes.UpgradeIsValidationDoneCFM.DATA_LENGTH];
+            VMUUtils.copyIntIntoByteArray((int) (wait < MAX_WAITING_TIME ? wait : MAX_WAITING_TIME), cfm,
+                    OpCodes.UpgradeIsValidationDoneCFM.WAITING_TIME_OFFSET,
+                    OpCodes.UpgradeIsValidationDoneCFM.WAITING_TIME_LENGTH, false);
+            sendVMUPacket(OpCodes.Enum.UPGRADE_IS_VALIDATION_DONE_CFM, cfm);
+        }
+        else {
+            mResumePoint = ResumePoints.Enum.TRANSFER_COMPLETE;
+            sendVMUPacket(OpCodes.Enum.UPGRADE_TRANSFER_COMPLETE_IND, null);
+        }
+    }
+
+    private void receiveTransferCompleteRES(byte[] data) {
+        if (data.length >= OpCodes.UpgradeTransferCompleteRES.DATA_LENGTH && data[OpCodes
+                .UpgradeTransferCompleteRES.ACTION_OFFSET] == OpCodes.UpgradeTransferCompleteRES.Action.CONTINUE) {
+            mResumePoint = ResumePoints.Enum.IN_PROGRESS;
+            mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    reboot();
+                }
+            }, REBOOT_DELAY);
+        }
+        else {
+            resetUpgrade();
+        }
+    }
+
+    private void receiveInProgressRES(byte[] data) {
+        if (data.length >= OpCodes.UpgradeInProgressRES.DATA_LENGTH && data[OpCodes.UpgradeInProgressRES
+                .ACTION_OFFSET] == OpCodes.UpgradeInProgressRES.Action.CONTINUE) {
+            mResumePoint = ResumePoints.Enum.COMMIT;
+            sendVMUPacket(OpCodes.Enum.UPGRADE_COMMIT_REQ, null);
+        }
+        else {
+            resetUpgrade();
+        }
+    }
+
+    private void receiveCommitCFM(byte[] data) {
+        if (data.length >= OpCodes.UpgradeCommitCFM.DATA_LENGTH && data[OpCodes.UpgradeCommitCFM.ACTION_OFFSET]
+                == OpCodes.UpgradeCommitCFM.Action.CONTINUE) {
+            mCommittedImage = mImage.toByteArray();
+            mCompleteTime = mScheduler.now();
+            sendVMUPacket(OpCodes.Enum.UPGRADE_COMPLETE_IND, null);
+        }
+        resetUpgrade();
+    }
+
+    /**
+     * <p>To forget the current upgrade.</p>
+     */
+    private void resetUpgrade() {
+        mIdentifier = 0;
+        mResumePoint = ResumePoints.Enum.DATA_TRANSFER;
+        mImage.reset();
+        mChunkRemaining = 0;
+    }
+
+    /**
+     * <p>To simulate the reboot of the Device: the link is disconnected and it is connected again after the reboot
+     * time.</p>
+     */
+    private void reboot() {
+        mReboots++;
+        isUpgradeConnected = false;
+        mStartRequests = 0;
+        mFirstStartRequestTime = -1;
+        mTransport.setConnected(false);
+        if (mListener != null) {
+            mListener.onDisconnected();
+        }
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mTransport.setConnected(true);
+                if (mListener != null) {
+                    mListener.onConnected();
+                }
+            }
+        }, mRebootTime);
+    }
+
+
+    // ====== INTERFACES ===========================================================================
+
+    /**
+     * <p>The listener to inform about the state of the connection with the Device.</p>
+     */
+    public interface ConnectionListener {
+        /**
+         * <p>Called when the Device has disconnected the link to reboot.</p>
+         */
+        void onDisconnected();
+
+        /**
+         * <p>Called when the Device is connected again after its reboot.</p>
+         */
+        void onConnected();
+    }
+}
@@ -0,0 +1,92 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.gaiacontrol.simulator;
+
+import com.qualcomm.libraries.gaia.GAIA;
+import com.qualcomm.libraries.vmupgrade.VMUUtils;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Locale;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>Benchmark of the upgrade process against a {@link SimulatedVMUDevice SimulatedVMUDevice}: for each transport,
+ * window size and image size, it reports the throughput of the data transfer and the time to commit the image, both
+ * measured on the clock of the simulation, and the real time the Host stack took to run the upgrade.</p>
+ * <p>It is not part of the unit tests as it takes a few seconds: it runs on any JVM through its
+ * {@link #main(String[]) main} method. It still checks that each image is committed and that a wider window does not
+ * make the transfer slower.</p>
+ */
+public class UpgradeThroughputBenchmark {
+
+    private static final int[] IMAGE_SIZES = { 64 * 1024, 256 * 1024, 1024 * 1024 };
+    private static final int[] WINDOW_SIZES = { 1, 4 };
+    private static final long TIME_LIMIT = 24 * 60 * 60 * 1000L;
+    private static final double MEGABYTE = 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        new UpgradeThroughputBenchmark().reportThroughputByImageSize();
+    }
+
+    @Ignore("Benchmark which reports figures, run it through its main method.")
+    @Test
+    public void reportThroughputByImageSize() throws Exception {
+        System.out.println(String.format(Locale.US, "%-7s %6s %8s %10s %14s %10s %12s %10s", "link", "window",
+                "size(KB)", "data(MB/s)", "commit(s)", "packets", "retransmits", "wall(ms)"));
+
+        for (int size : IMAGE_SIZES) {
+            File image = SimulatedUpgradeTest.createImage(size, size);
+            try {
+                byte[] bytes = VMUUtils.getBytesFromFile(image);
+                double[] previous = { 0, 0 };
+                for (int window : WINDOW_SIZES) {
+                    double[] throughputs = { run(GAIA.Transport.BLE, window, image, bytes),
+                            run(GAIA.Transport.BR_EDR, window, image, bytes) };
+                    for (int i = 0; i < throughputs.length; i++) {
+                        assertTrue(throughputs[i] >= previous[i]);
+                    }
+                    previous = throughputs;
+                }
+            }
+            finally {
+                //noinspection ResultOfMethodCallIgnored
+                image.delete();
+            }
+        }
+    }
+
+    /**
+     * <p>To run an upgrade and to report its figures.</p>
+     *
+     * @return the throughput of the data transfer in bytes per second.
+     */
+    private double run(@GAIA.Transport int transport, int window, File image, byte[] bytes) {
+        SimulatedUpgrade upgrade = new SimulatedUpgrade(transport, image.length());
+        if (transport == GAIA.Transport.BLE) {
+            upgrade.getTransport().setLatency(15).setBandwidth(20000).setLoss(0.01, 30);
+        }
+        else {
+            upgrade.getTransport().setLatency(10).setBandwidth(150000).setLoss(0.01, 10);
+        }
+        upgrade.getDevice().setChunkSize(4096).setValidationTime(1000).setRebootTime(3000);
+        upgrade.getHost().setWindowSize(window);
+
+        SimulatedUpgrade.Result result = upgrade.run(image, TIME_LIMIT);
+        assertTrue(result.isComplete());
+        assertArrayEquals(bytes, upgrade.getDevice().getCommittedImage());
+
+        System.out.println(String.format(Locale.US, "%-7s %6d %8d %10.5f %14.1f %10d %12d %10.1f",
+                transport == GAIA.Transport.BLE ? "BLE" : "BR/EDR", window, image.length() / 1024,
+                result.getTransferThroughput() / MEGABYTE, result.getTimeToCommit() / 1000.0,
+                upgrade.getDevice().getDataPackets(), upgrade.getTransport().getRetransmissions(),
+                result.getWallTime() / 1000000.0));
+        return result.getTransferThroughput();
+    }
+}
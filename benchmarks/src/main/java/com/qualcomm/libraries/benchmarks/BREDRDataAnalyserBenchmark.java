@@ -0,0 +1,90 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.benchmarks;
+
+import com.qualcomm.libraries.gaia.GAIA;
+import com.qualcomm.libraries.gaia.GaiaException;
+import com.qualcomm.libraries.gaia.packets.BREDRDataAnalyser;
+import com.qualcomm.libraries.gaia.packets.GaiaPacketBREDR;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Benchmark of the reassembly of GAIA packets by the {@link BREDRDataAnalyser BREDRDataAnalyser} from a stream of
+ * bytes received over RFCOMM. The stream contains acknowledgements and VMU_PACKET notifications, and is delivered
+ * in reads of a given size which do not match the packet boundaries.</p>
+ * <p>Each invocation analyses the whole stream: the score is the time to reassemble {@link #PACKETS} packets.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BREDRDataAnalyserBenchmark {
+
+    private static final int PACKETS = 100;
+
+    @Param({ "16", "64", "990" })
+    public int readLength;
+
+    private byte[][] mReads;
+    private BREDRDataAnalyser mAnalyser;
+    private Blackhole mBlackhole;
+
+    @Setup
+    public void setUp(Blackhole blackhole) throws GaiaException {
+        Random random = new Random(readLength);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < PACKETS; i++) {
+            byte[] payload = new byte[i % 2 == 0 ? 1 : 1 + random.nextInt(GaiaPacketBREDR.MAX_PAYLOAD)];
+            random.nextBytes(payload);
+            int command = i % 2 == 0 ? GAIA.COMMAND_VM_UPGRADE_CONTROL | GAIA.ACKNOWLEDGMENT_MASK
+                    : GAIA.COMMAND_EVENT_NOTIFICATION;
+            byte[] bytes = new GaiaPacketBREDR(GAIA.VENDOR_QUALCOMM, command, payload, i % 4 == 1).getBytes();
+            stream.write(bytes, 0, bytes.length);
+        }
+
+        byte[] data = stream.toByteArray();
+        int count = (data.length + readLength - 1) / readLength;
+        mReads = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            int offset = i * readLength;
+            int length = Math.min(readLength, data.length - offset);
+            mReads[i] = new byte[length];
+            System.arraycopy(data, offset, mReads[i], 0, length);
+        }
+
+        mBlackhole = blackhole;
+        mAnalyser = new BREDRDataAnalyser(new BREDRDataAnalyser.DataAnalyserListener() {
+            @Override
+            public void onGAIAPacketFound(byte[] data) {
+                mBlackhole.consume(data);
+            }
+        });
+    }
+
+    @Benchmark
+    public void analyse() {
+        for (byte[] read : mReads) {
+            mAnalyser.analyse(read);
+        }
+    }
+}
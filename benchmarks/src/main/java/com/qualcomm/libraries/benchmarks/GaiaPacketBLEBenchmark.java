@@ -0,0 +1,102 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.benchmarks;
+
+import com.qualcomm.libraries.gaia.GAIA;
+import com.qualcomm.libraries.gaia.GaiaException;
+import com.qualcomm.libraries.gaia.packets.GaiaPacket;
+import com.qualcomm.libraries.gaia.packets.GaiaPacketBLE;
+import com.qualcomm.libraries.gaia.packets.GaiaPacketBuilder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Benchmarks of the building and the parsing of {@link GaiaPacketBLE BLE} GAIA packets.</p>
+ * <p>The received packets are views of the received bytes: {@link #parse() parse} does not copy the payload while
+ * {@link #parseAndCopyPayload() parseAndCopyPayload} copies it as the packets used to. The "Pooled" benchmarks
+ * build the bytes with a {@link GaiaPacketBuilder GaiaPacketBuilder} and release them: the GC profiler shows the
+ * allocation rate they save over {@link #build() build} and {@link #acknowledge() acknowledge}.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GaiaPacketBLEBenchmark {
+
+    @Param({ "4", "16" })
+    public int payloadLength;
+
+    private byte[] mPayload;
+    private byte[] mBytes;
+    private byte[] mFrame;
+    private GaiaPacket mReceived;
+    private final GaiaPacketBuilder mBuilder = new GaiaPacketBuilder();
+
+    @Setup
+    public void setUp() throws GaiaException {
+        mPayload = new byte[payloadLength];
+        new Random(payloadLength).nextBytes(mPayload);
+        mBytes = new GaiaPacketBLE(GAIA.VENDOR_QUALCOMM, GAIA.COMMAND_VM_UPGRADE_CONTROL, mPayload).getBytes();
+        mFrame = new byte[mBytes.length];
+        mReceived = new GaiaPacketBLE(mBytes);
+    }
+
+    @Benchmark
+    public byte[] build() throws GaiaException {
+        return new GaiaPacketBLE(GAIA.VENDOR_QUALCOMM, GAIA.COMMAND_VM_UPGRADE_CONTROL, mPayload).getBytes();
+    }
+
+    @Benchmark
+    public byte[] writeFrame() throws GaiaException {
+        System.arraycopy(mPayload, 0, mFrame, GaiaPacketBLE.OFFSET_PAYLOAD, mPayload.length);
+        GaiaPacketBLE.writeFrame(mFrame, GAIA.VENDOR_QUALCOMM, GAIA.COMMAND_VM_UPGRADE_CONTROL, mPayload.length);
+        return mFrame;
+    }
+
+    @Benchmark
+    public int buildPooled() throws GaiaException {
+        byte[] bytes = mBuilder.build(new GaiaPacketBLE(GAIA.VENDOR_QUALCOMM, GAIA.COMMAND_VM_UPGRADE_CONTROL,
+                mPayload));
+        mBuilder.release(bytes);
+        return bytes.length;
+    }
+
+    @Benchmark
+    public GaiaPacket parse() throws GaiaException {
+        return new GaiaPacketBLE(mBytes);
+    }
+
+    @Benchmark
+    public byte[] parseAndCopyPayload() throws GaiaException {
+        return new GaiaPacketBLE(mBytes).getPayload();
+    }
+
+    @Benchmark
+    public byte[] acknowledge() throws GaiaException {
+        return mReceived.getAcknowledgementPacketBytes(GAIA.Status.SUCCESS, null);
+    }
+
+    @Benchmark
+    public int acknowledgePooled() throws GaiaException {
+        byte[] bytes = mBuilder.buildAcknowledgement(mReceived, GAIA.Status.SUCCESS, null);
+        mBuilder.release(bytes);
+        return bytes.length;
+    }
+}
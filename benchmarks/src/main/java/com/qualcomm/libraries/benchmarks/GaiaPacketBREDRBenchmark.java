@@ -0,0 +1,109 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.benchmarks;
+
+import com.qualcomm.libraries.gaia.GAIA;
+import com.qualcomm.libraries.gaia.GaiaException;
+import com.qualcomm.libraries.gaia.packets.GaiaPacket;
+import com.qualcomm.libraries.gaia.packets.GaiaPacketBREDR;
+import com.qualcomm.libraries.gaia.packets.GaiaPacketBuilder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Benchmarks of the building and the parsing of {@link GaiaPacketBREDR BR/EDR} GAIA packets, with and without
+ * their checksum.</p>
+ * <p>The received packets are views of the received bytes: {@link #parse() parse} does not copy the payload while
+ * {@link #parseAndCopyPayload() parseAndCopyPayload} copies it as the packets used to. The "Pooled" benchmarks
+ * build the bytes with a {@link GaiaPacketBuilder GaiaPacketBuilder} and release them: the GC profiler shows the
+ * allocation rate they save over {@link #build() build} and {@link #acknowledge() acknowledge}.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GaiaPacketBREDRBenchmark {
+
+    @Param({ "4", "16", "254" })
+    public int payloadLength;
+
+    @Param({ "false", "true" })
+    public boolean checksum;
+
+    private byte[] mPayload;
+    private byte[] mBytes;
+    private byte[] mFrame;
+    private GaiaPacket mReceived;
+    private final GaiaPacketBuilder mBuilder = new GaiaPacketBuilder();
+
+    @Setup
+    public void setUp() throws GaiaException {
+        mPayload = new byte[payloadLength];
+        new Random(payloadLength).nextBytes(mPayload);
+        mBytes = new GaiaPacketBREDR(GAIA.VENDOR_QUALCOMM, GAIA.COMMAND_VM_UPGRADE_CONTROL, mPayload, checksum)
+                .getBytes();
+        mFrame = new byte[mBytes.length];
+        mReceived = new GaiaPacketBREDR(mBytes);
+    }
+
+    @Benchmark
+    public byte[] build() throws GaiaException {
+        return new GaiaPacketBREDR(GAIA.VENDOR_QUALCOMM, GAIA.COMMAND_VM_UPGRADE_CONTROL, mPayload, checksum)
+                .getBytes();
+    }
+
+    @Benchmark
+    public byte[] writeFrame() throws GaiaException {
+        System.arraycopy(mPayload, 0, mFrame, GaiaPacketBREDR.OFFSET_PAYLOAD, mPayload.length);
+        GaiaPacketBREDR.writeFrame(mFrame, GAIA.VENDOR_QUALCOMM, GAIA.COMMAND_VM_UPGRADE_CONTROL, mPayload.length,
+                checksum);
+        return mFrame;
+    }
+
+    @Benchmark
+    public int buildPooled() throws GaiaException {
+        byte[] bytes = mBuilder.build(new GaiaPacketBREDR(GAIA.VENDOR_QUALCOMM, GAIA.COMMAND_VM_UPGRADE_CONTROL,
+                mPayload, checksum));
+        mBuilder.release(bytes);
+        return bytes.length;
+    }
+
+    @Benchmark
+    public GaiaPacket parse() {
+        return new GaiaPacketBREDR(mBytes);
+    }
+
+    @Benchmark
+    public byte[] parseAndCopyPayload() {
+        return new GaiaPacketBREDR(mBytes).getPayload();
+    }
+
+    @Benchmark
+    public byte[] acknowledge() throws GaiaException {
+        return mReceived.getAcknowledgementPacketBytes(GAIA.Status.SUCCESS, null);
+    }
+
+    @Benchmark
+    public int acknowledgePooled() throws GaiaException {
+        byte[] bytes = mBuilder.buildAcknowledgement(mReceived, GAIA.Status.SUCCESS, null);
+        mBuilder.release(bytes);
+        return bytes.length;
+    }
+}
@@ -0,0 +1,172 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.benchmarks;
+
+import com.qualcomm.libraries.scheduler.Scheduler;
+import com.qualcomm.libraries.scheduler.TimingWheel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Benchmark of the time outs of the GAIA requests waiting for their acknowledgement.</p>
+ * <p>Each invocation sends a request - its time out is started - and receives the acknowledgement of the oldest
+ * request - its time out is cancelled - while {@link #outstanding} requests are waiting for their acknowledgement.
+ * The clock moves by 1 ms on each invocation and the time outs never expire.</p>
+ * <ul>
+ *     <li>{@link #runnables() runnables}: the previous implementation of the GaiaManager, a Runnable is created for
+ *     each request, grouped by command in linked lists and posted to a Handler.</li>
+ *     <li>{@link #timingWheel() timingWheel}: the time outs are the timers of a {@link TimingWheel TimingWheel}.</li>
+ * </ul>
+ * <p>Both run over a {@link MessageQueueScheduler MessageQueueScheduler} which keeps the tasks like the Android
+ * MessageQueue does: in a linked list sorted by time which is walked to insert and to remove a task.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestTimeOutBenchmark {
+
+    private static final int TIME_OUT_MILLIS = 30000;
+    private static final int COMMANDS = 4;
+
+    @Param({ "10", "1000" })
+    public int outstanding;
+
+    private final MessageQueueScheduler mRunnablesScheduler = new MessageQueueScheduler();
+    private final Map<Integer, LinkedList<Runnable>> mRunnables = new HashMap<>();
+    private final MessageQueueScheduler mWheelScheduler = new MessageQueueScheduler();
+    private TimingWheel mWheel;
+    private long[] mTimers;
+    private int mOldestTimer;
+    private int mSent;
+    private int mAcknowledged;
+    private final TimingWheel.TimerListener mListener = new TimingWheel.TimerListener() {
+        @Override // TimingWheel.TimerListener
+        public void onTimerExpired(long timer, Object attachment) {
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        mWheel = new TimingWheel(mWheelScheduler, 100, 512);
+        mTimers = new long[outstanding];
+        for (int i = 0; i < outstanding; i++) {
+            startRunnable(i % COMMANDS);
+            mTimers[i] = mWheel.schedule(mListener, null, TIME_OUT_MILLIS);
+            mRunnablesScheduler.mTime++;
+            mWheelScheduler.mTime++;
+        }
+        mSent = outstanding;
+    }
+
+    @Benchmark
+    public int runnables() {
+        mRunnablesScheduler.mTime++;
+        startRunnable(mSent++ % COMMANDS);
+        LinkedList<Runnable> list = mRunnables.get(mAcknowledged++ % COMMANDS);
+        mRunnablesScheduler.cancel(list.remove(0));
+        return list.size();
+    }
+
+    @Benchmark
+    public boolean timingWheel() {
+        mWheelScheduler.mTime++;
+        long timer = mTimers[mOldestTimer];
+        mTimers[mOldestTimer] = mWheel.schedule(mListener, null, TIME_OUT_MILLIS);
+        mOldestTimer = (mOldestTimer + 1) % mTimers.length;
+        return mWheel.cancel(timer);
+    }
+
+    private void startRunnable(int command) {
+        Runnable runnable = new Runnable() {
+            @Override // Runnable
+            public void run() {
+            }
+        };
+        LinkedList<Runnable> list = mRunnables.get(command);
+        if (list == null) {
+            list = new LinkedList<>();
+            mRunnables.put(command, list);
+        }
+        list.add(runnable);
+        mRunnablesScheduler.schedule(runnable, TIME_OUT_MILLIS);
+    }
+
+    /**
+     * <p>A scheduler which never runs its tasks and keeps them like the Android MessageQueue: a message is inserted
+     * after all the messages which are not later than it, and removing the callbacks of a task walks the whole
+     * queue.</p>
+     */
+    private static class MessageQueueScheduler implements Scheduler {
+
+        private long mTime = 0;
+        private Message mHead;
+
+        @Override // Scheduler
+        public long now() {
+            return mTime;
+        }
+
+        @Override // Scheduler
+        public void schedule(Runnable task, long delayMillis) {
+            Message message = new Message(task, mTime + delayMillis);
+            if (mHead == null || message.when < mHead.when) {
+                message.next = mHead;
+                mHead = message;
+                return;
+            }
+            Message previous = mHead;
+            while (previous.next != null && previous.next.when <= message.when) {
+                previous = previous.next;
+            }
+            message.next = previous.next;
+            previous.next = message;
+        }
+
+        @Override // Scheduler
+        public void cancel(Runnable task) {
+            while (mHead != null && mHead.task == task) {
+                mHead = mHead.next;
+            }
+            Message message = mHead;
+            while (message != null && message.next != null) {
+                if (message.next.task == task) {
+                    message.next = message.next.next;
+                }
+                else {
+                    message = message.next;
+                }
+            }
+        }
+    }
+
+    private static class Message {
+        private final Runnable task;
+        private final long when;
+        private Message next;
+
+        private Message(Runnable task, long when) {
+            this.task = task;
+            this.when = when;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.benchmarks;
+
+import com.qualcomm.libraries.vmupgrade.codes.OpCodes;
+import com.qualcomm.libraries.vmupgrade.packet.VMUException;
+import com.qualcomm.libraries.vmupgrade.packet.VMUPacket;
+import com.qualcomm.libraries.vmupgrade.packet.VMUPacketView;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Benchmarks of the building and the parsing of {@link VMUPacket VMU packets}. The data lengths correspond to a
+ * control message, to an UPGRADE_DATA packet over BLE and to an UPGRADE_DATA packet over BR/EDR.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VMUPacketBenchmark {
+
+    @Param({ "1", "13", "251" })
+    public int dataLength;
+
+    private byte[] mData;
+    private byte[] mBytes;
+    private byte[] mTarget;
+    private final VMUPacketView mView = new VMUPacketView();
+
+    @Setup
+    public void setUp() {
+        mData = new byte[dataLength];
+        new Random(dataLength).nextBytes(mData);
+        mBytes = new VMUPacket(OpCodes.Enum.UPGRADE_DATA, mData).getBytes();
+        mTarget = new byte[mBytes.length];
+    }
+
+    @Benchmark
+    public byte[] build() {
+        return new VMUPacket(OpCodes.Enum.UPGRADE_DATA, mData).getBytes();
+    }
+
+    @Benchmark
+    public byte[] buildInPlace() {
+        int offset = VMUPacket.writeHeader(mTarget, 0, OpCodes.Enum.UPGRADE_DATA, mData.length);
+        System.arraycopy(mData, 0, mTarget, offset, mData.length);
+        return mTarget;
+    }
+
+    @Benchmark
+    public byte[] parse() throws VMUException {
+        return new VMUPacket(mBytes).getData();
+    }
+
+    @Benchmark
+    public int parseInPlace() throws VMUException {
+        mView.wrap(mBytes, 0, mBytes.length);
+        return mView.getRawOpCode() + mView.getByte(0);
+    }
+}
@@ -0,0 +1,63 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.benchmarks;
+
+import com.qualcomm.libraries.vmupgrade.VMUUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Benchmarks of the {@link VMUUtils VMUUtils} methods which read and write the numbers contained in the VMU
+ * packets.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VMUUtilsBenchmark {
+
+    // an UPGRADE_DATA_BYTES_REQ message: opcode, length, number of bytes and file offset
+    private final byte[] mSource = { 0x03, 0x00, 0x08, 0x00, 0x00, 0x10, 0x00, 0x00, 0x01, 0x02, 0x03 };
+    private final byte[] mTarget = new byte[8];
+    private int mValue = 0x12345678;
+
+    @Benchmark
+    public int extractInt() {
+        return VMUUtils.extractIntFromByteArray(mSource, 3, 4, false);
+    }
+
+    @Benchmark
+    public int extractIntReversed() {
+        return VMUUtils.extractIntFromByteArray(mSource, 7, 4, true);
+    }
+
+    @Benchmark
+    public short extractShort() {
+        return VMUUtils.extractShortFromByteArray(mSource, 1, 2, false);
+    }
+
+    @Benchmark
+    public long extractLong() {
+        return VMUUtils.extractLongFromByteArray(mSource, 3, 8, false);
+    }
+
+    @Benchmark
+    public byte[] copyInt() {
+        VMUUtils.copyIntIntoByteArray(mValue++, mTarget, 0, 4, false);
+        return mTarget;
+    }
+}
@@ -4,6 +4,7 @@
 
 package com.qualcomm.libraries.ble;
 
+import android.annotation.TargetApi;
 import android.app.Service;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
@@ -15,6 +16,7 @@ import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.BluetoothProfile;
 import android.content.Context;
+import android.os.Build;
 import android.os.Handler;
 import android.support.annotation.IntDef;
 import android.util.ArrayMap;
@@ -24,7 +26,6 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
 import java.util.UUID;
 
 /**
@@ -69,6 +70,11 @@ public abstract class BLEService extends Service {
      * <p>The time for a notification request time out.</p>
      */
     private static final int DEFAULT_DELAY_FOR_NOTIFICATION_REQUEST = 1000;
+    /**
+     * <p>The ATT MTU used by a connection until a bigger one has been exchanged with the remote device, as defined
+     * by the Bluetooth Core specification.</p>
+     */
+    public static final int DEFAULT_MTU = 23;
 
 
     // ====== PRIVATE FIELDS =======================================================================
@@ -92,7 +98,7 @@ public abstract class BLEService extends Service {
     /**
      * <p>The queue of pending transmissions</p>
      */
-    private final Queue<Request> mRequestsQueue = new LinkedList<>();
+    private final LinkedList<Request> mRequestsQueue = new LinkedList<>();
     /**
      * <p>To know if the queue is processing at the moment.</p>
      */
@@ -118,6 +124,10 @@ public abstract class BLEService extends Service {
      * <p>The time to wait for the TimeOutRequestRunnable to start.</p>
      */
     private int mDelay = DEFAULT_DELAY_FOR_REQUEST;
+    /**
+     * <p>The ATT MTU of the connection with the device.</p>
+     */
+    private int mMtu = DEFAULT_MTU;
 
     /**
      * <p>The call back used when connected to a GATT server.</p>
@@ -162,6 +172,11 @@ public abstract class BLEService extends Service {
         public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
             receiveRemoteRssiRead(gatt, rssi, status);
         }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            receiveMtuChanged(gatt, mtu, status);
+        }
     };
 
 
@@ -373,6 +388,29 @@ public abstract class BLEService extends Service {
      */
     @SuppressWarnings("UnusedReturnValue")
     protected boolean requestWriteCharacteristic(BluetoothGattCharacteristic characteristic, final byte[] data) {
+        return requestWriteCharacteristic(characteristic, data, false);
+    }
+
+    /**
+     * <p>To write some characteristic data for the given characteristic if this Android service is connected to a
+     * Bluetooth device.</p>
+     * <p>A priority write is processed before the requests of the queue which are not priority requests: this allows
+     * a time critical exchange - such as an upgrade - to not wait behind the requests queued by other features.</p>
+     *
+     * @param characteristic
+     *              the specified characteristic.
+     * @param data
+     *              the data to write.
+     * @param priority
+     *              True to process the write before the requests which are not priority requests.
+     *
+     * @return false if it is not possible to request a characteristic write, see
+     * {@link #requestWriteCharacteristic(BluetoothGattCharacteristic, byte[]) requestWriteCharacteristic}. Returns
+     * true if the request could be added to the requests queue.
+     */
+    @SuppressWarnings("UnusedReturnValue")
+    protected boolean requestWriteCharacteristic(BluetoothGattCharacteristic characteristic, final byte[] data,
+                                                 boolean priority) {
         if (mShowDebugLogs) {
             Log.d(TAG, "Request received for write on characteristic with UUID " + characteristic.getUuid().toString());
         }
@@ -400,6 +438,7 @@ public abstract class BLEService extends Service {
 
         // all check passed successfully, the request can be initiated
         Request request = Request.createWriteCharacteristicRequest(characteristic, data);
+        request.setPriority(priority);
         addToRequestsQueue(request);
         return true;
     }
@@ -769,6 +808,56 @@ public abstract class BLEService extends Service {
             return true;
     }
 
+    /**
+     * <p>To request the exchange of the ATT MTU with the connected device. The MTU which is used for the
+     * connection is the smallest of the requested one and of the one supported by the device. It is reported
+     * asynchronously through {@link #onMtuChanged(BluetoothGatt, int, int) onMtuChanged} and can then be retrieved
+     * with {@link #getMtu() getMtu}.</p>
+     * <p>The MTU has to be exchanged again after each connection.</p>
+     *
+     * @param mtu
+     *          The ATT MTU to request, between {@link #DEFAULT_MTU DEFAULT_MTU} and 517.
+     *
+     * @return <p>false if it is not possible to request the MTU. The reasons could be:
+     * <ul>
+     *     <li>The device is not connected./li>
+     *     <li>The Android version does not support the exchange of the MTU, it is supported from Android 5.0.</li>
+     * </ul>
+     * Returns true if the request could be added to the requests queue.</p>
+     */
+    @SuppressWarnings("UnusedReturnValue")
+    protected boolean requestMtu(int mtu) {
+        if (mShowDebugLogs) {
+            Log.d(TAG, "Request received for MTU exchange, mtu=" + mtu);
+        }
+
+        if (mConnectionState != State.CONNECTED) {
+            Log.w(TAG, "request MTU exchange not initiated: device is disconnected.");
+            return false;
+        }
+
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            Log.w(TAG, "request MTU exchange not initiated: not supported by Android " + Build.VERSION.SDK_INT);
+            return false;
+        }
+
+        // all check passed successfully, the request can be initiated
+        Request request = Request.createMtuRequest(mtu);
+        addToRequestsQueue(request);
+        return true;
+    }
+
+    /**
+     * <p>To get the ATT MTU of the connection with the device: {@link #DEFAULT_MTU DEFAULT_MTU} until a bigger MTU
+     * has been exchanged through {@link #requestMtu(int) requestMtu}.</p>
+     *
+     * @return The ATT MTU in bytes, the value of an attribute can be up to 3 bytes less than the MTU in a single
+     * packet.
+     */
+    protected int getMtu() {
+        return mMtu;
+    }
+
     /**
      * <p>Initializes a reference to the local Bluetooth adapter.</p>
      *
@@ -925,6 +1014,26 @@ public abstract class BLEService extends Service {
      */
     @SuppressWarnings("UnusedReturnValue") // the return value is used for some implementations
     protected boolean reconnectToDevice() {
+        // We want to directly connect to the device once available - if the disconnection was coming from the
+        // device - so we are setting the autoConnect parameter to true.
+        return reconnectToDevice(true);
+    }
+
+    /**
+     * <p>Connects to the GATT server of a previous connected device.</p>
+     * <p>With <code>autoConnect</code> set to false, the connection is a direct connection: the system scans for
+     * the device with a high duty cycle and connects as soon as the device advertises, but it gives up after about
+     * 30 seconds. With <code>autoConnect</code> set to true, the connection is made in the background with a low
+     * duty cycle and it is kept pending until the device is found.</p>
+     *
+     * @param autoConnect
+     *          True to connect in the background, false to make a direct connection.
+     *
+     * @return Return <code>true</code> if the connection is initiated successfully. The connection result is reported asynchronously
+     *         through the {@code BluetoothGattCallback#onConnectionStateChange(android.bluetooth.BluetoothGatt, int, int)}
+     *         callback.
+     */
+    protected boolean reconnectToDevice(boolean autoConnect) {
         if (mShowDebugLogs) {
             Log.d(TAG, "Request received to reconnect to a BluetoothDevice");
         }
@@ -944,20 +1053,42 @@ public abstract class BLEService extends Service {
             return false;
         }
 
+        // a pending attempt would keep its own connection
+        cancelConnectionAttempt();
+
         // all check passed successfully, the request can be initiated
         setState(State.CONNECTING);
 
-        // We want to directly connect to the device once available - if the disconnection was coming from the
-        // device - so we are setting the autoConnect parameter to true.
         // initiating a complete new connection is faster than reusing the same gatt connection with Android.
-        Log.d(TAG, "request reconnect to BluetoothDevice " + mDevice.getAddress() + " over GATT starts.");
+        Log.d(TAG, "request reconnect to BluetoothDevice " + mDevice.getAddress() + " over GATT starts, autoConnect="
+                + autoConnect);
         if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.M) {
-            mBluetoothGatt = mDevice.connectGatt(this, true, mGattCallback, BluetoothDevice.TRANSPORT_LE);
+            mBluetoothGatt = mDevice.connectGatt(this, autoConnect, mGattCallback, BluetoothDevice.TRANSPORT_LE);
         }
         else {
-            mBluetoothGatt = mDevice.connectGatt(this, true, mGattCallback);
+            mBluetoothGatt = mDevice.connectGatt(this, autoConnect, mGattCallback);
+        }
+
+        return true;
+    }
+
+    /**
+     * <p>To cancel a connection attempt which has not completed yet.</p>
+     * <p>The BluetoothGatt object of the attempt is closed: no connection state change is reported for it.</p>
+     *
+     * @return true if a pending connection attempt has been cancelled.
+     */
+    @SuppressWarnings("UnusedReturnValue") // the return value is used for some implementations
+    protected boolean cancelConnectionAttempt() {
+        if (mConnectionState != State.CONNECTING || mBluetoothGatt == null) {
+            return false;
         }
 
+        Log.i(TAG, "Cancel connection attempt to BluetoothDevice " + mBluetoothGatt.getDevice().getAddress());
+        mBluetoothGatt.disconnect();
+        mBluetoothGatt.close();
+        mBluetoothGatt = null;
+        setState(State.DISCONNECTED);
         return true;
     }
 
@@ -1090,6 +1221,20 @@ public abstract class BLEService extends Service {
     @SuppressWarnings({"EmptyMethod", "UnusedParameters"})
     protected abstract void onRemoteRssiRead(BluetoothGatt gatt, int rssi, int status);
 
+    /**
+     * <p>This method is called when the asynchronous answer to the {@link #requestMtu(int) requestMtu} method had
+     * been received.</p>
+     *
+     * @param gatt
+     *              The Bluetooth gatt which requested the MTU exchange.
+     * @param mtu
+     *              The ATT MTU which is now used for the connection.
+     * @param status
+     *              The result of the exchange, {@link BluetoothGatt#GATT_SUCCESS} if the operation succeeds.
+     */
+    @SuppressWarnings({"EmptyMethod", "UnusedParameters"})
+    protected abstract void onMtuChanged(BluetoothGatt gatt, int mtu, int status);
+
     /**
      * <p>This method is called when a descriptor write operation has been requested</p>
      *
@@ -1153,6 +1298,8 @@ public abstract class BLEService extends Service {
             setState(State.DISCONNECTED);
             resetQueue();
             mCharacteristics.clear();
+            // the MTU is exchanged for each connection
+            mMtu = DEFAULT_MTU;
 
             if (mShowDebugLogs) {
                 Log.d(TAG, "Device disconnected, closing BluetoothGatt object.");
@@ -1262,6 +1409,36 @@ public abstract class BLEService extends Service {
         onRemoteRssiRead(gatt, rssi, status);
     }
 
+    /**
+     * <p>This method is called when the ATT MTU of the connection has been exchanged.</p>
+     *
+     * @param gatt
+     *              The Bluetooth gatt which requested the MTU exchange.
+     * @param mtu
+     *              The ATT MTU which is now used for the connection.
+     * @param status
+     *              The result of the exchange: {@link BluetoothGatt#GATT_SUCCESS} if the operation succeeds.
+     */
+    private void receiveMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+        if (mShowDebugLogs) {
+            Log.d(TAG, "GattCallback - onMtuChanged, mtu=" + mtu + ", status=" + status);
+        }
+
+        Request request = onReceiveCallback(Request.RequestType.REQUEST_MTU);
+        boolean expectedCallback = request != null;
+
+        if (status != BluetoothGatt.GATT_SUCCESS) {
+            Log.w(TAG, "Unsuccessful MTU exchange - status: " + BLEUtils.getGattStatusName(status, false));
+            if (expectedCallback) onRequestFailed(request);
+        }
+        else {
+            mMtu = mtu;
+            if (expectedCallback) processNextRequest();
+        }
+
+        onMtuChanged(gatt, mMtu, status);
+    }
+
     /**
      * <p>This method is called when a descriptor write operation has been requested.</p>
      *
@@ -1529,6 +1706,31 @@ public abstract class BLEService extends Service {
         return done;
     }
 
+    /**
+     * <p>Request the exchange of the ATT MTU with the remote device. The result is reported asynchronously through
+     * the {@code BluetoothGattCallback{@link #onMtuChanged(BluetoothGatt, int, int)} callback.</p>
+     *
+     * @param mtu
+     *          The MTU to request.
+     *
+     * @return true, if the exchange was initiated successfully.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private boolean requestMtuExchange(int mtu) {
+        if (mShowDebugLogs) {
+            Log.d(TAG, "Process MTU exchange for mtu=" + mtu);
+        }
+        if (mBluetoothGatt == null) {
+            Log.w(TAG, "MTU exchange cannot be processed: BluetoothGatt is null.");
+            return false;
+        }
+        boolean done = mBluetoothGatt.requestMtu(mtu);
+        if (mShowDebugLogs) {
+            Log.d(TAG, "Request MTU exchange dispatched to system: " + done);
+        }
+        return done;
+    }
+
     /**
      * <p>Retrieves a list of supported GATT services on the connected device. This should be invoked only after
      * {@code BluetoothGatt#discoverServices()} completes successfully.</p>
@@ -1665,6 +1867,8 @@ public abstract class BLEService extends Service {
 
     /**
      * <p>Add a request item to the requests queue.</p>
+     * <p>A priority request is added after the priority requests which are already in the queue but before any other
+     * request.</p>
      *
      * @param request
      *              The request item to add to the queue.
@@ -1675,7 +1879,19 @@ public abstract class BLEService extends Service {
                 Log.d(TAG, "Add request of type " + Request.getRequestTypeLabel(request.getType())
                         + "to the Queue of requests to process.");
             }
-            mRequestsQueue.add(request);
+            if (request.isPriority()) {
+                int index = 0;
+                for (Request queued : mRequestsQueue) {
+                    if (!queued.isPriority()) {
+                        break;
+                    }
+                    index++;
+                }
+                mRequestsQueue.add(index, request);
+            }
+            else {
+                mRequestsQueue.add(request);
+            }
         }
         else {
             Log.w(TAG, "Request " + Request.getRequestTypeLabel(request.getType()) + " failed after "
@@ -1798,6 +2014,13 @@ public abstract class BLEService extends Service {
                 mHandler.postDelayed(mTimeOutRequestRunnable, mDelay);
                 done = readRemoteRssi();
                 break;
+
+            case Request.RequestType.REQUEST_MTU:
+                mTimeOutRequestRunnable = new TimeOutRequestRunnable(request);
+                mHandler.postDelayed(mTimeOutRequestRunnable, mDelay);
+                done = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                        && requestMtuExchange(request.getIntData());
+                break;
         }
 
         if (!done) {
@@ -47,6 +47,14 @@ class Request {
      * The data which should be used for this request.
      */
     private final byte[] mData;
+    /**
+     * If this request needs an integer value, the value for this request.
+     */
+    private int mIntData = 0;
+    /**
+     * To know if this request should be processed before the other requests of the queue.
+     */
+    private boolean isPriority = false;
 
 
     // ====== ENUM =======================================================================
@@ -56,7 +64,8 @@ class Request {
      */
     @IntDef(flag = true, value = { RequestType.CHARACTERISTIC_NOTIFICATION, RequestType.READ_CHARACTERISTIC,
             RequestType.READ_DESCRIPTOR, RequestType.WRITE_CHARACTERISTIC, RequestType.WRITE_NO_RESPONSE_CHARACTERISTIC,
-            RequestType.WRITE_DESCRIPTOR, RequestType.READ_CHARACTERISTIC_TO_INDUCE_PAIRING, RequestType.READ_RSSI })
+            RequestType.WRITE_DESCRIPTOR, RequestType.READ_CHARACTERISTIC_TO_INDUCE_PAIRING, RequestType.READ_RSSI,
+            RequestType.REQUEST_MTU })
     @Retention(RetentionPolicy.SOURCE)
     @SuppressLint("ShiftFlags") // values are more readable this way
     public @interface RequestType {
@@ -161,6 +170,15 @@ class Request {
          * have any parameter to configure in order to be used so it doesn't request any parameter.</p>
          */
         int READ_RSSI = 7;
+        /**
+         * <p>This request type describes the request from this device to exchange the ATT MTU with the remote
+         * device. This request is used to define the call to the {@link BluetoothGatt#requestMtu(int) requestMtu}
+         * method which is only available from Android 5.0.</p>
+         * <p>To use this type of request, a {@link Request Request} object has to be created through the
+         * {@link Request#createMtuRequest(int) createMtuRequest} static method. It has to provide the MTU to
+         * request which can then be retrieved with {@link Request#getIntData() getIntData}.</p>
+         */
+        int REQUEST_MTU = 8;
     }
 
 
@@ -244,6 +262,8 @@ class Request {
      * WRITE_CHARACTERISTIC}. This will allow building of information for the call to the
      * {@link android.bluetooth.BluetoothGatt#writeCharacteristic(BluetoothGattCharacteristic) writeCharacteristic}
      * method.</p>
+     * <p>The request keeps a copy of the data: the request may wait in a queue until the previous requests are
+     * done while the caller reuses its array.</p>
      *
      * @param characteristic
      *          The characteristic to write values on.
@@ -255,7 +275,7 @@ class Request {
     @NonNull
     public static Request createWriteCharacteristicRequest(@NonNull BluetoothGattCharacteristic characteristic,
                                                            @NonNull byte[] data) {
-        return new Request(RequestType.WRITE_CHARACTERISTIC, characteristic, null, data, false);
+        return new Request(RequestType.WRITE_CHARACTERISTIC, characteristic, null, data.clone(), false);
     }
 
     /**
@@ -263,6 +283,8 @@ class Request {
      * WRITE_NO_RESPONSE_CHARACTERISTIC}. This will allow building information for the call to the
      * {@link android.bluetooth.BluetoothGatt#writeCharacteristic(BluetoothGattCharacteristic) writeCharacteristic}
      * method with the write type {@link BluetoothGattCharacteristic#WRITE_TYPE_NO_RESPONSE WRITE_TYPE_NO_RESPONSE}.</p>
+     * <p>As for {@link #createWriteCharacteristicRequest(BluetoothGattCharacteristic, byte[])
+     * createWriteCharacteristicRequest}, the request keeps a copy of the data.</p>
      *
      * @param characteristic
      *          The characteristic to write values on.
@@ -276,7 +298,7 @@ class Request {
     public static Request createWriteNoResponseCharacteristicRequest(@NonNull BluetoothGattCharacteristic
                                                                                  characteristic,
                                                            @NonNull byte[] data) {
-        return new Request(RequestType.WRITE_NO_RESPONSE_CHARACTERISTIC, characteristic, null, data, false);
+        return new Request(RequestType.WRITE_NO_RESPONSE_CHARACTERISTIC, characteristic, null, data.clone(), false);
     }
 
     /**
@@ -310,6 +332,22 @@ class Request {
         return new Request(RequestType.READ_RSSI, null, null, null, false);
     }
 
+    /**
+     * <p>This static method allows creation of a request of the type {@link RequestType#REQUEST_MTU REQUEST_MTU}.
+     * This request is used to call the {@link BluetoothGatt#requestMtu(int) requestMtu} method.</p>
+     *
+     * @param mtu
+     *          The ATT MTU to request to the remote device.
+     *
+     * @return A new Request object of type {@link RequestType#REQUEST_MTU REQUEST_MTU}.
+     */
+    @NonNull
+    public static Request createMtuRequest(int mtu) {
+        Request request = new Request(RequestType.REQUEST_MTU, null, null, null, false);
+        request.mIntData = mtu;
+        return request;
+    }
+
     /**
      * <p>To get a human readable label value for the request types.</p>
      *
@@ -334,6 +372,8 @@ class Request {
                 return "READ_CHARACTERISTIC_TO_INDUCE_PAIRING";
             case RequestType.READ_RSSI:
                 return "READ_RSSI";
+            case RequestType.REQUEST_MTU:
+                return "REQUEST_MTU";
         }
         return "UNKNOWN " + type;
     }
@@ -542,6 +582,26 @@ class Request {
         return mBooleanData;
     }
 
+    /**
+     * <p>To get the integer data given when creating the request.</p>
+     *
+     * @return the integer data which has been attached to this request. If the request is not a request containing
+     * integer data such as {@link RequestType#REQUEST_MTU REQUEST_MTU}, this method will return 0.
+     */
+    public int getIntData() {
+        return mIntData;
+    }
+
+    /**
+     * <p>To know if this request should be processed before the requests of the queue which are not priority
+     * requests.</p>
+     *
+     * @return true if this request is a priority request, false otherwise.
+     */
+    public boolean isPriority() {
+        return isPriority;
+    }
+
 
     // ====== SETTERS =======================================================================
 
@@ -562,4 +622,15 @@ class Request {
         mAttempts++;
     }
 
+    /**
+     * <p>To define if this request should be processed before the requests of the queue which are not priority
+     * requests. The priority requests are processed in the order they have been queued.</p>
+     *
+     * @param priority
+     *          True to process this request before the other requests, false otherwise.
+     */
+    public void setPriority(boolean priority) {
+        isPriority = priority;
+    }
+
 }
@@ -0,0 +1,412 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.gaia;
+
+import android.support.annotation.IntDef;
+import android.util.Log;
+
+import com.qualcomm.libraries.gaia.packets.GaiaPacket;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <p>This class represents a GAIA command sent with {@link GaiaManager#createCall(GaiaPacket, long) createCall}
+ * and the acknowledgement the device replies with.</p>
+ * <p>The {@link GaiaManager GaiaManager} matches the acknowledgement with the call and completes it: the
+ * {@link Callback callbacks} of the call are then run on the thread of the manager. A call completes once with one
+ * of the following {@link State states}: {@link State#ACKNOWLEDGED ACKNOWLEDGED},
+ * {@link State#TIMED_OUT TIMED_OUT}, {@link State#CANCELLED CANCELLED} or {@link State#FAILED FAILED}.</p>
+ * <p>A call is also a {@link Future Future} of its acknowledgement packet. The blocking methods
+ * {@link #get() get} must not be called from the thread of the manager as it is the one which completes the
+ * call.</p>
+ * <p>Several calls can be awaited at once with {@link #all(GaiaCall...) all}.</p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class GaiaCall implements Future<GaiaPacket> {
+
+    // ====== CONSTS FIELDS ========================================================================
+
+    /**
+     * <p>The tag to display for logs.</p>
+     */
+    private static final String TAG = "GaiaCall";
+
+
+    // ====== PRIVATE FIELDS =======================================================================
+
+    /**
+     * <p>The command of the call.</p>
+     */
+    private final int mCommand;
+    /**
+     * <p>The time out of the call in ms, 0 for the time out of the manager.</p>
+     */
+    private final long mTimeOut;
+    /**
+     * <p>The state of the call.</p>
+     */
+    private @State int mState = State.PENDING;
+    /**
+     * <p>The acknowledgement packet once the call is {@link State#ACKNOWLEDGED ACKNOWLEDGED}.</p>
+     */
+    private GaiaPacket mAcknowledgement = null;
+    /**
+     * <p>The callbacks to run once the call is complete.</p>
+     */
+    private List<Callback> mCallbacks = null;
+    /**
+     * <p>The calls which are completed with the same result as this call.</p>
+     */
+    private List<GaiaCall> mFollowers = null;
+    /**
+     * <p>True if the manager has to dispatch the acknowledgement to its abstract methods as well: this happens when
+     * a request sent by {@link GaiaManager#createRequest(GaiaPacket) createRequest} has been coalesced with this
+     * call.</p>
+     */
+    private boolean isNotifyingManager = false;
+
+
+    // ====== ENUM =================================================================================
+
+    /**
+     * <p>The states of a call.</p>
+     */
+    @IntDef({ State.PENDING, State.ACKNOWLEDGED, State.TIMED_OUT, State.CANCELLED, State.FAILED })
+    @Retention(RetentionPolicy.SOURCE)
+    @SuppressWarnings("unused")
+    public @interface State {
+        /**
+         * <p>The call waits for its acknowledgement.</p>
+         */
+        int PENDING = 0;
+        /**
+         * <p>The device has acknowledged the command, the status of the acknowledgement is given by
+         * {@link #getStatus() getStatus}.</p>
+         */
+        int ACKNOWLEDGED = 1;
+        /**
+         * <p>The device has not acknowledged the command in time.</p>
+         */
+        int TIMED_OUT = 2;
+        /**
+         * <p>The call has been cancelled or the manager has been reset.</p>
+         */
+        int CANCELLED = 3;
+        /**
+         * <p>The packet of the call could not be built.</p>
+         */
+        int FAILED = 4;
+    }
+
+
+    // ====== CONSTRUCTOR ==========================================================================
+
+    /**
+     * <p>To build a pending call.</p>
+     *
+     * @param command
+     *          The command of the call.
+     * @param timeOut
+     *          The time out of the call in ms, 0 to use the one of the manager.
+     */
+    /*package*/ GaiaCall(int command, long timeOut) {
+        mCommand = command;
+        mTimeOut = timeOut;
+    }
+
+
+    // ====== STATIC METHODS =======================================================================
+
+    /**
+     * <p>To await several calls at once.</p>
+     *
+     * @param calls
+     *          The calls to await.
+     *
+     * @return a group which completes once all the calls are complete.
+     */
+    public static GaiaCallGroup all(GaiaCall... calls) {
+        return new GaiaCallGroup(calls);
+    }
+
+
+    // ====== PUBLIC METHODS =======================================================================
+
+    /**
+     * <p>To add a callback to run once the call is complete. If the call is already complete the callback is run
+     * straight away on the calling thread.</p>
+     *
+     * @param callback
+     *          The callback to run.
+     *
+     * @return this call in order to chain the calls.
+     */
+    public GaiaCall addCallback(Callback callback) {
+        synchronized (this) {
+            if (mState == State.PENDING) {
+                if (mCallbacks == null) {
+                    mCallbacks = new ArrayList<>(1);
+                }
+                mCallbacks.add(callback);
+                return this;
+            }
+        }
+        callback.onComplete(this);
+        return this;
+    }
+
+    /**
+     * <p>To get the command of this call.</p>
+     */
+    public int getCommand() {
+        return mCommand;
+    }
+
+    /**
+     * <p>To get the time out of this call in ms.</p>
+     *
+     * @return the time out or 0 if the call uses the one of the manager.
+     */
+    public long getTimeOut() {
+        return mTimeOut;
+    }
+
+    /**
+     * <p>To get the state of this call.</p>
+     */
+    public synchronized @State int getState() {
+        return mState;
+    }
+
+    /**
+     * <p>To get the acknowledgement packet of this call.</p>
+     *
+     * @return the packet or null if the call has not been acknowledged.
+     */
+    public synchronized GaiaPacket getAcknowledgement() {
+        return mAcknowledgement;
+    }
+
+    /**
+     * <p>To get the status of the acknowledgement of this call.</p>
+     *
+     * @return the status or -1 if the call has not been acknowledged.
+     */
+    public synchronized int getStatus() {
+        return mAcknowledgement == null ? -1 : mAcknowledgement.getStatus();
+    }
+
+    /**
+     * <p>To know if the device has acknowledged this call with the status
+     * {@link GAIA.Status#SUCCESS SUCCESS}.</p>
+     */
+    public synchronized boolean isSuccessful() {
+        return mAcknowledgement != null && mAcknowledgement.getStatus() == GAIA.Status.SUCCESS;
+    }
+
+    /**
+     * <p>To cancel this call: it completes with the state {@link State#CANCELLED CANCELLED}. The command may still be
+     * sent to the device, its acknowledgement is then ignored.</p>
+     *
+     * @param mayInterruptIfRunning
+     *          Not used.
+     *
+     * @return true if the call has been cancelled, false if it was already complete.
+     */
+    @Override // Future
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return complete(State.CANCELLED, null);
+    }
+
+    @Override // Future
+    public synchronized boolean isCancelled() {
+        return mState == State.CANCELLED;
+    }
+
+    @Override // Future
+    public synchronized boolean isDone() {
+        return mState != State.PENDING;
+    }
+
+    /**
+     * <p>To wait for the acknowledgement of this call. This must not be called from the thread of the manager.</p>
+     *
+     * @return the acknowledgement packet, whatever its status is.
+     *
+     * @throws ExecutionException if the call has timed out or failed.
+     * @throws CancellationException if the call has been cancelled.
+     */
+    @Override // Future
+    public synchronized GaiaPacket get() throws InterruptedException, ExecutionException {
+        while (mState == State.PENDING) {
+            wait();
+        }
+        return getResult();
+    }
+
+    /**
+     * <p>To wait for the acknowledgement of this call for at most the given time. This must not be called from the
+     * thread of the manager.</p>
+     *
+     * @return the acknowledgement packet, whatever its status is.
+     *
+     * @throws TimeoutException if the call is still pending after the given time.
+     * @throws ExecutionException if the call has timed out or failed.
+     * @throws CancellationException if the call has been cancelled.
+     */
+    @Override // Future
+    public synchronized GaiaPacket get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long end = System.nanoTime() + unit.toNanos(timeout);
+        while (mState == State.PENDING) {
+            long remaining = end - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException("No acknowledgement for command "
+                        + GaiaUtils.getGAIACommandToString(mCommand));
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return getResult();
+    }
+
+    @Override // Object
+    public synchronized String toString() {
+        return "GaiaCall{command=" + GaiaUtils.getGAIACommandToString(mCommand) + ", state=" + mState
+                + (mAcknowledgement == null ? "" : ", status=" + GAIA.getStatusToString(getStatus())) + "}";
+    }
+
+
+    // ====== PACKAGE METHODS ======================================================================
+
+    /**
+     * <p>To complete this call and the calls which follow it. The callbacks are run on the calling thread.</p>
+     *
+     * @param state
+     *          The final state of the call.
+     * @param acknowledgement
+     *          The acknowledgement packet if the state is {@link State#ACKNOWLEDGED ACKNOWLEDGED}.
+     *
+     * @return true if the call has been completed, false if it was already complete.
+     */
+    /*package*/ boolean complete(@State int state, GaiaPacket acknowledgement) {
+        List<Callback> callbacks;
+        List<GaiaCall> followers;
+        synchronized (this) {
+            if (mState != State.PENDING) {
+                return false;
+            }
+            mState = state;
+            mAcknowledgement = acknowledgement;
+            callbacks = mCallbacks;
+            followers = mFollowers;
+            mCallbacks = null;
+            mFollowers = null;
+            notifyAll();
+        }
+
+        if (followers != null) {
+            for (GaiaCall follower : followers) {
+                follower.complete(state, acknowledgement);
+            }
+        }
+        if (callbacks != null) {
+            for (Callback callback : callbacks) {
+                try {
+                    callback.onComplete(this);
+                }
+                catch (RuntimeException e) {
+                    Log.w(TAG, "Exception occurs when running a callback of " + this + ": " + e.toString());
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * <p>To complete another call with the result of this call: this is used when the request of the other call is
+     * replaced by the request of this call. If this call is already complete the other call is completed straight
+     * away.</p>
+     *
+     * @param follower
+     *          The call to complete with the same result.
+     */
+    /*package*/ void addFollower(GaiaCall follower) {
+        @State int state;
+        GaiaPacket acknowledgement;
+        synchronized (this) {
+            if (mState == State.PENDING) {
+                if (mFollowers == null) {
+                    mFollowers = new ArrayList<>(1);
+                }
+                mFollowers.add(follower);
+                isNotifyingManager |= follower.isNotifyingManager();
+                return;
+            }
+            state = mState;
+            acknowledgement = mAcknowledgement;
+        }
+        follower.complete(state, acknowledgement);
+    }
+
+    /**
+     * <p>To know if the manager has to dispatch the acknowledgement of this call to its abstract methods.</p>
+     */
+    /*package*/ synchronized boolean isNotifyingManager() {
+        return isNotifyingManager;
+    }
+
+    /**
+     * <p>To define that the manager has to dispatch the acknowledgement of this call to its abstract methods.</p>
+     */
+    /*package*/ synchronized void setNotifyingManager() {
+        isNotifyingManager = true;
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    /**
+     * <p>To get the result of a complete call for the {@link Future Future} methods.</p>
+     */
+    private GaiaPacket getResult() throws ExecutionException {
+        switch (mState) {
+            case State.ACKNOWLEDGED:
+                return mAcknowledgement;
+            case State.CANCELLED:
+                throw new CancellationException("The call has been cancelled: " + this);
+            case State.TIMED_OUT:
+                throw new ExecutionException(new TimeoutException("No acknowledgement received: " + this));
+            case State.FAILED:
+            case State.PENDING:
+            default:
+                throw new ExecutionException("The packet of the call could not be sent: " + this, null);
+        }
+    }
+
+
+    // ====== INTERFACES ===========================================================================
+
+    /**
+     * <p>The callback to run once a call is complete.</p>
+     */
+    public interface Callback {
+
+        /**
+         * <p>Called once when the call is complete, on the thread of the manager.</p>
+         *
+         * @param call
+         *          The complete call, its state is not {@link State#PENDING PENDING}.
+         */
+        void onComplete(GaiaCall call);
+    }
+}
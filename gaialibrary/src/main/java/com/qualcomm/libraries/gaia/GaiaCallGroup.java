@@ -0,0 +1,233 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.gaia;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <p>This class awaits several {@link GaiaCall calls} at once, it is built with
+ * {@link GaiaCall#all(GaiaCall...) GaiaCall.all}.</p>
+ * <p>The group is complete once all its calls are complete, whatever their state is: its
+ * {@link Callback callbacks} are then run on the thread which completed the last call. The group is also a
+ * {@link Future Future} of its calls, its blocking methods must not be called from the thread of the manager.</p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class GaiaCallGroup implements Future<List<GaiaCall>> {
+
+    // ====== CONSTS FIELDS ========================================================================
+
+    /**
+     * <p>The tag to display for logs.</p>
+     */
+    private static final String TAG = "GaiaCallGroup";
+
+
+    // ====== PRIVATE FIELDS =======================================================================
+
+    /**
+     * <p>The calls of the group.</p>
+     */
+    private final List<GaiaCall> mCalls;
+    /**
+     * <p>The number of calls which are not complete yet.</p>
+     */
+    private int mPending;
+    /**
+     * <p>The callbacks to run once the group is complete.</p>
+     */
+    private List<Callback> mCallbacks = null;
+    /**
+     * <p>The callback added to each call of the group.</p>
+     */
+    private final GaiaCall.Callback mCallCallback = new GaiaCall.Callback() {
+        @Override // GaiaCall.Callback
+        public void onComplete(GaiaCall call) {
+            onCallComplete();
+        }
+    };
+
+
+    // ====== CONSTRUCTOR ==========================================================================
+
+    /**
+     * <p>To build a group which awaits the given calls.</p>
+     */
+    /*package*/ GaiaCallGroup(GaiaCall[] calls) {
+        mCalls = Collections.unmodifiableList(Arrays.asList(calls.clone()));
+        mPending = calls.length;
+        for (GaiaCall call : mCalls) {
+            call.addCallback(mCallCallback);
+        }
+    }
+
+
+    // ====== PUBLIC METHODS =======================================================================
+
+    /**
+     * <p>To add a callback to run once all the calls are complete. If the group is already complete the callback is
+     * run straight away on the calling thread.</p>
+     *
+     * @param callback
+     *          The callback to run.
+     *
+     * @return this group in order to chain the calls.
+     */
+    public GaiaCallGroup addCallback(Callback callback) {
+        synchronized (this) {
+            if (mPending > 0) {
+                if (mCallbacks == null) {
+                    mCallbacks = new ArrayList<>(1);
+                }
+                mCallbacks.add(callback);
+                return this;
+            }
+        }
+        callback.onComplete(this);
+        return this;
+    }
+
+    /**
+     * <p>To get the calls of this group in the order they have been given.</p>
+     */
+    public List<GaiaCall> getCalls() {
+        return mCalls;
+    }
+
+    /**
+     * <p>To know if all the calls of this group have been acknowledged with the status
+     * {@link GAIA.Status#SUCCESS SUCCESS}.</p>
+     */
+    public boolean isSuccessful() {
+        for (GaiaCall call : mCalls) {
+            if (!call.isSuccessful()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * <p>To cancel all the calls of this group which are not complete yet.</p>
+     *
+     * @return true if at least one call has been cancelled.
+     */
+    @Override // Future
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = false;
+        for (GaiaCall call : mCalls) {
+            cancelled |= call.cancel(mayInterruptIfRunning);
+        }
+        return cancelled;
+    }
+
+    /**
+     * <p>To know if at least one call of this group has been cancelled.</p>
+     */
+    @Override // Future
+    public boolean isCancelled() {
+        for (GaiaCall call : mCalls) {
+            if (call.isCancelled()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override // Future
+    public synchronized boolean isDone() {
+        return mPending == 0;
+    }
+
+    /**
+     * <p>To wait until all the calls are complete. This must not be called from the thread of the manager.</p>
+     *
+     * @return the calls of the group, their states have to be checked.
+     */
+    @Override // Future
+    public synchronized List<GaiaCall> get() throws InterruptedException, ExecutionException {
+        while (mPending > 0) {
+            wait();
+        }
+        return mCalls;
+    }
+
+    /**
+     * <p>To wait until all the calls are complete for at most the given time. This must not be called from the
+     * thread of the manager.</p>
+     *
+     * @return the calls of the group, their states have to be checked.
+     *
+     * @throws TimeoutException if some calls are still pending after the given time.
+     */
+    @Override // Future
+    public synchronized List<GaiaCall> get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long end = System.nanoTime() + unit.toNanos(timeout);
+        while (mPending > 0) {
+            long remaining = end - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException(mPending + " calls are still pending.");
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return mCalls;
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    /**
+     * <p>Called when a call of the group is complete: once all of them are, the callbacks of the group are run.</p>
+     */
+    private void onCallComplete() {
+        List<Callback> callbacks;
+        synchronized (this) {
+            mPending--;
+            if (mPending > 0) {
+                return;
+            }
+            callbacks = mCallbacks;
+            mCallbacks = null;
+            notifyAll();
+        }
+
+        if (callbacks != null) {
+            for (Callback callback : callbacks) {
+                try {
+                    callback.onComplete(this);
+                }
+                catch (RuntimeException e) {
+                    Log.w(TAG, "Exception occurs when running a callback of a group: " + e.toString());
+                }
+            }
+        }
+    }
+
+
+    // ====== INTERFACES ===========================================================================
+
+    /**
+     * <p>The callback to run once all the calls of a group are complete.</p>
+     */
+    public interface Callback {
+
+        /**
+         * <p>Called once when all the calls of the group are complete.</p>
+         *
+         * @param group
+         *          The complete group.
+         */
+        void onComplete(GaiaCallGroup group);
+    }
+}
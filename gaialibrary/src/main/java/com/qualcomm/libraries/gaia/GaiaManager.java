@@ -4,7 +4,6 @@
 
 package com.qualcomm.libraries.gaia;
 
-import android.os.Handler;
 import android.support.annotation.Nullable;
 import android.support.v4.util.ArrayMap;
 import android.util.Log;
@@ -12,11 +11,20 @@ import android.util.Log;
 import com.qualcomm.libraries.gaia.packets.GaiaPacket;
 import com.qualcomm.libraries.gaia.packets.GaiaPacketBLE;
 import com.qualcomm.libraries.gaia.packets.GaiaPacketBREDR;
+import com.qualcomm.libraries.gaia.packets.GaiaPacketBuilder;
 import com.qualcomm.libraries.gaia.requests.GaiaAcknowledgementRequest;
 import com.qualcomm.libraries.gaia.requests.GaiaRequest;
-
-import java.util.LinkedList;
+import com.qualcomm.libraries.scheduler.HandlerScheduler;
+import com.qualcomm.libraries.scheduler.Scheduler;
+import com.qualcomm.libraries.scheduler.TimingWheel;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * <p>This class manages the sending and receiving of packets using the GAIA protocol.</p>
@@ -42,7 +50,23 @@ import java.util.List;
  * to the device and to inform the application if it has not received a corresponding acknowledgement packet, see
  * {@link #hasNotReceivedAcknowledgementPacket(GaiaPacket) hasNotReceivedAcknowledgementPacket}. To define the time
  * before declaring the request as timed out, use {@link #setRequestTimeOut(int) setRequestTimeOut}. The default time is
- * {@link #ACKNOWLEDGEMENT_RUNNABLE_DEFAULT_DELAY_MILLIS ACKNOWLEDGEMENT_RUNNABLE_DEFAULT_DELAY_MILLIS}.</p>
+ * {@link #ACKNOWLEDGEMENT_RUNNABLE_DEFAULT_DELAY_MILLIS ACKNOWLEDGEMENT_RUNNABLE_DEFAULT_DELAY_MILLIS}. The time outs
+ * of all the requests share one {@link TimingWheel TimingWheel} which has a precision of 100 ms.</p>
+ * <p>The requests follow a {@link GaiaTrafficPolicy GaiaTrafficPolicy}, by default the
+ * {@link GaiaTrafficPolicy#getDefault() shared one}: during an upgrade session the requests for background commands
+ * are not sent, the last request for each of these commands is sent once the session has ended.</p>
+ * <p>A packet can also be sent with {@link #createCall(GaiaPacket, long) createCall}: the manager then matches the
+ * acknowledgement with the returned {@link GaiaCall GaiaCall} instead of dispatching it to the abstract methods. This
+ * allows a caller to send several commands, to wait for them with {@link GaiaCall#all(GaiaCall...) GaiaCall.all} and
+ * to give each of them its own time out.</p>
+ * <p>The {@link GaiaReadCache read commands} are not sent twice: a read which is identical to a read waiting for its
+ * acknowledgement gets the acknowledgement of the pending one, and a read which has been acknowledged less than
+ * {@link GaiaReadCache#setTimeToLive(long) the time to live} ago - by any manager sharing the cache - is answered
+ * locally with that acknowledgement on the scheduler of this manager.</p>
+ * <p>The bytes of the packets are built by a {@link GaiaPacketBuilder GaiaPacketBuilder}: the bytes of a request are
+ * reused once the request has been acknowledged, the bytes of the acknowledgements this manager sends are only reused
+ * if {@link #setSentBytesReusable(boolean) the implementation of sendGAIAPacket allows it}. The received packets are
+ * views of the received bytes: their payload is not copied.</p>
  * <p>This manager should be reset when the device is disconnected.</p>
  */
 @SuppressWarnings({"unused", "WeakerAccess"})
@@ -55,10 +79,10 @@ public abstract class GaiaManager {
      */
     private final String TAG = "GaiaManager";
     /**
-     * <p>An array map which groups all Runnable for requests which have sent a GAIA packet and are waiting for the
-     * corresponding acknowledgement packet.</p>
+     * <p>An array map which groups by command the time outs of the requests which have sent a GAIA packet and are
+     * waiting for the corresponding acknowledgement packet.</p>
      */
-    private final ArrayMap<Integer, LinkedList<TimeOutRequestRunnable>> mTimeOutRequestRunnableMap = new ArrayMap<>();
+    private final ArrayMap<Integer, PendingTimeOuts> mPendingTimeOuts = new ArrayMap<>();
     /**
      * <p>The default time to declare a GAIA request is timed out.</p>
      * <p>A request is considered as timed out when the GAIA packet sent by the request has not received a corresponding
@@ -66,15 +90,37 @@ public abstract class GaiaManager {
      */
     protected static final int ACKNOWLEDGEMENT_RUNNABLE_DEFAULT_DELAY_MILLIS = 30000;
     /**
-     * <p>The time in millisecond used to delay a Runnable in order to declare a request had been timed out.</p>
+     * <p>The time in millisecond to wait in order to declare a request had been timed out.</p>
      * <p>A request is considered as time out when the packet sent for the request has not received a corresponding
      * acknowledgement packet.</p>
      */
     private int mTimeOutRequestDelay = ACKNOWLEDGEMENT_RUNNABLE_DEFAULT_DELAY_MILLIS;
     /**
-     * <p>The main handler to run tasks.</p>>
+     * <p>The precision in ms of the time outs of the requests.</p>
+     */
+    private static final int TIME_OUT_TICK_MILLIS = 100;
+    /**
+     * <p>The number of ticks of the wheel which runs the time outs: a turn is longer than the default time out.</p>
+     */
+    private static final int TIME_OUT_TICKS_PER_WHEEL = 512;
+    /**
+     * <p>The scheduler to run tasks.</p>
+     */
+    private final Scheduler mScheduler;
+    /**
+     * <p>The timing wheel which runs the time outs of the requests over the scheduler.</p>
      */
-    private final Handler mHandler = new Handler();
+    private final TimingWheel mTimeOutWheel;
+    /**
+     * <p>The listener called when the time out of a request expires, the request is the attachment of the
+     * timer.</p>
+     */
+    private final TimingWheel.TimerListener mTimeOutListener = new TimingWheel.TimerListener() {
+        @Override // TimingWheel.TimerListener
+        public void onTimerExpired(long timer, Object attachment) {
+            onRequestTimedOut(timer, (GaiaRequest) attachment);
+        }
+    };
     /**
      * The type of transport this manager should use for the GAIA packet format:
      * {@link com.qualcomm.libraries.gaia.GAIA.Transport#BLE BLE} or
@@ -85,6 +131,63 @@ public abstract class GaiaManager {
      * <p>To show the debug logs indicating when a method had been reached.</p>
      */
     private boolean mShowDebugLogs = false;
+    /**
+     * <p>The policy which defines which requests are deferred during an upgrade session.</p>
+     */
+    private GaiaTrafficPolicy mTrafficPolicy = GaiaTrafficPolicy.getDefault();
+    /**
+     * <p>The requests which have been deferred by the traffic policy, mapped by their command.</p>
+     */
+    private final ArrayMap<Integer, DeferredRequest> mDeferredRequests = new ArrayMap<>();
+    /**
+     * <p>The calls which have been created and have not been completed by this manager yet.</p>
+     */
+    private final Set<GaiaCall> mPendingCalls = new LinkedHashSet<>();
+    /**
+     * <p>The scheduler which limits the number of requests waiting for their acknowledgement.</p>
+     */
+    private GaiaRequestScheduler mRequestScheduler = GaiaRequestScheduler.getDefault();
+    /**
+     * <p>The client which represents this manager within the request scheduler: it sends the queued requests once
+     * the scheduler allows it.</p>
+     * <p>The scheduler dispatches the queued requests on the thread which completes a request, which can be the
+     * thread of another manager or of a transport: the requests are posted to the scheduler of this manager.</p>
+     */
+    private final GaiaRequestScheduler.Client mSchedulerClient = new GaiaRequestScheduler.Client() {
+        @Override // GaiaRequestScheduler.Client
+        public void onRequestScheduled(GaiaRequest request) {
+            ScheduledRequest scheduled = new ScheduledRequest(request);
+            synchronized (mScheduledRequests) {
+                mScheduledRequests.add(scheduled);
+            }
+            mScheduler.schedule(scheduled, 0);
+        }
+    };
+    /**
+     * <p>The requests which have been dispatched by the request scheduler and have not been sent yet.</p>
+     */
+    private final List<ScheduledRequest> mScheduledRequests = new ArrayList<>();
+    /**
+     * <p>The cache which defines the read commands and keeps their last acknowledgements.</p>
+     */
+    private GaiaReadCache mReadCache = GaiaReadCache.getDefault();
+    /**
+     * <p>The reads which have been sent and wait for their acknowledgement, mapped by their command.</p>
+     */
+    private final ArrayMap<Integer, GaiaRequest> mReadsInFlight = new ArrayMap<>();
+    /**
+     * <p>The reads which are answered locally and have not been answered yet.</p>
+     */
+    private final List<LocalAnswer> mLocalAnswers = new ArrayList<>();
+    /**
+     * <p>The builder which writes the bytes of the packets sent by this manager in reused arrays.</p>
+     */
+    private final GaiaPacketBuilder mPacketBuilder = new GaiaPacketBuilder();
+    /**
+     * <p>True if the bytes given to {@link #sendGAIAPacket(byte[]) sendGAIAPacket} are not used anymore once the
+     * method has returned.</p>
+     */
+    private boolean isSentBytesReusable = false;
 
 
     // ====== CONSTRUCTOR ==========================================================================
@@ -98,7 +201,35 @@ public abstract class GaiaManager {
      *          structure of the packet.
      */
     protected GaiaManager(@GAIA.Transport int transportType) {
+        this(transportType, new HandlerScheduler());
+    }
+
+    /**
+     * <p>Constructor of this class which allows the definition of the scheduler used to run the time outs of the
+     * requests.</p>
+     * <p>The other constructor uses a {@link HandlerScheduler HandlerScheduler} on the Looper of the calling thread.
+     * Another {@link Scheduler Scheduler} allows this manager to run on a plain JVM or under a virtual clock: all
+     * calls to this manager must then be made from the thread on which the scheduler runs the tasks.</p>
+     *
+     * @param transportType
+     *          The type of transport which will be used to send and receive GAIA packets. The transport defines the
+     *          structure of the packet.
+     * @param scheduler
+     *          The scheduler to use to run the time outs.
+     */
+    protected GaiaManager(@GAIA.Transport int transportType, Scheduler scheduler) {
         mTransportType = transportType;
+        mScheduler = scheduler;
+        mTimeOutWheel = new TimingWheel(scheduler, TIME_OUT_TICK_MILLIS, TIME_OUT_TICKS_PER_WHEEL);
+    }
+
+    /**
+     * <p>To get the scheduler used by this manager to run the delayed tasks.</p>
+     *
+     * @return the scheduler given at the creation of this manager.
+     */
+    protected Scheduler getScheduler() {
+        return mScheduler;
     }
 
 
@@ -106,12 +237,25 @@ public abstract class GaiaManager {
 
     /**
      * <p>To reset the manager by deleting all GAIA requests pending for an acknowledgement.</p>
+     * <p>The acknowledgements kept by the {@link #setReadCache(GaiaReadCache) read cache} are forgotten: once the
+     * link has been connected again, the device might not be the same one.</p>
      */
     public void reset() {
         if (mShowDebugLogs) {
             Log.d(TAG, "Request received to reset the manager.");
         }
-        resetTimeOutRequestRunnableMap();
+        resetRequestTimeOuts();
+        resetDeferredRequests();
+        // a request dispatched after the scheduler has been reset is sent: it must not be dropped
+        resetScheduledRequests();
+        if (mRequestScheduler != null) {
+            mRequestScheduler.reset(mSchedulerClient, mScheduler.now());
+        }
+        resetReads();
+        if (mReadCache != null) {
+            mReadCache.clear();
+        }
+        cancelPendingCalls();
     }
 
     /**
@@ -140,6 +284,82 @@ public abstract class GaiaManager {
         return mTransportType;
     }
 
+    /**
+     * <p>To define the policy which defers the background requests during an upgrade session. The default policy is
+     * {@link GaiaTrafficPolicy#getDefault() the shared one}.</p>
+     *
+     * @param policy
+     *          The policy to follow or null to never defer any request.
+     */
+    public void setTrafficPolicy(@Nullable GaiaTrafficPolicy policy) {
+        resetDeferredRequests();
+        mTrafficPolicy = policy;
+    }
+
+    /**
+     * <p>To define the scheduler which limits the number of requests waiting for their acknowledgement. The default
+     * scheduler is {@link GaiaRequestScheduler#getDefault() the shared one}: a manager which talks to another device
+     * than the other managers of the application must have its own scheduler.</p>
+     * <p>The requests of this manager queued by the previous scheduler are dropped.</p>
+     *
+     * @param scheduler
+     *          The scheduler to submit the requests to or null to send them straight away.
+     */
+    public void setRequestScheduler(@Nullable GaiaRequestScheduler scheduler) {
+        resetScheduledRequests();
+        if (mRequestScheduler != null) {
+            mRequestScheduler.reset(mSchedulerClient, mScheduler.now());
+        }
+        mRequestScheduler = scheduler;
+    }
+
+    /**
+     * <p>To get the scheduler which limits the number of requests waiting for their acknowledgement.</p>
+     *
+     * @return the scheduler or null if the requests are sent straight away.
+     */
+    public @Nullable GaiaRequestScheduler getRequestScheduler() {
+        return mRequestScheduler;
+    }
+
+    /**
+     * <p>To define the cache which answers the reads locally. The default cache is
+     * {@link GaiaReadCache#getDefault() the shared one}.</p>
+     * <p>The cache does not know which device a value comes from: the managers which talk to another device - as
+     * the ones of a fleet - must each have their own cache.</p>
+     *
+     * @param cache
+     *          The cache to use or null to send every read.
+     */
+    public void setReadCache(@Nullable GaiaReadCache cache) {
+        resetReads();
+        mReadCache = cache;
+    }
+
+    /**
+     * <p>To get the cache which answers the reads locally.</p>
+     *
+     * @return the cache given to {@link #setReadCache(GaiaReadCache) setReadCache}, null if every read is sent.
+     */
+    public @Nullable GaiaReadCache getReadCache() {
+        return mReadCache;
+    }
+
+    /**
+     * <p>To define if the bytes given to {@link #sendGAIAPacket(byte[]) sendGAIAPacket} can be reused once the
+     * method has returned. This is the case if the implementation writes them straight away, for instance to the
+     * output stream of a socket, and not if it queues them.</p>
+     * <p>When they can be reused, the bytes of the acknowledgements sent by this manager are built in the same
+     * arrays from one acknowledgement to another. The bytes of the requests are reused once the requests have been
+     * acknowledged whatever this setting is. By default the bytes are considered as not reusable.</p>
+     *
+     * @param reusable
+     *          True if the bytes are not used anymore once sendGAIAPacket has returned.
+     */
+    public void setSentBytesReusable(boolean reusable) {
+        isSentBytesReusable = reusable;
+    }
+
 
     // ====== PROTECTED METHODS =======================================================================
 
@@ -181,8 +401,11 @@ public abstract class GaiaManager {
         }
 
         try {
-            byte[] bytes = packet.getAcknowledgementPacketBytes(status, value);
+            byte[] bytes = mPacketBuilder.buildAcknowledgement(packet, status, value);
             sendGAIAPacket(bytes);
+            if (isSentBytesReusable) {
+                mPacketBuilder.release(bytes);
+            }
         }
         catch (GaiaException e) {
             Log.w(TAG, "ACK packet not created, exception occurred: " + e.toString());
@@ -237,24 +460,31 @@ public abstract class GaiaManager {
 
         // checking if we received any acknowledgement
         if (packet.isAcknowledgement()) {
-            if (!cancelTimeOutRequestRunnable(packet.getCommand())) {
+            GaiaRequest request = cancelRequestTimeOut(packet.getCommand());
+            if (request == null) {
                 Log.w(TAG, "Received unexpected acknowledgement packet for command "
                         + GaiaUtils.getGAIACommandToString(packet.getCommand()));
                 return;
             }
+            onRequestComplete();
+            releaseBytes(request);
 
-            // acknowledgement was expected: it is dispatched to the child
-            @GAIA.Status int status = packet.getStatus();
             if (mShowDebugLogs) {
                 Log.d(TAG, "Received GAIA ACK packet for command "
                         + GaiaUtils.getGAIACommandToString(packet.getCommand())
-                        + " with status: " + GAIA.getStatusToString(status));
+                        + " with status: " + GAIA.getStatusToString(packet.getStatus()));
             }
 
-            if (status == GAIA.Status.SUCCESS) {
-                receiveSuccessfulAcknowledgement(packet);
-            } else {
-                receiveUnsuccessfulAcknowledgement(packet);
+            // acknowledgement was expected: it answers the request and the reads attached to it
+            List<GaiaRequest> followers = onReadComplete(request);
+            if (followers != null && mReadCache != null) {
+                mReadCache.put(packet.getCommand(), getPacket(request).getPayload(), packet, mScheduler.now());
+            }
+            dispatchAcknowledgement(request, packet);
+            if (followers != null) {
+                for (GaiaRequest follower : followers) {
+                    dispatchAcknowledgement(follower, packet);
+                }
             }
         }
         // not an ACK packet: we have to ack it
@@ -285,6 +515,69 @@ public abstract class GaiaManager {
         processRequest(request);
     }
 
+    /**
+     * <p>To create a GAIA request to send the bytes of a packet which has already been built over the listener.</p>
+     * <p>The bytes are sent as they are: this allows a caller to reuse the same array for several packets once
+     * their acknowledgement has been received. The {@link GaiaPacket GaiaPacket} corresponding to the bytes is
+     * only built if the request times out.</p>
+     *
+     * @param bytes
+     *            The bytes of a GAIA packet built for the transport type of this manager.
+     */
+    protected void createRequest(byte[] bytes) {
+        GaiaRequest request = new GaiaRequest(GaiaRequest.Type.SINGLE_REQUEST);
+        request.bytes = bytes;
+        if (mShowDebugLogs) {
+            Log.d(TAG, "Received request to send bytes for command: "
+                    + GaiaUtils.getGAIACommandToString(getCommand(request)));
+        }
+        processRequest(request);
+    }
+
+    /**
+     * <p>To create a GAIA request which sends a packet over the listener as a call: the acknowledgement of the packet
+     * completes the returned call, it is not dispatched to
+     * {@link #receiveSuccessfulAcknowledgement(GaiaPacket) receiveSuccessfulAcknowledgement} or
+     * {@link #receiveUnsuccessfulAcknowledgement(GaiaPacket) receiveUnsuccessfulAcknowledgement}, and if there is none
+     * {@link #hasNotReceivedAcknowledgementPacket(GaiaPacket) hasNotReceivedAcknowledgementPacket} is not called.</p>
+     * <p>The time out of the call is the one set up with {@link #setRequestTimeOut(int) setRequestTimeOut}.</p>
+     *
+     * @param packet
+     *            The packet to send over the listener.
+     *
+     * @return the call which is completed on the thread of this manager.
+     */
+    protected GaiaCall createCall(GaiaPacket packet) {
+        return createCall(packet, 0);
+    }
+
+    /**
+     * <p>To create a GAIA request which sends a packet over the listener as a call, with its own time out. See
+     * {@link #createCall(GaiaPacket) createCall}.</p>
+     *
+     * @param packet
+     *            The packet to send over the listener.
+     * @param timeOut
+     *            The time in ms to wait for the acknowledgement, 0 to use the one set up with
+     *            {@link #setRequestTimeOut(int) setRequestTimeOut}.
+     *
+     * @return the call which is completed on the thread of this manager.
+     */
+    protected GaiaCall createCall(GaiaPacket packet, long timeOut) {
+        if (mShowDebugLogs) {
+            Log.d(TAG, "Received request to call command: " + GaiaUtils.getGAIACommandToString(packet.getCommand()));
+        }
+        GaiaCall call = new GaiaCall(packet.getCommand(), timeOut);
+        GaiaRequest request = new GaiaRequest(GaiaRequest.Type.SINGLE_REQUEST);
+        request.packet = packet;
+        request.call = call;
+        synchronized (mPendingCalls) {
+            mPendingCalls.add(call);
+        }
+        processRequest(request);
+        return call;
+    }
+
     /**
      * <p>To create an acknowledgement GAIA request to send a packet over the listener.</p>
      *
@@ -303,88 +596,179 @@ public abstract class GaiaManager {
     }
 
     /**
-     * <p>To start a Runnable which will be thrown after the known time out request delay set up with
-     * {@link #setRequestTimeOut(int) setRequestTimeOut}. This Runnable deals with GAIA requests that didn't
-     * receive any acknowledgement for their sent packet.</p>
+     * <p>To start the time out of a request: it expires after the known time out request delay set up with
+     * {@link #setRequestTimeOut(int) setRequestTimeOut} if the packet sent for the request has not received any
+     * acknowledgement.</p>
      *
      * @param request
      *              The GAIA request which expects a acknowledgement.
      */
-    private void startTimeOutRequestRunnable(GaiaRequest request) {
+    private void startRequestTimeOut(GaiaRequest request) {
+        int key = getCommand(request);
         if (mShowDebugLogs) {
-            Log.d(TAG, "Set up TimeOutRequestRunnable for type request: " + request.type + " for command "
-                    + GaiaUtils.getGAIACommandToString(request.packet.getCommand()));
+            Log.d(TAG, "Set up time out for type request: " + request.type + " for command "
+                    + GaiaUtils.getGAIACommandToString(key));
         }
 
-        TimeOutRequestRunnable runnable = new TimeOutRequestRunnable(request);
-        int key = request.packet.getCommand();
-        if (mTimeOutRequestRunnableMap.containsKey(key)) {
-            mTimeOutRequestRunnableMap.get(key).add(runnable);
-        }
-        else {
-            LinkedList<TimeOutRequestRunnable> list = new LinkedList<>();
-            list.add(runnable);
-            mTimeOutRequestRunnableMap.put(request.packet.getCommand(), list);
+        synchronized (mPendingTimeOuts) {
+            PendingTimeOuts timeOuts = mPendingTimeOuts.get(key);
+            if (timeOuts == null) {
+                timeOuts = new PendingTimeOuts();
+                mPendingTimeOuts.put(key, timeOuts);
+            }
+            long delay = request.call != null && request.call.getTimeOut() > 0 ? request.call.getTimeOut()
+                    : mTimeOutRequestDelay;
+            timeOuts.add(mTimeOutWheel.schedule(mTimeOutListener, request, delay));
         }
-        mHandler.postDelayed(runnable, mTimeOutRequestDelay);
     }
 
     /**
-     * <p>To cancel the TimeOutRequestRunnable if there is one running.</p>
-     * <p>This method will check if the given key corresponds to any running Runnable, if it does it will stop the
-     * Runnable and then removed it from the Map.</p>
-     * <p>The key corresponds to the GAIA command of the request which corresponds to the Runnable.</p>
+     * <p>To cancel the time out of the oldest request sent for a command if there is one pending.</p>
+     * <p>The key corresponds to the GAIA command of the request.</p>
+     *
      * @param key
-     *          The key of the TimeOutRequestRunnable in the Map.
+     *          The command of the acknowledged request.
+     *
+     * @return the request which time out has been cancelled, null if no request was waiting for an acknowledgement
+     * for the command.
      */
-    private boolean cancelTimeOutRequestRunnable(int key) {
-        synchronized (mTimeOutRequestRunnableMap) {
+    private GaiaRequest cancelRequestTimeOut(int key) {
+        synchronized (mPendingTimeOuts) {
             if (mShowDebugLogs) {
-                Log.d(TAG, "Request to cancel a TimeOutRequestRunnable for command: "
-                        + GaiaUtils.getGAIACommandToString(key));
+                Log.d(TAG, "Request to cancel a time out for command: " + GaiaUtils.getGAIACommandToString(key));
             }
 
-            if (!mTimeOutRequestRunnableMap.containsKey(key)) {
-                // time out request runnable not found
-                Log.w(TAG, "No pending TimeOutRequestRunnable matches command: "
+            PendingTimeOuts timeOuts = mPendingTimeOuts.get(key);
+            if (timeOuts == null || timeOuts.isEmpty()) {
+                // time out not found
+                Log.w(TAG, "No pending time out matches command: " + GaiaUtils.getGAIACommandToString(key));
+                return null;
+            }
+
+            // expected command: the first time out for the command is the one of the oldest request
+            long timer = timeOuts.peek();
+            GaiaRequest request = (GaiaRequest) mTimeOutWheel.getAttachment(timer);
+            if (request == null || !mTimeOutWheel.cancel(timer)) {
+                // the time out has expired on the thread of the scheduler which is about to process it
+                Log.w(TAG, "Time out expired before the acknowledgement of command: "
                         + GaiaUtils.getGAIACommandToString(key));
-                return false;
+                return null;
             }
+            timeOuts.poll();
+            return request;
+        }
+    }
 
-            // expected command
-            List<TimeOutRequestRunnable> list = mTimeOutRequestRunnableMap.get(key);
-            // get the first runnable corresponding to the given key - which should be the oldest one
-            TimeOutRequestRunnable runnable = list.remove(0);
-            // stop the runnable
-            mHandler.removeCallbacks(runnable);
-            // if there is no other runnable for that key we removed the entry from the Map
-            if (list.isEmpty()) {
-                mTimeOutRequestRunnableMap.remove(key);
+    /**
+     * <p>To reset the time outs of the requests to an empty state.</p>
+     */
+    private void resetRequestTimeOuts() {
+        if (mShowDebugLogs) {
+            Log.d(TAG, "Received request to reset the time outs");
+        }
+        synchronized (mPendingTimeOuts) {
+            for (int i = 0; i < mPendingTimeOuts.size(); i++) {
+                PendingTimeOuts timeOuts = mPendingTimeOuts.valueAt(i);
+                while (!timeOuts.isEmpty()) {
+                    mTimeOutWheel.cancel(timeOuts.poll());
+                }
             }
-            return true;
+        }
+    }
 
+    /**
+     * <p>Called when the time out of a request expires: the packet sent for the request has not received any
+     * acknowledgement.</p>
+     *
+     * @param timer
+     *          The handle of the time out.
+     * @param request
+     *          The request which is timed out.
+     */
+    private void onRequestTimedOut(long timer, GaiaRequest request) {
+        int command = getCommand(request);
+        synchronized (mPendingTimeOuts) {
+            if (mShowDebugLogs) {
+                Log.d(TAG, "A request is timed out for command: " + GaiaUtils.getGAIACommandToString(command));
+            }
+
+            PendingTimeOuts timeOuts = mPendingTimeOuts.get(command);
+            if (timeOuts == null || !timeOuts.remove(timer)) {
+                // the manager has been reset
+                Log.w(TAG, "Unexpected time out for command: " + GaiaUtils.getGAIACommandToString(command));
+                return;
+            }
+        }
+
+        Log.w(TAG, "No ACK packet for command: " + GaiaUtils.getGAIACommandToString(command));
+        onRequestComplete();
+        List<GaiaRequest> followers = onReadComplete(request);
+        dispatchTimeOut(request);
+        if (followers != null) {
+            for (GaiaRequest follower : followers) {
+                dispatchTimeOut(follower);
+            }
         }
     }
 
     /**
-     * <p>To reset the list of time out request runnable to an empty state.</p>
+     * <p>To forget the requests deferred by the traffic policy: they will not be sent at the end of the upgrade
+     * session.</p>
      */
-    private synchronized void resetTimeOutRequestRunnableMap() {
+    private void resetDeferredRequests() {
+        if (mTrafficPolicy != null) {
+            for (int i = 0; i < mDeferredRequests.size(); i++) {
+                mTrafficPolicy.cancelDeferred(mDeferredRequests.valueAt(i).task);
+            }
+        }
+        mDeferredRequests.clear();
+    }
+
+    /**
+     * <p>To defer a request if the traffic policy considers its command as background traffic and an upgrade session
+     * is running. A request replaces any request deferred for the same command.</p>
+     *
+     * @param request
+     *          The request to defer.
+     *
+     * @return true if the request has been deferred, false if it should be sent straight away.
+     */
+    private boolean deferRequest(GaiaRequest request) {
+        if (mTrafficPolicy == null) {
+            return false;
+        }
+        int command = getCommand(request);
+        if (mTrafficPolicy.getTrafficClass(command) != GaiaTrafficPolicy.TrafficClass.BACKGROUND) {
+            return false;
+        }
+
+        DeferredRequest deferred = mDeferredRequests.get(command);
+        if (deferred == null) {
+            deferred = new DeferredRequest(command);
+        }
+        if (!mTrafficPolicy.deferBackground(deferred.task, deferred.task)) {
+            return false;
+        }
+
         if (mShowDebugLogs) {
-            Log.d(TAG, "Received request to reset the TimeOutRequestRunnable Map");
+            Log.d(TAG, "Request deferred until the end of the upgrade for command: "
+                    + GaiaUtils.getGAIACommandToString(command));
         }
-        for (int i = 0; i< mTimeOutRequestRunnableMap.size(); i++) {
-            for (TimeOutRequestRunnable runnable : mTimeOutRequestRunnableMap.valueAt(i)) {
-                mHandler.removeCallbacks(runnable);
-            }
+        if (deferred.request != null) {
+            coalesceCalls(deferred.request, request);
+            coalesceReads(deferred.request, request);
         }
-        mTimeOutRequestRunnableMap.clear();
+        deferred.request = request;
+        mDeferredRequests.put(command, deferred);
+        return true;
     }
 
     /**
      * <p>Call to process a request: gets the GAIA packet and sent it to the device.</p>
-     * <p>This method will also starts a corresponding TimeOutRequestRunnable if the request requires to wait for
+     * <p>This method will also starts a corresponding time out if the request requires to wait for
      * an acknowledgement.</p>
+     * <p>A request which requires an acknowledgement is first submitted to the request scheduler: it is only sent
+     * once the number of requests waiting for their acknowledgement allows it.</p>
      */
     private void processRequest(GaiaRequest request) {
         if (mShowDebugLogs) {
@@ -394,15 +778,20 @@ public abstract class GaiaManager {
         // process the request depending on its type
         switch (request.type) {
             case GaiaRequest.Type.SINGLE_REQUEST:
-                try {
-                    byte[] bytes = request.packet.getBytes();
-                    // GAIA request which requires an acknowledgement packet
-                    startTimeOutRequestRunnable(request);
-                    sendGAIAPacket(bytes);
+                if (readRequest(request)) {
+                    // the request is answered without being sent
+                    return;
+                }
+                if (deferRequest(request)) {
+                    // the time out starts once the request is sent
+                    return;
                 }
-                catch (GaiaException e) {
-                    Log.w(TAG, "Exception when attempting to create GAIA packet: " + e.toString());
+                if (mRequestScheduler != null && !mRequestScheduler.submit(mSchedulerClient, request,
+                        getTrafficClass(request), mScheduler.now())) {
+                    // the request is sent once the scheduler allows it
+                    return;
                 }
+                sendRequest(request);
                 return;
 
             case GaiaRequest.Type.ACKNOWLEDGEMENT:
@@ -414,7 +803,351 @@ public abstract class GaiaManager {
 
         // if the method reaches this instruction that means it wasn't possible to create the request
         Log.w(TAG, "Not possible to create request with type " + request.type + " for GAIA command: "
-                + request.packet.getCommandId());
+                + getCommand(request));
+    }
+
+    /**
+     * <p>To send the packet of a request which requires an acknowledgement and to start its time out.</p>
+     *
+     * @param request
+     *          The request to send.
+     */
+    private void sendRequest(GaiaRequest request) {
+        try {
+            if (request.bytes == null) {
+                request.bytes = mPacketBuilder.build(request.packet);
+                request.pooled = true;
+            }
+            byte[] bytes = request.bytes;
+            // GAIA request which requires an acknowledgement packet
+            startRequestTimeOut(request);
+            sendGAIAPacket(bytes);
+            if (mTrafficPolicy != null) {
+                mTrafficPolicy.onPacketSent(getCommand(request));
+            }
+        }
+        catch (GaiaException e) {
+            Log.w(TAG, "Exception when attempting to create GAIA packet: " + e.toString());
+            // the request will never be acknowledged
+            onRequestComplete();
+            List<GaiaRequest> followers = onReadComplete(request);
+            completeCall(request, GaiaCall.State.FAILED, null);
+            if (followers != null) {
+                for (GaiaRequest follower : followers) {
+                    completeCall(follower, GaiaCall.State.FAILED, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>To give back the bytes of an acknowledged request to the packet builder if they have been built by it.</p>
+     * <p>The acknowledgements do not identify their request: a late acknowledgement of a timed out request is taken
+     * for the acknowledgement of the next request with the same command, which may not have been written yet. This
+     * is safe as long as {@link #sendGAIAPacket(byte[]) sendGAIAPacket} does not keep the given array once it
+     * returns: a transport which queues the packets must queue a copy of them.</p>
+     *
+     * @param request
+     *          The acknowledged request.
+     */
+    private void releaseBytes(GaiaRequest request) {
+        if (request.pooled) {
+            mPacketBuilder.release(request.bytes);
+            request.bytes = null;
+            request.pooled = false;
+        }
+    }
+
+    /**
+     * <p>To forget the requests dispatched by the request scheduler which have not been sent yet: the scheduler does
+     * not count them anymore.</p>
+     */
+    private void resetScheduledRequests() {
+        synchronized (mScheduledRequests) {
+            for (ScheduledRequest scheduled : mScheduledRequests) {
+                mScheduler.cancel(scheduled);
+            }
+            mScheduledRequests.clear();
+        }
+    }
+
+    /**
+     * <p>To report to the request scheduler that a request has been acknowledged or has timed out.</p>
+     */
+    private void onRequestComplete() {
+        if (mRequestScheduler != null) {
+            mRequestScheduler.onRequestComplete(mSchedulerClient, mScheduler.now());
+        }
+    }
+
+    /**
+     * <p>To answer a read request locally with the acknowledgement kept by the read cache, or to attach it to an
+     * identical read which waits for its acknowledgement. If the read has to be sent it becomes the read in flight for
+     * its command.</p>
+     *
+     * @param request
+     *          The request to send.
+     *
+     * @return true if the request is answered without being sent.
+     */
+    private boolean readRequest(GaiaRequest request) {
+        if (mReadCache == null) {
+            return false;
+        }
+        int command = getCommand(request);
+        if (!mReadCache.isReadCommand(command)) {
+            return false;
+        }
+        GaiaPacket packet = getPacket(request);
+        if (packet == null) {
+            return false;
+        }
+
+        GaiaPacket acknowledgement = mReadCache.get(command, packet.getPayload(), mScheduler.now());
+        if (acknowledgement != null) {
+            if (mShowDebugLogs) {
+                Log.d(TAG, "Read answered locally for command: " + GaiaUtils.getGAIACommandToString(command));
+            }
+            // the answer is given as the acknowledgement would be: after the request has been created
+            LocalAnswer answer = new LocalAnswer(request, acknowledgement);
+            mLocalAnswers.add(answer);
+            mScheduler.schedule(answer, 0);
+            return true;
+        }
+
+        GaiaRequest pending = mReadsInFlight.get(command);
+        if (pending == null) {
+            mReadsInFlight.put(command, request);
+            return false;
+        }
+        if (!Arrays.equals(getPacket(pending).getPayload(), packet.getPayload())) {
+            // another read is sent for the command: its acknowledgements are matched in order
+            return false;
+        }
+        if (mShowDebugLogs) {
+            Log.d(TAG, "Read attached to the pending one for command: " + GaiaUtils.getGAIACommandToString(command));
+        }
+        if (pending.followers == null) {
+            pending.followers = new ArrayList<>(1);
+        }
+        pending.followers.add(request);
+        mReadCache.onCoalesced();
+        return true;
+    }
+
+    /**
+     * <p>To release the read in flight for the command of a request which has been acknowledged, has timed out or
+     * could not be sent.</p>
+     *
+     * @param request
+     *          The complete request.
+     *
+     * @return the reads attached to the request if the request is the read in flight for its command, null
+     * otherwise.
+     */
+    private List<GaiaRequest> onReadComplete(GaiaRequest request) {
+        int command = getCommand(request);
+        if (mReadsInFlight.get(command) != request) {
+            return null;
+        }
+        mReadsInFlight.remove(command);
+        List<GaiaRequest> followers = request.followers;
+        request.followers = null;
+        return followers != null ? followers : Collections.<GaiaRequest>emptyList();
+    }
+
+    /**
+     * <p>To keep the reads attached to a deferred read which is replaced by a later request for the same command:
+     * they get the acknowledgement of the later request.</p>
+     *
+     * @param replaced
+     *          The deferred request which will not be sent.
+     * @param request
+     *          The request which replaces it.
+     */
+    private void coalesceReads(GaiaRequest replaced, GaiaRequest request) {
+        int command = getCommand(replaced);
+        if (mReadsInFlight.get(command) != replaced) {
+            return;
+        }
+        if (replaced.followers != null) {
+            if (request.followers == null) {
+                request.followers = new ArrayList<>(replaced.followers.size());
+            }
+            request.followers.addAll(replaced.followers);
+            replaced.followers = null;
+        }
+        mReadsInFlight.put(command, request);
+    }
+
+    /**
+     * <p>To forget the reads in flight and the local answers which have not been given yet. The calls of the
+     * forgotten reads are cancelled with the other pending calls.</p>
+     */
+    private void resetReads() {
+        mReadsInFlight.clear();
+        for (LocalAnswer answer : mLocalAnswers) {
+            mScheduler.cancel(answer);
+        }
+        mLocalAnswers.clear();
+    }
+
+    /**
+     * <p>To give the acknowledgement of a request to its call or to the abstract methods of this manager.</p>
+     *
+     * @param request
+     *          The acknowledged request.
+     * @param acknowledgement
+     *          The acknowledgement packet.
+     */
+    private void dispatchAcknowledgement(GaiaRequest request, GaiaPacket acknowledgement) {
+        if (!completeCall(request, GaiaCall.State.ACKNOWLEDGED, acknowledgement)) {
+            return;
+        }
+
+        // otherwise it is dispatched to the child
+        if (acknowledgement.getStatus() == GAIA.Status.SUCCESS) {
+            receiveSuccessfulAcknowledgement(acknowledgement);
+        } else {
+            receiveUnsuccessfulAcknowledgement(acknowledgement);
+        }
+    }
+
+    /**
+     * <p>To tell the call of a request or the abstract methods of this manager that the request has timed out.</p>
+     *
+     * @param request
+     *          The request which has not been acknowledged.
+     */
+    private void dispatchTimeOut(GaiaRequest request) {
+        if (!completeCall(request, GaiaCall.State.TIMED_OUT, null)) {
+            return;
+        }
+        GaiaPacket packet = getPacket(request);
+        if (packet != null) {
+            hasNotReceivedAcknowledgementPacket(packet);
+        }
+    }
+
+    /**
+     * <p>To complete the call of a request.</p>
+     *
+     * @param request
+     *          The request which has been acknowledged, has timed out or could not be sent.
+     * @param state
+     *          The state to complete the call with.
+     * @param acknowledgement
+     *          The acknowledgement packet if there is one.
+     *
+     * @return true if the abstract methods of this manager have to be called for the request: the request has no
+     * call or a request without a call has been coalesced with it.
+     */
+    private boolean completeCall(GaiaRequest request, @GaiaCall.State int state, GaiaPacket acknowledgement) {
+        GaiaCall call = request.call;
+        if (call == null) {
+            return true;
+        }
+        boolean notifyManager = call.isNotifyingManager();
+        synchronized (mPendingCalls) {
+            mPendingCalls.remove(call);
+        }
+        call.complete(state, acknowledgement);
+        return notifyManager;
+    }
+
+    /**
+     * <p>To keep the calls of a deferred request which is replaced by a later request for the same command: they are
+     * completed with the acknowledgement of the later request.</p>
+     *
+     * @param replaced
+     *          The deferred request which will not be sent.
+     * @param request
+     *          The request which replaces it.
+     */
+    private void coalesceCalls(GaiaRequest replaced, GaiaRequest request) {
+        if (replaced.call == null) {
+            if (request.call != null) {
+                // the acknowledgement was expected by the manager
+                request.call.setNotifyingManager();
+            }
+        }
+        else if (request.call == null) {
+            replaced.call.setNotifyingManager();
+            request.call = replaced.call;
+        }
+        else {
+            synchronized (mPendingCalls) {
+                mPendingCalls.remove(replaced.call);
+            }
+            request.call.addFollower(replaced.call);
+        }
+    }
+
+    /**
+     * <p>To cancel the calls which have not been completed: their requests have been forgotten by a reset.</p>
+     */
+    private void cancelPendingCalls() {
+        List<GaiaCall> calls;
+        synchronized (mPendingCalls) {
+            calls = new ArrayList<>(mPendingCalls);
+            mPendingCalls.clear();
+        }
+        for (GaiaCall call : calls) {
+            call.complete(GaiaCall.State.CANCELLED, null);
+        }
+    }
+
+    /**
+     * <p>To get the traffic class of a request as defined by the traffic policy.</p>
+     *
+     * @param request
+     *          The request to get the class for.
+     *
+     * @return The class of the request, {@link GaiaTrafficPolicy.TrafficClass#NORMAL NORMAL} if there is no traffic
+     * policy.
+     */
+    private @GaiaTrafficPolicy.TrafficClass int getTrafficClass(GaiaRequest request) {
+        return mTrafficPolicy == null ? GaiaTrafficPolicy.TrafficClass.NORMAL
+                : mTrafficPolicy.getTrafficClass(getCommand(request));
+    }
+
+    /**
+     * <p>To get the command of the packet a request sends, without the acknowledgement bit.</p>
+     *
+     * @param request
+     *          The request to get the command for.
+     *
+     * @return The command sent by the request.
+     */
+    private int getCommand(GaiaRequest request) {
+        if (request.packet != null) {
+            return request.packet.getCommand();
+        }
+        int commandId = mTransportType == GAIA.Transport.BLE ? GaiaPacketBLE.getCommandId(request.bytes)
+                : GaiaPacketBREDR.getCommandId(request.bytes);
+        return commandId & GAIA.COMMAND_MASK;
+    }
+
+    /**
+     * <p>To get the packet a request sends. If the request has been created with the bytes of the packet, the packet
+     * is built from these bytes.</p>
+     *
+     * @param request
+     *          The request to get the packet for.
+     *
+     * @return The packet sent by the request or null if it could not be built.
+     */
+    private GaiaPacket getPacket(GaiaRequest request) {
+        if (request.packet == null && request.bytes != null) {
+            try {
+                request.packet = mTransportType == GAIA.Transport.BLE ? new GaiaPacketBLE(request.bytes)
+                        : new GaiaPacketBREDR(request.bytes);
+            }
+            catch (GaiaException e) {
+                Log.w(TAG, "Impossible to retrieve packet from request bytes: " + e.toString());
+            }
+        }
+        return request.packet;
     }
 
 
@@ -464,6 +1197,8 @@ public abstract class GaiaManager {
 
     /**
      * <p>To send over a communication channel the bytes of a GAIA packet using the GAIA protocol.</p>
+     * <p>The array may be reused by the manager once this method returns: an implementation which sends the packet
+     * later must keep a copy of it.</p>
      *
      * @param packet
      *          The byte array to send to a device.
@@ -477,55 +1212,213 @@ public abstract class GaiaManager {
     // ====== INNER CLASS ==========================================================================
 
     /**
-     * <p>A Runnable to define what should be done if a request is timed out.</p>
-     * <p>A request is considered as being timed out if the packet sent while processing the request has not
-     * received a corresponding acknowledgement.</p>
-     *
+     * <p>The handles of the time outs of the requests sent for a command, in the order the requests have been
+     * sent.</p>
+     * <p>The handles are kept in a circular array: polling the oldest one, which is what an acknowledgement does, is
+     * a constant time operation. The array is kept by the manager for the command once it is empty so that sending
+     * requests does not allocate it again.</p>
      */
-    private class TimeOutRequestRunnable implements Runnable {
+    private static class PendingTimeOuts {
+        /**
+         * <p>The handles of the time outs, starting at the head.</p>
+         */
+        private long[] timers = new long[4];
         /**
-         * <p>The request which is monitored for a time out.</p>
+         * <p>The index of the oldest handle.</p>
+         */
+        private int head = 0;
+        /**
+         * <p>The number of handles.</p>
+         */
+        private int size = 0;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void add(long timer) {
+            if (size == timers.length) {
+                long[] array = new long[timers.length * 2];
+                for (int i = 0; i < size; i++) {
+                    array[i] = timers[(head + i) % timers.length];
+                }
+                timers = array;
+                head = 0;
+            }
+            timers[(head + size) % timers.length] = timer;
+            size++;
+        }
+
+        long peek() {
+            return timers[head];
+        }
+
+        long poll() {
+            long timer = timers[head];
+            head = (head + 1) % timers.length;
+            size--;
+            return timer;
+        }
+
+        /**
+         * <p>To remove a handle, the handles after it move up.</p>
+         */
+        boolean remove(long timer) {
+            for (int i = 0; i < size; i++) {
+                if (timers[(head + i) % timers.length] == timer) {
+                    for (int j = i; j < size - 1; j++) {
+                        timers[(head + j) % timers.length] = timers[(head + j + 1) % timers.length];
+                    }
+                    size--;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * <p>A Runnable which answers a read with an acknowledgement kept by the read cache.</p>
+     */
+    private class LocalAnswer implements Runnable {
+        /**
+         * <p>The read to answer.</p>
          */
         private final GaiaRequest request;
+        /**
+         * <p>The acknowledgement which answers the read.</p>
+         */
+        private final GaiaPacket acknowledgement;
 
         /**
          * <p>Constructor for this class.</p>
          *
          * @param request
-         *            The corresponding request.
+         *            The read to answer.
+         * @param acknowledgement
+         *            The acknowledgement which answers the read.
          */
-        TimeOutRequestRunnable(GaiaRequest request) {
+        LocalAnswer(GaiaRequest request, GaiaPacket acknowledgement) {
             this.request = request;
+            this.acknowledgement = acknowledgement;
         }
 
         @Override
         public void run() {
-            synchronized (mTimeOutRequestRunnableMap) {
-                int command = request.packet.getCommand();
+            if (!mLocalAnswers.remove(this)) {
+                // the manager has been reset since the read has been answered
+                return;
+            }
+            dispatchAcknowledgement(request, acknowledgement);
+        }
+    }
 
-                if (mShowDebugLogs) {
-                    Log.d(TAG, "A request is timed out for command: " + GaiaUtils.getGAIACommandToString(command));
-                }
+    /**
+     * <p>A Runnable which sends on the scheduler of this manager a request dispatched by the request scheduler.</p>
+     */
+    private class ScheduledRequest implements Runnable {
+        /**
+         * <p>The request to send.</p>
+         */
+        private final GaiaRequest request;
 
-                if (!mTimeOutRequestRunnableMap.containsKey(command)) {
-                    // time out are only for ACK commands
-                    Log.w(TAG, "Unexpected runnable is running for command: "
-                            + GaiaUtils.getGAIACommandToString(command));
+        /**
+         * <p>Constructor for this class.</p>
+         *
+         * @param request
+         *            The request to send.
+         */
+        ScheduledRequest(GaiaRequest request) {
+            this.request = request;
+        }
+
+        @Override
+        public void run() {
+            synchronized (mScheduledRequests) {
+                if (!mScheduledRequests.remove(this)) {
+                    // the manager has been reset since the request has been dispatched
                     return;
                 }
+            }
+            sendRequest(request);
+        }
+    }
 
-                // runnable was expected to run
-                LinkedList<TimeOutRequestRunnable> list = mTimeOutRequestRunnableMap.get(command);
-                // remove the runnable from the list
-                list.remove(this);
-                // if there is no other runnable for that key we removed the entry from the Map
-                if (list.isEmpty()) {
-                    mTimeOutRequestRunnableMap.remove(command);
-                }
+    /**
+     * <p>A Runnable which sends the last request deferred for a command once the upgrade session has ended. It is
+     * run on the scheduler of this manager.</p>
+     */
+    private class DeferredRequest implements Runnable {
+        /**
+         * <p>The command of the deferred requests.</p>
+         */
+        private final int command;
+        /**
+         * <p>The last request which has been deferred for the command.</p>
+         */
+        private GaiaRequest request;
+        /**
+         * <p>The task given to the traffic policy, it is also the key of the request within the policy: the
+         * requests for the same command are coalesced.</p>
+         */
+        private final DeferredTask task = new DeferredTask(this);
+
+        /**
+         * <p>Constructor for this class.</p>
+         *
+         * @param command
+         *            The command of the deferred requests.
+         */
+        DeferredRequest(int command) {
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            if (mDeferredRequests.get(command) != this) {
+                // the manager has been reset since the request has been deferred
+                return;
             }
+            mDeferredRequests.remove(command);
+            processRequest(request);
+        }
 
-            Log.w(TAG, "No ACK packet for command: " + GaiaUtils.getGAIACommandToString(request.packet.getCommand()));
-            hasNotReceivedAcknowledgementPacket(request.packet);
+        /**
+         * <p>To run this request on the scheduler of this manager, whichever thread has ended the upgrade
+         * session.</p>
+         */
+        private void post() {
+            mScheduler.schedule(this, 0);
+        }
+    }
+
+    /**
+     * <p>The task a manager gives to the traffic policy for a deferred request. The policy is shared and keeps the
+     * task until the end of the upgrade session: the task only holds a weak reference to the request so that a
+     * manager which is not used anymore is not kept alive, and does not send anything, because of it.</p>
+     */
+    private static class DeferredTask implements Runnable {
+        /**
+         * <p>The deferred request, it is held by its manager.</p>
+         */
+        private final WeakReference<DeferredRequest> deferred;
+
+        /**
+         * <p>Constructor for this class.</p>
+         *
+         * @param deferred
+         *            The deferred request.
+         */
+        DeferredTask(DeferredRequest deferred) {
+            this.deferred = new WeakReference<>(deferred);
+        }
+
+        @Override
+        public void run() {
+            DeferredRequest request = deferred.get();
+            if (request != null) {
+                request.post();
+            }
         }
     }
 
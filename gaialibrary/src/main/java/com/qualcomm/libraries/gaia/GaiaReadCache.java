@@ -0,0 +1,274 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.gaia;
+
+import android.support.v4.util.ArrayMap;
+
+import com.qualcomm.libraries.gaia.packets.GaiaPacket;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * <p>This class defines the GAIA read commands - the commands which get a value from the device without changing
+ * it - and keeps their last successful acknowledgements for a short time.</p>
+ * <p>A {@link GaiaManager GaiaManager} which is asked to send a read command:
+ * <ul>
+ *     <li>answers it locally with the acknowledgement kept by this cache if it has been received less than
+ *     {@link #setTimeToLive(long) the time to live} ago for the same command and payload.</li>
+ *     <li>otherwise, if an identical read is already waiting for its acknowledgement, does not send it again: the
+ *     new request gets the acknowledgement of the pending one.</li>
+ * </ul></p>
+ * <p>The read commands are by default {@link GAIA#COMMAND_GET_API_VERSION COMMAND_GET_API_VERSION},
+ * {@link GAIA#COMMAND_GET_CURRENT_RSSI COMMAND_GET_CURRENT_RSSI} and
+ * {@link GAIA#COMMAND_GET_CURRENT_BATTERY_LEVEL COMMAND_GET_CURRENT_BATTERY_LEVEL}. A command which value can be
+ * changed by another command should only be added if the cache is {@link #invalidate(int) invalidated} when the
+ * value is changed.</p>
+ * <p>The GAIA managers of an application share the cache given by {@link #getDefault() getDefault}: a value read
+ * by a manager answers the reads of the other managers. The values are not kept per device: managers which talk to
+ * another device must each have their own cache, and a manager clears its cache when it is
+ * {@link GaiaManager#reset() reset}.</p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class GaiaReadCache {
+
+    // ====== CONSTS FIELDS ========================================================================
+
+    /**
+     * <p>The default time in ms an acknowledgement answers the reads of the same command.</p>
+     */
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = 500;
+    /**
+     * <p>The cache shared by the GAIA managers of the application.</p>
+     */
+    private static final GaiaReadCache DEFAULT_CACHE = new GaiaReadCache();
+
+
+    // ====== PRIVATE FIELDS =======================================================================
+
+    /**
+     * <p>The read commands.</p>
+     */
+    private final Set<Integer> mReadCommands = new HashSet<>();
+    /**
+     * <p>The last successful acknowledgements of the read commands, mapped by command. Entries with different
+     * payloads for the same command are chained.</p>
+     */
+    private final ArrayMap<Integer, Entry> mEntries = new ArrayMap<>();
+    /**
+     * <p>The time in ms an acknowledgement answers the reads of the same command.</p>
+     */
+    private long mTimeToLive = DEFAULT_TIME_TO_LIVE_MILLIS;
+    /**
+     * <p>The number of reads which have been answered locally.</p>
+     */
+    private int mHits = 0;
+    /**
+     * <p>The number of reads which have been attached to an identical pending read.</p>
+     */
+    private int mCoalesced = 0;
+
+
+    // ====== CONSTRUCTORS =========================================================================
+
+    /**
+     * <p>To build a cache for which the API version, the RSSI and the battery level commands are read
+     * commands.</p>
+     */
+    public GaiaReadCache() {
+        mReadCommands.add(GAIA.COMMAND_GET_API_VERSION);
+        mReadCommands.add(GAIA.COMMAND_GET_CURRENT_RSSI);
+        mReadCommands.add(GAIA.COMMAND_GET_CURRENT_BATTERY_LEVEL);
+    }
+
+
+    // ====== STATIC METHODS =======================================================================
+
+    /**
+     * <p>To get the cache shared by the GAIA managers of the application which talk to the same device.</p>
+     */
+    public static GaiaReadCache getDefault() {
+        return DEFAULT_CACHE;
+    }
+
+
+    // ====== PUBLIC METHODS =======================================================================
+
+    /**
+     * <p>To define if a GAIA command is a read command.</p>
+     *
+     * @param command
+     *          The GAIA command.
+     * @param read
+     *          True if the command is a read command, false otherwise: its acknowledgements are then forgotten.
+     */
+    public synchronized void setReadCommand(int command, boolean read) {
+        command = command & GAIA.COMMAND_MASK;
+        if (read) {
+            mReadCommands.add(command);
+        }
+        else {
+            mReadCommands.remove(command);
+            mEntries.remove(command);
+        }
+    }
+
+    /**
+     * <p>To know if a GAIA command is a read command.</p>
+     *
+     * @param command
+     *          The GAIA command, the acknowledgement bit is ignored.
+     */
+    public synchronized boolean isReadCommand(int command) {
+        return mReadCommands.contains(command & GAIA.COMMAND_MASK);
+    }
+
+    /**
+     * <p>To set the time an acknowledgement answers the reads of the same command.</p>
+     *
+     * @param timeToLive
+     *          The time in ms, 0 to never answer a read locally: identical pending reads are still coalesced.
+     */
+    public synchronized void setTimeToLive(long timeToLive) {
+        mTimeToLive = Math.max(0, timeToLive);
+        if (mTimeToLive == 0) {
+            mEntries.clear();
+        }
+    }
+
+    /**
+     * <p>To get the time in ms an acknowledgement answers the reads of the same command.</p>
+     */
+    public synchronized long getTimeToLive() {
+        return mTimeToLive;
+    }
+
+    /**
+     * <p>To forget the acknowledgements kept for a command, for instance once its value has been changed.</p>
+     *
+     * @param command
+     *          The GAIA command.
+     */
+    public synchronized void invalidate(int command) {
+        mEntries.remove(command & GAIA.COMMAND_MASK);
+    }
+
+    /**
+     * <p>To forget all the acknowledgements, for instance when the device is disconnected.</p>
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * <p>To get the number of reads which have been answered locally.</p>
+     */
+    public synchronized int getHits() {
+        return mHits;
+    }
+
+    /**
+     * <p>To get the number of reads which have been attached to an identical pending read instead of being
+     * sent.</p>
+     */
+    public synchronized int getCoalesced() {
+        return mCoalesced;
+    }
+
+    @Override // Object
+    public synchronized String toString() {
+        return "time to live=" + mTimeToLive + " ms, hits=" + mHits + ", coalesced=" + mCoalesced;
+    }
+
+
+    // ====== PACKAGE METHODS ======================================================================
+
+    /**
+     * <p>To get the acknowledgement which answers a read.</p>
+     *
+     * @param command
+     *          The command of the read.
+     * @param payload
+     *          The payload of the read.
+     * @param now
+     *          The current time in ms on the clock of the manager.
+     *
+     * @return the acknowledgement or null if there is none which is recent enough.
+     */
+    /*package*/ synchronized GaiaPacket get(int command, byte[] payload, long now) {
+        Entry entry = find(command, payload);
+        if (entry == null || now - entry.time >= mTimeToLive || now < entry.time) {
+            return null;
+        }
+        mHits++;
+        return entry.acknowledgement;
+    }
+
+    /**
+     * <p>To keep the successful acknowledgement of a read.</p>
+     *
+     * @param command
+     *          The command of the read.
+     * @param payload
+     *          The payload of the read.
+     * @param acknowledgement
+     *          The acknowledgement packet.
+     * @param now
+     *          The current time in ms on the clock of the manager.
+     */
+    /*package*/ synchronized void put(int command, byte[] payload, GaiaPacket acknowledgement, long now) {
+        if (mTimeToLive == 0 || !mReadCommands.contains(command)
+                || acknowledgement.getStatus() != GAIA.Status.SUCCESS) {
+            return;
+        }
+        Entry entry = find(command, payload);
+        if (entry == null) {
+            entry = new Entry(payload);
+            entry.next = mEntries.get(command);
+            mEntries.put(command, entry);
+        }
+        entry.acknowledgement = acknowledgement;
+        entry.time = now;
+    }
+
+    /**
+     * <p>To count a read which has been attached to an identical pending read.</p>
+     */
+    /*package*/ synchronized void onCoalesced() {
+        mCoalesced++;
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    /**
+     * <p>To find the entry of a command for the given payload.</p>
+     */
+    private Entry find(int command, byte[] payload) {
+        Entry entry = mEntries.get(command);
+        while (entry != null && !Arrays.equals(entry.payload, payload)) {
+            entry = entry.next;
+        }
+        return entry;
+    }
+
+
+    // ====== INNER CLASSES ========================================================================
+
+    /**
+     * <p>The last acknowledgement received for a command and a payload.</p>
+     */
+    private static class Entry {
+        private final byte[] payload;
+        private GaiaPacket acknowledgement;
+        private long time;
+        private Entry next;
+
+        private Entry(byte[] payload) {
+            this.payload = payload == null ? null : payload.clone();
+        }
+    }
+}
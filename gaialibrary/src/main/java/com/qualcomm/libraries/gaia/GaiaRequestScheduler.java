@@ -0,0 +1,500 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.gaia;
+
+import android.util.Log;
+
+import com.qualcomm.libraries.gaia.GaiaTrafficPolicy.TrafficClass;
+import com.qualcomm.libraries.gaia.requests.GaiaRequest;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * <p>This class limits the number of GAIA requests which are sent to a device and are waiting for their
+ * acknowledgement.</p>
+ * <p>Each {@link GaiaManager GaiaManager} {@link #submit(Client, GaiaRequest, int, long) submits} its requests before
+ * sending them and reports when they are {@link #onRequestComplete(Client, long) complete}: acknowledged or timed
+ * out. A request is sent straight away if the number of requests in flight is lower than
+ * {@link #setMaxInFlight(int) the limit}, otherwise it is queued until a request in flight completes.</p>
+ * <p>The queued requests are served by {@link TrafficClass TrafficClass}: the {@link TrafficClass#NORMAL NORMAL}
+ * requests before the {@link TrafficClass#BACKGROUND BACKGROUND} ones. Within a class, the managers are served in
+ * turn - round robin - and the requests of a manager in the order they have been submitted: a manager which submits
+ * a burst of requests cannot hold back the requests of the other managers.</p>
+ * <p>The {@link TrafficClass#PRIORITY PRIORITY} requests - the upgrade ones - are never queued: the upgrade has its
+ * own flow control. They are counted as in flight, so while an upgrade keeps the limit reached, the other requests
+ * wait for it.</p>
+ * <p>For each class this scheduler measures the depth of the queue and how long the requests waited in it, see
+ * {@link #toString() toString}.</p>
+ * <p>The GAIA managers of an application share the scheduler given by {@link #getDefault() getDefault} as they
+ * share the link to the device. The managers of another link - for instance the ones of a fleet of devices - must
+ * each have their own scheduler: the requests sent over independent links do not have to wait for each other.</p>
+ * <p>The queued requests are dispatched on the thread which reports a completion: a
+ * {@link GaiaManager GaiaManager} posts the requests it is given to its own scheduler before sending them.</p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class GaiaRequestScheduler {
+
+    // ====== CONSTS FIELDS ========================================================================
+
+    /**
+     * <p>The tag to display for logs.</p>
+     */
+    private static final String TAG = "GaiaRequestScheduler";
+    /**
+     * <p>The default maximum number of requests which are waiting for their acknowledgement.</p>
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    /**
+     * <p>The number of traffic classes.</p>
+     */
+    private static final int CLASSES_COUNT = 3;
+    /**
+     * <p>The scheduler shared by the GAIA managers of the application.</p>
+     */
+    private static final GaiaRequestScheduler DEFAULT_SCHEDULER = new GaiaRequestScheduler(DEFAULT_MAX_IN_FLIGHT);
+
+
+    // ====== PRIVATE FIELDS =======================================================================
+
+    /**
+     * <p>The maximum number of requests in flight.</p>
+     */
+    private int mMaxInFlight;
+    /**
+     * <p>The number of requests which have been sent and are not complete yet.</p>
+     */
+    private int mInFlight = 0;
+    /**
+     * <p>The number of requests in flight for each client.</p>
+     */
+    private final Map<Client, Integer> mClientsInFlight = new HashMap<>();
+    /**
+     * <p>For each traffic class, the queues of the clients which have requests waiting for their turn.</p>
+     */
+    private final ClassQueue[] mQueues = new ClassQueue[CLASSES_COUNT];
+    /**
+     * <p>True while the queued requests are being dispatched to their clients.</p>
+     */
+    private boolean isDispatching = false;
+    /**
+     * <p>The number of requests which have been submitted for each class.</p>
+     */
+    private final long[] mSubmitted = new long[CLASSES_COUNT];
+    /**
+     * <p>The number of requests which have been queued for each class.</p>
+     */
+    private final long[] mQueued = new long[CLASSES_COUNT];
+    /**
+     * <p>The highest number of requests queued at the same time for each class.</p>
+     */
+    private final int[] mMaxQueueDepth = new int[CLASSES_COUNT];
+    /**
+     * <p>The total time in ms the dispatched requests waited in the queue for each class.</p>
+     */
+    private final long[] mTotalWaitTime = new long[CLASSES_COUNT];
+    /**
+     * <p>The longest time in ms a dispatched request waited in the queue for each class.</p>
+     */
+    private final long[] mMaxWaitTime = new long[CLASSES_COUNT];
+
+
+    // ====== CONSTRUCTORS =========================================================================
+
+    /**
+     * <p>To build a scheduler.</p>
+     *
+     * @param maxInFlight
+     *          The maximum number of requests which are waiting for their acknowledgement, at least 1.
+     */
+    public GaiaRequestScheduler(int maxInFlight) {
+        setMaxInFlight(maxInFlight);
+        for (int i = 0; i < CLASSES_COUNT; i++) {
+            mQueues[i] = new ClassQueue();
+        }
+    }
+
+
+    // ====== STATIC METHODS =======================================================================
+
+    /**
+     * <p>To get the scheduler shared by the GAIA managers of the application which talk to the same device.</p>
+     */
+    public static GaiaRequestScheduler getDefault() {
+        return DEFAULT_SCHEDULER;
+    }
+
+
+    // ====== PUBLIC METHODS =======================================================================
+
+    /**
+     * <p>To set the maximum number of requests which are waiting for their acknowledgement. If the limit is raised
+     * the queued requests are only dispatched on the next completion.</p>
+     *
+     * @param maxInFlight
+     *          The maximum number of requests in flight, a value lower than 1 is replaced by 1.
+     */
+    public synchronized void setMaxInFlight(int maxInFlight) {
+        mMaxInFlight = Math.max(1, maxInFlight);
+    }
+
+    /**
+     * <p>To get the maximum number of requests which are waiting for their acknowledgement.</p>
+     */
+    public synchronized int getMaxInFlight() {
+        return mMaxInFlight;
+    }
+
+    /**
+     * <p>To submit a request before sending it.</p>
+     *
+     * @param client
+     *          The client which sends the request.
+     * @param request
+     *          The request to send.
+     * @param trafficClass
+     *          The traffic class of the request.
+     * @param now
+     *          The current time in ms on the clock of the client.
+     *
+     * @return true if the client must send the request straight away, false if the request has been queued: it
+     * will be given to {@link Client#onRequestScheduled(GaiaRequest) onRequestScheduled} once it can be sent. In both
+     * cases the client must then report its completion.
+     */
+    public synchronized boolean submit(Client client, GaiaRequest request, @TrafficClass int trafficClass, long now) {
+        mSubmitted[trafficClass]++;
+        if (trafficClass == TrafficClass.PRIORITY || (mInFlight < mMaxInFlight && !hasQueued(trafficClass))) {
+            addInFlight(client);
+            return true;
+        }
+
+        ClassQueue queue = mQueues[trafficClass];
+        queue.add(client, new QueuedRequest(request, now));
+        mQueued[trafficClass]++;
+        mMaxQueueDepth[trafficClass] = Math.max(mMaxQueueDepth[trafficClass], queue.depth);
+        return false;
+    }
+
+    /**
+     * <p>To report that a request sent by a client is complete: it has been acknowledged or it has timed out. The
+     * queued requests which can now be sent are dispatched on the calling thread.</p>
+     *
+     * @param client
+     *          The client which sent the request.
+     * @param now
+     *          The current time in ms on the clock of the client.
+     */
+    public void onRequestComplete(Client client, long now) {
+        synchronized (this) {
+            Integer count = mClientsInFlight.get(client);
+            if (count == null) {
+                Log.w(TAG, "Completion reported for a client without any request in flight.");
+                return;
+            }
+            mInFlight--;
+            if (count > 1) {
+                mClientsInFlight.put(client, count - 1);
+            }
+            else {
+                mClientsInFlight.remove(client);
+            }
+        }
+        dispatch(now);
+    }
+
+    /**
+     * <p>To forget the requests of a client: its queued requests are dropped and its requests in flight are not
+     * counted anymore. The queued requests of the other clients which can now be sent are dispatched on the calling
+     * thread.</p>
+     *
+     * @param client
+     *          The client to reset.
+     * @param now
+     *          The current time in ms on the clock of the client.
+     */
+    public void reset(Client client, long now) {
+        synchronized (this) {
+            Integer count = mClientsInFlight.remove(client);
+            if (count != null) {
+                mInFlight -= count;
+            }
+            for (ClassQueue queue : mQueues) {
+                queue.remove(client);
+            }
+        }
+        dispatch(now);
+    }
+
+    /**
+     * <p>To get the number of requests which are waiting for their acknowledgement.</p>
+     */
+    public synchronized int getInFlight() {
+        return mInFlight;
+    }
+
+    /**
+     * <p>To get the number of requests of a traffic class which are queued.</p>
+     */
+    public synchronized int getQueueDepth(@TrafficClass int trafficClass) {
+        return mQueues[trafficClass].depth;
+    }
+
+    /**
+     * <p>To get the highest number of requests of a traffic class which have been queued at the same time.</p>
+     */
+    public synchronized int getMaxQueueDepth(@TrafficClass int trafficClass) {
+        return mMaxQueueDepth[trafficClass];
+    }
+
+    /**
+     * <p>To get the number of requests of a traffic class which have been submitted.</p>
+     */
+    public synchronized long getSubmitted(@TrafficClass int trafficClass) {
+        return mSubmitted[trafficClass];
+    }
+
+    /**
+     * <p>To get the number of requests of a traffic class which could not be sent straight away.</p>
+     */
+    public synchronized long getQueued(@TrafficClass int trafficClass) {
+        return mQueued[trafficClass];
+    }
+
+    /**
+     * <p>To get the longest time in ms a request of a traffic class waited in the queue.</p>
+     */
+    public synchronized long getMaxWaitTime(@TrafficClass int trafficClass) {
+        return mMaxWaitTime[trafficClass];
+    }
+
+    /**
+     * <p>To get the average time in ms the submitted requests of a traffic class waited before being sent, the
+     * requests sent straight away count as no wait.</p>
+     */
+    public synchronized long getAverageWaitTime(@TrafficClass int trafficClass) {
+        return mSubmitted[trafficClass] == 0 ? 0 : mTotalWaitTime[trafficClass] / mSubmitted[trafficClass];
+    }
+
+    /**
+     * <p>To reset the metrics of this scheduler, the requests in flight and queued are kept.</p>
+     */
+    public synchronized void resetMetrics() {
+        for (int i = 0; i < CLASSES_COUNT; i++) {
+            mSubmitted[i] = 0;
+            mQueued[i] = 0;
+            mMaxQueueDepth[i] = mQueues[i].depth;
+            mTotalWaitTime[i] = 0;
+            mMaxWaitTime[i] = 0;
+        }
+    }
+
+    @Override // Object
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("in flight=").append(mInFlight).append("/").append(mMaxInFlight);
+        appendMetrics(builder, "priority", TrafficClass.PRIORITY);
+        appendMetrics(builder, "normal", TrafficClass.NORMAL);
+        appendMetrics(builder, "background", TrafficClass.BACKGROUND);
+        return builder.toString();
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    /**
+     * <p>To count a new request in flight for a client.</p>
+     */
+    private void addInFlight(Client client) {
+        mInFlight++;
+        Integer count = mClientsInFlight.get(client);
+        mClientsInFlight.put(client, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * <p>To know if requests of the given class or of a class served before it are queued.</p>
+     */
+    private boolean hasQueued(@TrafficClass int trafficClass) {
+        for (int i = 0; i <= trafficClass; i++) {
+            if (mQueues[i].depth > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * <p>To give the queued requests to their clients while the limit of requests in flight is not reached.</p>
+     * <p>The clients are called outside of the lock as they send the requests. If a completion is reported while
+     * the requests are dispatched, the ongoing dispatch sends the requests it allows.</p>
+     *
+     * @param now
+     *          The current time in ms.
+     */
+    private void dispatch(long now) {
+        synchronized (this) {
+            if (isDispatching) {
+                return;
+            }
+            isDispatching = true;
+        }
+
+        try {
+            while (true) {
+                Client client;
+                QueuedRequest queued;
+                synchronized (this) {
+                    int trafficClass = mInFlight < mMaxInFlight ? getNextTrafficClass() : -1;
+                    if (trafficClass < 0) {
+                        return;
+                    }
+                    ClassQueue queue = mQueues[trafficClass];
+                    client = queue.clients.getFirst();
+                    queued = queue.poll();
+                    addInFlight(client);
+                    long waitTime = Math.max(0, now - queued.submissionTime);
+                    mTotalWaitTime[trafficClass] += waitTime;
+                    mMaxWaitTime[trafficClass] = Math.max(mMaxWaitTime[trafficClass], waitTime);
+                }
+                client.onRequestScheduled(queued.request);
+            }
+        }
+        finally {
+            synchronized (this) {
+                isDispatching = false;
+            }
+        }
+    }
+
+    /**
+     * <p>To get the first traffic class which has queued requests.</p>
+     *
+     * @return the traffic class or -1 if no request is queued.
+     */
+    private int getNextTrafficClass() {
+        for (int i = 0; i < CLASSES_COUNT; i++) {
+            if (mQueues[i].depth > 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * <p>To append the metrics of a traffic class to the description of this scheduler.</p>
+     */
+    private void appendMetrics(StringBuilder builder, String name, @TrafficClass int trafficClass) {
+        builder.append(", ").append(name).append("={submitted=").append(mSubmitted[trafficClass])
+                .append(", queued=").append(mQueued[trafficClass])
+                .append(", depth=").append(mQueues[trafficClass].depth)
+                .append(", max depth=").append(mMaxQueueDepth[trafficClass])
+                .append(", average wait=").append(getAverageWaitTime(trafficClass)).append(" ms")
+                .append(", max wait=").append(mMaxWaitTime[trafficClass]).append(" ms}");
+    }
+
+
+    // ====== INTERFACES ===========================================================================
+
+    /**
+     * <p>The interface a sender of requests - usually a {@link GaiaManager GaiaManager} - implements to be given its
+     * queued requests.</p>
+     */
+    public interface Client {
+
+        /**
+         * <p>Called when a queued request can be sent: the client must send it straight away. The request is already
+         * counted in flight.</p>
+         * <p>This is called on the thread which has reported the completion of a request, which is not necessarily
+         * the thread of the client.</p>
+         *
+         * @param request
+         *          The request to send.
+         */
+        void onRequestScheduled(GaiaRequest request);
+    }
+
+
+    // ====== INNER CLASSES ========================================================================
+
+    /**
+     * <p>A request waiting in a queue with the time it has been submitted.</p>
+     */
+    private static class QueuedRequest {
+        /**
+         * <p>The queued request.</p>
+         */
+        private final GaiaRequest request;
+        /**
+         * <p>The time in ms the request has been submitted.</p>
+         */
+        private final long submissionTime;
+
+        private QueuedRequest(GaiaRequest request, long submissionTime) {
+            this.request = request;
+            this.submissionTime = submissionTime;
+        }
+    }
+
+    /**
+     * <p>The queued requests of a traffic class: one queue for each client, the clients are served in turn.</p>
+     */
+    private static class ClassQueue {
+        /**
+         * <p>The clients which have queued requests, the first one is served next.</p>
+         */
+        private final LinkedList<Client> clients = new LinkedList<>();
+        /**
+         * <p>The queued requests of each client in the order they have been submitted.</p>
+         */
+        private final Map<Client, LinkedList<QueuedRequest>> requests = new HashMap<>();
+        /**
+         * <p>The number of queued requests of all the clients.</p>
+         */
+        private int depth = 0;
+
+        /**
+         * <p>To queue a request of a client, a client without any queued request takes the last turn.</p>
+         */
+        private void add(Client client, QueuedRequest request) {
+            LinkedList<QueuedRequest> queue = requests.get(client);
+            if (queue == null) {
+                queue = new LinkedList<>();
+                requests.put(client, queue);
+                clients.addLast(client);
+            }
+            queue.addLast(request);
+            depth++;
+        }
+
+        /**
+         * <p>To take the oldest request of the first client, the client then takes the last turn if it has other
+         * requests queued.</p>
+         */
+        private QueuedRequest poll() {
+            Client client = clients.removeFirst();
+            LinkedList<QueuedRequest> queue = requests.get(client);
+            QueuedRequest request = queue.removeFirst();
+            depth--;
+            if (queue.isEmpty()) {
+                requests.remove(client);
+            }
+            else {
+                clients.addLast(client);
+            }
+            return request;
+        }
+
+        /**
+         * <p>To drop the queued requests of a client.</p>
+         */
+        private void remove(Client client) {
+            LinkedList<QueuedRequest> queue = requests.remove(client);
+            if (queue != null) {
+                depth -= queue.size();
+                clients.remove(client);
+            }
+        }
+    }
+}
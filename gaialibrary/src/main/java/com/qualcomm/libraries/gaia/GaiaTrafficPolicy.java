@@ -0,0 +1,314 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.gaia;
+
+import android.support.annotation.IntDef;
+import android.util.Log;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>This class defines how the GAIA traffic of the features of an application shares a link with an upgrade.</p>
+ * <p>Each GAIA command belongs to a {@link TrafficClass TrafficClass}:
+ * <ul>
+ *     <li>{@link TrafficClass#PRIORITY PRIORITY}: the VM upgrade commands, they are sent as soon as possible, before
+ *     any other traffic.</li>
+ *     <li>{@link TrafficClass#BACKGROUND BACKGROUND}: the commands which are sent periodically to poll the device,
+ *     such as {@link GAIA#COMMAND_GET_CURRENT_BATTERY_LEVEL COMMAND_GET_CURRENT_BATTERY_LEVEL} and
+ *     {@link GAIA#COMMAND_GET_CURRENT_RSSI COMMAND_GET_CURRENT_RSSI}.</li>
+ *     <li>{@link TrafficClass#NORMAL NORMAL}: any other command, usually sent on a user action.</li>
+ * </ul></p>
+ * <p>While an upgrade session is running - between {@link #startUpgradeSession() startUpgradeSession} and
+ * {@link #endUpgradeSession() endUpgradeSession} - the background traffic is deferred through
+ * {@link #deferBackground(Object, Runnable) deferBackground}: the task which would send it is kept and it is run
+ * once the session has ended. Tasks deferred with the same key are coalesced: only the last one is kept, this way
+ * a polling loop only sends one request once the session has ended.</p>
+ * <p>The counters of the session, given by {@link #toString() toString} and logged at the end of the session, show
+ * how much traffic has been sent for each class and how much background traffic has been deferred.</p>
+ * <p>The services and the GAIA managers of an application share the policy given by
+ * {@link #getDefault() getDefault}.</p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class GaiaTrafficPolicy {
+
+    // ====== CONSTS FIELDS ========================================================================
+
+    /**
+     * <p>The tag to display for logs.</p>
+     */
+    private static final String TAG = "GaiaTrafficPolicy";
+    /**
+     * <p>The policy shared by the services and the GAIA managers of the application.</p>
+     */
+    private static final GaiaTrafficPolicy DEFAULT_POLICY = new GaiaTrafficPolicy();
+
+
+    // ====== PRIVATE FIELDS =======================================================================
+
+    /**
+     * <p>The commands which belong to the {@link TrafficClass#BACKGROUND BACKGROUND} class.</p>
+     */
+    private final Set<Integer> mBackgroundCommands = new HashSet<>();
+    /**
+     * <p>The tasks deferred during the current upgrade session, mapped by their key in the order they have first been
+     * deferred.</p>
+     */
+    private final Map<Object, Runnable> mDeferredTasks = new LinkedHashMap<>();
+    /**
+     * <p>True while an upgrade session is running.</p>
+     */
+    private boolean isUpgradeSession = false;
+    /**
+     * <p>The number of packets sent during the current or last session for each traffic class.</p>
+     */
+    private final int[] mSentPackets = new int[3];
+    /**
+     * <p>The number of tasks which have been deferred during the current or last session.</p>
+     */
+    private int mDeferred = 0;
+    /**
+     * <p>The number of deferred tasks which have been replaced by a task with the same key.</p>
+     */
+    private int mCoalesced = 0;
+    /**
+     * <p>The number of deferred tasks which have been run at the end of the last session.</p>
+     */
+    private int mReplayed = 0;
+
+
+    // ====== ENUM =================================================================================
+
+    /**
+     * <p>The classes of GAIA traffic.</p>
+     */
+    @IntDef({ TrafficClass.PRIORITY, TrafficClass.NORMAL, TrafficClass.BACKGROUND })
+    @Retention(RetentionPolicy.SOURCE)
+    @SuppressWarnings("unused")
+    public @interface TrafficClass {
+        /**
+         * <p>The traffic of an upgrade: it is never deferred.</p>
+         */
+        int PRIORITY = 0;
+        /**
+         * <p>The traffic which is usually initiated by the user: it is never deferred.</p>
+         */
+        int NORMAL = 1;
+        /**
+         * <p>The traffic which polls the device: it is deferred during an upgrade session.</p>
+         */
+        int BACKGROUND = 2;
+    }
+
+
+    // ====== CONSTRUCTORS =========================================================================
+
+    /**
+     * <p>To build a policy for which the battery level and RSSI commands are background traffic.</p>
+     */
+    public GaiaTrafficPolicy() {
+        mBackgroundCommands.add(GAIA.COMMAND_GET_CURRENT_BATTERY_LEVEL);
+        mBackgroundCommands.add(GAIA.COMMAND_GET_CURRENT_RSSI);
+    }
+
+
+    // ====== STATIC METHODS =======================================================================
+
+    /**
+     * <p>To get the policy shared by the services and the GAIA managers of the application.</p>
+     */
+    public static GaiaTrafficPolicy getDefault() {
+        return DEFAULT_POLICY;
+    }
+
+
+    // ====== PUBLIC METHODS =======================================================================
+
+    /**
+     * <p>To get the class of traffic a GAIA command belongs to.</p>
+     *
+     * @param command
+     *          The GAIA command, the acknowledgement bit is ignored.
+     *
+     * @return the class of traffic of the command.
+     */
+    public synchronized @TrafficClass int getTrafficClass(int command) {
+        command = command & GAIA.COMMAND_MASK;
+        switch (command) {
+            case GAIA.COMMAND_VM_UPGRADE_CONNECT:
+            case GAIA.COMMAND_VM_UPGRADE_DISCONNECT:
+            case GAIA.COMMAND_VM_UPGRADE_CONTROL:
+            case GAIA.COMMAND_VM_UPGRADE_DATA:
+                return TrafficClass.PRIORITY;
+        }
+        return mBackgroundCommands.contains(command) ? TrafficClass.BACKGROUND : TrafficClass.NORMAL;
+    }
+
+    /**
+     * <p>To define if a GAIA command is background traffic.</p>
+     *
+     * @param command
+     *          The GAIA command.
+     * @param background
+     *          True if the command is background traffic, false if it is normal traffic. The VM upgrade commands
+     *          are always priority traffic.
+     */
+    public synchronized void setBackgroundCommand(int command, boolean background) {
+        if (background) {
+            mBackgroundCommands.add(command & GAIA.COMMAND_MASK);
+        }
+        else {
+            mBackgroundCommands.remove(command & GAIA.COMMAND_MASK);
+        }
+    }
+
+    /**
+     * <p>To start an upgrade session: from now on the background traffic is deferred. This resets the counters of
+     * the policy. This does nothing if a session is already running.</p>
+     */
+    public synchronized void startUpgradeSession() {
+        if (isUpgradeSession) {
+            return;
+        }
+        isUpgradeSession = true;
+        mDeferred = 0;
+        mCoalesced = 0;
+        mReplayed = 0;
+        for (int i = 0; i < mSentPackets.length; i++) {
+            mSentPackets[i] = 0;
+        }
+    }
+
+    /**
+     * <p>To end the upgrade session: the deferred tasks are run on the calling thread in the order they have first
+     * been deferred. This does nothing if no session is running.</p>
+     * <p>The session can be ended from the thread of a transport: a task which has to run on another thread posts
+     * the work to it, as the tasks of the {@link GaiaManager GaiaManager} do.</p>
+     */
+    public void endUpgradeSession() {
+        List<Runnable> tasks;
+        synchronized (this) {
+            if (!isUpgradeSession) {
+                return;
+            }
+            isUpgradeSession = false;
+            tasks = new ArrayList<>(mDeferredTasks.values());
+            mDeferredTasks.clear();
+            mReplayed = tasks.size();
+            Log.i(TAG, "Upgrade session ended: " + toString());
+        }
+
+        for (Runnable task : tasks) {
+            task.run();
+        }
+    }
+
+    /**
+     * <p>To know if an upgrade session is running.</p>
+     */
+    public synchronized boolean isUpgradeSession() {
+        return isUpgradeSession;
+    }
+
+    /**
+     * <p>To defer a task which sends background traffic until the end of the upgrade session.</p>
+     * <p>If a task has already been deferred with the same key, it is replaced by the given task: the two tasks are
+     * coalesced and only the given one will be run.</p>
+     * <p>The default policy is shared by the whole application and keeps the task until the end of the session: a
+     * task should not hold an object which has a shorter life, such as an activity, or it should be
+     * {@link #cancelDeferred(Object) cancelled} when this object is released.</p>
+     *
+     * @param key
+     *          The key which identifies the background traffic, for instance the runnable of a polling loop.
+     * @param task
+     *          The task to run once the session has ended.
+     *
+     * @return true if the task has been deferred, false if no session is running: the caller should then send the
+     * traffic straight away.
+     */
+    public synchronized boolean deferBackground(Object key, Runnable task) {
+        if (!isUpgradeSession) {
+            return false;
+        }
+        if (mDeferredTasks.containsKey(key)) {
+            mCoalesced++;
+        }
+        else {
+            mDeferred++;
+        }
+        mDeferredTasks.put(key, task);
+        return true;
+    }
+
+    /**
+     * <p>To cancel a deferred task: it will not be run at the end of the session.</p>
+     *
+     * @param key
+     *          The key the task has been deferred with.
+     */
+    public synchronized void cancelDeferred(Object key) {
+        mDeferredTasks.remove(key);
+    }
+
+    /**
+     * <p>To be called when a GAIA packet has been sent: this counts the packets sent during a session for each
+     * traffic class.</p>
+     *
+     * @param command
+     *          The GAIA command of the packet.
+     */
+    public synchronized void onPacketSent(int command) {
+        if (isUpgradeSession) {
+            mSentPackets[getTrafficClass(command)]++;
+        }
+    }
+
+    /**
+     * <p>To get the number of packets of a traffic class which have been sent during the current or last
+     * session.</p>
+     */
+    public synchronized int getSentPackets(@TrafficClass int trafficClass) {
+        return mSentPackets[trafficClass];
+    }
+
+    /**
+     * <p>To get the number of background tasks which have been deferred during the current or last session, the
+     * coalesced tasks are not counted.</p>
+     */
+    public synchronized int getDeferred() {
+        return mDeferred;
+    }
+
+    /**
+     * <p>To get the number of deferred tasks which have been replaced by a later task with the same key during the
+     * current or last session.</p>
+     */
+    public synchronized int getCoalesced() {
+        return mCoalesced;
+    }
+
+    /**
+     * <p>To get the number of deferred tasks which have been run at the end of the last session.</p>
+     */
+    public synchronized int getReplayed() {
+        return mReplayed;
+    }
+
+    @Override // Object
+    public synchronized String toString() {
+        return "sent priority=" + mSentPackets[TrafficClass.PRIORITY]
+                + ", normal=" + mSentPackets[TrafficClass.NORMAL]
+                + ", background=" + mSentPackets[TrafficClass.BACKGROUND]
+                + ", deferred=" + mDeferred
+                + ", coalesced=" + mCoalesced
+                + ", replayed=" + mReplayed;
+    }
+}
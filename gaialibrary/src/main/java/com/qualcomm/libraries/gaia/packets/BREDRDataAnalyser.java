@@ -0,0 +1,135 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.gaia.packets;
+
+import android.util.Log;
+
+/**
+ * <p>This class analyses the data received over a BR/EDR connection in order to build packets corresponding to the
+ * GAIA protocol as defined in {@link GaiaPacketBREDR GaiaPacketBREDR}.</p>
+ * <p>The data received over RFCOMM is a stream of bytes: a GAIA packet can be split over several reads and a read
+ * can contain several GAIA packets. This analyser accumulates the bytes until a packet is complete and dispatches
+ * it to its {@link DataAnalyserListener DataAnalyserListener}.</p>
+ */
+public class BREDRDataAnalyser {
+
+    /**
+     * <p>The tag to display for logs.</p>
+     */
+    private final String TAG = "BREDRDataAnalyser";
+    /**
+     * <p>The listener to dispatch the packets to.</p>
+     */
+    private final DataAnalyserListener mListener;
+    /**
+     * <p>This array contains the data received from the device and which might correspond to a GAIA packet.</p>
+     */
+    private final byte[] mData = new byte[GaiaPacketBREDR.MAX_PACKET];
+    /**
+     * <p>While building the data of a GAIA packet, this contain the flags information of the packet.</p>
+     */
+    private int mFlags;
+    /**
+     * <p>To get how many bytes had been received so far.</p>
+     */
+    private int mReceivedLength = 0;
+    /**
+     * <p>The number of bytes which are expected to build a current GAIA packet.</p>
+     */
+    private int mExpectedLength = GaiaPacketBREDR.MAX_PACKET;
+
+    /**
+     * <p>To build an analyser which dispatches the packets it finds to the given listener.</p>
+     *
+     * @param listener
+     *          The listener to dispatch the packets to.
+     */
+    public BREDRDataAnalyser(DataAnalyserListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * <p>To reset the data of the analyser: no current packet at the moment.</p>
+     */
+    public void reset() {
+        mReceivedLength = 0;
+        mExpectedLength = GaiaPacketBREDR.MAX_PACKET;
+    }
+
+    /**
+     * <p>This method will build a GAIA packet as defined in {@link GaiaPacketBREDR GaiaPacketBREDR}.</p>
+     * <p>This method uses the data provided at each call to build a GAIA packet following this process:
+     * <ol>
+     *     <li>Looks for the start of the packet known as "start of frame": <code>{@link GaiaPacketBREDR#SOF SOF} =
+     *     0xFF</code>.</li>
+     *     <li>Gets the expected length of the GAIA packet using the bytes which follow SOF: flags and length.</li>
+     *     <li>For each byte of a packet, copies the byte in the data array until it reaches the
+     *     expectedLength.</li>
+     *     <li>Calls {@link DataAnalyserListener#onGAIAPacketFound(byte[]) onGAIAPacketFound} when the number of
+     *     accumulated data reaches the expected length.</li>
+     * </ol></p>
+     *
+     * @param data
+     *          The data to analyse in order to build GAIA packet(s).
+     */
+    public void analyse(byte[] data) {
+        int length = data.length;
+
+        // go through the received data
+        //noinspection ForLoopReplaceableByForEach // it is more efficient to not use foreach
+        for (int i = 0; i < length; ++i) {
+            // has started to get data of a GAIA packet
+            if ((this.mReceivedLength > 0) && (this.mReceivedLength < GaiaPacketBREDR.MAX_PACKET)) {
+                // gets the data
+                mData[this.mReceivedLength] = data[i];
+
+                // gets the flags to know if there is a checksum which has impact on the GAIA packet length
+                if (this.mReceivedLength == GaiaPacketBREDR.OFFSET_FLAGS)  { // = 2
+                    mFlags = data[i];
+                }
+                // gets the expected length
+                else if (this.mReceivedLength == GaiaPacketBREDR.OFFSET_LENGTH) { // = 3
+                    mExpectedLength = (data[i] & 0xFF) // payload length, unsigned as it can go up to 254
+                            + GaiaPacketBREDR.OFFSET_PAYLOAD // number of bytes before
+                            + (((mFlags & GaiaPacketBREDR.FLAG_CHECK_MASK) != 0) ? 1 : 0);
+                }
+
+                // number of received bytes can be incremented
+                ++this.mReceivedLength;
+
+                // if GAIA packet is complete, it is dispatched
+                if (this.mReceivedLength == mExpectedLength) {
+                    byte[] packet = new byte[mReceivedLength];
+                    System.arraycopy(mData, 0, packet, 0, mReceivedLength);
+                    reset();
+                    mListener.onGAIAPacketFound(packet);
+                }
+            }
+            // look for the start of frame
+            else if (data[i] == GaiaPacketBREDR.SOF) {
+                this.mReceivedLength = 1;
+            }
+            // number of received bytes is too big for a GAIA packet
+            else if (mReceivedLength >= GaiaPacketBREDR.MAX_PACKET) {
+                Log.w(TAG, "Packet is too long: received length is bigger than the maximum length of a GAIA " +
+                        "packet. Resetting analyser.");
+                reset();
+            }
+        }
+    }
+
+    /**
+     * <p>The listener which receives the GAIA packets built by a {@link BREDRDataAnalyser BREDRDataAnalyser}.</p>
+     */
+    public interface DataAnalyserListener {
+        /**
+         * <p>This method is called when the analyser has built a potential GAIA packet from incoming data.</p>
+         *
+         * @param data
+         *          The potential packet.
+         */
+        void onGAIAPacketFound(byte[] data);
+    }
+}
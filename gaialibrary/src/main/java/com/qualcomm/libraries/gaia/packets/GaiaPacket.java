@@ -7,10 +7,17 @@ package com.qualcomm.libraries.gaia.packets;
 import com.qualcomm.libraries.gaia.GAIA;
 import com.qualcomm.libraries.gaia.GaiaException;
 
+import java.util.Arrays;
+
 /**
  * <p>This class encapsulates information for a GAIA packet. Depending on the type of the communication used, this class
  * will be implemented using the following classes: <ul> <li>{@link GaiaPacketBLE}: for a packet used over BLE
  * connections.</li> <li>{@link GaiaPacketBREDR}: for a packet used over BLE connections.</li> </ul></p>
+ * <p>A packet built from received bytes is a read-only view of these bytes: its payload is not copied until
+ * {@link #getPayload() getPayload} is called. {@link #getPayloadLength() getPayloadLength},
+ * {@link #getPayloadByte(int) getPayloadByte}, {@link #getPayloadBuffer() getPayloadBuffer} and
+ * {@link #getPayloadOffset() getPayloadOffset} read it in place. The received bytes must then not be modified while
+ * the packet is used.</p>
  */
 @SuppressWarnings("unused")
 public abstract class GaiaPacket {
@@ -28,22 +35,94 @@ public abstract class GaiaPacket {
      * <p>The payload which contains all values for the specified command.</p> <p>If the
      * packet is an acknowledgement packet, the first <code>byte</code> of the packet corresponds to the status of the
      * sent command.</p>
+     * <p>It is null until {@link #getPayload() getPayload} is called if this packet is a view of the bytes it has
+     * been built from.</p>
      */
-    byte[] mPayload = new byte[0];
+    byte[] mPayload;
     /**
      * <p>The bytes which represent this packet.</p>
      */
     byte[] mBytes;
+    /**
+     * <p>If this packet is a view of the bytes it has been built from, the array which contains these bytes.</p>
+     */
+    private byte[] mSource;
+    /**
+     * <p>The offset of this packet in the source array.</p>
+     */
+    private int mSourceOffset;
+    /**
+     * <p>The number of bytes of this packet in the source array.</p>
+     */
+    private int mSourceLength;
+    /**
+     * <p>The number of bytes of the payload in the source array.</p>
+     */
+    private int mPayloadLength;
 
     /**
      * <p>Gets the entire payload.</p>
+     * <p>If this packet has been built from received bytes, the payload is copied from these bytes on the first
+     * call.</p>
      *
      * @return Array of bytes containing the payload.
      */
     public byte[] getPayload() {
+        if (mPayload == null && mSource != null) {
+            int offset = getPayloadOffset();
+            mPayload = Arrays.copyOfRange(mSource, offset, offset + mPayloadLength);
+        }
         return mPayload;
     }
 
+    /**
+     * <p>Gets the number of bytes of the payload.</p>
+     *
+     * @return The length of the payload.
+     */
+    public int getPayloadLength() {
+        return mSource != null ? mPayloadLength : mPayload == null ? 0 : mPayload.length;
+    }
+
+    /**
+     * <p>Gets a byte of the payload without copying the payload.</p>
+     *
+     * @param index
+     *          The index of the byte in the payload.
+     *
+     * @return The byte at the given index.
+     *
+     * @throws ArrayIndexOutOfBoundsException if the index is not within the payload.
+     */
+    public byte getPayloadByte(int index) {
+        if (index < 0 || index >= getPayloadLength()) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        return mSource != null ? mSource[mSourceOffset + getPacketPayloadOffset() + index] : mPayload[index];
+    }
+
+    /**
+     * <p>Gets the array which contains the payload in order to read it in place: the payload starts at
+     * {@link #getPayloadOffset() getPayloadOffset} and is {@link #getPayloadLength() getPayloadLength} bytes
+     * long.</p>
+     * <p>If this packet has been built from received bytes, this is the array these bytes are in. The array must not
+     * be modified.</p>
+     *
+     * @return The array which contains the payload.
+     */
+    public byte[] getPayloadBuffer() {
+        return mSource != null ? mSource : mPayload;
+    }
+
+    /**
+     * <p>Gets the offset of the payload in the array given by {@link #getPayloadBuffer() getPayloadBuffer}.</p>
+     *
+     * @return The offset of the first byte of the payload.
+     */
+    public int getPayloadOffset() {
+        return mSource != null ? mSourceOffset + getPacketPayloadOffset() : 0;
+    }
+
     /**
      * <p>Gets the vendor identifier for this command.</p>
      *
@@ -82,11 +161,11 @@ public abstract class GaiaPacket {
         final int STATUS_OFFSET = 0;
         final int STATUS_LENGTH = 1;
 
-        if (!isAcknowledgement() || mPayload == null || mPayload.length < STATUS_LENGTH) {
+        if (!isAcknowledgement() || getPayloadLength() < STATUS_LENGTH) {
             return GAIA.Status.NOT_STATUS;
         }
         else {
-            return GAIA.getStatus(mPayload[STATUS_OFFSET]);
+            return GAIA.getStatus(getPayloadByte(STATUS_OFFSET));
         }
     }
 
@@ -108,12 +187,11 @@ public abstract class GaiaPacket {
         final int EVENT_OFFSET = 0;
         final int EVENT_LENGTH = 1;
 
-        if ((mCommandId & GAIA.COMMANDS_NOTIFICATION_MASK) < 1 || mPayload == null ||
-                mPayload.length < EVENT_LENGTH) {
+        if ((mCommandId & GAIA.COMMANDS_NOTIFICATION_MASK) < 1 || getPayloadLength() < EVENT_LENGTH) {
             return GAIA.NotificationEvents.NOT_NOTIFICATION;
         }
         else {
-            return GAIA.getNotificationEvent(mPayload[EVENT_OFFSET]);
+            return GAIA.getNotificationEvent(getPayloadByte(EVENT_OFFSET));
         }
     }
 
@@ -121,7 +199,8 @@ public abstract class GaiaPacket {
      * <p>To get the bytes which correspond to this packet.</p>
      *
      * @return A new byte array if this packet has been created using its characteristics or the source bytes if this
-     * packet has been created from a source <code>byte</code> array.
+     * packet has been created from a source <code>byte</code> array. If the packet is only a part of the source array,
+     * this part is copied.
      *
      * @throws GaiaException for types:
      * <ul>
@@ -132,6 +211,10 @@ public abstract class GaiaPacket {
         if (mBytes != null) {
             return mBytes;
         }
+        else if (mSource != null) {
+            mBytes = Arrays.copyOfRange(mSource, mSourceOffset, mSourceOffset + mSourceLength);
+            return mBytes;
+        }
         else {
             mBytes = buildBytes(mCommandId, mPayload);
             return mBytes;
@@ -156,29 +239,92 @@ public abstract class GaiaPacket {
      * </ul>
      */
     public byte[] getAcknowledgementPacketBytes(@GAIA.Status int status, byte[] value) throws GaiaException {
-        final int STATUS_OFFSET = 0;
-        final int STATUS_LENGTH = 1;
-        final int DATA_OFFSET = 1;
+        byte[] packet = new byte[getAcknowledgementPacketLength(value)];
+        writeAcknowledgementPacket(packet, status, value);
+        return packet;
+    }
 
+    /**
+     * <p>To get the number of bytes of the acknowledgement packet which corresponds to this packet.</p>
+     *
+     * @param value
+     *          The parameters to specify for the acknowledgement packet.
+     *
+     * @return the length of the acknowledgement packet.
+     *
+     * @throws GaiaException if this packet is already an acknowledgement packet.
+     */
+    /*package*/ int getAcknowledgementPacketLength(byte[] value) throws GaiaException {
         if (isAcknowledgement()) {
             throw new GaiaException(GaiaException.Type.PACKET_IS_ALREADY_AN_ACKNOWLEDGEMENT);
         }
-        int commandId = mCommandId | GAIA.ACKNOWLEDGMENT_MASK;
+        return getPacketLength(getAcknowledgementPayloadLength(value));
+    }
 
-        byte[] payload;
+    /**
+     * <p>To write the acknowledgement packet which corresponds to this packet in the given array.</p>
+     *
+     * @param packet
+     *          The array to write the packet in, its length must be
+     *          {@link #getAcknowledgementPacketLength(byte[]) getAcknowledgementPacketLength(value)}.
+     * @param status
+     *          The status for the acknowledgement packet.
+     * @param value
+     *          The parameters to specify for the acknowledgement packet.
+     *
+     * @throws GaiaException for type {@link GaiaException.Type#PAYLOAD_LENGTH_TOO_LONG}.
+     */
+    /*package*/ void writeAcknowledgementPacket(byte[] packet, @GAIA.Status int status, byte[] value)
+            throws GaiaException {
+        final int STATUS_OFFSET = 0;
+        final int DATA_OFFSET = 1;
 
+        int length = getAcknowledgementPayloadLength(value);
+        int offset = getPacketPayloadOffset();
+        packet[offset + STATUS_OFFSET] = (byte) status;
         if (value != null) {
-            int maxLength = getPayloadMaxLength();
-            int length = STATUS_LENGTH + (value.length < maxLength ? value.length : maxLength);
-            payload = new byte[length];
-            System.arraycopy(value, 0, payload, DATA_OFFSET, length-STATUS_LENGTH);
+            System.arraycopy(value, 0, packet, offset + DATA_OFFSET, length - DATA_OFFSET);
         }
-        else {
-            payload = new byte[STATUS_LENGTH];
+        writePacket(packet, mCommandId | GAIA.ACKNOWLEDGMENT_MASK, length);
+    }
+
+    /**
+     * <p>To write the bytes of this packet in the given array.</p>
+     *
+     * @param packet
+     *          The array to write the packet in, its length must be
+     *          {@link #getPacketLength(int) getPacketLength(getPayloadLength())}.
+     *
+     * @throws GaiaException for type {@link GaiaException.Type#PAYLOAD_LENGTH_TOO_LONG}.
+     */
+    /*package*/ void writePacket(byte[] packet) throws GaiaException {
+        int length = getPayloadLength();
+        if (length > 0) {
+            System.arraycopy(getPayloadBuffer(), getPayloadOffset(), packet, getPacketPayloadOffset(), length);
         }
-        payload[STATUS_OFFSET] = (byte) status;
+        writePacket(packet, mCommandId, length);
+    }
 
-        return buildBytes(commandId, payload);
+    /**
+     * <p>To define this packet as a view of the bytes it has been built from.</p>
+     *
+     * @param source
+     *          The array which contains the packet.
+     * @param offset
+     *          The offset of the packet in the array.
+     * @param length
+     *          The number of bytes of the packet.
+     * @param payloadLength
+     *          The number of bytes of the payload which starts at
+     *          {@link #getPacketPayloadOffset() getPacketPayloadOffset} in the packet.
+     */
+    /*package*/ void setSource(byte[] source, int offset, int length, int payloadLength) {
+        mSource = source;
+        mSourceOffset = offset;
+        mSourceLength = length;
+        mPayloadLength = payloadLength;
+        mPayload = null;
+        mBytes = offset == 0 && length == source.length ? source : null;
     }
 
     /**
@@ -211,6 +357,52 @@ public abstract class GaiaPacket {
      */
     abstract int getPayloadMaxLength();
 
+    /**
+     * <p>To get the number of bytes of a packet of the transport of this packet for the given payload length.</p>
+     *
+     * @param payloadLength
+     *              The number of bytes of the payload.
+     *
+     * @return the length of the packet.
+     */
+    abstract int getPacketLength(int payloadLength);
+
+    /**
+     * <p>To get the offset of the payload in a packet of the transport of this packet.</p>
+     *
+     * @return the number of bytes before the payload.
+     */
+    abstract int getPacketPayloadOffset();
+
+    /**
+     * <p>To write the fields of a packet of the transport of this packet around a payload which has already been
+     * written in the given array at {@link #getPacketPayloadOffset() getPacketPayloadOffset}.</p>
+     *
+     * @param packet
+     *              The array which contains the payload.
+     * @param commandId
+     *              The command ID of the packet.
+     * @param payloadLength
+     *              The number of bytes of the payload.
+     *
+     * @throws GaiaException for type {@link GaiaException.Type#PAYLOAD_LENGTH_TOO_LONG}.
+     */
+    abstract void writePacket(byte[] packet, int commandId, int payloadLength) throws GaiaException;
+
+    /**
+     * <p>To get the length of the payload of the acknowledgement packet which corresponds to this packet: the status
+     * followed by the given value, truncated to the maximum length of a payload.</p>
+     */
+    private int getAcknowledgementPayloadLength(byte[] value) {
+        final int STATUS_LENGTH = 1;
+
+        if (value == null) {
+            return STATUS_LENGTH;
+        }
+        int maxLength = getPayloadMaxLength();
+        return STATUS_LENGTH + (value.length < maxLength ? value.length : maxLength);
+    }
+
     /**
      * <p>To build a Notification packet.</p>
      * <p>The packet is built according to the definition of a GAIA Notification Packet. The first byte of the
@@ -30,6 +30,18 @@ public class GaiaPacketBLE extends GaiaPacket {
      * <p>The BLE data length maximum for a packet is 20.</p>
      */
     public static final int MAX_PAYLOAD = 16;
+    /**
+     * <p>The maximum length for the packet payload when a bigger ATT MTU has been exchanged with the device.</p>
+     * <p>The value of an attribute cannot be longer than 512 bytes. Only the packets written with the negotiated
+     * payload length, see {@link #writeFrame(byte[], int, int, int, int) writeFrame}, can be that long: the other
+     * packets are limited to {@link #MAX_PAYLOAD MAX_PAYLOAD}.</p>
+     */
+    public static final int MAX_EXTENDED_PAYLOAD = 508;
+    /**
+     * <p>The number of bytes of an ATT MTU which are used by the ATT operation code and attribute handle when a
+     * characteristic value is written or notified.</p>
+     */
+    private static final int ATT_HEADER_LENGTH = 3;
     /**
      * <p>The offset for the bytes which represents the vendor id in the byte structure.</p>
      */
@@ -49,30 +61,43 @@ public class GaiaPacketBLE extends GaiaPacket {
     /**
      * <p>The offset for the bytes which represents the payload in the byte structure.</p>
      */
-    private static final int OFFSET_PAYLOAD = 4;
+    public static final int OFFSET_PAYLOAD = 4;
 
     /**
      * <p>Constructor that builds a packet from a byte sequence.</p>
+     * <p>The packet is a view of the given bytes, see {@link #GaiaPacketBLE(byte[], int, int) GaiaPacketBLE}.</p>
      *
      * @param source
      *            Array of bytes to build the command from.
      */
     public GaiaPacketBLE(byte[] source) throws GaiaException {
-        int payloadLength = source.length - OFFSET_PAYLOAD;
+        this(source, 0, source.length);
+    }
+
+    /**
+     * <p>Constructor that builds a packet from a part of a byte array, for instance a receive buffer.</p>
+     * <p>The payload is not copied: the packet reads it in the given array which must not be modified while the
+     * packet is used.</p>
+     *
+     * @param source
+     *            Array of bytes which contains the packet.
+     * @param offset
+     *            The offset of the packet in the array.
+     * @param length
+     *            The number of bytes of the packet.
+     */
+    public GaiaPacketBLE(byte[] source, int offset, int length) throws GaiaException {
+        int payloadLength = length - OFFSET_PAYLOAD;
 
         if (payloadLength < 0) {
             throw new GaiaException(GaiaException.Type.PACKET_PAYLOAD_INVALID_PARAMETER);
         }
 
-        mVendorId = GaiaUtils.extractIntFromByteArray(source, OFFSET_VENDOR_ID, LENGTH_VENDOR_ID, false);
-        mCommandId = GaiaUtils.extractIntFromByteArray(source, OFFSET_COMMAND_ID, LENGTH_COMMAND_ID, false);
-
-        if (payloadLength > 0) {
-            mPayload = new byte[payloadLength];
-            System.arraycopy(source, OFFSET_PAYLOAD, mPayload, 0, payloadLength);
-        }
+        mVendorId = GaiaUtils.extractIntFromByteArray(source, offset + OFFSET_VENDOR_ID, LENGTH_VENDOR_ID, false);
+        mCommandId = GaiaUtils.extractIntFromByteArray(source, offset + OFFSET_COMMAND_ID, LENGTH_COMMAND_ID,
+                false);
 
-        this.mBytes = source;
+        setSource(source, offset, length, payloadLength);
     }
 
     /**
@@ -143,18 +168,133 @@ public class GaiaPacketBLE extends GaiaPacket {
             throw new GaiaException(GaiaException.Type.PAYLOAD_LENGTH_TOO_LONG);
         }
 
-        int length = payload.length + OFFSET_PAYLOAD;
-        byte[] bytes = new byte[length];
-
-        GaiaUtils.copyIntIntoByteArray(mVendorId, bytes, OFFSET_VENDOR_ID, LENGTH_VENDOR_ID, false);
-        GaiaUtils.copyIntIntoByteArray(commandId, bytes, OFFSET_COMMAND_ID, LENGTH_COMMAND_ID, false);
+        byte[] bytes = new byte[getFrameLength(payload.length)];
         System.arraycopy(payload, 0, bytes, OFFSET_PAYLOAD, payload.length);
+        writeFrame(bytes, mVendorId, commandId, payload.length);
 
         return bytes;
     }
 
+    /**
+     * <p>To get the number of bytes of a GAIA packet over BLE for the given payload length.</p>
+     *
+     * @param payloadLength
+     *              The number of bytes of the payload.
+     *
+     * @return the length of the packet.
+     */
+    public static int getFrameLength(int payloadLength) {
+        return payloadLength + OFFSET_PAYLOAD;
+    }
+
+    /**
+     * <p>To get the maximum length of the payload of a GAIA packet which fits in a single ATT packet for the given
+     * ATT MTU.</p>
+     * <p>A payload longer than {@link #MAX_PAYLOAD MAX_PAYLOAD} must only be sent once a bigger MTU has been
+     * exchanged with the device.</p>
+     *
+     * @param mtu
+     *              The ATT MTU of the connection.
+     *
+     * @return the maximum payload length, between {@link #MAX_PAYLOAD MAX_PAYLOAD} and
+     * {@link #MAX_EXTENDED_PAYLOAD MAX_EXTENDED_PAYLOAD}.
+     */
+    public static int getMaxPayload(int mtu) {
+        int payload = mtu - ATT_HEADER_LENGTH - OFFSET_PAYLOAD;
+        return payload < MAX_PAYLOAD ? MAX_PAYLOAD : payload > MAX_EXTENDED_PAYLOAD ? MAX_EXTENDED_PAYLOAD : payload;
+    }
+
+    /**
+     * <p>To write the fields of a GAIA packet over BLE around a payload which has already been written in the given
+     * array at {@link #OFFSET_PAYLOAD OFFSET_PAYLOAD}.</p>
+     * <p>This method does not allocate any memory: it allows to reuse an array to send several packets.</p>
+     * <p>The payload cannot be longer than {@link #MAX_PAYLOAD MAX_PAYLOAD}, see
+     * {@link #writeFrame(byte[], int, int, int, int) writeFrame} for the links which have exchanged a bigger ATT
+     * MTU.</p>
+     *
+     * @param frame
+     *              The array which contains the payload, its length must be
+     *              {@link #getFrameLength(int) getFrameLength(payloadLength)}.
+     * @param vendorId
+     *              The vendor ID of the packet.
+     * @param commandId
+     *              The command ID of the packet.
+     * @param payloadLength
+     *              The number of bytes of the payload.
+     *
+     * @throws GaiaException If any issue occurs during the built of the bytes, A GaiaException is thrown with types:
+     * <ul>
+     *     <li>{@link GaiaException.Type#PAYLOAD_LENGTH_TOO_LONG}</li>
+     * </ul>
+     */
+    public static void writeFrame(byte[] frame, int vendorId, int commandId, int payloadLength)
+            throws GaiaException {
+        writeFrame(frame, vendorId, commandId, payloadLength, MAX_PAYLOAD);
+    }
+
+    /**
+     * <p>To write the fields of a GAIA packet over BLE around a payload which has already been written in the given
+     * array at {@link #OFFSET_PAYLOAD OFFSET_PAYLOAD}, for a link which can carry the given payload length.</p>
+     * <p>A packet longer than the ATT MTU of the link is not sent by the device: the payload is checked against the
+     * length negotiated with the device, see {@link #getMaxPayload(int) getMaxPayload}.</p>
+     *
+     * @param frame
+     *              The array which contains the payload, its length must be
+     *              {@link #getFrameLength(int) getFrameLength(payloadLength)}.
+     * @param vendorId
+     *              The vendor ID of the packet.
+     * @param commandId
+     *              The command ID of the packet.
+     * @param payloadLength
+     *              The number of bytes of the payload.
+     * @param maxPayloadLength
+     *              The maximum payload length of the link, it is reduced to
+     *              {@link #MAX_EXTENDED_PAYLOAD MAX_EXTENDED_PAYLOAD}.
+     *
+     * @throws GaiaException If any issue occurs during the built of the bytes, A GaiaException is thrown with types:
+     * <ul>
+     *     <li>{@link GaiaException.Type#PAYLOAD_LENGTH_TOO_LONG}</li>
+     * </ul>
+     */
+    public static void writeFrame(byte[] frame, int vendorId, int commandId, int payloadLength,
+                                  int maxPayloadLength) throws GaiaException {
+        if (payloadLength > maxPayloadLength || payloadLength > MAX_EXTENDED_PAYLOAD) {
+            throw new GaiaException(GaiaException.Type.PAYLOAD_LENGTH_TOO_LONG);
+        }
+
+        GaiaUtils.copyIntIntoByteArray(vendorId, frame, OFFSET_VENDOR_ID, LENGTH_VENDOR_ID, false);
+        GaiaUtils.copyIntIntoByteArray(commandId, frame, OFFSET_COMMAND_ID, LENGTH_COMMAND_ID, false);
+    }
+
+    /**
+     * <p>To get the command ID of a GAIA packet over BLE without building the packet.</p>
+     *
+     * @param source
+     *              The bytes of the packet.
+     *
+     * @return The command ID including the ACK bit.
+     */
+    public static int getCommandId(byte[] source) {
+        return GaiaUtils.extractIntFromByteArray(source, OFFSET_COMMAND_ID, LENGTH_COMMAND_ID, false);
+    }
+
     @Override
     int getPayloadMaxLength() {
         return MAX_PAYLOAD;
     }
+
+    @Override
+    int getPacketLength(int payloadLength) {
+        return getFrameLength(payloadLength);
+    }
+
+    @Override
+    int getPacketPayloadOffset() {
+        return OFFSET_PAYLOAD;
+    }
+
+    @Override
+    void writePacket(byte[] packet, int commandId, int payloadLength) throws GaiaException {
+        writeFrame(packet, mVendorId, commandId, payloadLength);
+    }
 }
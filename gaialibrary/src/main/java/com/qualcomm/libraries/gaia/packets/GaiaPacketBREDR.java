@@ -133,27 +133,40 @@ public class GaiaPacketBREDR extends GaiaPacket {
 
     /**
      * <p>Constructor that builds a command from a byte sequence.</p>
+     * <p>The packet is a view of the given bytes, see {@link #GaiaPacketBREDR(byte[], int, int) GaiaPacketBREDR}.</p>
      *
      * @param source
      *            Array of bytes to build the command from.
      */
     public GaiaPacketBREDR(byte[] source) {
-        int flags = source[OFFSET_FLAGS];
-        int payloadLength = source.length - OFFSET_PAYLOAD;
+        this(source, 0, source.length);
+    }
+
+    /**
+     * <p>Constructor that builds a command from a part of a byte array, for instance a receive buffer.</p>
+     * <p>The payload is not copied: the packet reads it in the given array which must not be modified while the
+     * packet is used.</p>
+     *
+     * @param source
+     *            Array of bytes which contains the command.
+     * @param offset
+     *            The offset of the command in the array.
+     * @param length
+     *            The number of bytes of the command.
+     */
+    public GaiaPacketBREDR(byte[] source, int offset, int length) {
+        int flags = source[offset + OFFSET_FLAGS];
+        int payloadLength = length - OFFSET_PAYLOAD;
 
         if ((flags & FLAG_CHECK_MASK) != 0) {
             --payloadLength;
         }
 
-        mVendorId = GaiaUtils.extractIntFromByteArray(source, OFFSET_VENDOR_ID, LENGTH_VENDOR_ID, false);
-        mCommandId = GaiaUtils.extractIntFromByteArray(source, OFFSET_COMMAND_ID, LENGTH_COMMAND_ID, false);
+        mVendorId = GaiaUtils.extractIntFromByteArray(source, offset + OFFSET_VENDOR_ID, LENGTH_VENDOR_ID, false);
+        mCommandId = GaiaUtils.extractIntFromByteArray(source, offset + OFFSET_COMMAND_ID, LENGTH_COMMAND_ID,
+                false);
 
-        if (payloadLength > 0) {
-            mPayload = new byte[payloadLength];
-            System.arraycopy(source, OFFSET_PAYLOAD, mPayload, 0, payloadLength);
-        }
-
-        this.mBytes = source;
+        setSource(source, offset, length, payloadLength > 0 ? payloadLength : 0);
     }
 
     /**
@@ -249,33 +262,107 @@ public class GaiaPacketBREDR extends GaiaPacket {
             throw new GaiaException(GaiaException.Type.PAYLOAD_LENGTH_TOO_LONG);
         }
 
-        int length = payload.length + OFFSET_PAYLOAD + (mHasChecksum ? CHECK_LENGTH : 0);
-        byte[] bytes = new byte[length];
+        byte[] bytes = new byte[getFrameLength(payload.length, mHasChecksum)];
+        System.arraycopy(payload, 0, bytes, OFFSET_PAYLOAD, payload.length);
+        writeFrame(bytes, mVendorId, commandId, payload.length, mHasChecksum);
 
-        bytes[OFFSET_SOF] = SOF;
-        bytes[OFFSET_VERSION] = PROTOCOL_VERSION;
-        bytes[OFFSET_FLAGS] = mHasChecksum ? (byte) 0x01 : 0x00;
-        bytes[OFFSET_LENGTH] = (byte) payload.length;
+        return bytes;
+    }
 
-        GaiaUtils.copyIntIntoByteArray(mVendorId, bytes, OFFSET_VENDOR_ID, LENGTH_VENDOR_ID, false);
-        GaiaUtils.copyIntIntoByteArray(commandId, bytes, OFFSET_COMMAND_ID, LENGTH_COMMAND_ID, false);
+    /**
+     * <p>To get the number of bytes of a GAIA packet over BR/EDR for the given payload length.</p>
+     *
+     * @param payloadLength
+     *              The number of bytes of the payload.
+     * @param hasChecksum
+     *              True if the packet contains a checksum.
+     *
+     * @return the length of the packet.
+     */
+    public static int getFrameLength(int payloadLength, boolean hasChecksum) {
+        return payloadLength + OFFSET_PAYLOAD + (hasChecksum ? CHECK_LENGTH : 0);
+    }
 
-        System.arraycopy(payload, 0, bytes, OFFSET_PAYLOAD, payload.length);
+    /**
+     * <p>To write the fields of a GAIA packet over BR/EDR around a payload which has already been written in the
+     * given array at {@link #OFFSET_PAYLOAD OFFSET_PAYLOAD}. If the packet has a checksum, it is calculated over
+     * all the bytes of the packet.</p>
+     * <p>This method does not allocate any memory: it allows to reuse an array to send several packets.</p>
+     *
+     * @param frame
+     *              The array which contains the payload, its length must be
+     *              {@link #getFrameLength(int, boolean) getFrameLength(payloadLength, hasChecksum)}.
+     * @param vendorId
+     *              The vendor ID of the packet.
+     * @param commandId
+     *              The command ID of the packet.
+     * @param payloadLength
+     *              The number of bytes of the payload.
+     * @param hasChecksum
+     *              True to add a checksum at the end of the packet.
+     *
+     * @throws GaiaException If any issue occurs during the building of the bytes, A GaiaException is thrown with
+     * types:
+     * <ul>
+     *     <li>{@link GaiaException.Type#PAYLOAD_LENGTH_TOO_LONG}</li>
+     * </ul>
+     */
+    public static void writeFrame(byte[] frame, int vendorId, int commandId, int payloadLength,
+                                  boolean hasChecksum) throws GaiaException {
+        // if the payload is bigger than the maximum size: packet won't be sent.
+        if (payloadLength > MAX_PAYLOAD) {
+            throw new GaiaException(GaiaException.Type.PAYLOAD_LENGTH_TOO_LONG);
+        }
+
+        int length = getFrameLength(payloadLength, hasChecksum);
+
+        frame[OFFSET_SOF] = SOF;
+        frame[OFFSET_VERSION] = PROTOCOL_VERSION;
+        frame[OFFSET_FLAGS] = hasChecksum ? (byte) FLAG_CHECK_MASK : 0x00;
+        frame[OFFSET_LENGTH] = (byte) payloadLength;
+
+        GaiaUtils.copyIntIntoByteArray(vendorId, frame, OFFSET_VENDOR_ID, LENGTH_VENDOR_ID, false);
+        GaiaUtils.copyIntIntoByteArray(commandId, frame, OFFSET_COMMAND_ID, LENGTH_COMMAND_ID, false);
 
         // if there is a checksum, calculating the checksum value
-        if (mHasChecksum) {
+        if (hasChecksum) {
             byte check = 0;
             for (int i=0; i < length-1; i++) {
-                check ^= bytes[i];
+                check ^= frame[i];
             }
-            bytes[length-1] = check;
+            frame[length-1] = check;
         }
+    }
 
-        return bytes;
+    /**
+     * <p>To get the command ID of a GAIA packet over BR/EDR without building the packet.</p>
+     *
+     * @param source
+     *              The bytes of the packet.
+     *
+     * @return The command ID including the ACK bit.
+     */
+    public static int getCommandId(byte[] source) {
+        return GaiaUtils.extractIntFromByteArray(source, OFFSET_COMMAND_ID, LENGTH_COMMAND_ID, false);
     }
 
     @Override
     int getPayloadMaxLength() {
         return MAX_PAYLOAD;
     }
+
+    @Override
+    int getPacketLength(int payloadLength) {
+        return getFrameLength(payloadLength, mHasChecksum);
+    }
+
+    @Override
+    int getPacketPayloadOffset() {
+        return OFFSET_PAYLOAD;
+    }
+
+    @Override
+    void writePacket(byte[] packet, int commandId, int payloadLength) throws GaiaException {
+        writeFrame(packet, mVendorId, commandId, payloadLength, mHasChecksum);
+    }
 }
@@ -0,0 +1,212 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.gaia.packets;
+
+import com.qualcomm.libraries.gaia.GAIA;
+import com.qualcomm.libraries.gaia.GaiaException;
+
+/**
+ * <p>This class builds the bytes of GAIA packets in arrays which are reused from one packet to another.</p>
+ * <p>The bytes of a packet are written in an array of the exact length of the packet: the builder keeps up to
+ * {@link #DEFAULT_POOL_SIZE DEFAULT_POOL_SIZE} - or the size given to its constructor - free arrays for each length.
+ * An array is only reused once it has been given back with {@link #release(byte[]) release}: the owner of the bytes
+ * must release them once they cannot be read anymore, for instance once the packet has been written to the
+ * transport and acknowledged. Bytes which are never released are collected as any other array.</p>
+ * <p>The packets of both transports are built by the same builder: the format is the one of the
+ * {@link GaiaPacket GaiaPacket} which is given.</p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class GaiaPacketBuilder {
+
+    // ====== CONSTS FIELDS ========================================================================
+
+    /**
+     * <p>The default number of free arrays kept for each packet length.</p>
+     */
+    public static final int DEFAULT_POOL_SIZE = 4;
+    /**
+     * <p>The length of the longest GAIA packet: arrays which are longer are never kept.</p>
+     */
+    private static final int MAX_PACKET_LENGTH = GaiaPacketBLE.getFrameLength(GaiaPacketBLE.MAX_EXTENDED_PAYLOAD);
+
+
+    // ====== PRIVATE FIELDS =======================================================================
+
+    /**
+     * <p>The number of free arrays kept for each packet length.</p>
+     */
+    private final int mPoolSize;
+    /**
+     * <p>The free arrays indexed by their length. The pool of a length is only created once an array of that length
+     * is released.</p>
+     */
+    private final byte[][][] mPools = new byte[MAX_PACKET_LENGTH + 1][][];
+    /**
+     * <p>The number of free arrays in each pool.</p>
+     */
+    private final int[] mPoolCounts = new int[MAX_PACKET_LENGTH + 1];
+    /**
+     * <p>The number of arrays which have been allocated by this builder.</p>
+     */
+    private int mAllocated = 0;
+    /**
+     * <p>The number of arrays which have been reused by this builder.</p>
+     */
+    private int mReused = 0;
+
+
+    // ====== CONSTRUCTORS =========================================================================
+
+    /**
+     * <p>To build a builder which keeps {@link #DEFAULT_POOL_SIZE DEFAULT_POOL_SIZE} free arrays for each packet
+     * length.</p>
+     */
+    public GaiaPacketBuilder() {
+        this(DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * <p>To build a builder which keeps the given number of free arrays for each packet length.</p>
+     *
+     * @param poolSize
+     *          The number of free arrays to keep for each length, 0 to never reuse an array.
+     */
+    public GaiaPacketBuilder(int poolSize) {
+        mPoolSize = Math.max(0, poolSize);
+    }
+
+
+    // ====== PUBLIC METHODS =======================================================================
+
+    /**
+     * <p>To build the bytes of a packet.</p>
+     *
+     * @param packet
+     *          The packet to build the bytes for.
+     *
+     * @return An array which contains the bytes of the packet and which should be
+     * {@link #release(byte[]) released} once it is not used anymore.
+     *
+     * @throws GaiaException for type {@link GaiaException.Type#PAYLOAD_LENGTH_TOO_LONG}.
+     */
+    public byte[] build(GaiaPacket packet) throws GaiaException {
+        byte[] bytes = acquire(packet.getPacketLength(packet.getPayloadLength()));
+        try {
+            packet.writePacket(bytes);
+        }
+        catch (GaiaException e) {
+            release(bytes);
+            throw e;
+        }
+        return bytes;
+    }
+
+    /**
+     * <p>To build the bytes of the acknowledgement packet which corresponds to a packet. See
+     * {@link GaiaPacket#getAcknowledgementPacketBytes(int, byte[]) getAcknowledgementPacketBytes}.</p>
+     *
+     * @param packet
+     *          The packet to acknowledge.
+     * @param status
+     *          The status for the acknowledgement packet.
+     * @param value
+     *          The parameters to specify for the acknowledgement packet.
+     *
+     * @return An array which contains the bytes of the acknowledgement packet and which should be
+     * {@link #release(byte[]) released} once it is not used anymore.
+     *
+     * @throws GaiaException for types:
+     * <ul>
+     *     <li>{@link GaiaException.Type#PAYLOAD_LENGTH_TOO_LONG}</li>
+     *     <li>{@link GaiaException.Type#PACKET_IS_ALREADY_AN_ACKNOWLEDGEMENT}</li>
+     * </ul>
+     */
+    public byte[] buildAcknowledgement(GaiaPacket packet, @GAIA.Status int status, byte[] value)
+            throws GaiaException {
+        byte[] bytes = acquire(packet.getAcknowledgementPacketLength(value));
+        try {
+            packet.writeAcknowledgementPacket(bytes, status, value);
+        }
+        catch (GaiaException e) {
+            release(bytes);
+            throw e;
+        }
+        return bytes;
+    }
+
+    /**
+     * <p>To give back an array built by this builder: it is reused for the next packet of the same length. The
+     * array must not be used by the caller anymore.</p>
+     *
+     * @param bytes
+     *          The array to give back.
+     */
+    public synchronized void release(byte[] bytes) {
+        int length = bytes.length;
+        if (length > MAX_PACKET_LENGTH || mPoolCounts[length] >= mPoolSize) {
+            return;
+        }
+
+        byte[][] pool = mPools[length];
+        if (pool == null) {
+            pool = new byte[mPoolSize][];
+            mPools[length] = pool;
+        }
+        for (int i = 0; i < mPoolCounts[length]; i++) {
+            if (pool[i] == bytes) {
+                // already released
+                return;
+            }
+        }
+        pool[mPoolCounts[length]++] = bytes;
+    }
+
+    /**
+     * <p>To forget all the free arrays.</p>
+     */
+    public synchronized void clear() {
+        for (int length = 0; length <= MAX_PACKET_LENGTH; length++) {
+            mPools[length] = null;
+            mPoolCounts[length] = 0;
+        }
+    }
+
+    /**
+     * <p>To get the number of arrays which have been allocated by this builder.</p>
+     */
+    public synchronized int getAllocated() {
+        return mAllocated;
+    }
+
+    /**
+     * <p>To get the number of arrays which have been reused by this builder.</p>
+     */
+    public synchronized int getReused() {
+        return mReused;
+    }
+
+    @Override // Object
+    public synchronized String toString() {
+        return "allocated=" + mAllocated + ", reused=" + mReused;
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    /**
+     * <p>To get a free array of the given length or to allocate one if there is none.</p>
+     */
+    private synchronized byte[] acquire(int length) {
+        if (length <= MAX_PACKET_LENGTH && mPoolCounts[length] > 0) {
+            byte[][] pool = mPools[length];
+            byte[] bytes = pool[--mPoolCounts[length]];
+            pool[mPoolCounts[length]] = null;
+            mReused++;
+            return bytes;
+        }
+        mAllocated++;
+        return new byte[length];
+    }
+}
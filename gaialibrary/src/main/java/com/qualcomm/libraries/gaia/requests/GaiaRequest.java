@@ -6,9 +6,11 @@ package com.qualcomm.libraries.gaia.requests;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.List;
 
 import android.support.annotation.IntDef;
 
+import com.qualcomm.libraries.gaia.GaiaCall;
 import com.qualcomm.libraries.gaia.packets.GaiaPacket;
 
 /**
@@ -36,6 +38,30 @@ public class GaiaRequest {
      */
     public GaiaPacket packet;
 
+    /**
+     * If this request sends bytes which have already been built, the bytes to send. In that case the
+     * {@link #packet packet} is only built from these bytes if it is needed.
+     */
+    public byte[] bytes;
+
+    /**
+     * True if the {@link #bytes bytes} have been built by the packet builder of the manager when the request has been
+     * sent: they are given back to the builder once the request has been acknowledged.
+     */
+    public boolean pooled;
+
+    /**
+     * If this request has been created as a call, the call to complete with the acknowledgement of the request. The
+     * acknowledgement of a request without a call is dispatched to the abstract methods of the manager.
+     */
+    public GaiaCall call;
+
+    /**
+     * If this request is a read which has been sent, the identical reads which have been attached to it instead of
+     * being sent: they get the acknowledgement of this request.
+     */
+    public List<GaiaRequest> followers;
+
     /**
      * To build a new object of the type request.
      */
@@ -0,0 +1,199 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.gaia;
+
+import com.qualcomm.libraries.gaia.packets.GaiaPacket;
+import com.qualcomm.libraries.gaia.packets.GaiaPacketBLE;
+import com.qualcomm.libraries.scheduler.VirtualScheduler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Unit tests for the {@link GaiaCall GaiaCall} API of the {@link GaiaManager GaiaManager}.</p>
+ */
+public class GaiaCallTest {
+
+    private final VirtualScheduler mScheduler = new VirtualScheduler();
+    private final GaiaTrafficPolicy mPolicy = new GaiaTrafficPolicy();
+    private final List<String> mEvents = new ArrayList<>();
+    private TestGaiaManager mManager;
+
+    @Before
+    public void setUp() {
+        mManager = new TestGaiaManager();
+        mManager.setTrafficPolicy(mPolicy);
+        mManager.setRequestScheduler(null);
+        mManager.setReadCache(null);
+    }
+
+    @Test
+    public void call_isCompletedByItsAcknowledgementOnly() throws Exception {
+        GaiaCall call = mManager.call(GAIA.COMMAND_GET_API_VERSION, 0).addCallback(new Record("call"));
+        mManager.send(GAIA.COMMAND_GET_LED_CONTROL);
+
+        mManager.onReceiveGAIAPacket(acknowledgement(GAIA.COMMAND_GET_LED_CONTROL, GAIA.Status.SUCCESS));
+        mManager.onReceiveGAIAPacket(acknowledgement(GAIA.COMMAND_GET_API_VERSION, GAIA.Status.INCORRECT_STATE));
+
+        assertEquals("[manager ack 287, call 1]", mEvents.toString());
+        assertEquals(GaiaCall.State.ACKNOWLEDGED, call.getState());
+        assertEquals(GAIA.Status.INCORRECT_STATE, call.getStatus());
+        assertFalse(call.isSuccessful());
+        assertEquals(GAIA.COMMAND_GET_API_VERSION, call.get().getCommand());
+    }
+
+    @Test
+    public void calls_forTheSameCommandAreMatchedInOrder() throws GaiaException {
+        GaiaCall first = mManager.call(GAIA.COMMAND_GET_API_VERSION, 0);
+        GaiaCall second = mManager.call(GAIA.COMMAND_GET_API_VERSION, 0);
+
+        mManager.onReceiveGAIAPacket(acknowledgement(GAIA.COMMAND_GET_API_VERSION, GAIA.Status.SUCCESS));
+        assertTrue(first.isSuccessful());
+        assertFalse(second.isDone());
+        mManager.onReceiveGAIAPacket(acknowledgement(GAIA.COMMAND_GET_API_VERSION, GAIA.Status.SUCCESS));
+        assertTrue(second.isSuccessful());
+    }
+
+    @Test
+    public void call_timesOutWithItsOwnTimeOut() {
+        GaiaCall quick = mManager.call(GAIA.COMMAND_GET_API_VERSION, 1000).addCallback(new Record("quick"));
+        GaiaCall normal = mManager.call(GAIA.COMMAND_GET_LED_CONTROL, 0).addCallback(new Record("normal"));
+
+        mScheduler.advanceBy(1000);
+        assertEquals("[quick 2]", mEvents.toString());
+        assertEquals(GaiaCall.State.TIMED_OUT, quick.getState());
+        assertFalse(normal.isDone());
+        mScheduler.advanceBy(GaiaManager.ACKNOWLEDGEMENT_RUNNABLE_DEFAULT_DELAY_MILLIS);
+        // the manager is not told about the time outs of the calls
+        assertEquals("[quick 2, normal 2]", mEvents.toString());
+    }
+
+    @Test
+    public void all_completesOnceEveryCallIsComplete() throws GaiaException {
+        GaiaCall version = mManager.call(GAIA.COMMAND_GET_API_VERSION, 0);
+        GaiaCall led = mManager.call(GAIA.COMMAND_GET_LED_CONTROL, 0);
+        GaiaCallGroup group = GaiaCall.all(version, led).addCallback(new GaiaCallGroup.Callback() {
+            @Override // GaiaCallGroup.Callback
+            public void onComplete(GaiaCallGroup group) {
+                mEvents.add("group " + group.isSuccessful());
+            }
+        });
+
+        mManager.onReceiveGAIAPacket(acknowledgement(GAIA.COMMAND_GET_LED_CONTROL, GAIA.Status.SUCCESS));
+        assertFalse(group.isDone());
+        mManager.onReceiveGAIAPacket(acknowledgement(GAIA.COMMAND_GET_API_VERSION, GAIA.Status.SUCCESS));
+        assertTrue(group.isDone());
+        assertEquals("[group true]", mEvents.toString());
+        assertEquals(2, group.getCalls().size());
+    }
+
+    @Test
+    public void reset_cancelsThePendingCalls() throws Exception {
+        GaiaCall call = mManager.call(GAIA.COMMAND_GET_API_VERSION, 0);
+        mManager.reset();
+
+        assertTrue(call.isCancelled());
+        try {
+            call.get();
+            fail("A cancelled call has no result.");
+        }
+        catch (CancellationException e) {
+            // expected
+        }
+        // a late acknowledgement is ignored
+        mManager.onReceiveGAIAPacket(acknowledgement(GAIA.COMMAND_GET_API_VERSION, GAIA.Status.SUCCESS));
+        assertTrue(mEvents.isEmpty());
+    }
+
+    @Test
+    public void deferredRequests_shareTheAcknowledgementOfTheRequestWhichReplacesThem() throws GaiaException {
+        mPolicy.startUpgradeSession();
+        mManager.send(GAIA.COMMAND_GET_CURRENT_BATTERY_LEVEL);
+        GaiaCall first = mManager.call(GAIA.COMMAND_GET_CURRENT_BATTERY_LEVEL, 0);
+        GaiaCall second = mManager.call(GAIA.COMMAND_GET_CURRENT_BATTERY_LEVEL, 0);
+        mPolicy.endUpgradeSession();
+        mScheduler.runDueTasks();
+
+        assertEquals(1, mManager.mSent);
+        mManager.onReceiveGAIAPacket(acknowledgement(GAIA.COMMAND_GET_CURRENT_BATTERY_LEVEL, GAIA.Status.SUCCESS));
+        assertTrue(first.isSuccessful());
+        assertTrue(second.isSuccessful());
+        assertEquals("[manager ack 302]", mEvents.toString());
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    private static byte[] acknowledgement(int command, int status) throws GaiaException {
+        byte[] payload = { (byte) status };
+        return new GaiaPacketBLE(GAIA.VENDOR_QUALCOMM, command | GAIA.ACKNOWLEDGMENT_MASK, payload).getBytes();
+    }
+
+
+    // ====== INNER CLASSES ========================================================================
+
+    private class Record implements GaiaCall.Callback {
+
+        private final String mName;
+
+        private Record(String name) {
+            mName = name;
+        }
+
+        @Override // GaiaCall.Callback
+        public void onComplete(GaiaCall call) {
+            mEvents.add(mName + " " + call.getState());
+        }
+    }
+
+    private class TestGaiaManager extends GaiaManager {
+
+        private int mSent = 0;
+
+        private TestGaiaManager() {
+            super(GAIA.Transport.BLE, mScheduler);
+        }
+
+        private void send(int command) {
+            createRequest(new GaiaPacketBLE(GAIA.VENDOR_QUALCOMM, command));
+        }
+
+        private GaiaCall call(int command, long timeOut) {
+            return createCall(new GaiaPacketBLE(GAIA.VENDOR_QUALCOMM, command), timeOut);
+        }
+
+        @Override // GaiaManager
+        protected void receiveSuccessfulAcknowledgement(GaiaPacket packet) {
+            mEvents.add("manager ack " + Integer.toHexString(packet.getCommand()));
+        }
+
+        @Override // GaiaManager
+        protected void receiveUnsuccessfulAcknowledgement(GaiaPacket packet) {
+            mEvents.add("manager nack " + Integer.toHexString(packet.getCommand()));
+        }
+
+        @Override // GaiaManager
+        protected boolean manageReceivedPacket(GaiaPacket packet) {
+            return false;
+        }
+
+        @Override // GaiaManager
+        protected void hasNotReceivedAcknowledgementPacket(GaiaPacket packet) {
+            mEvents.add("manager time out " + Integer.toHexString(packet.getCommand()));
+        }
+
+        @Override // GaiaManager
+        protected boolean sendGAIAPacket(byte[] packet) {
+            mSent++;
+            return true;
+        }
+    }
+}
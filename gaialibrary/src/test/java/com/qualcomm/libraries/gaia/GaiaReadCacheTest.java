@@ -0,0 +1,183 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.gaia;
+
+import com.qualcomm.libraries.gaia.packets.GaiaPacket;
+import com.qualcomm.libraries.gaia.packets.GaiaPacketBLE;
+import com.qualcomm.libraries.scheduler.VirtualScheduler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Unit tests for the {@link GaiaReadCache GaiaReadCache} and the coalescing of the reads by the
+ * {@link GaiaManager GaiaManager}.</p>
+ */
+public class GaiaReadCacheTest {
+
+    private static final long TIME_TO_LIVE = 500;
+
+    private final VirtualScheduler mScheduler = new VirtualScheduler();
+    private final GaiaReadCache mCache = new GaiaReadCache();
+    private final List<String> mEvents = new ArrayList<>();
+    private TestGaiaManager mManager;
+
+    @Before
+    public void setUp() {
+        mCache.setTimeToLive(TIME_TO_LIVE);
+        mManager = new TestGaiaManager();
+        mManager.setTrafficPolicy(null);
+        mManager.setRequestScheduler(null);
+        mManager.setReadCache(mCache);
+    }
+
+    @Test
+    public void identicalReads_areSentOnceAndShareTheAcknowledgement() throws GaiaException {
+        mManager.send(GAIA.COMMAND_GET_API_VERSION, null);
+        GaiaCall call = mManager.call(GAIA.COMMAND_GET_API_VERSION);
+        mManager.send(GAIA.COMMAND_GET_API_VERSION, null);
+
+        assertEquals(1, mManager.mSent);
+        assertEquals(2, mCache.getCoalesced());
+        mManager.onReceiveGAIAPacket(acknowledgement(GAIA.COMMAND_GET_API_VERSION, GAIA.Status.SUCCESS));
+        assertEquals("[manager ack 300, manager ack 300]", mEvents.toString());
+        assertTrue(call.isSuccessful());
+        // the reads do not time out
+        mScheduler.advanceBy(GaiaManager.ACKNOWLEDGEMENT_RUNNABLE_DEFAULT_DELAY_MILLIS);
+        assertEquals(2, mEvents.size());
+    }
+
+    @Test
+    public void reads_withDifferentPayloads_areSentSeparately() throws GaiaException {
+        mManager.send(GAIA.COMMAND_GET_CURRENT_RSSI, new byte[] { 1 });
+        mManager.send(GAIA.COMMAND_GET_CURRENT_RSSI, new byte[] { 2 });
+        mManager.send(GAIA.COMMAND_GET_LED_CONTROL, null);
+        mManager.send(GAIA.COMMAND_GET_LED_CONTROL, null);
+
+        assertEquals(4, mManager.mSent);
+        assertEquals(0, mCache.getCoalesced());
+    }
+
+    @Test
+    public void acknowledgedRead_isAnsweredLocallyUntilItExpires() throws GaiaException {
+        mManager.send(GAIA.COMMAND_GET_CURRENT_BATTERY_LEVEL, null);
+        mManager.onReceiveGAIAPacket(acknowledgement(GAIA.COMMAND_GET_CURRENT_BATTERY_LEVEL, GAIA.Status.SUCCESS));
+
+        mScheduler.advanceBy(TIME_TO_LIVE - 1);
+        GaiaCall call = mManager.call(GAIA.COMMAND_GET_CURRENT_BATTERY_LEVEL);
+        // the answer is given on the scheduler of the manager
+        assertFalse(call.isDone());
+        mScheduler.runDueTasks();
+        assertTrue(call.isSuccessful());
+        assertEquals(1, mManager.mSent);
+        assertEquals(1, mCache.getHits());
+
+        mScheduler.advanceBy(1);
+        mManager.send(GAIA.COMMAND_GET_CURRENT_BATTERY_LEVEL, null);
+        assertEquals(2, mManager.mSent);
+    }
+
+    @Test
+    public void unsuccessfulAcknowledgement_isNotKept() throws GaiaException {
+        mManager.send(GAIA.COMMAND_GET_API_VERSION, null);
+        mManager.onReceiveGAIAPacket(acknowledgement(GAIA.COMMAND_GET_API_VERSION, GAIA.Status.INCORRECT_STATE));
+        mManager.send(GAIA.COMMAND_GET_API_VERSION, null);
+
+        assertEquals(2, mManager.mSent);
+        assertEquals(0, mCache.getHits());
+    }
+
+    @Test
+    public void reset_dropsTheAttachedReadsAndTheLocalAnswers() throws GaiaException {
+        mManager.send(GAIA.COMMAND_GET_CURRENT_RSSI, null);
+        mManager.onReceiveGAIAPacket(acknowledgement(GAIA.COMMAND_GET_CURRENT_RSSI, GAIA.Status.SUCCESS));
+        GaiaCall answered = mManager.call(GAIA.COMMAND_GET_CURRENT_RSSI);
+        mManager.send(GAIA.COMMAND_GET_API_VERSION, null);
+        GaiaCall attached = mManager.call(GAIA.COMMAND_GET_API_VERSION);
+
+        mManager.reset();
+        mScheduler.runDueTasks();
+        assertTrue(answered.isCancelled());
+        assertTrue(attached.isCancelled());
+        assertEquals("[manager ack 301]", mEvents.toString());
+
+        // the reads are sent again once the manager has been reset
+        mManager.send(GAIA.COMMAND_GET_API_VERSION, null);
+        assertEquals(3, mManager.mSent);
+    }
+
+    @Test
+    public void reset_forgetsTheAcknowledgementsOfTheDevice() throws GaiaException {
+        mManager.send(GAIA.COMMAND_GET_CURRENT_BATTERY_LEVEL, null);
+        mManager.onReceiveGAIAPacket(acknowledgement(GAIA.COMMAND_GET_CURRENT_BATTERY_LEVEL, GAIA.Status.SUCCESS));
+
+        // another device might be connected once the manager has been reset
+        mManager.reset();
+        mManager.send(GAIA.COMMAND_GET_CURRENT_BATTERY_LEVEL, null);
+
+        assertEquals(2, mManager.mSent);
+        assertEquals(0, mCache.getHits());
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    private static byte[] acknowledgement(int command, int status) throws GaiaException {
+        byte[] payload = { (byte) status };
+        return new GaiaPacketBLE(GAIA.VENDOR_QUALCOMM, command | GAIA.ACKNOWLEDGMENT_MASK, payload).getBytes();
+    }
+
+
+    // ====== INNER CLASSES ========================================================================
+
+    private class TestGaiaManager extends GaiaManager {
+
+        private int mSent = 0;
+
+        private TestGaiaManager() {
+            super(GAIA.Transport.BLE, mScheduler);
+        }
+
+        private void send(int command, byte[] payload) {
+            createRequest(payload == null ? new GaiaPacketBLE(GAIA.VENDOR_QUALCOMM, command)
+                    : new GaiaPacketBLE(GAIA.VENDOR_QUALCOMM, command, payload));
+        }
+
+        private GaiaCall call(int command) {
+            return createCall(new GaiaPacketBLE(GAIA.VENDOR_QUALCOMM, command));
+        }
+
+        @Override // GaiaManager
+        protected void receiveSuccessfulAcknowledgement(GaiaPacket packet) {
+            mEvents.add("manager ack " + Integer.toHexString(packet.getCommand()));
+        }
+
+        @Override // GaiaManager
+        protected void receiveUnsuccessfulAcknowledgement(GaiaPacket packet) {
+            mEvents.add("manager nack " + Integer.toHexString(packet.getCommand()));
+        }
+
+        @Override // GaiaManager
+        protected boolean manageReceivedPacket(GaiaPacket packet) {
+            return false;
+        }
+
+        @Override // GaiaManager
+        protected void hasNotReceivedAcknowledgementPacket(GaiaPacket packet) {
+            mEvents.add("manager time out " + Integer.toHexString(packet.getCommand()));
+        }
+
+        @Override // GaiaManager
+        protected boolean sendGAIAPacket(byte[] packet) {
+            mSent++;
+            return true;
+        }
+    }
+}
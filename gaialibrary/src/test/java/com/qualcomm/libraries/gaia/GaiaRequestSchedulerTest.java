@@ -0,0 +1,238 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.gaia;
+
+import com.qualcomm.libraries.gaia.GaiaTrafficPolicy.TrafficClass;
+import com.qualcomm.libraries.gaia.packets.GaiaPacket;
+import com.qualcomm.libraries.gaia.packets.GaiaPacketBLE;
+import com.qualcomm.libraries.gaia.requests.GaiaRequest;
+import com.qualcomm.libraries.scheduler.VirtualScheduler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Unit tests for the {@link GaiaRequestScheduler GaiaRequestScheduler} and for how a
+ * {@link GaiaManager GaiaManager} submits its requests to it.</p>
+ */
+public class GaiaRequestSchedulerTest {
+
+    private final GaiaRequestScheduler mRequestScheduler = new GaiaRequestScheduler(2);
+    private final List<String> mSent = new ArrayList<>();
+    private final VirtualScheduler mScheduler = new VirtualScheduler();
+
+    @Test
+    public void submit_queuesTheRequestsOnceTheLimitIsReached() {
+        TestClient client = new TestClient("a");
+        assertTrue(mRequestScheduler.submit(client, request(1), TrafficClass.NORMAL, 0));
+        assertTrue(mRequestScheduler.submit(client, request(2), TrafficClass.NORMAL, 0));
+        assertFalse(mRequestScheduler.submit(client, request(3), TrafficClass.NORMAL, 10));
+        assertFalse(mRequestScheduler.submit(client, request(4), TrafficClass.NORMAL, 20));
+        assertEquals(2, mRequestScheduler.getQueueDepth(TrafficClass.NORMAL));
+
+        mRequestScheduler.onRequestComplete(client, 50);
+        assertEquals("[a3]", mSent.toString());
+        mRequestScheduler.onRequestComplete(client, 100);
+        assertEquals("[a3, a4]", mSent.toString());
+        assertEquals(2, mRequestScheduler.getInFlight());
+
+        assertEquals(4, mRequestScheduler.getSubmitted(TrafficClass.NORMAL));
+        assertEquals(2, mRequestScheduler.getQueued(TrafficClass.NORMAL));
+        assertEquals(2, mRequestScheduler.getMaxQueueDepth(TrafficClass.NORMAL));
+        assertEquals(0, mRequestScheduler.getQueueDepth(TrafficClass.NORMAL));
+        assertEquals(80, mRequestScheduler.getMaxWaitTime(TrafficClass.NORMAL));
+        assertEquals((40 + 80) / 4, mRequestScheduler.getAverageWaitTime(TrafficClass.NORMAL));
+    }
+
+    @Test
+    public void queuedRequests_areServedByClassAndPriorityRequestsAreNeverQueued() {
+        TestClient client = new TestClient("a");
+        mRequestScheduler.submit(client, request(1), TrafficClass.NORMAL, 0);
+        mRequestScheduler.submit(client, request(2), TrafficClass.NORMAL, 0);
+        mRequestScheduler.submit(client, request(3), TrafficClass.BACKGROUND, 0);
+        mRequestScheduler.submit(client, request(4), TrafficClass.NORMAL, 0);
+        assertTrue(mRequestScheduler.submit(client, request(5), TrafficClass.PRIORITY, 0));
+        assertEquals(3, mRequestScheduler.getInFlight());
+
+        // the priority request keeps the limit reached
+        mRequestScheduler.onRequestComplete(client, 0);
+        assertTrue(mSent.isEmpty());
+        mRequestScheduler.onRequestComplete(client, 0);
+        mRequestScheduler.onRequestComplete(client, 0);
+        assertEquals("[a4, a3]", mSent.toString());
+    }
+
+    @Test
+    public void clients_areServedInTurn() {
+        TestClient a = new TestClient("a");
+        TestClient b = new TestClient("b");
+        mRequestScheduler.setMaxInFlight(1);
+        mRequestScheduler.submit(a, request(1), TrafficClass.NORMAL, 0);
+        mRequestScheduler.submit(a, request(2), TrafficClass.NORMAL, 0);
+        mRequestScheduler.submit(a, request(3), TrafficClass.NORMAL, 0);
+        mRequestScheduler.submit(b, request(1), TrafficClass.NORMAL, 0);
+        mRequestScheduler.submit(b, request(2), TrafficClass.NORMAL, 0);
+
+        mRequestScheduler.onRequestComplete(a, 0);
+        mRequestScheduler.onRequestComplete(a, 0);
+        mRequestScheduler.onRequestComplete(b, 0);
+        mRequestScheduler.onRequestComplete(a, 0);
+        assertEquals("[a2, b1, a3, b2]", mSent.toString());
+    }
+
+    @Test
+    public void reset_dropsTheRequestsOfTheClient() {
+        TestClient a = new TestClient("a");
+        TestClient b = new TestClient("b");
+        mRequestScheduler.submit(a, request(1), TrafficClass.NORMAL, 0);
+        mRequestScheduler.submit(a, request(2), TrafficClass.NORMAL, 0);
+        mRequestScheduler.submit(a, request(3), TrafficClass.NORMAL, 0);
+        mRequestScheduler.submit(b, request(1), TrafficClass.BACKGROUND, 0);
+
+        mRequestScheduler.reset(a, 0);
+        assertEquals("[b1]", mSent.toString());
+        assertEquals(1, mRequestScheduler.getInFlight());
+        assertEquals(0, mRequestScheduler.getQueueDepth(TrafficClass.NORMAL));
+
+        // a completion reported after the reset is ignored
+        mRequestScheduler.onRequestComplete(a, 0);
+        assertEquals(1, mRequestScheduler.getInFlight());
+    }
+
+    @Test
+    public void manager_sendsTheQueuedRequestsOnAcknowledgementOrTimeOut() throws GaiaException {
+        TestGaiaManager manager = new TestGaiaManager();
+        manager.setRequestScheduler(mRequestScheduler);
+        manager.setReadCache(null);
+        manager.send(GAIA.COMMAND_GET_API_VERSION);
+        manager.send(GAIA.COMMAND_GET_LED_CONTROL);
+        manager.send(GAIA.COMMAND_GET_CURRENT_BATTERY_LEVEL);
+        manager.send(GAIA.COMMAND_GET_CURRENT_RSSI);
+        assertEquals("[300, 287]", mSent.toString());
+
+        mScheduler.advanceBy(100);
+        manager.onReceiveGAIAPacket(acknowledgement(GAIA.COMMAND_GET_API_VERSION));
+        // the queued request is sent on the scheduler of the manager
+        assertEquals("[300, 287]", mSent.toString());
+        mScheduler.runDueTasks();
+        assertEquals("[300, 287, 302]", mSent.toString());
+        assertEquals(100, mRequestScheduler.getMaxWaitTime(TrafficClass.BACKGROUND));
+
+        // the time out of the second request releases its place
+        mScheduler.advanceBy(GaiaManager.ACKNOWLEDGEMENT_RUNNABLE_DEFAULT_DELAY_MILLIS);
+        assertEquals("[300, 287, 302, 301]", mSent.toString());
+
+        manager.reset();
+        assertEquals(0, mRequestScheduler.getInFlight());
+    }
+
+    @Test
+    public void manager_sendsTheRequestsDispatchedByAnotherManagerOnItsOwnScheduler() throws GaiaException {
+        VirtualScheduler otherScheduler = new VirtualScheduler();
+        mRequestScheduler.setMaxInFlight(1);
+        TestGaiaManager upgrade = new TestGaiaManager();
+        TestGaiaManager other = new TestGaiaManager(otherScheduler);
+        upgrade.setRequestScheduler(mRequestScheduler);
+        upgrade.setReadCache(null);
+        other.setRequestScheduler(mRequestScheduler);
+        other.setReadCache(null);
+        upgrade.send(GAIA.COMMAND_GET_API_VERSION);
+        other.send(GAIA.COMMAND_GET_LED_CONTROL);
+        other.send(GAIA.COMMAND_GET_CURRENT_RSSI);
+        assertEquals("[300]", mSent.toString());
+
+        upgrade.onReceiveGAIAPacket(acknowledgement(GAIA.COMMAND_GET_API_VERSION));
+        mScheduler.runDueTasks();
+        assertEquals("[300]", mSent.toString());
+        otherScheduler.runDueTasks();
+        assertEquals("[300, 287]", mSent.toString());
+
+        // a request dispatched to a manager which is reset before sending it is dropped
+        other.onReceiveGAIAPacket(acknowledgement(GAIA.COMMAND_GET_LED_CONTROL));
+        other.reset();
+        otherScheduler.runDueTasks();
+        assertEquals("[300, 287]", mSent.toString());
+        assertEquals(0, mRequestScheduler.getInFlight());
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    private static GaiaRequest request(int command) {
+        GaiaRequest request = new GaiaRequest(GaiaRequest.Type.SINGLE_REQUEST);
+        request.packet = new GaiaPacketBLE(GAIA.VENDOR_QUALCOMM, command);
+        return request;
+    }
+
+    private static byte[] acknowledgement(int command) throws GaiaException {
+        byte[] payload = { (byte) GAIA.Status.SUCCESS };
+        return new GaiaPacketBLE(GAIA.VENDOR_QUALCOMM, command | GAIA.ACKNOWLEDGMENT_MASK, payload).getBytes();
+    }
+
+
+    // ====== INNER CLASSES ========================================================================
+
+    private class TestClient implements GaiaRequestScheduler.Client {
+
+        private final String mName;
+
+        private TestClient(String name) {
+            mName = name;
+        }
+
+        @Override // GaiaRequestScheduler.Client
+        public void onRequestScheduled(GaiaRequest request) {
+            mSent.add(mName + request.packet.getCommand());
+        }
+    }
+
+    private class TestGaiaManager extends GaiaManager {
+
+        private TestGaiaManager() {
+            this(mScheduler);
+        }
+
+        private TestGaiaManager(VirtualScheduler scheduler) {
+            super(GAIA.Transport.BLE, scheduler);
+            setTrafficPolicy(new GaiaTrafficPolicy());
+        }
+
+        private void send(int command) {
+            createRequest(new GaiaPacketBLE(GAIA.VENDOR_QUALCOMM, command));
+        }
+
+        @Override // GaiaManager
+        protected void receiveSuccessfulAcknowledgement(GaiaPacket packet) {
+        }
+
+        @Override // GaiaManager
+        protected void receiveUnsuccessfulAcknowledgement(GaiaPacket packet) {
+        }
+
+        @Override // GaiaManager
+        protected boolean manageReceivedPacket(GaiaPacket packet) {
+            return false;
+        }
+
+        @Override // GaiaManager
+        protected void hasNotReceivedAcknowledgementPacket(GaiaPacket packet) {
+        }
+
+        @Override // GaiaManager
+        protected boolean sendGAIAPacket(byte[] packet) {
+            try {
+                mSent.add(Integer.toHexString(new GaiaPacketBLE(packet).getCommand()));
+            }
+            catch (GaiaException e) {
+                fail(e.toString());
+            }
+            return true;
+        }
+    }
+}
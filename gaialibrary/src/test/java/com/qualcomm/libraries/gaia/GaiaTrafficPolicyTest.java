@@ -0,0 +1,216 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.gaia;
+
+import com.qualcomm.libraries.gaia.packets.GaiaPacket;
+import com.qualcomm.libraries.gaia.packets.GaiaPacketBLE;
+import com.qualcomm.libraries.scheduler.VirtualScheduler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Unit tests for the {@link GaiaTrafficPolicy GaiaTrafficPolicy} and for how a {@link GaiaManager GaiaManager}
+ * follows it.</p>
+ */
+public class GaiaTrafficPolicyTest {
+
+    private final GaiaTrafficPolicy mPolicy = new GaiaTrafficPolicy();
+    private final VirtualScheduler mScheduler = new VirtualScheduler();
+    private TestGaiaManager mManager;
+
+    @Before
+    public void setUp() {
+        mManager = new TestGaiaManager();
+        mManager.setTrafficPolicy(mPolicy);
+        mManager.setRequestScheduler(null);
+        mManager.setReadCache(null);
+    }
+
+    @Test
+    public void getTrafficClass_classifiesTheCommands() {
+        assertEquals(GaiaTrafficPolicy.TrafficClass.PRIORITY,
+                mPolicy.getTrafficClass(GAIA.COMMAND_VM_UPGRADE_CONTROL));
+        assertEquals(GaiaTrafficPolicy.TrafficClass.PRIORITY,
+                mPolicy.getTrafficClass(GAIA.COMMAND_VM_UPGRADE_CONTROL | GAIA.ACKNOWLEDGMENT_MASK));
+        assertEquals(GaiaTrafficPolicy.TrafficClass.BACKGROUND,
+                mPolicy.getTrafficClass(GAIA.COMMAND_GET_CURRENT_RSSI));
+        assertEquals(GaiaTrafficPolicy.TrafficClass.NORMAL,
+                mPolicy.getTrafficClass(GAIA.COMMAND_GET_API_VERSION));
+
+        mPolicy.setBackgroundCommand(GAIA.COMMAND_GET_API_VERSION, true);
+        mPolicy.setBackgroundCommand(GAIA.COMMAND_VM_UPGRADE_CONTROL, true);
+        assertEquals(GaiaTrafficPolicy.TrafficClass.BACKGROUND,
+                mPolicy.getTrafficClass(GAIA.COMMAND_GET_API_VERSION));
+        assertEquals(GaiaTrafficPolicy.TrafficClass.PRIORITY,
+                mPolicy.getTrafficClass(GAIA.COMMAND_VM_UPGRADE_CONTROL));
+    }
+
+    @Test
+    public void deferBackground_coalescesTheTasksUntilTheEndOfTheSession() {
+        final List<String> runs = new ArrayList<>();
+        assertFalse(mPolicy.deferBackground("rssi", new Task(runs, "rssi 0")));
+
+        mPolicy.startUpgradeSession();
+        assertTrue(mPolicy.deferBackground("rssi", new Task(runs, "rssi 1")));
+        assertTrue(mPolicy.deferBackground("battery", new Task(runs, "battery 1")));
+        assertTrue(mPolicy.deferBackground("rssi", new Task(runs, "rssi 2")));
+        assertTrue(runs.isEmpty());
+
+        mPolicy.endUpgradeSession();
+        assertEquals("[rssi 2, battery 1]", runs.toString());
+        assertEquals(2, mPolicy.getDeferred());
+        assertEquals(1, mPolicy.getCoalesced());
+        assertEquals(2, mPolicy.getReplayed());
+        assertFalse(mPolicy.isUpgradeSession());
+    }
+
+    @Test
+    public void cancelDeferred_preventsTheTaskFromRunning() {
+        final List<String> runs = new ArrayList<>();
+        mPolicy.startUpgradeSession();
+        mPolicy.deferBackground("rssi", new Task(runs, "rssi"));
+        mPolicy.cancelDeferred("rssi");
+        mPolicy.endUpgradeSession();
+
+        assertTrue(runs.isEmpty());
+        assertEquals(0, mPolicy.getReplayed());
+    }
+
+    @Test
+    public void manager_defersTheBackgroundRequestsDuringAnUpgrade() throws GaiaException {
+        mPolicy.startUpgradeSession();
+        mManager.send(GAIA.COMMAND_GET_CURRENT_BATTERY_LEVEL);
+        mManager.send(GAIA.COMMAND_VM_UPGRADE_CONTROL);
+        mManager.send(GAIA.COMMAND_GET_CURRENT_BATTERY_LEVEL);
+        mManager.send(GAIA.COMMAND_GET_API_VERSION);
+
+        assertEquals("[642, 300]", mManager.mSentCommands.toString());
+        // the deferred requests do not time out
+        mManager.onReceiveGAIAPacket(acknowledgement(GAIA.COMMAND_VM_UPGRADE_CONTROL));
+        mManager.onReceiveGAIAPacket(acknowledgement(GAIA.COMMAND_GET_API_VERSION));
+        assertFalse(mScheduler.hasPendingTasks());
+
+        mPolicy.endUpgradeSession();
+        // the deferred request is sent on the scheduler of the manager
+        assertEquals("[642, 300]", mManager.mSentCommands.toString());
+        mScheduler.runDueTasks();
+        assertEquals("[642, 300, 302]", mManager.mSentCommands.toString());
+        assertEquals(1, mPolicy.getSentPackets(GaiaTrafficPolicy.TrafficClass.PRIORITY));
+        assertEquals(1, mPolicy.getSentPackets(GaiaTrafficPolicy.TrafficClass.NORMAL));
+        assertEquals(1, mPolicy.getDeferred());
+        assertEquals(1, mPolicy.getCoalesced());
+        assertTrue(mScheduler.hasPendingTasks());
+    }
+
+    @Test
+    public void manager_dropsTheDeferredRequestsWhenItIsReset() {
+        mPolicy.startUpgradeSession();
+        mManager.send(GAIA.COMMAND_GET_CURRENT_RSSI);
+        mManager.reset();
+        mPolicy.endUpgradeSession();
+
+        assertTrue(mManager.mSentCommands.isEmpty());
+        assertEquals(0, mPolicy.getReplayed());
+    }
+
+    @Test
+    public void policy_doesNotKeepTheManagersWithDeferredRequestsAlive() throws InterruptedException {
+        mPolicy.startUpgradeSession();
+        WeakReference<TestGaiaManager> manager = deferFromReleasedManager();
+        for (int i = 0; i < 50 && manager.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(manager.get());
+
+        mPolicy.endUpgradeSession();
+        assertEquals(1, mPolicy.getReplayed());
+        assertFalse(mScheduler.hasPendingTasks());
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    private WeakReference<TestGaiaManager> deferFromReleasedManager() {
+        TestGaiaManager manager = new TestGaiaManager();
+        manager.setTrafficPolicy(mPolicy);
+        manager.setRequestScheduler(null);
+        manager.setReadCache(null);
+        manager.send(GAIA.COMMAND_GET_CURRENT_RSSI);
+        return new WeakReference<>(manager);
+    }
+
+    private static byte[] acknowledgement(int command) throws GaiaException {
+        byte[] payload = { (byte) GAIA.Status.SUCCESS };
+        return new GaiaPacketBLE(GAIA.VENDOR_QUALCOMM, command | GAIA.ACKNOWLEDGMENT_MASK, payload).getBytes();
+    }
+
+
+    // ====== INNER CLASSES ========================================================================
+
+    private static class Task implements Runnable {
+
+        private final List<String> mRuns;
+        private final String mName;
+
+        private Task(List<String> runs, String name) {
+            mRuns = runs;
+            mName = name;
+        }
+
+        @Override // Runnable
+        public void run() {
+            mRuns.add(mName);
+        }
+    }
+
+    private class TestGaiaManager extends GaiaManager {
+
+        private final List<String> mSentCommands = new ArrayList<>();
+
+        private TestGaiaManager() {
+            super(GAIA.Transport.BLE, mScheduler);
+        }
+
+        private void send(int command) {
+            createRequest(new GaiaPacketBLE(GAIA.VENDOR_QUALCOMM, command));
+        }
+
+        @Override // GaiaManager
+        protected void receiveSuccessfulAcknowledgement(GaiaPacket packet) {
+        }
+
+        @Override // GaiaManager
+        protected void receiveUnsuccessfulAcknowledgement(GaiaPacket packet) {
+        }
+
+        @Override // GaiaManager
+        protected boolean manageReceivedPacket(GaiaPacket packet) {
+            return false;
+        }
+
+        @Override // GaiaManager
+        protected void hasNotReceivedAcknowledgementPacket(GaiaPacket packet) {
+        }
+
+        @Override // GaiaManager
+        protected boolean sendGAIAPacket(byte[] packet) {
+            try {
+                mSentCommands.add(Integer.toHexString(new GaiaPacketBLE(packet).getCommand()));
+            }
+            catch (GaiaException e) {
+                fail(e.toString());
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.gaia.packets;
+
+import com.qualcomm.libraries.gaia.GAIA;
+import com.qualcomm.libraries.gaia.GaiaException;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Unit tests for the views of the received {@link GaiaPacket GaiaPackets} and for the
+ * {@link GaiaPacketBuilder GaiaPacketBuilder}.</p>
+ */
+public class GaiaPacketBuilderTest {
+
+    private static final byte[] PAYLOAD = { 0x12, 0x04, 0x34 };
+    private static final int OFFSET = 3;
+
+    @Test
+    public void blePacket_readsItsPayloadInTheReceivedBytes() throws GaiaException {
+        byte[] frame = new GaiaPacketBLE(GAIA.VENDOR_QUALCOMM, GAIA.COMMAND_EVENT_NOTIFICATION, PAYLOAD).getBytes();
+        byte[] buffer = inBuffer(frame);
+
+        GaiaPacket packet = new GaiaPacketBLE(buffer, OFFSET, frame.length);
+        assertEquals(GAIA.COMMAND_EVENT_NOTIFICATION, packet.getCommand());
+        assertEquals(GAIA.NotificationEvents.VMU_PACKET, packet.getEvent());
+        assertEquals(PAYLOAD.length, packet.getPayloadLength());
+        assertEquals(0x34, packet.getPayloadByte(2));
+        assertSame(buffer, packet.getPayloadBuffer());
+        assertEquals(OFFSET + GaiaPacketBLE.OFFSET_PAYLOAD, packet.getPayloadOffset());
+        assertArrayEquals(PAYLOAD, packet.getPayload());
+        assertArrayEquals(frame, packet.getBytes());
+        try {
+            packet.getPayloadByte(PAYLOAD.length);
+            fail("The byte after the payload is not part of the packet.");
+        }
+        catch (ArrayIndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void bredrPacket_withChecksum_doesNotIncludeItInThePayload() throws GaiaException {
+        byte[] frame = new GaiaPacketBREDR(GAIA.VENDOR_QUALCOMM, GAIA.COMMAND_EVENT_NOTIFICATION, PAYLOAD, true)
+                .getBytes();
+
+        GaiaPacket packet = new GaiaPacketBREDR(inBuffer(frame), OFFSET, frame.length);
+        assertEquals(GAIA.COMMAND_EVENT_NOTIFICATION, packet.getCommand());
+        assertEquals(PAYLOAD.length, packet.getPayloadLength());
+        assertArrayEquals(PAYLOAD, packet.getPayload());
+        assertArrayEquals(frame, packet.getBytes());
+
+        // a packet built from a whole array keeps that array as its bytes
+        assertSame(frame, new GaiaPacketBREDR(frame).getBytes());
+    }
+
+    @Test
+    public void builder_writesTheSameBytesAsThePackets() throws GaiaException {
+        GaiaPacketBuilder builder = new GaiaPacketBuilder();
+        GaiaPacket[] packets = {
+                new GaiaPacketBLE(GAIA.VENDOR_QUALCOMM, GAIA.COMMAND_GET_LED_CONTROL, PAYLOAD),
+                new GaiaPacketBREDR(GAIA.VENDOR_QUALCOMM, GAIA.COMMAND_GET_LED_CONTROL, PAYLOAD, true),
+                new GaiaPacketBLE(new GaiaPacketBLE(GAIA.VENDOR_QUALCOMM, GAIA.COMMAND_GET_LED_CONTROL, PAYLOAD)
+                        .getBytes())
+        };
+        byte[] value = { 0x01, 0x02 };
+
+        for (GaiaPacket packet : packets) {
+            assertArrayEquals(packet.getBytes(), builder.build(packet));
+            assertArrayEquals(packet.getAcknowledgementPacketBytes(GAIA.Status.SUCCESS, value),
+                    builder.buildAcknowledgement(packet, GAIA.Status.SUCCESS, value));
+            assertArrayEquals(packet.getAcknowledgementPacketBytes(GAIA.Status.NOT_SUPPORTED, null),
+                    builder.buildAcknowledgement(packet, GAIA.Status.NOT_SUPPORTED, null));
+        }
+    }
+
+    @Test
+    public void builder_reusesTheReleasedArrays() throws GaiaException {
+        GaiaPacketBuilder builder = new GaiaPacketBuilder(1);
+        GaiaPacket packet = new GaiaPacketBLE(GAIA.VENDOR_QUALCOMM, GAIA.COMMAND_GET_LED_CONTROL);
+
+        byte[] first = builder.buildAcknowledgement(packet, GAIA.Status.SUCCESS, null);
+        builder.release(first);
+        builder.release(first);
+        byte[] second = builder.buildAcknowledgement(packet, GAIA.Status.INCORRECT_STATE, null);
+        byte[] third = builder.buildAcknowledgement(packet, GAIA.Status.SUCCESS, null);
+
+        assertSame(first, second);
+        assertTrue(second != third);
+        assertEquals(GAIA.Status.INCORRECT_STATE, new GaiaPacketBLE(second).getStatus());
+        assertEquals(2, builder.getAllocated());
+        assertEquals(1, builder.getReused());
+    }
+
+    @Test
+    public void builder_failsForAPayloadWhichIsTooLong() {
+        GaiaPacketBuilder builder = new GaiaPacketBuilder();
+        try {
+            builder.build(new GaiaPacketBREDR(GAIA.VENDOR_QUALCOMM, GAIA.COMMAND_GET_LED_CONTROL,
+                    new byte[GaiaPacketBREDR.MAX_PAYLOAD + 1]));
+            fail("The payload does not fit a BR/EDR packet.");
+        }
+        catch (GaiaException e) {
+            assertEquals(GaiaException.Type.PAYLOAD_LENGTH_TOO_LONG, e.getType());
+        }
+    }
+
+    @Test
+    public void blePacket_isOnlyLongerThanTheDefaultPayloadWithinTheNegotiatedLength() throws GaiaException {
+        int length = GaiaPacketBLE.MAX_PAYLOAD + 1;
+        byte[] frame = new byte[GaiaPacketBLE.getFrameLength(length)];
+        GaiaPacketBLE.writeFrame(frame, GAIA.VENDOR_QUALCOMM, GAIA.COMMAND_VM_UPGRADE_CONTROL, length,
+                GaiaPacketBLE.getMaxPayload(247));
+        assertEquals(GAIA.COMMAND_VM_UPGRADE_CONTROL, GaiaPacketBLE.getCommandId(frame));
+
+        try {
+            // the MTU exchange has failed
+            GaiaPacketBLE.writeFrame(frame, GAIA.VENDOR_QUALCOMM, GAIA.COMMAND_VM_UPGRADE_CONTROL, length,
+                    GaiaPacketBLE.getMaxPayload(23));
+            fail("The payload does not fit the default ATT MTU.");
+        }
+        catch (GaiaException e) {
+            assertEquals(GaiaException.Type.PAYLOAD_LENGTH_TOO_LONG, e.getType());
+        }
+        try {
+            new GaiaPacketBLE(GAIA.VENDOR_QUALCOMM, GAIA.COMMAND_GET_LED_CONTROL, new byte[length]).getBytes();
+            fail("The packets built outside of the upgrade do not know the negotiated length.");
+        }
+        catch (GaiaException e) {
+            assertEquals(GaiaException.Type.PAYLOAD_LENGTH_TOO_LONG, e.getType());
+        }
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    private static byte[] inBuffer(byte[] frame) {
+        byte[] buffer = new byte[OFFSET + frame.length + 2];
+        Arrays.fill(buffer, (byte) 0x7F);
+        System.arraycopy(frame, 0, buffer, OFFSET, frame.length);
+        return buffer;
+    }
+}
@@ -0,0 +1,129 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.scheduler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>This scheduler runs the tasks through a {@link ScheduledExecutorService ScheduledExecutorService}. Its clock is
+ * {@link System#nanoTime() System.nanoTime} in milliseconds.</p>
+ * <p>As the managers are not thread safe, the executor should have a single thread and the managers should only be
+ * called from that thread, for instance by submitting the calls through {@link #execute(Runnable) execute}.</p>
+ */
+public class ExecutorScheduler implements Scheduler {
+
+    /**
+     * <p>The executor which runs the tasks.</p>
+     */
+    private final ScheduledExecutorService mExecutor;
+    /**
+     * <p>The pending executions of each task, in order to cancel them.</p>
+     */
+    private final Map<Runnable, List<ScheduledFuture<?>>> mPendingTasks = new HashMap<>();
+
+    /**
+     * <p>To build a scheduler which runs the tasks on a new single thread executor.</p>
+     */
+    public ExecutorScheduler() {
+        this(Executors.newSingleThreadScheduledExecutor());
+    }
+
+    /**
+     * <p>To build a scheduler which runs the tasks on the given executor.</p>
+     *
+     * @param executor
+     *          The executor to run the tasks, it should have a single thread.
+     */
+    public ExecutorScheduler(ScheduledExecutorService executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * <p>To get the executor which runs the tasks.</p>
+     */
+    public ScheduledExecutorService getExecutor() {
+        return mExecutor;
+    }
+
+    /**
+     * <p>To run a task as soon as possible on the thread of this scheduler, for instance to call a manager.</p>
+     *
+     * @param task
+     *          The task to run.
+     */
+    public void execute(Runnable task) {
+        mExecutor.execute(task);
+    }
+
+    /**
+     * <p>To stop the executor: the pending tasks are not run.</p>
+     */
+    public void shutdown() {
+        synchronized (mPendingTasks) {
+            mPendingTasks.clear();
+        }
+        mExecutor.shutdownNow();
+    }
+
+    @Override // Scheduler
+    public long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    @Override // Scheduler
+    public void schedule(final Runnable task, long delayMillis) {
+        synchronized (mPendingTasks) {
+            final ScheduledFuture<?>[] future = new ScheduledFuture<?>[1];
+            future[0] = mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (mPendingTasks) {
+                        removePendingTask(task, future[0]);
+                    }
+                    task.run();
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+
+            List<ScheduledFuture<?>> futures = mPendingTasks.get(task);
+            if (futures == null) {
+                futures = new ArrayList<>(1);
+                mPendingTasks.put(task, futures);
+            }
+            futures.add(future[0]);
+        }
+    }
+
+    @Override // Scheduler
+    public void cancel(Runnable task) {
+        synchronized (mPendingTasks) {
+            List<ScheduledFuture<?>> futures = mPendingTasks.remove(task);
+            if (futures != null) {
+                for (ScheduledFuture<?> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>To forget a pending execution of a task once it is running.</p>
+     */
+    private void removePendingTask(Runnable task, ScheduledFuture<?> future) {
+        List<ScheduledFuture<?>> futures = mPendingTasks.get(task);
+        if (futures != null) {
+            futures.remove(future);
+            if (futures.isEmpty()) {
+                mPendingTasks.remove(task);
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.scheduler;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * <p>This scheduler runs the tasks through an Android {@link Handler Handler}. Its clock is
+ * {@link SystemClock#uptimeMillis() SystemClock.uptimeMillis} which is the one used by the Handler for delayed
+ * tasks.</p>
+ */
+public class HandlerScheduler implements Scheduler {
+
+    /**
+     * <p>The handler which runs the tasks.</p>
+     */
+    private final Handler mHandler;
+
+    /**
+     * <p>To build a scheduler which runs the tasks on the Looper of the current thread.</p>
+     */
+    public HandlerScheduler() {
+        this(new Handler());
+    }
+
+    /**
+     * <p>To build a scheduler which runs the tasks on the given Looper.</p>
+     *
+     * @param looper
+     *          The looper of the thread to run the tasks on.
+     */
+    public HandlerScheduler(Looper looper) {
+        this(new Handler(looper));
+    }
+
+    /**
+     * <p>To build a scheduler which runs the tasks through the given handler.</p>
+     *
+     * @param handler
+     *          The handler to post the tasks to.
+     */
+    public HandlerScheduler(Handler handler) {
+        mHandler = handler;
+    }
+
+    @Override // Scheduler
+    public long now() {
+        return SystemClock.uptimeMillis();
+    }
+
+    @Override // Scheduler
+    public void schedule(Runnable task, long delayMillis) {
+        mHandler.postDelayed(task, delayMillis);
+    }
+
+    @Override // Scheduler
+    public void cancel(Runnable task) {
+        mHandler.removeCallbacks(task);
+    }
+}
@@ -0,0 +1,49 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.scheduler;
+
+/**
+ * <p>This interface provides the clock and the delayed execution of tasks which the protocol managers need for
+ * their time outs, retries and polling.</p>
+ * <p>A manager which uses a scheduler is not thread safe: the scheduler must run the tasks on the thread which calls
+ * the manager. The following implementations are provided:
+ * <ul>
+ *     <li>{@link HandlerScheduler HandlerScheduler}: runs the tasks on the thread of an Android Looper, this is the
+ *     default one for the managers.</li>
+ *     <li>{@link ExecutorScheduler ExecutorScheduler}: runs the tasks on a single thread
+ *     {@link java.util.concurrent.ScheduledExecutorService ScheduledExecutorService}, in order to use the managers
+ *     on a plain JVM or on a worker thread.</li>
+ *     <li>{@link VirtualScheduler VirtualScheduler}: a manual clock which only runs the tasks when its time is
+ *     advanced, in order to drive the managers deterministically and without waiting.</li>
+ * </ul></p>
+ */
+public interface Scheduler {
+
+    /**
+     * <p>To get the current time of this scheduler.</p>
+     *
+     * @return a monotonic time in milliseconds. Only the difference between two values is meaningful.
+     */
+    long now();
+
+    /**
+     * <p>To run a task once after the given delay.</p>
+     *
+     * @param task
+     *          The task to run.
+     * @param delayMillis
+     *          The time in milliseconds to wait before running the task, 0 to run it as soon as possible.
+     */
+    void schedule(Runnable task, long delayMillis);
+
+    /**
+     * <p>To cancel all the pending executions of the given task. This has no effect on a task which is already
+     * running.</p>
+     *
+     * @param task
+     *          The task to cancel.
+     */
+    void cancel(Runnable task);
+}
@@ -0,0 +1,513 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.scheduler;
+
+/**
+ * <p>This class is a hashed timing wheel: it runs a large number of time outs over a {@link Scheduler Scheduler}
+ * which only sees one task, the tick of the wheel.</p>
+ * <p>Time is divided into ticks of {@link #getTickMillis() a fixed length}. A timer is put in the bucket of the tick
+ * at which it expires: the wheel has a power of two number of buckets and a tick goes to the bucket given by its
+ * lowest bits. Scheduling and cancelling a timer are constant time operations which do not allocate any memory: the
+ * timers are identified by a <code>long</code> handle and their entries are reused once they have expired or have
+ * been cancelled. A handle which has expired or has been cancelled does not match any timer anymore.</p>
+ * <p>A timer expires on the first tick which is not earlier than its deadline: it can be late by up to one tick.
+ * The tick task is only scheduled for the ticks which have timers, and it is cancelled when there is no timer
+ * anymore: an idle wheel does not wake the scheduler up.</p>
+ * <p>Timers can be scheduled and cancelled from any thread: the GAIA managers cancel the time out of a request on
+ * the thread which receives its acknowledgement. The wheel is locked while its buckets are changed, including when
+ * the tick task takes the expired timers out, but not while the listeners are called: they are called on the thread
+ * of the scheduler and can start or cancel timers.</p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class TimingWheel {
+
+    // ====== CONSTS FIELDS ========================================================================
+
+    /**
+     * <p>A value which is never the handle of a timer.</p>
+     */
+    public static final long NO_TIMER = -1;
+    /**
+     * <p>The value of {@link #mScheduledTick mScheduledTick} when the tick task is not scheduled.</p>
+     */
+    private static final long NO_TICK = Long.MAX_VALUE;
+    /**
+     * <p>The initial number of timer entries.</p>
+     */
+    private static final int INITIAL_ENTRIES = 16;
+
+
+    // ====== PRIVATE FIELDS =======================================================================
+
+    /**
+     * <p>The scheduler which runs the tick task and gives the time.</p>
+     */
+    private final Scheduler mScheduler;
+    /**
+     * <p>The length of a tick in ms.</p>
+     */
+    private final long mTickMillis;
+    /**
+     * <p>The mask which gives the bucket of a tick.</p>
+     */
+    private final int mMask;
+    /**
+     * <p>The first timer of each bucket.</p>
+     */
+    private final Entry[] mHeads;
+    /**
+     * <p>The last timer of each bucket: timers of a bucket expire in the order they have been scheduled.</p>
+     */
+    private final Entry[] mTails;
+    /**
+     * <p>All the entries which have been created, the index of an entry in this array is part of its handles.</p>
+     */
+    private Entry[] mEntries = new Entry[INITIAL_ENTRIES];
+    /**
+     * <p>The number of entries which have been created.</p>
+     */
+    private int mEntriesCount = 0;
+    /**
+     * <p>The entries which are not used by any timer, linked through their next entry.</p>
+     */
+    private Entry mFreeEntries = null;
+    /**
+     * <p>The number of pending timers.</p>
+     */
+    private int mPending = 0;
+    /**
+     * <p>The time of tick 0: the ticks are counted from the time the wheel last started from idle.</p>
+     */
+    private long mStartTime = 0;
+    /**
+     * <p>The last tick which has been processed.</p>
+     */
+    private long mCurrentTick = 0;
+    /**
+     * <p>The tick for which the tick task is scheduled, {@link #NO_TICK NO_TICK} if it is not.</p>
+     */
+    private long mScheduledTick = NO_TICK;
+    /**
+     * <p>True while the expired timers are being processed.</p>
+     */
+    private boolean isTicking = false;
+    /**
+     * <p>The task which processes the ticks which have been reached.</p>
+     */
+    private final Runnable mTickRunnable = new Runnable() {
+        @Override // Runnable
+        public void run() {
+            onTick();
+        }
+    };
+
+
+    // ====== CONSTRUCTOR ==========================================================================
+
+    /**
+     * <p>To build a timing wheel.</p>
+     *
+     * @param scheduler
+     *          The scheduler which runs the ticks and gives the time.
+     * @param tickMillis
+     *          The length of a tick in ms: the precision of the timers.
+     * @param ticksPerWheel
+     *          The number of buckets of the wheel, rounded up to a power of two. The timers which expire later than a
+     *          whole turn of the wheel are visited on each turn.
+     */
+    public TimingWheel(Scheduler scheduler, long tickMillis, int ticksPerWheel) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("The length of a tick must be positive: " + tickMillis);
+        }
+        int buckets = 1;
+        while (buckets < ticksPerWheel && buckets < (1 << 30)) {
+            buckets <<= 1;
+        }
+        mScheduler = scheduler;
+        mTickMillis = tickMillis;
+        mMask = buckets - 1;
+        mHeads = new Entry[buckets];
+        mTails = new Entry[buckets];
+    }
+
+
+    // ====== PUBLIC METHODS =======================================================================
+
+    /**
+     * <p>To start a timer.</p>
+     *
+     * @param listener
+     *          The listener to call when the timer expires.
+     * @param attachment
+     *          An object given back to the listener, this avoids the creation of a listener for each timer.
+     * @param delayMillis
+     *          The time in ms after which the timer expires.
+     *
+     * @return the handle of the timer, never {@link #NO_TIMER NO_TIMER}.
+     */
+    public synchronized long schedule(TimerListener listener, Object attachment, long delayMillis) {
+        long now = mScheduler.now();
+        if (mPending == 0 && !isTicking) {
+            // the wheel starts from idle: its ticks are aligned on the first timer
+            mStartTime = now;
+            mCurrentTick = 0;
+        }
+
+        long elapsed = now - mStartTime + Math.max(0, delayMillis);
+        long tick = Math.max(mCurrentTick + 1, (elapsed + mTickMillis - 1) / mTickMillis);
+
+        Entry entry = obtainEntry();
+        entry.listener = listener;
+        entry.attachment = attachment;
+        entry.tick = tick;
+        link(entry);
+        mPending++;
+
+        if (!isTicking && tick < mScheduledTick) {
+            scheduleTick(tick);
+        }
+        return entry.getHandle();
+    }
+
+    /**
+     * <p>To cancel a timer: its listener will not be called.</p>
+     *
+     * @param timer
+     *          The handle of the timer.
+     *
+     * @return true if the timer was pending, false if it has already expired or been cancelled.
+     */
+    public synchronized boolean cancel(long timer) {
+        Entry entry = getPendingEntry(timer);
+        if (entry == null) {
+            return false;
+        }
+        unlink(entry);
+        releaseEntry(entry);
+        mPending--;
+        if (mPending == 0 && !isTicking && mScheduledTick != NO_TICK) {
+            // nothing to wait for anymore
+            mScheduler.cancel(mTickRunnable);
+            mScheduledTick = NO_TICK;
+        }
+        return true;
+    }
+
+    /**
+     * <p>To cancel all the pending timers.</p>
+     */
+    public synchronized void cancelAll() {
+        for (int i = 0; i <= mMask; i++) {
+            Entry entry = mHeads[i];
+            while (entry != null) {
+                Entry next = entry.next;
+                releaseEntry(entry);
+                entry = next;
+            }
+            mHeads[i] = null;
+            mTails[i] = null;
+        }
+        mPending = 0;
+        if (mScheduledTick != NO_TICK) {
+            mScheduler.cancel(mTickRunnable);
+            mScheduledTick = NO_TICK;
+        }
+    }
+
+    /**
+     * <p>To know if a timer is pending.</p>
+     *
+     * @param timer
+     *          The handle of the timer.
+     *
+     * @return true if the timer has not expired and has not been cancelled.
+     */
+    public synchronized boolean isPending(long timer) {
+        return getPendingEntry(timer) != null;
+    }
+
+    /**
+     * <p>To get the attachment of a pending timer.</p>
+     *
+     * @param timer
+     *          The handle of the timer.
+     *
+     * @return the object given when the timer has been started or null if the timer is not pending.
+     */
+    public synchronized Object getAttachment(long timer) {
+        Entry entry = getPendingEntry(timer);
+        return entry == null ? null : entry.attachment;
+    }
+
+    /**
+     * <p>To get the number of pending timers.</p>
+     */
+    public synchronized int getPendingCount() {
+        return mPending;
+    }
+
+    /**
+     * <p>To get the length of a tick in ms.</p>
+     */
+    public long getTickMillis() {
+        return mTickMillis;
+    }
+
+    /**
+     * <p>To get the number of buckets of this wheel.</p>
+     */
+    public int getTicksPerWheel() {
+        return mMask + 1;
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    /**
+     * <p>To process the ticks which have been reached: the expired timers are removed from the wheel and then their
+     * listeners are called in the order of their ticks. The tick task is then scheduled for the next bucket which has
+     * timers.</p>
+     * <p>The listeners are called without holding the lock of the wheel.</p>
+     */
+    private void onTick() {
+        Entry expired = takeExpiredEntries();
+        try {
+            while (expired != null) {
+                TimerListener listener;
+                Object attachment;
+                long handle;
+                synchronized (this) {
+                    Entry entry = expired;
+                    expired = entry.next;
+                    listener = entry.listener;
+                    attachment = entry.attachment;
+                    handle = entry.getHandle();
+                    releaseEntry(entry);
+                }
+                listener.onTimerExpired(handle, attachment);
+            }
+        }
+        finally {
+            synchronized (this) {
+                isTicking = false;
+                scheduleNextTick();
+            }
+        }
+    }
+
+    /**
+     * <p>To take out of the wheel the timers which expire on the ticks which have been reached.</p>
+     *
+     * @return the first expired entry, the others are linked through their next entry. The entries are not given
+     * back to the free list: they do not match any pending timer anymore.
+     */
+    private synchronized Entry takeExpiredEntries() {
+        mScheduledTick = NO_TICK;
+        long target = (mScheduler.now() - mStartTime) / mTickMillis;
+        isTicking = true;
+        if (target <= mCurrentTick) {
+            return null;
+        }
+
+        // if the scheduler was late by more than a turn, each bucket is only visited once
+        long ticks = Math.min(target - mCurrentTick, mMask + 1);
+        long firstTick = mCurrentTick + 1;
+        // the timers started by the listeners expire after the target
+        mCurrentTick = target;
+
+        Entry expired = null;
+        Entry last = null;
+        for (long tick = firstTick; tick < firstTick + ticks; tick++) {
+            int bucket = (int) (tick & mMask);
+            Entry entry = mHeads[bucket];
+            while (entry != null) {
+                Entry next = entry.next;
+                if (entry.tick <= target) {
+                    unlink(entry);
+                    mPending--;
+                    entry.expired = true;
+                    entry.next = null;
+                    if (last == null) {
+                        expired = entry;
+                    }
+                    else {
+                        last.next = entry;
+                    }
+                    last = entry;
+                }
+                entry = next;
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * <p>To schedule the tick task for the first bucket after the current tick which has timers. Nothing is
+     * scheduled if there is no pending timer.</p>
+     */
+    private void scheduleNextTick() {
+        if (mPending == 0) {
+            if (mScheduledTick != NO_TICK) {
+                mScheduler.cancel(mTickRunnable);
+                mScheduledTick = NO_TICK;
+            }
+            return;
+        }
+        for (long tick = mCurrentTick + 1; tick <= mCurrentTick + mMask + 1; tick++) {
+            if (mHeads[(int) (tick & mMask)] != null) {
+                if (tick != mScheduledTick) {
+                    scheduleTick(tick);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * <p>To schedule the tick task for the given tick, replacing any tick which was scheduled.</p>
+     */
+    private void scheduleTick(long tick) {
+        if (mScheduledTick != NO_TICK) {
+            mScheduler.cancel(mTickRunnable);
+        }
+        mScheduledTick = tick;
+        long delay = mStartTime + tick * mTickMillis - mScheduler.now();
+        mScheduler.schedule(mTickRunnable, Math.max(0, delay));
+    }
+
+    /**
+     * <p>To get the entry of a pending timer from its handle.</p>
+     *
+     * @return the entry or null if the handle does not match any pending timer.
+     */
+    private Entry getPendingEntry(long timer) {
+        if (timer < 0) {
+            return null;
+        }
+        int index = (int) timer;
+        if (index < 0 || index >= mEntriesCount) {
+            return null;
+        }
+        Entry entry = mEntries[index];
+        return entry.generation == (int) (timer >>> 32) && entry.listener != null && !entry.expired ? entry : null;
+    }
+
+    /**
+     * <p>To add an entry at the end of the bucket of its tick.</p>
+     */
+    private void link(Entry entry) {
+        int bucket = (int) (entry.tick & mMask);
+        entry.next = null;
+        entry.previous = mTails[bucket];
+        if (mTails[bucket] == null) {
+            mHeads[bucket] = entry;
+        }
+        else {
+            mTails[bucket].next = entry;
+        }
+        mTails[bucket] = entry;
+    }
+
+    /**
+     * <p>To remove an entry from the bucket of its tick.</p>
+     */
+    private void unlink(Entry entry) {
+        int bucket = (int) (entry.tick & mMask);
+        if (entry.previous == null) {
+            mHeads[bucket] = entry.next;
+        }
+        else {
+            entry.previous.next = entry.next;
+        }
+        if (entry.next == null) {
+            mTails[bucket] = entry.previous;
+        }
+        else {
+            entry.next.previous = entry.previous;
+        }
+        entry.previous = null;
+        entry.next = null;
+    }
+
+    /**
+     * <p>To get an entry which is not used, a new one is only created if all of them are used.</p>
+     */
+    private Entry obtainEntry() {
+        Entry entry = mFreeEntries;
+        if (entry != null) {
+            mFreeEntries = entry.next;
+            entry.next = null;
+            entry.expired = false;
+            return entry;
+        }
+
+        if (mEntriesCount == mEntries.length) {
+            Entry[] entries = new Entry[mEntries.length * 2];
+            System.arraycopy(mEntries, 0, entries, 0, mEntriesCount);
+            mEntries = entries;
+        }
+        entry = new Entry(mEntriesCount);
+        mEntries[mEntriesCount++] = entry;
+        return entry;
+    }
+
+    /**
+     * <p>To give back an entry which is not used anymore: its handles do not match any timer from now on.</p>
+     */
+    private void releaseEntry(Entry entry) {
+        entry.generation = (entry.generation + 1) & Integer.MAX_VALUE;
+        entry.listener = null;
+        entry.attachment = null;
+        entry.previous = null;
+        entry.next = mFreeEntries;
+        mFreeEntries = entry;
+    }
+
+
+    // ====== INTERFACES ===========================================================================
+
+    /**
+     * <p>The listener to call when a timer expires.</p>
+     */
+    public interface TimerListener {
+
+        /**
+         * <p>Called on the thread of the scheduler when a timer expires. The handle does not match any timer
+         * anymore.</p>
+         *
+         * @param timer
+         *          The handle of the timer.
+         * @param attachment
+         *          The object given when the timer has been started.
+         */
+        void onTimerExpired(long timer, Object attachment);
+    }
+
+
+    // ====== INNER CLASSES ========================================================================
+
+    /**
+     * <p>The entry of a timer in a bucket. The entries are reused: the generation is part of the handle so that the
+     * handles of a previous timer do not match the entry anymore.</p>
+     */
+    private static final class Entry {
+        final int index;
+        int generation = 0;
+        long tick;
+        boolean expired = false;
+        TimerListener listener;
+        Object attachment;
+        Entry previous;
+        Entry next;
+
+        Entry(int index) {
+            this.index = index;
+        }
+
+        long getHandle() {
+            return ((long) generation << 32) | index;
+        }
+    }
+}
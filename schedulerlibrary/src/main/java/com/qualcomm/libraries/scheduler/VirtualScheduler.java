@@ -0,0 +1,172 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.scheduler;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * <p>This scheduler has a manual clock: time only passes when it is advanced with {@link #advanceBy(long) advanceBy}
+ * or {@link #advanceTo(long) advanceTo}, and the tasks which are due are run on the calling thread at that
+ * moment.</p>
+ * <p>Tasks due at the same time are run in the order they have been scheduled. A task scheduled with no delay is
+ * only run by the next call to one of the methods which advance the clock or to {@link #runDueTasks() runDueTasks}.
+ * This makes the execution of the managers deterministic and as fast as the CPU allows, which is useful for tests,
+ * simulations and benchmarks.</p>
+ */
+public class VirtualScheduler implements Scheduler {
+
+    /**
+     * <p>The current time of the clock.</p>
+     */
+    private long mTime;
+    /**
+     * <p>The number of tasks which have been scheduled, used to keep the order of the tasks due at the same
+     * time.</p>
+     */
+    private long mSequence = 0;
+    /**
+     * <p>The pending tasks ordered by their time.</p>
+     */
+    private final PriorityQueue<ScheduledTask> mQueue = new PriorityQueue<>();
+
+    /**
+     * <p>To build a scheduler which clock starts at 0.</p>
+     */
+    public VirtualScheduler() {
+        this(0);
+    }
+
+    /**
+     * <p>To build a scheduler which clock starts at the given time.</p>
+     *
+     * @param time
+     *          The initial time in milliseconds.
+     */
+    public VirtualScheduler(long time) {
+        mTime = time;
+    }
+
+    @Override // Scheduler
+    public long now() {
+        return mTime;
+    }
+
+    @Override // Scheduler
+    public void schedule(Runnable task, long delayMillis) {
+        mQueue.add(new ScheduledTask(task, mTime + (delayMillis < 0 ? 0 : delayMillis), mSequence++));
+    }
+
+    @Override // Scheduler
+    public void cancel(Runnable task) {
+        Iterator<ScheduledTask> iterator = mQueue.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().task == task) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * <p>To run the tasks which are due at the current time, including the ones they schedule with no delay.</p>
+     *
+     * @return the number of tasks which have been run.
+     */
+    public int runDueTasks() {
+        return advanceTo(mTime);
+    }
+
+    /**
+     * <p>To advance the clock by the given time, running the tasks which become due in order. When a task is run the
+     * clock is set to its time.</p>
+     *
+     * @param millis
+     *          The time to add to the clock in milliseconds.
+     *
+     * @return the number of tasks which have been run.
+     */
+    public int advanceBy(long millis) {
+        return advanceTo(mTime + millis);
+    }
+
+    /**
+     * <p>To advance the clock to the given time, running the tasks which become due in order. When a task is run the
+     * clock is set to its time.</p>
+     *
+     * @param time
+     *          The time to set the clock to, it cannot go back in time.
+     *
+     * @return the number of tasks which have been run.
+     */
+    public int advanceTo(long time) {
+        int count = 0;
+        ScheduledTask next;
+        while ((next = mQueue.peek()) != null && next.time <= time) {
+            mQueue.poll();
+            mTime = next.time > mTime ? next.time : mTime;
+            next.task.run();
+            count++;
+        }
+        mTime = time > mTime ? time : mTime;
+        return count;
+    }
+
+    /**
+     * <p>To advance the clock from task to task until there is no pending task anymore.</p>
+     *
+     * @param maxTasks
+     *          The maximum number of tasks to run, in order to stop tasks which keep scheduling themselves.
+     *
+     * @return the number of tasks which have been run.
+     */
+    public int runUntilIdle(int maxTasks) {
+        int count = 0;
+        ScheduledTask next;
+        while (count < maxTasks && (next = mQueue.poll()) != null) {
+            mTime = next.time > mTime ? next.time : mTime;
+            next.task.run();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * <p>To know if there are tasks waiting to be run.</p>
+     */
+    public boolean hasPendingTasks() {
+        return !mQueue.isEmpty();
+    }
+
+    /**
+     * <p>To get the time of the next pending task.</p>
+     *
+     * @return the time of the next task or -1 if there is no pending task.
+     */
+    public long getNextTaskTime() {
+        ScheduledTask next = mQueue.peek();
+        return next == null ? -1 : next.time;
+    }
+
+    /**
+     * <p>A task and the time at which it has to be run.</p>
+     */
+    private static final class ScheduledTask implements Comparable<ScheduledTask> {
+        final Runnable task;
+        final long time;
+        final long sequence;
+
+        ScheduledTask(Runnable task, long time, long sequence) {
+            this.task = task;
+            this.time = time;
+            this.sequence = sequence;
+        }
+
+        @Override // Comparable
+        public int compareTo(ScheduledTask other) {
+            return time != other.time ? (time < other.time ? -1 : 1)
+                    : sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.scheduler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Unit tests for the {@link TimingWheel TimingWheel}.</p>
+ */
+public class TimingWheelTest {
+
+    private final VirtualScheduler mScheduler = new VirtualScheduler();
+    private final TimingWheel mWheel = new TimingWheel(mScheduler, 10, 8);
+    private final List<String> mExpired = new ArrayList<>();
+    private final TimingWheel.TimerListener mListener = new TimingWheel.TimerListener() {
+        @Override // TimingWheel.TimerListener
+        public void onTimerExpired(long timer, Object attachment) {
+            mExpired.add(attachment + "@" + mScheduler.now());
+        }
+    };
+
+    @Test
+    public void timers_expireOnTheFirstTickAfterTheirDeadline() {
+        mWheel.schedule(mListener, "a", 30);
+        mScheduler.advanceBy(5);
+        mWheel.schedule(mListener, "b", 30);
+        mWheel.schedule(mListener, "c", 20);
+        // later than a turn of the wheel
+        mWheel.schedule(mListener, "d", 200);
+
+        mScheduler.advanceBy(100);
+        assertEquals("[a@30, c@30, b@40]", mExpired.toString());
+        assertEquals(1, mWheel.getPendingCount());
+        mScheduler.advanceBy(200);
+        assertEquals("[a@30, c@30, b@40, d@210]", mExpired.toString());
+        assertFalse(mScheduler.hasPendingTasks());
+    }
+
+    @Test
+    public void cancel_isOnlyEffectiveOnPendingTimers() {
+        long a = mWheel.schedule(mListener, "a", 30);
+        long b = mWheel.schedule(mListener, "b", 30);
+        assertTrue(mWheel.cancel(a));
+        assertFalse(mWheel.cancel(a));
+        assertFalse(mWheel.isPending(a));
+
+        mScheduler.advanceBy(30);
+        assertEquals("[b@30]", mExpired.toString());
+        assertFalse(mWheel.cancel(b));
+
+        // the entry of a timer is reused but its old handles do not match it
+        long c = mWheel.schedule(mListener, "c", 30);
+        assertTrue(a != c);
+        assertTrue(b != c);
+        assertFalse(mWheel.cancel(b));
+        assertTrue(mWheel.isPending(c));
+        assertFalse(mWheel.isPending(TimingWheel.NO_TIMER));
+    }
+
+    @Test
+    public void idleWheel_doesNotScheduleAnyTick() {
+        long a = mWheel.schedule(mListener, "a", 1000);
+        assertTrue(mScheduler.hasPendingTasks());
+        mWheel.cancel(a);
+        assertFalse(mScheduler.hasPendingTasks());
+
+        // the ticks are aligned on the first timer after the idle period
+        mScheduler.advanceBy(7);
+        mWheel.schedule(mListener, "b", 20);
+        assertEquals(27, mScheduler.getNextTaskTime());
+        mScheduler.advanceBy(100);
+        assertEquals("[b@27]", mExpired.toString());
+    }
+
+    @Test
+    public void listeners_canStartAndCancelTimers() {
+        final List<Long> timers = new ArrayList<>();
+        TimingWheel.TimerListener listener = new TimingWheel.TimerListener() {
+            @Override // TimingWheel.TimerListener
+            public void onTimerExpired(long timer, Object attachment) {
+                mExpired.add(attachment + "@" + mScheduler.now());
+                if ("a".equals(attachment)) {
+                    // b expires at the same tick: it cannot be cancelled anymore
+                    assertFalse(mWheel.cancel(timers.get(1)));
+                    assertTrue(mWheel.cancel(timers.get(2)));
+                    mWheel.schedule(this, "restarted", 0);
+                }
+            }
+        };
+        timers.add(mWheel.schedule(listener, "a", 10));
+        timers.add(mWheel.schedule(listener, "b", 10));
+        timers.add(mWheel.schedule(listener, "c", 20));
+
+        mScheduler.advanceBy(100);
+        assertEquals("[a@10, b@10, restarted@20]", mExpired.toString());
+    }
+
+    @Test
+    public void timers_canBeScheduledAndCancelledWhileTheWheelTicks() throws Exception {
+        final int TIMERS = 20000;
+        final ExecutorScheduler scheduler = new ExecutorScheduler();
+        final TimingWheel wheel = new TimingWheel(scheduler, 1, 8);
+        final Set<Object> expired = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+        final Set<Object> cancelled = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+        final AtomicInteger duplicates = new AtomicInteger();
+        final TimingWheel.TimerListener listener = new TimingWheel.TimerListener() {
+            @Override // TimingWheel.TimerListener
+            public void onTimerExpired(long timer, Object attachment) {
+                if (!expired.add(attachment)) {
+                    duplicates.incrementAndGet();
+                }
+            }
+        };
+        final CountDownLatch start = new CountDownLatch(1);
+        Runnable client = new Runnable() {
+            @Override // Runnable
+            public void run() {
+                try {
+                    start.await();
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+                String name = Thread.currentThread().getName();
+                for (int i = 0; i < TIMERS; i++) {
+                    Object attachment = name + i;
+                    long timer = wheel.schedule(listener, attachment, i % 3);
+                    if (i % 2 == 0 && wheel.cancel(timer)) {
+                        cancelled.add(attachment);
+                    }
+                }
+            }
+        };
+
+        try {
+            Thread first = new Thread(client, "first");
+            Thread second = new Thread(client, "second");
+            first.start();
+            second.start();
+            start.countDown();
+            first.join();
+            second.join();
+
+            long end = System.currentTimeMillis() + 5000;
+            while (wheel.getPendingCount() > 0 && System.currentTimeMillis() < end) {
+                Thread.sleep(5);
+            }
+            assertEquals(0, wheel.getPendingCount());
+            // the listener of the last expired timer may still be running
+            Thread.sleep(20);
+            assertEquals(0, duplicates.get());
+            assertEquals(2 * TIMERS, expired.size() + cancelled.size());
+            for (Object attachment : cancelled) {
+                assertFalse(expired.contains(attachment));
+            }
+        }
+        finally {
+            scheduler.shutdown();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.scheduler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Unit tests for the {@link VirtualScheduler VirtualScheduler}.</p>
+ */
+public class VirtualSchedulerTest {
+
+    @Test
+    public void advanceBy_runsDueTasksInOrder() {
+        VirtualScheduler scheduler = new VirtualScheduler();
+        final List<String> runs = new ArrayList<>();
+        scheduler.schedule(new Record(runs, "b", scheduler), 200);
+        scheduler.schedule(new Record(runs, "a", scheduler), 100);
+        scheduler.schedule(new Record(runs, "c", scheduler), 200);
+        scheduler.schedule(new Record(runs, "d", scheduler), 300);
+
+        assertEquals(3, scheduler.advanceBy(250));
+        assertEquals("[a@100, b@200, c@200]", runs.toString());
+        assertEquals(250, scheduler.now());
+        assertEquals(300, scheduler.getNextTaskTime());
+    }
+
+    @Test
+    public void tasksScheduledByTasks_areRunWhenDue() {
+        final VirtualScheduler scheduler = new VirtualScheduler();
+        final List<String> runs = new ArrayList<>();
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runs.add("first@" + scheduler.now());
+                scheduler.schedule(new Record(runs, "second", scheduler), 50);
+                scheduler.schedule(new Record(runs, "immediate", scheduler), 0);
+            }
+        }, 10);
+
+        scheduler.advanceBy(20);
+        assertEquals("[first@10, immediate@10]", runs.toString());
+        scheduler.advanceBy(40);
+        assertEquals("[first@10, immediate@10, second@60]", runs.toString());
+        assertFalse(scheduler.hasPendingTasks());
+    }
+
+    @Test
+    public void cancel_removesAllPendingExecutions() {
+        VirtualScheduler scheduler = new VirtualScheduler();
+        List<String> runs = new ArrayList<>();
+        Runnable task = new Record(runs, "task", scheduler);
+        scheduler.schedule(task, 10);
+        scheduler.schedule(task, 20);
+        scheduler.schedule(new Record(runs, "other", scheduler), 30);
+
+        scheduler.cancel(task);
+
+        assertEquals(1, scheduler.advanceBy(100));
+        assertEquals("[other@30]", runs.toString());
+    }
+
+    @Test
+    public void runUntilIdle_jumpsFromTaskToTask() {
+        final VirtualScheduler scheduler = new VirtualScheduler(1000);
+        final int[] count = { 0 };
+        // a task which keeps scheduling itself
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                count[0]++;
+                scheduler.schedule(this, 2000);
+            }
+        }, 2000);
+
+        assertEquals(5, scheduler.runUntilIdle(5));
+        assertEquals(5, count[0]);
+        assertEquals(11000, scheduler.now());
+    }
+
+    private static class Record implements Runnable {
+        private final List<String> mRuns;
+        private final String mName;
+        private final Scheduler mScheduler;
+
+        Record(List<String> runs, String name, Scheduler scheduler) {
+            mRuns = runs;
+            mName = name;
+            mScheduler = scheduler;
+        }
+
+        @Override
+        public void run() {
+            mRuns.add(mName + "@" + mScheduler.now());
+        }
+    }
+}
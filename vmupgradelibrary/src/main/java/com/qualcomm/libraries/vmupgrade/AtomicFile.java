@@ -0,0 +1,287 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>This class reads and writes a small file which is always replaced as a whole, such as the caches of the
+ * upgrades.</p>
+ * <p>The content is written in a temporary file which then replaces the file: a reader never sees a partially
+ * written file.</p>
+ * <p>The content can also be written {@link #writeAsync(byte[]) in the background}: the callers which save their
+ * state while an upgrade is running do not wait for the storage. The background writes of all the files share one
+ * thread and are coalesced: if the file is saved several times before the thread reaches it, only the last content
+ * is written.</p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class AtomicFile {
+
+    // ====== CONSTS FIELDS ========================================================================
+
+    /**
+     * <p>The tag to display for logs.</p>
+     */
+    private static final String TAG = "AtomicFile";
+    /**
+     * <p>The encoding used for the text files.</p>
+     */
+    public static final String CHARSET = "UTF-8";
+    /**
+     * <p>The extension of the temporary file.</p>
+     */
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+    /**
+     * <p>The thread which writes the content given to {@link #writeAsync(byte[]) writeAsync}.</p>
+     */
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override // ThreadFactory
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+
+    // ====== PRIVATE FIELDS =======================================================================
+
+    /**
+     * <p>The file which is read and replaced.</p>
+     */
+    private final File mFile;
+    /**
+     * <p>The lock held while the file is written or deleted, so that the writes are done in order.</p>
+     */
+    private final Object mWriteLock = new Object();
+    /**
+     * <p>The content to write in the background, null if there is none. Guarded by this object.</p>
+     */
+    private byte[] mPendingContent = null;
+    /**
+     * <p>The task which writes the pending content in the background.</p>
+     */
+    private final Runnable mWriteRunnable = new Runnable() {
+        @Override // Runnable
+        public void run() {
+            flush();
+        }
+    };
+
+
+    // ====== CONSTRUCTOR ==========================================================================
+
+    /**
+     * <p>To build an object which reads and replaces the given file.</p>
+     *
+     * @param file
+     *          The file, it is created when it is written for the first time.
+     */
+    public AtomicFile(File file) {
+        mFile = file;
+    }
+
+
+    // ====== PUBLIC METHODS =======================================================================
+
+    /**
+     * <p>To get the file which is read and replaced.</p>
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * <p>To know if the file exists.</p>
+     */
+    public boolean exists() {
+        return mFile.exists();
+    }
+
+    /**
+     * <p>To open the file as UTF-8 text.</p>
+     *
+     * @return a reader which must be closed, for instance with {@link #closeQuietly(Closeable) closeQuietly}.
+     *
+     * @throws IOException if the file cannot be opened.
+     */
+    public BufferedReader openReader() throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(mFile), CHARSET));
+    }
+
+    /**
+     * <p>To replace the content of the file on the calling thread. Any content which was waiting to be written in
+     * the background is dropped.</p>
+     *
+     * @param content
+     *          Writes the new content of the file.
+     *
+     * @return true if the file has been replaced.
+     */
+    public boolean write(Content content) {
+        synchronized (mWriteLock) {
+            synchronized (this) {
+                mPendingContent = null;
+            }
+            return writeFile(content);
+        }
+    }
+
+    /**
+     * <p>To replace the content of the file on the calling thread. Any content which was waiting to be written in
+     * the background is dropped.</p>
+     *
+     * @param content
+     *          The new content of the file.
+     *
+     * @return true if the file has been replaced.
+     */
+    public boolean write(byte[] content) {
+        return write(getContent(content));
+    }
+
+    /**
+     * <p>To replace the content of the file in the background. If the file has not been written when this is called
+     * again, only the last content is written.</p>
+     *
+     * @param content
+     *          The new content of the file, it must not be modified afterwards.
+     */
+    public void writeAsync(byte[] content) {
+        synchronized (this) {
+            boolean isScheduled = mPendingContent != null;
+            mPendingContent = content;
+            if (isScheduled) {
+                return;
+            }
+        }
+        WRITER.execute(mWriteRunnable);
+    }
+
+    /**
+     * <p>To write on the calling thread the content which is waiting to be written in the background, if there is
+     * one. This returns once the file has been written.</p>
+     */
+    public void flush() {
+        synchronized (mWriteLock) {
+            byte[] content;
+            synchronized (this) {
+                content = mPendingContent;
+                mPendingContent = null;
+            }
+            if (content != null) {
+                writeFile(getContent(content));
+            }
+        }
+    }
+
+    /**
+     * <p>To delete the file. Any content which was waiting to be written in the background is dropped.</p>
+     *
+     * @return true if the file does not exist anymore.
+     */
+    public boolean delete() {
+        synchronized (mWriteLock) {
+            synchronized (this) {
+                mPendingContent = null;
+            }
+            if (mFile.exists() && !mFile.delete()) {
+                Log.w(TAG, "Deletion of " + mFile.getName() + " failed.");
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * <p>To close the given stream, logging any failure.</p>
+     */
+    public static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            }
+            catch (IOException e) {
+                Log.w(TAG, "Exception occurs when closing a file: " + e.getMessage());
+            }
+        }
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    /**
+     * <p>To write a content in the temporary file and to replace the file with it.</p>
+     *
+     * @return true if the file has been replaced.
+     */
+    private boolean writeFile(Content content) {
+        File temporary = new File(mFile.getPath() + TEMPORARY_EXTENSION);
+        OutputStream output = null;
+        try {
+            output = new BufferedOutputStream(new FileOutputStream(temporary));
+            content.writeTo(output);
+            output.close();
+            output = null;
+
+            if (!temporary.renameTo(mFile)) {
+                Log.w(TAG, "Saving of " + mFile.getName() + " failed: the file could not be replaced.");
+                return false;
+            }
+            return true;
+        }
+        catch (IOException e) {
+            Log.w(TAG, "Exception occurs when saving " + mFile.getName() + ": " + e.getMessage());
+            return false;
+        }
+        finally {
+            closeQuietly(output);
+        }
+    }
+
+    /**
+     * <p>To get a content which writes the given bytes.</p>
+     */
+    private static Content getContent(final byte[] bytes) {
+        return new Content() {
+            @Override // AtomicFile.Content
+            public void writeTo(OutputStream output) throws IOException {
+                output.write(bytes);
+            }
+        };
+    }
+
+
+    // ====== INTERFACES ===========================================================================
+
+    /**
+     * <p>Writes the content of a file.</p>
+     */
+    public interface Content {
+
+        /**
+         * <p>To write the content.</p>
+         *
+         * @param output
+         *          The stream of the temporary file, it must not be closed.
+         *
+         * @throws IOException if the content could not be written.
+         */
+        void writeTo(OutputStream output) throws IOException;
+    }
+}
@@ -0,0 +1,257 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade;
+
+/**
+ * <p>This class chooses the number of file bytes to send in each {@link com.qualcomm.libraries.vmupgrade.codes
+ * .OpCodes.Enum#UPGRADE_DATA UPGRADE_DATA} packet from the capabilities of the link and from how the link behaves
+ * during the transfer.</p>
+ * <p>The length starts at the maximum the link can carry. It is then adjusted from the acknowledgements of the
+ * packets as follows:
+ * <ul>
+ *     <li>The latency of the acknowledgements is folded into an exponentially weighted moving average (EWMA) and
+ *     compared with the latency learnt over the first {@link #WARM_UP_SAMPLES WARM_UP_SAMPLES} acknowledgements at
+ *     the current length. When the average goes above {@link #LATENCY_TOLERANCE LATENCY_TOLERANCE} times that
+ *     latency, the link is considered as congested - the link layer retransmits the packets - and the length is
+ *     decreased by a quarter.</li>
+ *     <li>When a packet could not be sent or has not been acknowledged in time, the length is halved.</li>
+ *     <li>When the latency stays stable for {@link #INCREASE_INTERVAL INCREASE_INTERVAL} acknowledgements, the
+ *     length is increased by an eighth of the maximum length.</li>
+ * </ul>
+ * The length is never lower than the minimum length given to this controller.</p>
+ * <p>The latency depends on the length of the packets, so the learnt latency is discarded each time the length
+ * changes and only the acknowledgements of the packets of the current length are taken into account.</p>
+ */
+public class PacketSizeController {
+
+    // ====== CONSTS FIELDS =======================================================================
+
+    /**
+     * <p>The default minimum number of file bytes in a packet: the number of file bytes an UPGRADE_DATA packet
+     * contains over BLE when the default ATT MTU is used.</p>
+     */
+    public static final int DEFAULT_MIN_LENGTH = 12;
+    /**
+     * <p>The number of acknowledgements at a length which are used to learn the latency of the link for that
+     * length.</p>
+     */
+    public static final int WARM_UP_SAMPLES = 16;
+    /**
+     * <p>The number of acknowledgements with a stable latency after which the length is increased.</p>
+     */
+    public static final int INCREASE_INTERVAL = 64;
+    /**
+     * <p>The ratio between the average latency and the learnt latency above which the link is considered as
+     * congested.</p>
+     */
+    public static final double LATENCY_TOLERANCE = 1.5;
+    /**
+     * <p>The latency in ms which is added to the tolerated latency in order to not react to the jitter of a link
+     * which has a very low latency.</p>
+     */
+    private static final long LATENCY_MARGIN_MS = 10;
+    /**
+     * <p>The weight given to a new latency sample in the moving average.</p>
+     */
+    private static final double SMOOTHING_FACTOR = 0.25;
+
+
+    // ====== PRIVATE FIELDS =======================================================================
+
+    /**
+     * <p>The minimum number of file bytes in a packet.</p>
+     */
+    private int mMinLength;
+    /**
+     * <p>The maximum number of file bytes the link can carry in a packet.</p>
+     */
+    private int mMaxLength;
+    /**
+     * <p>The number of file bytes to send in the next packets.</p>
+     */
+    private int mLength;
+    /**
+     * <p>The number of acknowledgements received for packets of the current length.</p>
+     */
+    private int mSamples = 0;
+    /**
+     * <p>The latency learnt over the first acknowledgements at the current length, in ms.</p>
+     */
+    private double mBaseLatency = 0;
+    /**
+     * <p>The moving average of the latency of the acknowledgements at the current length, in ms.</p>
+     */
+    private double mSmoothedLatency = 0;
+    /**
+     * <p>The number of times the length has been decreased since the last reset.</p>
+     */
+    private int mDecreases = 0;
+    /**
+     * <p>The number of times the length has been increased since the last reset.</p>
+     */
+    private int mIncreases = 0;
+    /**
+     * <p>The number of errors which have been reported since the last reset.</p>
+     */
+    private int mErrors = 0;
+
+
+    // ====== CONSTRUCTORS =======================================================================
+
+    /**
+     * <p>To build a controller for a link which can carry the given number of file bytes in a packet.</p>
+     *
+     * @param minLength
+     *          The minimum number of file bytes in a packet.
+     * @param maxLength
+     *          The maximum number of file bytes the link can carry in a packet.
+     */
+    public PacketSizeController(int minLength, int maxLength) {
+        if (maxLength < 1) {
+            throw new IllegalArgumentException("Maximum length must be at least 1, got: " + maxLength);
+        }
+        mMinLength = minLength < 1 ? 1 : minLength;
+        setMaxLength(maxLength);
+        mLength = mMaxLength;
+    }
+
+
+    // ====== PUBLIC METHODS =======================================================================
+
+    /**
+     * <p>To define the maximum number of file bytes the link can carry in a packet, for instance once a bigger MTU
+     * has been negotiated or when the link has been connected again with the default MTU.</p>
+     * <p>The current length is reduced if it is over the new maximum. Otherwise it is kept and it will reach a
+     * bigger maximum through the increases.</p>
+     *
+     * @param maxLength
+     *          The maximum number of file bytes in a packet, the minimum length is reduced if it is bigger.
+     */
+    public void setMaxLength(int maxLength) {
+        mMaxLength = maxLength < 1 ? 1 : maxLength;
+        if (mMinLength > mMaxLength) {
+            mMinLength = mMaxLength;
+        }
+        if (mLength > mMaxLength) {
+            setLength(mMaxLength);
+        }
+    }
+
+    /**
+     * <p>To start again from the maximum length and to discard what has been learnt about the link.</p>
+     */
+    public void reset() {
+        mDecreases = 0;
+        mIncreases = 0;
+        mErrors = 0;
+        setLength(mMaxLength);
+    }
+
+    /**
+     * <p>To get the number of file bytes to send in the next packet.</p>
+     */
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * <p>To get the minimum number of file bytes in a packet.</p>
+     */
+    public int getMinLength() {
+        return mMinLength;
+    }
+
+    /**
+     * <p>To get the maximum number of file bytes the link can carry in a packet.</p>
+     */
+    public int getMaxLength() {
+        return mMaxLength;
+    }
+
+    /**
+     * <p>To get the number of times the length has been decreased since the last reset, because of the latency
+     * or of an error.</p>
+     */
+    public int getDecreases() {
+        return mDecreases;
+    }
+
+    /**
+     * <p>To get the number of times the length has been increased since the last reset.</p>
+     */
+    public int getIncreases() {
+        return mIncreases;
+    }
+
+    /**
+     * <p>To get the number of errors which have been reported since the last reset.</p>
+     */
+    public int getErrors() {
+        return mErrors;
+    }
+
+    /**
+     * <p>To be called when the Device has acknowledged a packet.</p>
+     * <p>The acknowledgements of the packets which do not have the current length - the last packet of a request
+     * from the Device or the packets sent before the length changed - are ignored.</p>
+     *
+     * @param length
+     *          The number of file bytes in the packet.
+     * @param latency
+     *          The time in ms between the sending of the packet and its acknowledgement.
+     */
+    public void onPacketAcknowledged(int length, long latency) {
+        if (length != mLength || latency < 0) {
+            return;
+        }
+
+        mSamples++;
+        if (mSamples <= WARM_UP_SAMPLES) {
+            // the base latency is the average over the warm up
+            mBaseLatency += (latency - mBaseLatency) / mSamples;
+            mSmoothedLatency = mBaseLatency;
+            return;
+        }
+
+        mSmoothedLatency = SMOOTHING_FACTOR * latency + (1 - SMOOTHING_FACTOR) * mSmoothedLatency;
+
+        if (mSmoothedLatency > mBaseLatency * LATENCY_TOLERANCE + LATENCY_MARGIN_MS) {
+            if (mLength > mMinLength) {
+                mDecreases++;
+                setLength(mLength - mLength / 4);
+            }
+        }
+        else if (mSamples >= WARM_UP_SAMPLES + INCREASE_INTERVAL && mLength < mMaxLength) {
+            mIncreases++;
+            setLength(mLength + Math.max(1, mMaxLength / 8));
+        }
+    }
+
+    /**
+     * <p>To be called when a packet could not be sent or has not been acknowledged in time.</p>
+     */
+    public void onError() {
+        mErrors++;
+        if (mLength > mMinLength) {
+            mDecreases++;
+            setLength(mLength / 2);
+        }
+    }
+
+
+    // ====== PRIVATE METHODS =======================================================================
+
+    /**
+     * <p>To change the length within the minimum and maximum lengths and to start to learn the latency of the link
+     * for that length.</p>
+     */
+    private void setLength(int length) {
+        mLength = length < mMinLength ? mMinLength : length > mMaxLength ? mMaxLength : length;
+        mSamples = 0;
+        mBaseLatency = 0;
+        mSmoothedLatency = 0;
+    }
+
+}
@@ -0,0 +1,141 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade;
+
+import com.qualcomm.libraries.scheduler.Scheduler;
+
+/**
+ * <p>This class limits the rate at which the progress of a transfer is reported.</p>
+ * <p>Each change of the progress is signalled with {@link #request() request}. The first one is delivered at once,
+ * and any change signalled less than the minimum interval after the last delivery is coalesced: a single delivery
+ * is scheduled at the end of the interval. Its content is built at delivery time, so the latest value always wins
+ * and the skipped values are never built.</p>
+ * <p>Any event which must not be lost, such as the end of the transfer, has to be delivered directly after a call to
+ * {@link #cancel() cancel}.</p>
+ */
+public class ProgressThrottler {
+
+    // ====== PRIVATE FIELDS =======================================================================
+
+    /**
+     * <p>The scheduler to delay the coalesced deliveries.</p>
+     */
+    private final Scheduler mScheduler;
+    /**
+     * <p>The task which builds and delivers the current progress.</p>
+     */
+    private final Runnable mDelivery;
+    /**
+     * <p>The task scheduled to deliver a coalesced progress.</p>
+     */
+    private final Runnable mPendingDelivery = new Runnable() {
+        @Override
+        public void run() {
+            isPending = false;
+            deliver();
+        }
+    };
+    /**
+     * <p>The minimum time in ms between two deliveries, 0 to deliver every progress.</p>
+     */
+    private long mMinInterval = 0;
+    /**
+     * <p>The time of the last delivery.</p>
+     */
+    private long mLastDeliveryTime = 0;
+    /**
+     * <p>To know if at least one progress has been delivered since the last reset.</p>
+     */
+    private boolean hasDelivered = false;
+    /**
+     * <p>To know if a delivery is scheduled.</p>
+     */
+    private boolean isPending = false;
+
+
+    // ====== CONSTRUCTOR ==========================================================================
+
+    /**
+     * <p>To build a throttler which delivers every progress until a maximum rate is set.</p>
+     *
+     * @param scheduler
+     *          The scheduler to delay the coalesced deliveries.
+     * @param delivery
+     *          The task which builds and delivers the current progress.
+     */
+    public ProgressThrottler(Scheduler scheduler, Runnable delivery) {
+        mScheduler = scheduler;
+        mDelivery = delivery;
+    }
+
+
+    // ====== PUBLIC METHODS =======================================================================
+
+    /**
+     * <p>To define the maximum number of progress deliveries per second.</p>
+     *
+     * @param rate
+     *          The maximum number of deliveries per second, 0 or less to deliver every progress.
+     */
+    public void setMaxRate(int rate) {
+        mMinInterval = rate > 0 ? 1000 / rate : 0;
+    }
+
+    /**
+     * <p>To get the minimum time in ms between two deliveries.</p>
+     */
+    public long getMinInterval() {
+        return mMinInterval;
+    }
+
+    /**
+     * <p>To signal that the progress has changed. The progress is delivered now or at the end of the current
+     * interval.</p>
+     */
+    public void request() {
+        if (isPending) {
+            // the scheduled delivery will get the latest progress
+            return;
+        }
+
+        long now = mScheduler.now();
+        long elapsed = now - mLastDeliveryTime;
+        if (!hasDelivered || elapsed >= mMinInterval) {
+            deliver();
+        }
+        else {
+            isPending = true;
+            mScheduler.schedule(mPendingDelivery, mMinInterval - elapsed);
+        }
+    }
+
+    /**
+     * <p>To cancel any scheduled delivery and to start a new series: the next request will be delivered at
+     * once.</p>
+     */
+    public void cancel() {
+        if (isPending) {
+            isPending = false;
+            mScheduler.cancel(mPendingDelivery);
+        }
+        hasDelivered = false;
+    }
+
+    /**
+     * <p>To know if a coalesced delivery is scheduled.</p>
+     */
+    public boolean isPending() {
+        return isPending;
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    private void deliver() {
+        hasDelivered = true;
+        mLastDeliveryTime = mScheduler.now();
+        mDelivery.run();
+    }
+}
@@ -0,0 +1,142 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade;
+
+/**
+ * <p>This class counts the retries made by the {@link UpgradeManager UpgradeManager} while the Device is not ready
+ * to start the upgrade and while it validates the image, and the bytes of the image which are not sent or which are
+ * sent again when a transfer is resumed.</p>
+ * <p>The counters are reset each time a new upgrade is started and are kept over the reconnections of an upgrade.
+ * All times are in ms.</p>
+ */
+@SuppressWarnings("unused")
+public class RetryStatistics {
+
+    // ====== PRIVATE FIELDS =======================================================================
+
+    /**
+     * <p>The number of UPGRADE_START_REQ messages sent.</p>
+     */
+    private int mStartRequests = 0;
+    /**
+     * <p>The number of UPGRADE_START_CFM messages received with the status ERROR_APP_NOT_READY.</p>
+     */
+    private int mAppNotReadyAnswers = 0;
+    /**
+     * <p>The last measured time between the first UPGRADE_START_REQ and the UPGRADE_START_CFM which accepted the
+     * upgrade, -1 if the Device has always been ready.</p>
+     */
+    private long mLastReadinessTime = -1;
+    /**
+     * <p>The number of UPGRADE_IS_VALIDATION_DONE_REQ messages sent.</p>
+     */
+    private int mValidationPolls = 0;
+    /**
+     * <p>The time between the first UPGRADE_IS_VALIDATION_DONE_REQ and the UPGRADE_TRANSFER_COMPLETE_IND message,
+     * -1 if the validation has not been done.</p>
+     */
+    private long mValidationTime = -1;
+    /**
+     * <p>The number of times a retry policy has given up because its deadline or its maximum number of attempts
+     * was reached.</p>
+     */
+    private int mExhaustedPolicies = 0;
+    /**
+     * <p>The number of bytes the Device already had when the transfer started or resumed, which have not been sent
+     * again.</p>
+     */
+    private long mSkippedBytes = 0;
+    /**
+     * <p>The number of bytes which had been acknowledged by the Device and have been sent again because the Device
+     * requested them again.</p>
+     */
+    private long mResentBytes = 0;
+
+
+    // ====== PUBLIC METHODS =======================================================================
+
+    public int getStartRequests() {
+        return mStartRequests;
+    }
+
+    public int getAppNotReadyAnswers() {
+        return mAppNotReadyAnswers;
+    }
+
+    public long getLastReadinessTime() {
+        return mLastReadinessTime;
+    }
+
+    public int getValidationPolls() {
+        return mValidationPolls;
+    }
+
+    public long getValidationTime() {
+        return mValidationTime;
+    }
+
+    public int getExhaustedPolicies() {
+        return mExhaustedPolicies;
+    }
+
+    public long getSkippedBytes() {
+        return mSkippedBytes;
+    }
+
+    public long getResentBytes() {
+        return mResentBytes;
+    }
+
+    @Override // Object
+    public String toString() {
+        return "start requests=" + mStartRequests + ", not ready=" + mAppNotReadyAnswers + ", readiness time="
+                + mLastReadinessTime + ", validation polls=" + mValidationPolls + ", validation time="
+                + mValidationTime + ", exhausted policies=" + mExhaustedPolicies + ", skipped bytes=" + mSkippedBytes
+                + ", resent bytes=" + mResentBytes;
+    }
+
+
+    // ====== PACKAGE METHODS ======================================================================
+
+    void reset() {
+        mStartRequests = 0;
+        mAppNotReadyAnswers = 0;
+        mLastReadinessTime = -1;
+        mValidationPolls = 0;
+        mValidationTime = -1;
+        mExhaustedPolicies = 0;
+        mSkippedBytes = 0;
+        mResentBytes = 0;
+    }
+
+    void onStartRequest() {
+        mStartRequests++;
+    }
+
+    void onAppNotReady() {
+        mAppNotReadyAnswers++;
+    }
+
+    void onReadiness(long time) {
+        mLastReadinessTime = time;
+    }
+
+    void onValidationPoll() {
+        mValidationPolls++;
+    }
+
+    void onValidationDone(long time) {
+        mValidationTime = time;
+    }
+
+    void onPolicyExhausted() {
+        mExhaustedPolicies++;
+    }
+
+    void onTransferResumed(long skippedBytes, long resentBytes) {
+        mSkippedBytes += skippedBytes;
+        mResentBytes += resentBytes;
+    }
+}
@@ -0,0 +1,208 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade;
+
+/**
+ * <p>This class estimates the throughput of a file transfer from the number of bytes the Device has acknowledged
+ * over time.</p>
+ * <p>Acknowledged bytes are accumulated over sampling periods of at least {@link #SAMPLE_PERIOD_MS
+ * SAMPLE_PERIOD_MS}. At the end of each period the instantaneous throughput is calculated and folded into an
+ * exponentially weighted moving average (EWMA) which is used to estimate the remaining time of the transfer. The
+ * average throughput since the transfer has started is also kept in order to compare links.</p>
+ * <p>All times given to this class are in ms and have to come from the same monotonic clock.</p>
+ */
+public class ThroughputEstimator {
+
+    // ====== CONSTS FIELDS =======================================================================
+
+    /**
+     * <p>The minimum duration in ms of a sampling period. Acknowledgements received in a shorter time are
+     * accumulated in the same sample in order to not be influenced by the burst of a window of packets.</p>
+     */
+    public static final long SAMPLE_PERIOD_MS = 250;
+    /**
+     * <p>The default weight given to a new sample in the moving average.</p>
+     */
+    public static final double DEFAULT_SMOOTHING_FACTOR = 0.2;
+
+
+    // ====== PRIVATE FIELDS =======================================================================
+
+    /**
+     * <p>The weight given to a new sample in the moving average, between 0 excluded and 1 included.</p>
+     */
+    private final double mSmoothingFactor;
+    /**
+     * <p>The time at which the transfer has started, -1 if it has not started.</p>
+     */
+    private long mStartTime = -1;
+    /**
+     * <p>The time at which the current sampling period has started.</p>
+     */
+    private long mSampleStartTime = 0;
+    /**
+     * <p>The number of bytes acknowledged during the current sampling period.</p>
+     */
+    private long mSampleBytes = 0;
+    /**
+     * <p>The total number of bytes acknowledged since the transfer has started.</p>
+     */
+    private long mTotalBytes = 0;
+    /**
+     * <p>The time of the last acknowledgement.</p>
+     */
+    private long mLastTime = 0;
+    /**
+     * <p>The throughput in bytes/s of the last complete sampling period.</p>
+     */
+    private double mInstantaneousRate = 0;
+    /**
+     * <p>The moving average of the throughput in bytes/s, 0 until a first sample has been completed.</p>
+     */
+    private double mSmoothedRate = 0;
+
+
+    // ====== CONSTRUCTORS =======================================================================
+
+    /**
+     * <p>To build an estimator which uses the {@link #DEFAULT_SMOOTHING_FACTOR DEFAULT_SMOOTHING_FACTOR}.</p>
+     */
+    public ThroughputEstimator() {
+        this(DEFAULT_SMOOTHING_FACTOR);
+    }
+
+    /**
+     * <p>To build an estimator with a specific smoothing factor: the bigger it is, the quicker the estimation
+     * follows the variations of the link.</p>
+     *
+     * @param smoothingFactor
+     *          The weight of a new sample, between 0 excluded and 1 included.
+     */
+    public ThroughputEstimator(double smoothingFactor) {
+        if (smoothingFactor <= 0 || smoothingFactor > 1) {
+            throw new IllegalArgumentException("Smoothing factor must be in ]0, 1], got: " + smoothingFactor);
+        }
+        mSmoothingFactor = smoothingFactor;
+    }
+
+
+    // ====== PUBLIC METHODS =======================================================================
+
+    /**
+     * <p>To start the estimation of a new transfer. Any previous estimation is discarded.</p>
+     *
+     * @param time
+     *          The time at which the transfer starts.
+     */
+    public void start(long time) {
+        reset();
+        mStartTime = time;
+        mSampleStartTime = time;
+        mLastTime = time;
+    }
+
+    /**
+     * <p>To know if {@link #start(long) start} has been called since the last reset.</p>
+     */
+    public boolean isStarted() {
+        return mStartTime >= 0;
+    }
+
+    /**
+     * <p>To discard the estimation.</p>
+     */
+    public void reset() {
+        mStartTime = -1;
+        mSampleStartTime = 0;
+        mSampleBytes = 0;
+        mTotalBytes = 0;
+        mLastTime = 0;
+        mInstantaneousRate = 0;
+        mSmoothedRate = 0;
+    }
+
+    /**
+     * <p>To be called when the Device has acknowledged some bytes of the file.</p>
+     *
+     * @param time
+     *          The time of the acknowledgement.
+     * @param bytes
+     *          The number of bytes which have been acknowledged.
+     */
+    public void onBytesAcknowledged(long time, long bytes) {
+        if (!isStarted()) {
+            start(time);
+        }
+
+        mTotalBytes += bytes;
+        mSampleBytes += bytes;
+        mLastTime = time;
+
+        long sampleDuration = time - mSampleStartTime;
+        if (sampleDuration >= SAMPLE_PERIOD_MS) {
+            mInstantaneousRate = mSampleBytes * 1000.0 / sampleDuration;
+            mSmoothedRate = (mSmoothedRate == 0) ? mInstantaneousRate
+                    : mSmoothingFactor * mInstantaneousRate + (1 - mSmoothingFactor) * mSmoothedRate;
+            mSampleStartTime = time;
+            mSampleBytes = 0;
+        }
+    }
+
+    /**
+     * <p>To get the throughput of the last complete sampling period.</p>
+     *
+     * @return The throughput in bytes/s, 0 if it is not known yet.
+     */
+    public double getInstantaneousRate() {
+        return mInstantaneousRate;
+    }
+
+    /**
+     * <p>To get the moving average of the throughput which is used to estimate the remaining time.</p>
+     *
+     * @return The throughput in bytes/s, 0 if it is not known yet.
+     */
+    public double getSmoothedRate() {
+        return mSmoothedRate;
+    }
+
+    /**
+     * <p>To get the average throughput between the start of the transfer and the last acknowledgement.</p>
+     *
+     * @return The throughput in bytes/s, 0 if it is not known yet.
+     */
+    public double getAverageRate() {
+        long duration = mLastTime - mStartTime;
+        return (!isStarted() || duration <= 0) ? 0 : mTotalBytes * 1000.0 / duration;
+    }
+
+    /**
+     * <p>To get the total number of bytes which have been acknowledged since the transfer has started.</p>
+     */
+    public long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    /**
+     * <p>To estimate the time needed to transfer the given number of bytes at the
+     * {@link #getSmoothedRate() smoothed rate}.</p>
+     *
+     * @param remainingBytes
+     *          The number of bytes which still have to be acknowledged.
+     *
+     * @return The estimated time in ms or {@link UploadProgress#UNKNOWN_TIME UNKNOWN_TIME} if the throughput is not
+     * known yet.
+     */
+    public long getRemainingTime(long remainingBytes) {
+        if (remainingBytes <= 0) {
+            return 0;
+        }
+        if (mSmoothedRate <= 0) {
+            return UploadProgress.UNKNOWN_TIME;
+        }
+        return (long) Math.ceil(remainingBytes * 1000.0 / mSmoothedRate);
+    }
+
+}
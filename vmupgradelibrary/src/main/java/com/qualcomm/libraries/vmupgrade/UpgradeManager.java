@@ -6,20 +6,38 @@
 package com.qualcomm.libraries.vmupgrade;
 
 import android.annotation.SuppressLint;
-import android.os.Handler;
 import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
 import android.util.Log;
 
+import com.qualcomm.libraries.scheduler.HandlerScheduler;
+import com.qualcomm.libraries.scheduler.Scheduler;
 import com.qualcomm.libraries.vmupgrade.codes.OpCodes;
 import com.qualcomm.libraries.vmupgrade.codes.ResumePoints;
 import com.qualcomm.libraries.vmupgrade.codes.ReturnCodes;
+import com.qualcomm.libraries.vmupgrade.image.ImageDigestCache;
+import com.qualcomm.libraries.vmupgrade.image.ImageDigester;
+import com.qualcomm.libraries.vmupgrade.image.ImageDigests;
+import com.qualcomm.libraries.vmupgrade.image.ImagePreflight;
+import com.qualcomm.libraries.vmupgrade.image.ImagePreflightAnalyser;
+import com.qualcomm.libraries.vmupgrade.image.UpgradeImageSource;
+import com.qualcomm.libraries.vmupgrade.journal.TransferCheckpoint;
+import com.qualcomm.libraries.vmupgrade.journal.TransferCheckpoints;
+import com.qualcomm.libraries.vmupgrade.journal.UpgradeJournal;
+import com.qualcomm.libraries.vmupgrade.journal.UpgradeSession;
+import com.qualcomm.libraries.vmupgrade.packet.UpgradeDataEncoder;
 import com.qualcomm.libraries.vmupgrade.packet.VMUException;
 import com.qualcomm.libraries.vmupgrade.packet.VMUPacket;
+import com.qualcomm.libraries.vmupgrade.packet.VMUPacketView;
+import com.qualcomm.libraries.vmupgrade.retry.ReadinessCache;
+import com.qualcomm.libraries.vmupgrade.retry.RetryPolicy;
+import com.qualcomm.libraries.vmupgrade.timeline.UpgradeTimeline;
 
 import java.io.File;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayDeque;
+import java.util.Random;
 
 /**
  * <p>This class manages all the default processes of the VM Upgrade protocol. It defines and builds the VMU messages
@@ -51,13 +69,43 @@ public class UpgradeManager {
      */
     private int mStartOffset = 0;
     /**
-     * The file to upload on the device.
+     * The source to read the bytes of the file to upload on the device.
      */
-    private byte[] mBytesFile;
+    private UpgradeImageSource mImageSource;
     /**
-     * The maximum value for the data length of a VM upgrade packet.
+     * The MD5 digest of the file to upload, its last bytes are used as the identifier of the upgrade.
      */
-    private final int MAX_DATA_LENGTH;
+    private byte[] mIdentifier = new byte[0];
+    /**
+     * The cache to get the digest of a file which has already been used, can be null.
+     */
+    private ImageDigestCache mDigestCache;
+    /**
+     * The analyser which has analysed the file before the upgrade starts, can be null.
+     */
+    private ImagePreflightAnalyser mPreflightAnalyser;
+    /**
+     * The digester which computes the identifier of the file in the background when it is not known, can be null.
+     */
+    private ImageDigester mDigester;
+    /**
+     * The computation of the identifier the upgrade is waiting for, null if there is none.
+     */
+    private ImageDigester.DigestJob mDigestJob;
+    /**
+     * The timeline which records the protocol events of the upgrade, can be null.
+     */
+    private UpgradeTimeline mTimeline;
+    /**
+     * The maximum value for the data length of a VM upgrade packet, see
+     * {@link #setMaxPacketLength(int) setMaxPacketLength}.
+     */
+    private int mMaxDataLength;
+    /**
+     * To choose the number of file bytes of each UPGRADE_DATA packet from the latency of their acknowledgements
+     * and the errors of the link.
+     */
+    private final PacketSizeController mPacketSizeController;
     /**
      * To know if the packet with the operation code "UPGRADE_DATA" which was sent was the last packet to send.
      */
@@ -71,17 +119,17 @@ public class UpgradeManager {
      */
     private File mFile;
     /**
-     * To know when the transfer starts
+     * To estimate the throughput and the remaining time of the transfer from the acknowledged bytes.
      */
-    private long mTimeStartTransfer = 0;
+    private final ThroughputEstimator mThroughputEstimator = new ThroughputEstimator();
     /**
      * To know if we have to disconnect after any event which occurs as a fatal error from the board.
      */
     private boolean hasToAbort = false;
     /**
-     * The handler to run some tasks.
+     * The scheduler to run some tasks and to get the time.
      */
-    private final Handler mHandler = new Handler();
+    private final Scheduler mScheduler;
     /**
      * The number of bytes this manager has still to send after the device has sent a
      * {@link com.qualcomm.libraries.vmupgrade.codes.OpCodes.Enum#UPGRADE_DATA_BYTES_REQ UPGRADE_DATA_BYTES_REQ} request.
@@ -93,6 +141,212 @@ public class UpgradeManager {
     private boolean mShowDebugLogs = false;
 
     private boolean hasToRestartUpgrade = false;
+    /**
+     * <p>The default number of {@link OpCodes.Enum#UPGRADE_DATA UPGRADE_DATA} packets which can be sent without
+     * waiting for their acknowledgement. A window of 1 corresponds to a stop-and-wait transfer.</p>
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 1;
+    /**
+     * <p>The default maximum number of {@link UpgradeManagerListener#onFileUploadProgress(UploadProgress)
+     * onFileUploadProgress} events per second.</p>
+     */
+    public static final int DEFAULT_PROGRESS_MAX_RATE = 10;
+    /**
+     * <p>The maximum number of {@link OpCodes.Enum#UPGRADE_DATA UPGRADE_DATA} packets this manager can send before
+     * receiving their acknowledgements.</p>
+     */
+    private int mWindowSize = DEFAULT_WINDOW_SIZE;
+    /**
+     * <p>The number of bytes of file data contained in each UPGRADE_DATA packet which has been sent and not
+     * acknowledged yet. This array is used as a circular queue: acknowledgements are received in the same order as
+     * the packets have been sent.</p>
+     */
+    private int[] mInFlightLengths = new int[DEFAULT_WINDOW_SIZE];
+    /**
+     * <p>The offset in the file of each UPGRADE_DATA packet which has been sent and not acknowledged yet. This array
+     * is used as a circular queue with the same indexes as {@link #mInFlightLengths mInFlightLengths}.</p>
+     */
+    private int[] mInFlightOffsets = new int[DEFAULT_WINDOW_SIZE];
+    /**
+     * <p>The time at which each UPGRADE_DATA packet which has not been acknowledged yet has been sent. This array
+     * is used as a circular queue with the same indexes as {@link #mInFlightLengths mInFlightLengths}.</p>
+     */
+    private long[] mInFlightSendTimes = new long[DEFAULT_WINDOW_SIZE];
+    /**
+     * <p>The frames of the UPGRADE_DATA packets which are waiting for an acknowledgement when they have been built
+     * through the {@link #mEncoder encoder}. This array is used as a circular queue with the same indexes as
+     * {@link #mInFlightLengths mInFlightLengths}.</p>
+     */
+    private byte[][] mInFlightFrames = new byte[DEFAULT_WINDOW_SIZE][];
+    /**
+     * <p>The listener to send the UPGRADE_DATA packets as complete transport frames, can be null.</p>
+     */
+    private UpgradeFrameListener mFrameListener;
+    /**
+     * <p>The encoder which builds the UPGRADE_DATA packets into reusable frames when a
+     * {@link #mFrameListener frame listener} has been set.</p>
+     */
+    private UpgradeDataEncoder mEncoder;
+    /**
+     * <p>The index of the oldest packet in {@link #mInFlightLengths mInFlightLengths}.</p>
+     */
+    private int mInFlightHead = 0;
+    /**
+     * <p>The number of UPGRADE_DATA packets which are waiting for an acknowledgement.</p>
+     */
+    private int mInFlightCount = 0;
+    /**
+     * <p>The operation code of each VMU packet which has been sent and not acknowledged yet, in the order they have
+     * been sent. The acknowledgements do not identify their packet: this queue tells which ones are the
+     * acknowledgements of the UPGRADE_DATA packets in {@link #mInFlightLengths mInFlightLengths}.</p>
+     */
+    private final ArrayDeque<Integer> mUnacknowledgedOpCodes = new ArrayDeque<>();
+    /**
+     * <p>The number of bytes of the file which have been acknowledged since the transfer has started or resumed.</p>
+     */
+    private long mAcknowledgedBytes = 0;
+    /**
+     * <p>The number of bytes of file data contained in the UPGRADE_DATA packets which are waiting for an
+     * acknowledgement.</p>
+     */
+    private int mInFlightBytes = 0;
+    /**
+     * <p>The journal which records the progress of the upgrade, can be null.</p>
+     */
+    private UpgradeJournal mJournal;
+    /**
+     * <p>To limit the rate at which the progress of the file upload is reported to the listener.</p>
+     */
+    private final ProgressThrottler mProgressThrottler;
+    /**
+     * <p>The policy which defines when to send again an UPGRADE_START_REQ message when the Device is not ready.</p>
+     */
+    private RetryPolicy mStartPolicy = RetryPolicy.DEFAULT_START;
+    /**
+     * <p>The policy which defines when to send again an UPGRADE_IS_VALIDATION_DONE_REQ message while the Device
+     * validates the image.</p>
+     */
+    private RetryPolicy mValidationPolicy = RetryPolicy.DEFAULT_VALIDATION;
+    /**
+     * <p>The cache which learns how long the Device takes to be ready, can be null.</p>
+     */
+    private ReadinessCache mReadinessCache;
+    /**
+     * <p>The key of the Device in the {@link #mReadinessCache readiness cache}.</p>
+     */
+    private String mReadinessKey;
+    /**
+     * <p>The store of the transfer checkpoints of the Devices, can be null.</p>
+     */
+    private TransferCheckpoints mCheckpoints;
+    /**
+     * <p>The key of the Device in the {@link #mCheckpoints checkpoints store}.</p>
+     */
+    private String mCheckpointKey;
+    /**
+     * <p>The checkpoint of the current upgrade, null if there is no checkpoints store.</p>
+     */
+    private TransferCheckpoint mCheckpoint;
+    /**
+     * <p>The time at which the checkpoint of the current upgrade has been saved for the last time.</p>
+     */
+    private long mCheckpointSaveTime = 0;
+    /**
+     * <p>To know if the next UPGRADE_DATA_BYTES_REQ message is the first one since the last UPGRADE_SYNC_REQ
+     * message: its offset gives the bytes the Device has kept.</p>
+     */
+    private boolean isFirstDataRequest = false;
+    /**
+     * <p>To know if the last UPGRADE_SYNC_REQ message has been sent by {@link #startUpgrade() startUpgrade} and not
+     * by {@link #resumeUpgrade() resumeUpgrade}.</p>
+     */
+    private boolean isNewSession = false;
+    /**
+     * <p>The counters of the retries of the current upgrade.</p>
+     */
+    private final RetryStatistics mRetryStatistics = new RetryStatistics();
+    /**
+     * <p>To spread the retries with the jitter of the retry policies.</p>
+     */
+    private final Random mRandom = new Random();
+    /**
+     * <p>The time at which the first UPGRADE_START_REQ message of the current connection has been sent, -1 if none
+     * has been sent.</p>
+     */
+    private long mFirstStartRequestTime = -1;
+    /**
+     * <p>The time at which the first UPGRADE_IS_VALIDATION_DONE_REQ message of the current connection has been
+     * sent, -1 if none has been sent.</p>
+     */
+    private long mValidationStartTime = -1;
+    /**
+     * <p>The number of UPGRADE_IS_VALIDATION_DONE_REQ messages sent during the current connection.</p>
+     */
+    private int mValidationPolls = 0;
+    /**
+     * <p>The view used to read all the packets received from the Device without copying them.</p>
+     */
+    private final VMUPacketView mReceivedPacket = new VMUPacketView();
+    /**
+     * <p>The handlers of the packets received from the Device, indexed by their raw operation code. The packets
+     * which do not have a handler are ignored.</p>
+     */
+    private final PacketHandler[] mPacketHandlers = new PacketHandler[256];
+    /**
+     * <p>The task scheduled to send again an UPGRADE_START_REQ message.</p>
+     */
+    private final Runnable mStartRetry = new Runnable() {
+        @Override
+        public void run() {
+            sendStartReq();
+        }
+    };
+    /**
+     * <p>The task scheduled to send again an UPGRADE_IS_VALIDATION_DONE_REQ message.</p>
+     */
+    private final Runnable mValidationRetry = new Runnable() {
+        @Override
+        public void run() {
+            sendValidationDoneReq();
+        }
+    };
+    /**
+     * <p>The listener of the computation of the identifier of the file when the upgrade starts.</p>
+     */
+    private final ImageDigester.DigestListener mDigestListener = new ImageDigester.DigestListener() {
+        @Override // ImageDigester.DigestListener
+        public void onDigestProgress(File file, long read, long length) {
+            if (mShowDebugLogs) {
+                Log.d(TAG, "Identifier of " + file.getName() + ": " + read + "/" + length + " bytes read.");
+            }
+        }
+
+        @Override // ImageDigester.DigestListener
+        public void onDigestComplete(ImageDigests digests) {
+            mDigestJob = null;
+            if (!isUpgrading) {
+                return;
+            }
+            mIdentifier = digests.getIdentifier();
+            if (mDigestCache != null) {
+                mDigestCache.putDigest(mFile, mIdentifier);
+            }
+            startSession();
+        }
+
+        @Override // ImageDigester.DigestListener
+        public void onDigestFailed(File file, VMUException exception) {
+            mDigestJob = null;
+            if (!isUpgrading) {
+                return;
+            }
+            releaseImageSource();
+            isUpgrading = false;
+            UpgradeError error = new UpgradeError(exception);
+            Log.e(TAG, "Error occurs when attempt to start the process: " + error.getString());
+            mListener.onUpgradeProcessError(error);
+        }
+    };
 
 
     // ====== CONSTRUCTOR ==========================================================================
@@ -111,8 +365,38 @@ public class UpgradeManager {
     @SuppressWarnings({"SameParameterValue", "WeakerAccess"})
     // maxLength is always set for BLE packets for this application
     public UpgradeManager(@NonNull UpgradeManagerListener listener, int maxLength) {
+        this(listener, maxLength, new HandlerScheduler());
+    }
+
+    /**
+     * <p>Constructor of this class which allows the definition of the scheduler used to run the delayed tasks - as
+     * the retries and the validation polling - and to measure the time.</p>
+     * <p>The other constructor uses a {@link HandlerScheduler HandlerScheduler} on the Looper of the calling thread.
+     * Another {@link Scheduler Scheduler} allows this manager to run on a plain JVM or under a virtual clock: all
+     * calls to this manager must then be made from the thread on which the scheduler runs the tasks.</p>
+     *
+     * @param listener
+     *            An object which implements the
+     *            {@link UpgradeManagerListener} interface.
+     * @param maxLength
+     *            The maximum length the VMU messages can have - depends in general on the communication protocols.
+     * @param scheduler
+     *            The scheduler to use to run the delayed tasks.
+     */
+    public UpgradeManager(@NonNull UpgradeManagerListener listener, int maxLength, @NonNull Scheduler scheduler) {
         this.mListener = listener;
-        this.MAX_DATA_LENGTH =  maxLength - VMUPacket.REQUIRED_INFORMATION_LENGTH;
+        this.mMaxDataLength =  maxLength - VMUPacket.REQUIRED_INFORMATION_LENGTH;
+        this.mPacketSizeController = new PacketSizeController(PacketSizeController.DEFAULT_MIN_LENGTH,
+                getChunkLength(maxLength));
+        this.mScheduler = scheduler;
+        this.mProgressThrottler = new ProgressThrottler(scheduler, new Runnable() {
+            @Override
+            public void run() {
+                deliverUploadProgress();
+            }
+        });
+        this.mProgressThrottler.setMaxRate(DEFAULT_PROGRESS_MAX_RATE);
+        initPacketHandlers();
     }
 
 
@@ -122,6 +406,272 @@ public class UpgradeManager {
         mFile = file;
     }
 
+    /**
+     * <p>To define a cache for the digests of the upgrade files.</p>
+     * <p>The digest of a file is needed to identify the upgrade with the device. When a cache is set, the digest of
+     * a file which has already been used is not computed again. Without a cache, the digest is computed once each
+     * time {@link #startUpgrade() startUpgrade} is called.</p>
+     *
+     * @param cache
+     *          The cache to use, null to not use any cache.
+     */
+    public void setDigestCache(ImageDigestCache cache) {
+        mDigestCache = cache;
+    }
+
+    /**
+     * <p>To define the analyser which runs the pre-flight analysis of the upgrade files.</p>
+     * <p>When the file given to {@link #startUpgrade() startUpgrade} has been analysed by this analyser, the
+     * source and the identifier of its {@link ImagePreflight ImagePreflight} are used: the first request is sent at
+     * once. Otherwise the file is analysed when the upgrade starts.</p>
+     *
+     * @param analyser
+     *          The analyser to get the results from, null to analyse the files when the upgrade starts.
+     */
+    public void setPreflightAnalyser(ImagePreflightAnalyser analyser) {
+        mPreflightAnalyser = analyser;
+    }
+
+    /**
+     * <p>To define the digester which computes the identifier of the upgrade files in the background.</p>
+     * <p>When the identifier of the file given to {@link #startUpgrade() startUpgrade} is neither known from its
+     * pre-flight analysis nor from the digest cache, it has to be computed by reading the whole file. With a digester
+     * the upgrade waits for its result - the calling thread is not blocked - and the first request is sent once the
+     * identifier is known. Without a digester the file is read by {@link #startUpgrade() startUpgrade}.</p>
+     *
+     * @param digester
+     *          The digester to use, null to compute the identifiers on the calling thread.
+     */
+    public void setImageDigester(ImageDigester digester) {
+        mDigester = digester;
+    }
+
+    /**
+     * <p>To get the maximum number of file bytes an {@link OpCodes.Enum#UPGRADE_DATA UPGRADE_DATA} packet can
+     * contain for the given maximum length of the VMU messages.</p>
+     *
+     * @param maxLength
+     *          The maximum length the VMU messages can have, as given to the constructor.
+     *
+     * @return The length of the chunks of the file to use for an {@link ImagePreflight ImagePreflight}.
+     */
+    public static int getChunkLength(int maxLength) {
+        // the data of an UPGRADE_DATA packet starts with the last packet flag
+        return maxLength - VMUPacket.REQUIRED_INFORMATION_LENGTH - 1;
+    }
+
+    /**
+     * <p>To define the maximum length the VMU messages can have once it has been negotiated with the Device, for
+     * instance from the MTU of the link. This replaces the maximum length given to the constructor.</p>
+     * <p>The {@link OpCodes.Enum#UPGRADE_DATA UPGRADE_DATA} packets are sent with as many file bytes as this
+     * length allows, then their length is adjusted from the latency of their acknowledgements and from the errors
+     * reported through {@link #receiveVMControlFailed() receiveVMControlFailed}, see
+     * {@link PacketSizeController PacketSizeController}. The length in use is reported in each
+     * {@link UploadProgress UploadProgress}.</p>
+     * <p>This can be called during an upgrade, for instance when the link has been connected again with a smaller
+     * MTU: the next packets are sent within the new length.</p>
+     *
+     * @param maxLength
+     *          The maximum length the VMU messages can have.
+     */
+    public void setMaxPacketLength(int maxLength) {
+        mMaxDataLength = maxLength - VMUPacket.REQUIRED_INFORMATION_LENGTH;
+        mPacketSizeController.setMaxLength(getChunkLength(maxLength));
+        if (!isUpgrading) {
+            mPacketSizeController.reset();
+            if (mFrameListener != null) {
+                // the frames are pooled up to the maximum length
+                mEncoder = new UpgradeDataEncoder(mFrameListener.getFrameHeaderLength(),
+                        mFrameListener.getFrameTrailerLength(), mMaxDataLength - 1);
+            }
+        }
+    }
+
+    /**
+     * <p>To get the number of file bytes which are sent in the next {@link OpCodes.Enum#UPGRADE_DATA UPGRADE_DATA}
+     * packet, see {@link #setMaxPacketLength(int) setMaxPacketLength}.</p>
+     */
+    public int getPacketLength() {
+        return mPacketSizeController.getLength();
+    }
+
+    /**
+     * <p>To define a journal to record the progress of the upgrades.</p>
+     * <p>When a journal is set, the start, the resume points, the acknowledged offsets and the end of an upgrade are
+     * recorded in it. If the application process ends during an upgrade, the
+     * {@link UpgradeJournal#getSession() session} read from the journal on the next launch gives the file to resume
+     * the upgrade with. When an upgrade is started with the file of that session, the recorded identifier is used and
+     * the file does not need to be read to compute it.</p>
+     *
+     * @param journal
+     *          The journal to use, null to not record the upgrades.
+     */
+    public void setJournal(UpgradeJournal journal) {
+        mJournal = journal;
+    }
+
+    /**
+     * <p>To define a timeline to record the protocol events of the upgrades.</p>
+     * <p>When a timeline is set, the packets exchanged with the Device, the acknowledgements of the data packets,
+     * the retries, the resume points, the errors and the end of an upgrade are recorded in it with the time of the
+     * scheduler of this manager. The timeline is not cleared by this manager: it should be cleared before an upgrade
+     * starts to only contain the events of that upgrade.</p>
+     *
+     * @param timeline
+     *          The timeline to use, null to not record the upgrades.
+     */
+    public void setTimeline(UpgradeTimeline timeline) {
+        mTimeline = timeline;
+    }
+
+    /**
+     * <p>To define the maximum number of {@link OpCodes.Enum#UPGRADE_DATA UPGRADE_DATA} packets this manager can
+     * send without waiting for their acknowledgement.</p>
+     * <p>The packets are always sent within the number of bytes requested by the device through its last
+     * {@link OpCodes.Enum#UPGRADE_DATA_BYTES_REQ UPGRADE_DATA_BYTES_REQ} message. A window of 1 keeps the
+     * stop-and-wait behaviour: the next packet is only sent once the previous one has been acknowledged.</p>
+     * <p>The window size cannot be changed while an upgrade is processing.</p>
+     *
+     * @param size
+     *          The number of packets which can be waiting for an acknowledgement, any value lower than 1 is
+     *          considered as 1.
+     *
+     * @return true if the window size has been set.
+     */
+    public boolean setWindowSize(int size) {
+        if (isUpgrading) {
+            Log.w(TAG, "Window size cannot be changed during an upgrade.");
+            return false;
+        }
+        mWindowSize = size < 1 ? 1 : size;
+        mInFlightLengths = new int[mWindowSize];
+        mInFlightOffsets = new int[mWindowSize];
+        mInFlightSendTimes = new long[mWindowSize];
+        mInFlightFrames = new byte[mWindowSize][];
+        return true;
+    }
+
+    /**
+     * <p>To define the maximum number of {@link UpgradeManagerListener#onFileUploadProgress(UploadProgress)
+     * onFileUploadProgress} events per second. The progress changes which happen in between are coalesced: the
+     * listener gets the latest progress at the end of each interval. The end of the upload is always reported with
+     * a progress of 100%.</p>
+     * <p>The default rate is {@link #DEFAULT_PROGRESS_MAX_RATE DEFAULT_PROGRESS_MAX_RATE}.</p>
+     *
+     * @param rate
+     *          The maximum number of events per second, 0 to report the progress before each data packet.
+     */
+    public void setProgressMaxRate(int rate) {
+        mProgressThrottler.setMaxRate(rate);
+    }
+
+    /**
+     * <p>To define when an {@link OpCodes.Enum#UPGRADE_START_REQ UPGRADE_START_REQ} message is sent again after the
+     * Device has answered that it was not ready. When the policy gives up, the upgrade is aborted with the error
+     * {@link UpgradeError.ErrorTypes#ERROR_BOARD_NOT_READY ERROR_BOARD_NOT_READY}.</p>
+     * <p>The default policy is {@link RetryPolicy#DEFAULT_START DEFAULT_START}.</p>
+     *
+     * @param policy
+     *          The policy to use, null to use the default one.
+     */
+    public void setStartRetryPolicy(RetryPolicy policy) {
+        mStartPolicy = policy != null ? policy : RetryPolicy.DEFAULT_START;
+    }
+
+    /**
+     * <p>To define when an {@link OpCodes.Enum#UPGRADE_IS_VALIDATION_DONE_REQ UPGRADE_IS_VALIDATION_DONE_REQ}
+     * message is sent again while the Device validates the image. The waiting time given by the Device is used as
+     * the suggested delay of the policy. When the policy gives up, the upgrade is aborted with the error
+     * {@link UpgradeError.ErrorTypes#ERROR_BOARD_NOT_READY ERROR_BOARD_NOT_READY}.</p>
+     * <p>The default policy is {@link RetryPolicy#DEFAULT_VALIDATION DEFAULT_VALIDATION}.</p>
+     *
+     * @param policy
+     *          The policy to use, null to use the default one.
+     */
+    public void setValidationRetryPolicy(RetryPolicy policy) {
+        mValidationPolicy = policy != null ? policy : RetryPolicy.DEFAULT_VALIDATION;
+    }
+
+    /**
+     * <p>To define a cache which learns how long the Device takes to be ready for an upgrade.</p>
+     * <p>When the Device is known, the first {@link OpCodes.Enum#UPGRADE_START_REQ UPGRADE_START_REQ} retry is sent
+     * when the Device is expected to be ready instead of following the exponential backoff of the start policy.</p>
+     *
+     * @param cache
+     *          The cache to use, null to not learn the readiness time.
+     * @param device
+     *          The key of the Device in the cache, such as its Bluetooth address. The cache is not used if this is
+     *          null.
+     */
+    public void setReadinessCache(ReadinessCache cache, String device) {
+        mReadinessCache = cache;
+        mReadinessKey = device;
+    }
+
+    /**
+     * <p>To define a store for the transfer checkpoints of the Devices.</p>
+     * <p>The Device chooses the offset of the bytes it requests: when an upgrade is resumed or started again with
+     * the same image, the Device requests the image from the offset it has reached. With a store, the bytes
+     * acknowledged by the Device are recorded so that this manager knows how many bytes it does not send again and
+     * how many bytes the Device has lost. The upgrade is also not aborted - which would make the Device erase what it
+     * has received - when the Device has made some progress and only fails to be ready in time: the upgrade is
+     * stopped with the error {@link UpgradeError.ErrorTypes#ERROR_BOARD_NOT_READY ERROR_BOARD_NOT_READY} and the next
+     * upgrade of the same image continues from where the Device is.</p>
+     *
+     * @param checkpoints
+     *          The store to use, null to not record the checkpoints.
+     * @param device
+     *          The key of the Device in the store, such as its Bluetooth address. The store is not used if this is
+     *          null.
+     */
+    public void setCheckpoints(TransferCheckpoints checkpoints, String device) {
+        mCheckpoints = checkpoints;
+        mCheckpointKey = device;
+    }
+
+    /**
+     * <p>To get the counters of the retries made during the current or the last upgrade.</p>
+     */
+    public RetryStatistics getRetryStatistics() {
+        return mRetryStatistics;
+    }
+
+    /**
+     * <p>To send the {@link OpCodes.Enum#UPGRADE_DATA UPGRADE_DATA} packets as complete transport frames.</p>
+     * <p>When a frame listener is set, the file bytes are read straight into a frame which has room for the
+     * transport header and trailer. The frames are reused once their acknowledgement has been received through
+     * {@link #receiveVMControlSucceed() receiveVMControlSucceed}, so the data transfer does not allocate any memory
+     * per packet. Any other packet is still sent through
+     * {@link UpgradeManagerListener#sendUpgradePacket(byte[]) sendUpgradePacket}.</p>
+     * <p>The frame listener cannot be changed while an upgrade is processing.</p>
+     *
+     * @param listener
+     *          The listener to send the data frames, null to send the data packets through
+     *          {@link UpgradeManagerListener#sendUpgradePacket(byte[]) sendUpgradePacket}.
+     *
+     * @return true if the frame listener has been set.
+     */
+    public boolean setFrameListener(UpgradeFrameListener listener) {
+        if (isUpgrading) {
+            Log.w(TAG, "Frame listener cannot be changed during an upgrade.");
+            return false;
+        }
+        mFrameListener = listener;
+        mEncoder = listener == null ? null : new UpgradeDataEncoder(listener.getFrameHeaderLength(),
+                listener.getFrameTrailerLength(), mMaxDataLength - 1);
+        return true;
+    }
+
+    /**
+     * <p>To get the maximum number of {@link OpCodes.Enum#UPGRADE_DATA UPGRADE_DATA} packets this manager can send
+     * without waiting for their acknowledgement.</p>
+     *
+     * @return the window size used for the data transfer.
+     */
+    public int getWindowSize() {
+        return mWindowSize;
+    }
+
     /**
      * <p>To allow the display of the debug logs.</p>
      * <p>They give complementary information on any call of a method.
@@ -149,25 +699,61 @@ public class UpgradeManager {
      *         <li>{@link VMUException.Type#GET_BYTES_FILE_FAILED
      *         GET_BYTES_FILE_FAILED}</li>
      *         <li>{@link VMUException.Type#FILE_TOO_BIG FILE_TOO_BIG}</li>
+     *         <li>{@link VMUException.Type#INVALID_IMAGE INVALID_IMAGE}</li>
      *     </ul></li>
      * </ul></p>
+     * <p>The file is not loaded in memory: its bytes are read through an
+     * {@link UpgradeImageSource UpgradeImageSource} when the data packets are built.</p>
+     * <p>If the file has already been analysed by the {@link #setPreflightAnalyser(ImagePreflightAnalyser)
+     * preflight analyser}, its result is used and the file is neither opened nor read again. Otherwise, if an
+     * {@link #setImageDigester(ImageDigester) image digester} has been set, the identifier of the file is computed
+     * in the background and the first request is sent once it is known.</p>
      */
     @SuppressWarnings("WeakerAccess")
     public void startUpgrade() {
         if (!isUpgrading && mFile != null) {
             isUpgrading = true;
             resetUpload();
+            releaseImageSource();
+            mRetryStatistics.reset();
 
             try {
-                mBytesFile = VMUUtils.getBytesFromFile(mFile);
+                ImagePreflight preflight = mPreflightAnalyser != null ? mPreflightAnalyser.getPreflight(mFile) : null;
+                mImageSource = preflight != null ? preflight.takeSource() : null;
+                if (mImageSource == null) {
+                    mImageSource = VMUUtils.getImageSourceFromFile(mFile);
+                }
+                if (preflight == null) {
+                    ImagePreflight.checkImage(mImageSource);
+                }
+
+                UpgradeSession session = mJournal != null ? mJournal.getSession() : null;
+                if (session != null && session.isForFile(mFile)) {
+                    // resuming an interrupted upgrade
+                    mIdentifier = session.getIdentifier();
+                }
+                else if (preflight != null) {
+                    mIdentifier = preflight.getIdentifier();
+                }
+                else if (mDigester != null && (mDigestCache == null || mDigestCache.getCachedDigest(mFile) == null)) {
+                    // the upgrade goes on once the identifier has been computed
+                    mDigestJob = mDigester.digest(mFile, mDigestListener);
+                    return;
+                }
+                else {
+                    mIdentifier = mDigestCache != null ? mDigestCache.getDigest(mFile, mImageSource)
+                            : ImageDigestCache.computeDigest(mImageSource);
+                }
             } catch (VMUException exception) {
+                releaseImageSource();
+                isUpgrading = false;
                 UpgradeError error = new UpgradeError(exception);
                 Log.e(TAG, "Error occurs when attempt to start the process: " + error.getString());
                 mListener.onUpgradeProcessError(error);
                 return;
             }
 
-            sendSyncReq();
+            startSession();
         }
         else if (isUpgrading) {
             mListener.onUpgradeProcessError(new UpgradeError(UpgradeError.ErrorTypes.AN_UPGRADE_IS_ALREADY_PROCESSING));
@@ -187,13 +773,44 @@ public class UpgradeManager {
     @SuppressWarnings("UnusedReturnValue") // the return value is used for some implementations
     public boolean resumeUpgrade() {
         if (isUpgrading) {
+            // the bytes acknowledged before the link was lost are kept if the application stops now
+            saveCheckpoint(true);
             resetUpload();
+            record(UpgradeTimeline.Event.RESUMED, mResumePoint);
             sendSyncReq();
         }
 
         return isUpgrading;
     }
 
+    /**
+     * <p>To inform this manager that the link with the Device has been lost while an upgrade is processing, for
+     * instance when the Device reboots into the new image. This is only recorded in the timeline: the upgrade goes
+     * on with {@link #resumeUpgrade() resumeUpgrade} once the link is ready again.</p>
+     */
+    public void onLinkLost() {
+        if (isUpgrading) {
+            record(UpgradeTimeline.Event.LINK_LOST, mResumePoint);
+            // the application may not be running anymore when the link is back
+            saveCheckpoint(true);
+            flushCheckpoints();
+        }
+    }
+
+    /**
+     * <p>To inform this manager that the link with the Device has been connected again while an upgrade is
+     * processing. This is only recorded in the timeline in order to measure how long the link has been lost and how
+     * long it takes to set it up again before the upgrade is resumed.</p>
+     *
+     * @param attempts
+     *          The number of connection attempts made since the link has been lost.
+     */
+    public void onLinkRestored(int attempts) {
+        if (isUpgrading) {
+            record(UpgradeTimeline.Event.LINK_RESTORED, attempts);
+        }
+    }
+
     /**
      * <p>To know if there is an existing upgrade process running.</p>
      *
@@ -211,18 +828,36 @@ public class UpgradeManager {
      *            The received byte array.
      */
     public void receiveVMUPacket(byte[] bytes) {
+        receiveVMUPacket(bytes, 0, bytes.length);
+    }
+
+    /**
+     * <p>This method allows to manage a VM message which has been received within a bigger array, as the payload of
+     * a GAIA packet.</p>
+     * <p>The message is read in place: it is neither copied nor decoded into a new object. The array must not be
+     * modified until this method returns.</p>
+     *
+     * @param bytes
+     *            The array which contains the received message.
+     * @param offset
+     *            The offset of the message in the array.
+     * @param length
+     *            The number of bytes of the message.
+     */
+    public void receiveVMUPacket(byte[] bytes, int offset, int length) {
         try {
-            VMUPacket packet = new VMUPacket(bytes);
-            if (isUpgrading || packet.getOpCode() == OpCodes.Enum.UPGRADE_ABORT_CFM) {
+            mReceivedPacket.wrap(bytes, offset, length);
+            @OpCodes.Enum int opCode = mReceivedPacket.getOpCode();
+            if (isUpgrading || opCode == OpCodes.Enum.UPGRADE_ABORT_CFM) {
+                record(UpgradeTimeline.Event.PACKET_RECEIVED, opCode);
                 if (mShowDebugLogs) {
-                    Log.d(TAG, "Received " + OpCodes.getString(packet.getOpCode()) + ": " +
-                            VMUUtils.getHexadecimalStringFromBytes(packet.getData()));
+                    Log.d(TAG, "Received " + mReceivedPacket.toString());
                 }
-                handleVMUPacket(packet);
+                handleVMUPacket(mReceivedPacket);
             }
             else {
                 Log.w(TAG, "Received VMU packet while application is not upgrading anymore, opcode received: " +
-                        OpCodes.getString(packet.getOpCode()));
+                        OpCodes.getString(opCode));
             }
         } catch (VMUException exception) {
             UpgradeError error = new UpgradeError(exception);
@@ -237,19 +872,84 @@ public class UpgradeManager {
      they have been successfully received by the board.
      */
     public void receiveVMControlSucceed() {
-        if (wasLastPacket) {
-            if (mResumePoint == ResumePoints.Enum.DATA_TRANSFER) {
-                wasLastPacket = false;
-                setResumePoint(ResumePoints.Enum.VALIDATION);
-                sendValidationDoneReq();
+        // acknowledgements are received in order: an UPGRADE_DATA packet is only credited by its own one
+        if (pollUnacknowledgedOpCode() == OpCodes.Enum.UPGRADE_DATA && mInFlightCount > 0) {
+            record(UpgradeTimeline.Event.DATA_ACKNOWLEDGED, mInFlightLengths[mInFlightHead]);
+            mAcknowledgedBytes += mInFlightLengths[mInFlightHead];
+            if (mCheckpoint != null) {
+                mCheckpoint.addRange(mInFlightOffsets[mInFlightHead], mInFlightLengths[mInFlightHead]);
+                saveCheckpoint(false);
+            }
+            mInFlightBytes -= mInFlightLengths[mInFlightHead];
+            mThroughputEstimator.onBytesAcknowledged(mScheduler.now(), mInFlightLengths[mInFlightHead]);
+            mPacketSizeController.onPacketAcknowledged(mInFlightLengths[mInFlightHead],
+                    mScheduler.now() - mInFlightSendTimes[mInFlightHead]);
+            if (mJournal != null && !wasLastPacket) {
+                mJournal.recordAcknowledgedOffset(mStartOffset - mInFlightBytes, mScheduler.now());
             }
+            if (mInFlightFrames[mInFlightHead] != null) {
+                // the frame has been received by the device: it can be reused
+                mEncoder.release(mInFlightFrames[mInFlightHead]);
+                mInFlightFrames[mInFlightHead] = null;
+            }
+            mInFlightHead = (mInFlightHead + 1) % mWindowSize;
+            mInFlightCount--;
         }
-        else if (hasToAbort) {
-            hasToAbort = false;
-            abortUpgrade();
+
+        continueAfterVMControl();
+    }
+
+    /**
+     * <p>This method is called when the acknowledgement of a VMU packet has not been received in time.</p>
+     * <p>If the packet is an {@link OpCodes.Enum#UPGRADE_DATA UPGRADE_DATA} one, it leaves the data window without
+     * being recorded as acknowledged and the next UPGRADE_DATA packets are shorter, see
+     * {@link PacketSizeController PacketSizeController}.</p>
+     */
+    public void receiveVMControlFailed() {
+        if (pollUnacknowledgedOpCode() == OpCodes.Enum.UPGRADE_DATA && mInFlightCount > 0) {
+            mInFlightBytes -= mInFlightLengths[mInFlightHead];
+            // the frame might still be used by the transport: it is not reused
+            mInFlightFrames[mInFlightHead] = null;
+            mInFlightHead = (mInFlightHead + 1) % mWindowSize;
+            mInFlightCount--;
+            onDataPacketFailed();
+            continueAfterVMControl();
         }
-        else if (mBytesToSend > 0 && mResumePoint == ResumePoints.Enum.DATA_TRANSFER) {
-            sendNextDataPacket();
+    }
+
+    /**
+     * <p>This method is called by the {@link UpgradeFrameListener UpgradeFrameListener} when the frame given to
+     * {@link UpgradeFrameListener#sendUpgradeFrame(byte[], int) sendUpgradeFrame} could not be sent: the Device will
+     * never acknowledge it.</p>
+     * <p>The frame leaves the data window and its file bytes are sent again within shorter packets, see
+     * {@link PacketSizeController PacketSizeController}. If the packets cannot be shorter the upgrade is
+     * aborted.</p>
+     */
+    public void receiveUpgradeFrameFailed() {
+        if (!isUpgrading || mInFlightCount == 0) {
+            return;
+        }
+
+        // the frame is the last one which has entered the window: its bytes are the next ones to send
+        mUnacknowledgedOpCodes.pollLast();
+        int index = (mInFlightHead + mInFlightCount - 1) % mWindowSize;
+        mStartOffset = mInFlightOffsets[index];
+        mBytesToSend += mInFlightLengths[index];
+        mInFlightBytes -= mInFlightLengths[index];
+        wasLastPacket = false;
+        if (mInFlightFrames[index] != null) {
+            mEncoder.release(mInFlightFrames[index]);
+            mInFlightFrames[index] = null;
+        }
+        mInFlightCount--;
+
+        if (mPacketSizeController.getLength() > mPacketSizeController.getMinLength()) {
+            onDataPacketFailed();
+            // each failure halves the length of the packets until they reach the minimum length
+            fillDataWindow();
+        }
+        else {
+            startAbortion(new UpgradeError(UpgradeError.ErrorTypes.EXCEPTION));
         }
     }
 
@@ -258,9 +958,19 @@ public class UpgradeManager {
      */
     @SuppressWarnings("WeakerAccess")
     public void abortUpgrade() {
-        if (isUpgrading) {
+        if (isUpgrading && mDigestJob != null) {
+            // nothing has been sent to the Device yet
+            cancelDigest();
+            stopUpgrade();
+        }
+        else if (isUpgrading) {
             sendAbortReq();
+            record(UpgradeTimeline.Event.ENDED, 0);
             isUpgrading = false;
+            releaseImageSource();
+            endJournalSession();
+            // the device erases the image when it aborts the upgrade
+            removeCheckpoint();
         }
     }
 
@@ -345,6 +1055,11 @@ public class UpgradeManager {
             if (mShowDebugLogs)
                 Log.d(TAG, "send " + OpCodes.getString(packet.getOpCode()) + ": " +
                         VMUUtils.getHexadecimalStringFromBytes(bytes));
+            if (packet.getOpCode() != OpCodes.Enum.UPGRADE_DATA) {
+                // the data packets are recorded with their length when they are built
+                record(UpgradeTimeline.Event.PACKET_SENT, packet.getOpCode());
+            }
+            mUnacknowledgedOpCodes.add(packet.getOpCode());
             mListener.sendUpgradePacket(bytes);
         }
         else {
@@ -364,6 +1079,7 @@ public class UpgradeManager {
         String strBuilder = "Error occurs during upgrade process: " + error.getString() +
                 "\nStart abortion...";
         Log.e(TAG, strBuilder);
+        record(UpgradeTimeline.Event.ERROR, error.getError());
         mListener.onUpgradeProcessError(error);
         abortUpgrade();
     }
@@ -376,6 +1092,14 @@ public class UpgradeManager {
      */
     private void setResumePoint(@ResumePoints.Enum int point) {
         mResumePoint = point;
+        record(UpgradeTimeline.Event.RESUME_POINT, point);
+        if (mJournal != null) {
+            mJournal.recordResumePoint(point);
+        }
+        if (mCheckpoint != null && mCheckpoint.getResumePoint() != point) {
+            mCheckpoint.setResumePoint(point);
+            saveCheckpoint(true);
+        }
         mListener.onResumePointChanged(point);
     }
 
@@ -394,38 +1118,274 @@ public class UpgradeManager {
      */
     private void stopUpgrade() {
         isUpgrading = false;
+        cancelDigest();
+        mProgressThrottler.cancel();
+        cancelRetries();
+        releaseImageSource();
+        endJournalSession();
         mListener.disconnectUpgrade();
     }
 
+    /**
+     * <p>When the Device is not ready in time, this method is called instead of
+     * {@link #startAbortion(UpgradeError) startAbortion} if the Device has made some progress with the image. The
+     * upgrade is stopped without being aborted so that the Device keeps what it has received and the next upgrade of
+     * the same image continues from there.</p>
+     *
+     * @param error
+     *          The error which occurs.
+     */
+    private void suspendUpgrade(UpgradeError error) {
+        Log.w(TAG, "Error occurs during upgrade process: " + error.getString()
+                + "\nUpgrade stopped without abortion, checkpoint: " + mCheckpoint.toString());
+        record(UpgradeTimeline.Event.ERROR, error.getError());
+        record(UpgradeTimeline.Event.ENDED, 0);
+        saveCheckpoint(true);
+        flushCheckpoints();
+        // the upgrade is not processing anymore when the listener is informed, so it is not aborted
+        stopUpgrade();
+        mListener.onUpgradeProcessError(error);
+    }
+
+    /**
+     * <p>To stop the upgrade when the Device is not ready in time: the upgrade is
+     * {@link #suspendUpgrade(UpgradeError) suspended} if the Device has made some progress with the image which can
+     * be recorded, otherwise it is aborted.</p>
+     */
+    private void onDeviceNotReady() {
+        UpgradeError error = new UpgradeError(UpgradeError.ErrorTypes.ERROR_BOARD_NOT_READY);
+        if (mCheckpoint != null && mCheckpoint.hasProgress()) {
+            suspendUpgrade(error);
+        }
+        else {
+            startAbortion(error);
+        }
+    }
+
+    /**
+     * <p>To get the checkpoint of the image from the store if there is one: the checkpoint recorded for the Device
+     * is kept if it is for the same image, otherwise it is replaced as the Device will forget its previous image when
+     * it receives another identifier.</p>
+     */
+    private void openCheckpoint() {
+        mCheckpoint = null;
+        if (mCheckpoints == null || mCheckpointKey == null) {
+            return;
+        }
+
+        int length = mImageSource.getLength();
+        TransferCheckpoint checkpoint = mCheckpoints.get(mCheckpointKey);
+        if (checkpoint != null && checkpoint.isForImage(mIdentifier, length)) {
+            Log.i(TAG, "Upgrade started with a previous checkpoint: " + checkpoint.toString());
+            mCheckpoint = checkpoint;
+        }
+        else {
+            mCheckpoint = new TransferCheckpoint(mIdentifier, length);
+            mCheckpoints.put(mCheckpointKey, mCheckpoint);
+        }
+        mCheckpointSaveTime = mScheduler.now();
+    }
+
+    /**
+     * <p>To save the checkpoint of the current upgrade if there is one. The checkpoint is written in the background,
+     * see {@link #flushCheckpoints() flushCheckpoints}.</p>
+     *
+     * @param force
+     *          True to save the checkpoint at once, false to save it only if it has not been saved for
+     *          {@link TransferCheckpoints#SAVE_INTERVAL_MS SAVE_INTERVAL_MS}.
+     */
+    private void saveCheckpoint(boolean force) {
+        if (mCheckpoint == null) {
+            return;
+        }
+        long now = mScheduler.now();
+        if (force || now - mCheckpointSaveTime >= TransferCheckpoints.SAVE_INTERVAL_MS) {
+            mCheckpointSaveTime = now;
+            mCheckpoints.put(mCheckpointKey, mCheckpoint);
+        }
+    }
+
+    /**
+     * <p>To remove the checkpoint of the current upgrade from the store once the Device does not have the image
+     * anymore.</p>
+     */
+    private void removeCheckpoint() {
+        if (mCheckpoint != null) {
+            mCheckpoints.remove(mCheckpointKey);
+            mCheckpoint = null;
+            flushCheckpoints();
+        }
+    }
+
+    /**
+     * <p>To write at once the checkpoints which are waiting to be saved in the background. This is only done when
+     * the upgrade stops or the link is lost: the saving of the progress while the image is transferred does not
+     * wait for the storage.</p>
+     */
+    private void flushCheckpoints() {
+        if (mCheckpoints != null) {
+            mCheckpoints.flush();
+        }
+    }
+
+    /**
+     * <p>To compare the offset from which the Device requests the image after a synchronisation with the bytes it
+     * has acknowledged before. The bytes before the offset are not sent again, the acknowledged bytes after it have
+     * been lost by the Device and are sent again.</p>
+     *
+     * @param offset
+     *          The offset of the first UPGRADE_DATA_BYTES_REQ message since the synchronisation.
+     */
+    private void onTransferResumed(int offset) {
+        int resentBytes = 0;
+        if (mCheckpoint != null) {
+            resentBytes = mCheckpoint.getAcknowledgedBytes(offset, mCheckpoint.getLength());
+            // the Device is the reference: it has the bytes before the offset and none after it
+            mCheckpoint.resetTo(offset);
+            saveCheckpoint(true);
+        }
+        if (offset > 0 || resentBytes > 0) {
+            Log.i(TAG, "Transfer resumed from offset " + offset + ", bytes sent again: " + resentBytes);
+        }
+        mRetryStatistics.onTransferResumed(offset, resentBytes);
+    }
+
+    /**
+     * <p>To cancel the computation of the identifier of the file if the upgrade is waiting for it.</p>
+     */
+    private void cancelDigest() {
+        if (mDigestJob != null) {
+            mDigestJob.cancel();
+            mDigestJob = null;
+        }
+    }
+
+    /**
+     * <p>To start the upgrade session with the Device once the source and the identifier of the file are known.</p>
+     */
+    private void startSession() {
+        if (mJournal != null) {
+            mJournal.startSession(mFile, mIdentifier);
+        }
+        openCheckpoint();
+        record(UpgradeTimeline.Event.UPGRADE_STARTED, mImageSource.getLength());
+        isNewSession = true;
+        sendSyncReq();
+    }
+
+    /**
+     * <p>To record the end of the upgrade in the journal if there is one.</p>
+     */
+    private void endJournalSession() {
+        if (mJournal != null) {
+            mJournal.endSession();
+        }
+    }
+
+    /**
+     * <p>To record an event in the timeline if there is one.</p>
+     *
+     * @param event
+     *          The type of the event.
+     * @param value
+     *          The value of the event, see {@link UpgradeTimeline.Event UpgradeTimeline.Event}.
+     */
+    private void record(@UpgradeTimeline.Event int event, int value) {
+        if (mTimeline != null) {
+            mTimeline.record(event, mScheduler.now(), value);
+        }
+    }
+
+    /**
+     * <p>To close the source of the file bytes if there is one.</p>
+     */
+    private void releaseImageSource() {
+        if (mImageSource != null) {
+            mImageSource.close();
+            mImageSource = null;
+        }
+    }
+
     /**
      * <p>To reset the file transfer.</p>
      */
     private void resetUpload() {
+        mProgressThrottler.cancel();
+        cancelRetries();
         mStartAttempts = 0;
+        mFirstStartRequestTime = -1;
+        mValidationStartTime = -1;
+        mValidationPolls = 0;
         mBytesToSend = 0;
         mStartOffset = 0;
-        mTimeStartTransfer = 0;
+        mThroughputEstimator.reset();
+        mPacketSizeController.reset();
+        mInFlightHead = 0;
+        mInFlightCount = 0;
+        mUnacknowledgedOpCodes.clear();
+        mAcknowledgedBytes = 0;
+        mInFlightBytes = 0;
+        isFirstDataRequest = true;
+        // frames which have not been acknowledged might still be used by the transport: they are not reused
+        for (int i = 0; i < mInFlightFrames.length; i++) {
+            mInFlightFrames[i] = null;
+        }
+    }
+
+    /**
+     * <p>To cancel any scheduled UPGRADE_START_REQ or UPGRADE_IS_VALIDATION_DONE_REQ retry.</p>
+     */
+    private void cancelRetries() {
+        mScheduler.cancel(mStartRetry);
+        mScheduler.cancel(mValidationRetry);
     }
 
     /**
-     * To calculate the remaining time and percentage of upload done, and inform the listener about them.
+     * <p>To inform the listener about the progress of the upload at the rate defined with
+     * {@link #setProgressMaxRate(int) setProgressMaxRate}.</p>
+     * <p>This method is called before the next data packet is sent.</p>
      */
     private void onFileUploadProgress () {
-        double percentage = mStartOffset * 100.0 / mBytesFile.length;
+        if (!mThroughputEstimator.isStarted()) {
+            mThroughputEstimator.start(mScheduler.now());
+        }
+        mProgressThrottler.request();
+    }
 
-        if (mStartOffset > 0) {
-            if (mTimeStartTransfer == 0) {
-                mTimeStartTransfer = System.currentTimeMillis();
-            }
+    /**
+     * <p>To calculate the remaining time and percentage of upload done, and inform the listener about them.</p>
+     * <p>The remaining bytes are the ones which have not been sent yet and the ones which are waiting for an
+     * acknowledgement.</p>
+     */
+    private void deliverUploadProgress() {
+        if (!isUpgrading || mImageSource == null) {
+            return;
+        }
 
-            long remainingTime = (System.currentTimeMillis() - mTimeStartTransfer)
-                    * (mBytesFile.length - mStartOffset)
-                    / mStartOffset;
-            UploadProgress progress = new UploadProgress(percentage, remainingTime);
+        int fileLength = mImageSource.getLength();
+        double percentage = mStartOffset * 100.0 / fileLength;
+
+        if (mStartOffset > 0) {
+            long remainingBytes = fileLength - mStartOffset + mInFlightBytes;
+            UploadProgress progress = new UploadProgress(percentage,
+                    mThroughputEstimator.getRemainingTime(remainingBytes), remainingBytes,
+                    mThroughputEstimator.getInstantaneousRate(), mThroughputEstimator.getAverageRate(),
+                    mPacketSizeController.getLength());
             mListener.onFileUploadProgress(progress);
         }
     }
 
+    /**
+     * <p>To inform the listener that all the bytes of the file have been acknowledged by the Device. This is
+     * reported at once whatever the progress rate is.</p>
+     */
+    private void onFileUploadComplete() {
+        mProgressThrottler.cancel();
+        UploadProgress progress = new UploadProgress(100, 0, 0, mThroughputEstimator.getInstantaneousRate(),
+                mThroughputEstimator.getAverageRate(), mPacketSizeController.getLength());
+        mListener.onFileUploadProgress(progress);
+    }
+
     /**
      * To send the next data packet depending on the number of bytes requested by the Device through its last
      * {@link com.qualcomm.libraries.vmupgrade.codes.OpCodes.Enum#UPGRADE_DATA_BYTES_REQ} request.
@@ -434,14 +1394,29 @@ public class UpgradeManager {
         // inform listeners about evolution
         onFileUploadProgress();
 
-        int bytesToSend = mBytesToSend < MAX_DATA_LENGTH-1 ? mBytesToSend : MAX_DATA_LENGTH-1;
+        int packetLength = mPacketSizeController.getLength();
+        int bytesToSend = mBytesToSend < packetLength ? mBytesToSend : packetLength;
 
         // to know if we are sending the last data packet.
-        boolean lastPacket = mBytesFile.length-mStartOffset <= bytesToSend;
+        boolean lastPacket = mImageSource.getLength()-mStartOffset <= bytesToSend;
+        int offset = mStartOffset;
 
-        // we send the data
-        byte[] dataToSend = new byte[bytesToSend];
-        System.arraycopy(mBytesFile, mStartOffset, dataToSend, 0, dataToSend.length);
+        // we read the data
+        byte[] dataToSend = null;
+        byte[] frame = null;
+        try {
+            if (mEncoder != null) {
+                frame = mEncoder.encode(lastPacket, mImageSource, mStartOffset, bytesToSend);
+            }
+            else {
+                dataToSend = new byte[bytesToSend];
+                mImageSource.read(mStartOffset, dataToSend, 0, dataToSend.length);
+            }
+        }
+        catch (VMUException exception) {
+            startAbortion(new UpgradeError(exception));
+            return;
+        }
 
         // to reinitialize variables or increment variables
         if (lastPacket) {
@@ -453,7 +1428,76 @@ public class UpgradeManager {
             mBytesToSend -= bytesToSend;
         }
 
-        sendData(lastPacket, dataToSend);
+        int index = (mInFlightHead + mInFlightCount) % mWindowSize;
+        mInFlightLengths[index] = bytesToSend;
+        mInFlightOffsets[index] = offset;
+        mInFlightSendTimes[index] = mScheduler.now();
+        mInFlightFrames[index] = frame;
+        mInFlightCount++;
+        mInFlightBytes += bytesToSend;
+        record(UpgradeTimeline.Event.DATA_SENT, bytesToSend);
+
+        // we send the data
+        if (frame != null) {
+            sendDataFrame(frame, UpgradeDataEncoder.getPacketLength(bytesToSend));
+        }
+        else {
+            sendData(lastPacket, dataToSend);
+        }
+    }
+
+    /**
+     * <p>To send as many UPGRADE_DATA packets as the window allows within the number of bytes requested by the
+     * Device through its last {@link com.qualcomm.libraries.vmupgrade.codes.OpCodes.Enum#UPGRADE_DATA_BYTES_REQ
+     * UPGRADE_DATA_BYTES_REQ} request.</p>
+     */
+    private void fillDataWindow() {
+        while (isUpgrading && !wasLastPacket && mBytesToSend > 0 && mInFlightCount < mWindowSize) {
+            sendNextDataPacket();
+        }
+    }
+
+    /**
+     * <p>To take the operation code of the oldest VMU packet which has not been acknowledged yet.</p>
+     *
+     * @return the operation code or -1 if no VMU packet is waiting for an acknowledgement.
+     */
+    private int pollUnacknowledgedOpCode() {
+        Integer opCode = mUnacknowledgedOpCodes.poll();
+        return opCode != null ? opCode : -1;
+    }
+
+    /**
+     * <p>To make the next UPGRADE_DATA packets shorter after one of them has failed.</p>
+     */
+    private void onDataPacketFailed() {
+        mPacketSizeController.onError();
+        if (mShowDebugLogs) {
+            Log.d(TAG, "Data packet failed, next packets contain " + mPacketSizeController.getLength() + " bytes.");
+        }
+    }
+
+    /**
+     * <p>To go on with the upgrade once a VMU packet has left the data window: to ask for the validation once all
+     * the data has been acknowledged, to abort if it has been requested meanwhile or to send the next UPGRADE_DATA
+     * packets.</p>
+     */
+    private void continueAfterVMControl() {
+        if (wasLastPacket) {
+            if (mResumePoint == ResumePoints.Enum.DATA_TRANSFER && mInFlightCount == 0) {
+                wasLastPacket = false;
+                onFileUploadComplete();
+                setResumePoint(ResumePoints.Enum.VALIDATION);
+                sendValidationDoneReq();
+            }
+        }
+        else if (hasToAbort) {
+            hasToAbort = false;
+            abortUpgrade();
+        }
+        else if (mBytesToSend > 0 && mResumePoint == ResumePoints.Enum.DATA_TRANSFER) {
+            fillDataWindow();
+        }
     }
 
 
@@ -463,8 +1507,8 @@ public class UpgradeManager {
      * To send a {@link OpCodes.Enum#UPGRADE_SYNC_REQ UPGRADE_SYNC_REQ} message.
      */
     private void sendSyncReq () {
-        // send the MD5 information here
-        byte[] md5Checksum = VMUUtils.getMD5FromFile(mFile);
+        // send the MD5 information here, it has been computed when the upgrade started
+        byte[] md5Checksum = mIdentifier;
         int identifierLength = OpCodes.UpgradeSyncREQ.IDENTIFIER_LENGTH;
         byte[] data = new byte[OpCodes.UpgradeSyncREQ.DATA_LENGTH];
 
@@ -486,6 +1530,10 @@ public class UpgradeManager {
      * To send an UPGRADE_START_REQ message.
      */
     private void sendStartReq () {
+        if (mFirstStartRequestTime < 0) {
+            mFirstStartRequestTime = mScheduler.now();
+        }
+        mRetryStatistics.onStartRequest();
         VMUPacket packet = new VMUPacket(OpCodes.Enum.UPGRADE_START_REQ);
         sendVMUPacket(packet);
     }
@@ -516,10 +1564,37 @@ public class UpgradeManager {
         sendVMUPacket(packet);
     }
 
+    /**
+     * To send an UPGRADE_DATA packet which has been built into a frame by the {@link #mEncoder encoder}.
+     *
+     * @param frame
+     *                  the frame which contains the packet.
+     * @param packetLength
+     *                  the number of bytes of the VMU packet in the frame.
+     */
+    private void sendDataFrame(byte[] frame, int packetLength) {
+        if (isUpgrading) {
+            if (mShowDebugLogs)
+                Log.d(TAG, "send " + OpCodes.getString(OpCodes.Enum.UPGRADE_DATA) + " frame: " +
+                        VMUUtils.getHexadecimalStringFromBytes(frame));
+            mUnacknowledgedOpCodes.add((int) OpCodes.Enum.UPGRADE_DATA);
+            mFrameListener.sendUpgradeFrame(frame, packetLength);
+        }
+        else {
+            Log.w(TAG, "Sending failed as application is no longer upgrading for opcode: " + OpCodes.getString
+                    (OpCodes.Enum.UPGRADE_DATA));
+        }
+    }
+
     /**
      * To send an UPGRADE_IS_VALIDATION_DONE_REQ message.
      */
     private void sendValidationDoneReq () {
+        if (mValidationStartTime < 0) {
+            mValidationStartTime = mScheduler.now();
+        }
+        mValidationPolls++;
+        mRetryStatistics.onValidationPoll();
         VMUPacket packet = new VMUPacket(OpCodes.Enum.UPGRADE_IS_VALIDATION_DONE_REQ);
         sendVMUPacket(packet);
     }
@@ -583,50 +1658,76 @@ public class UpgradeManager {
     }
 
     /**
-     * To manage the reception of a message about the VM upgrade.
-     *
-     * @param packet
-     *            the received packet.
+     * <p>To fill the table of the handlers of the packets received from the Device.</p>
      */
-    @SuppressLint("SwitchIntDef") // not all operation codes can be found in the VMU packets received from the Device
-    private void handleVMUPacket(VMUPacket packet) {
-
-        switch (packet.getOpCode()) {
-            case OpCodes.Enum.UPGRADE_SYNC_CFM:
+    private void initPacketHandlers() {
+        mPacketHandlers[OpCodes.Enum.UPGRADE_SYNC_CFM] = new PacketHandler() {
+            @Override
+            public void handle(VMUPacketView packet) {
                 receiveSyncCFM(packet);
-                break;
-
-            case OpCodes.Enum.UPGRADE_START_CFM:
+            }
+        };
+        mPacketHandlers[OpCodes.Enum.UPGRADE_START_CFM] = new PacketHandler() {
+            @Override
+            public void handle(VMUPacketView packet) {
                 receiveStartCFM(packet);
-                break;
-
-            case OpCodes.Enum.UPGRADE_DATA_BYTES_REQ:
+            }
+        };
+        mPacketHandlers[OpCodes.Enum.UPGRADE_DATA_BYTES_REQ] = new PacketHandler() {
+            @Override
+            public void handle(VMUPacketView packet) {
                 receiveDataBytesREQ(packet);
-                break;
-
-            case OpCodes.Enum.UPGRADE_ABORT_CFM:
+            }
+        };
+        mPacketHandlers[OpCodes.Enum.UPGRADE_ABORT_CFM] = new PacketHandler() {
+            @Override
+            public void handle(VMUPacketView packet) {
                 receiveAbortCFM();
-                break;
-
-            case OpCodes.Enum.UPGRADE_ERROR_WARN_IND:
+            }
+        };
+        mPacketHandlers[OpCodes.Enum.UPGRADE_ERROR_WARN_IND] = new PacketHandler() {
+            @Override
+            public void handle(VMUPacketView packet) {
                 receiveErrorWarnIND(packet);
-                break;
-
-            case OpCodes.Enum.UPGRADE_IS_VALIDATION_DONE_CFM:
+            }
+        };
+        mPacketHandlers[OpCodes.Enum.UPGRADE_IS_VALIDATION_DONE_CFM] = new PacketHandler() {
+            @Override
+            public void handle(VMUPacketView packet) {
                 receiveValidationDoneCFM(packet);
-                break;
-
-            case OpCodes.Enum.UPGRADE_TRANSFER_COMPLETE_IND:
+            }
+        };
+        mPacketHandlers[OpCodes.Enum.UPGRADE_TRANSFER_COMPLETE_IND] = new PacketHandler() {
+            @Override
+            public void handle(VMUPacketView packet) {
                 receiveTransferCompleteIND();
-                break;
-
-            case OpCodes.Enum.UPGRADE_COMMIT_REQ:
+            }
+        };
+        mPacketHandlers[OpCodes.Enum.UPGRADE_COMMIT_REQ] = new PacketHandler() {
+            @Override
+            public void handle(VMUPacketView packet) {
                 receiveCommitREQ();
-                break;
-
-            case OpCodes.Enum.UPGRADE_COMPLETE_IND:
+            }
+        };
+        mPacketHandlers[OpCodes.Enum.UPGRADE_COMPLETE_IND] = new PacketHandler() {
+            @Override
+            public void handle(VMUPacketView packet) {
                 receiveCompleteIND();
-                break;
+            }
+        };
+    }
+
+    /**
+     * To manage the reception of a message about the VM upgrade.
+     *
+     * @param packet
+     *            the received packet.
+     */
+    private void handleVMUPacket(VMUPacketView packet) {
+        // not all operation codes can be found in the VMU packets received from the Device
+        PacketHandler handler = mPacketHandlers[packet.getRawOpCode()];
+        if (handler != null) {
+            handler.handle(packet);
         }
     }
 
@@ -636,13 +1737,17 @@ public class UpgradeManager {
      * @param packet
      *            The received packet.
      */
-    private void receiveErrorWarnIND(VMUPacket packet) {
-        byte[] data = packet.getData();
-        sendErrorConfirmation(data); // immediate answer, data is the same as the received one.
+    private void receiveErrorWarnIND(VMUPacketView packet) {
+        if (packet.getDataLength() < OpCodes.UpgradeErrorWarnIND.DATA_LENGTH) {
+            startAbortion(new UpgradeError(UpgradeError.ErrorTypes.WRONG_DATA_PARAMETER));
+            return;
+        }
 
-        short code = VMUUtils.extractShortFromByteArray(data, OpCodes.UpgradeErrorWarnIND.RETURN_CODE_OFFSET,
-                OpCodes.UpgradeErrorWarnIND.RETURN_CODE_LENGTH, false);
-        @ReturnCodes.Enum int returnCode = ReturnCodes.getReturnCode(code);
+        // read before answering: the view is reused if the answer is received synchronously
+        int code = packet.getInt(OpCodes.UpgradeErrorWarnIND.RETURN_CODE_OFFSET,
+                OpCodes.UpgradeErrorWarnIND.RETURN_CODE_LENGTH);
+        @ReturnCodes.Enum int returnCode = ReturnCodes.getReturnCode((short) code);
+        sendErrorConfirmation(packet.copyData()); // immediate answer, data is the same as the received one.
 
         if (returnCode == ReturnCodes.Enum.WARN_SYNC_ID_IS_DIFFERENT) {
             askForConfirmation(ConfirmationType.WARNING_FILE_IS_DIFFERENT);
@@ -661,19 +1766,26 @@ public class UpgradeManager {
      * This method is called when we received an UPGRADE_SYNC_CFM message. This method starts the next step which is
      * sending an UPGRADE_START_REQ message.
      */
-    private void receiveSyncCFM(VMUPacket packet) {
-        byte[] data = packet.getData();
-        if (data.length >= OpCodes.UpgradeSyncCFM.DATA_LENGTH) {
-            @ResumePoints.Enum int step = ResumePoints.getResumePoint(data[OpCodes.UpgradeSyncCFM.RESUME_POINT_OFFSET]);
+    private void receiveSyncCFM(VMUPacketView packet) {
+        if (packet.getDataLength() >= OpCodes.UpgradeSyncCFM.DATA_LENGTH) {
+            @ResumePoints.Enum int step = ResumePoints.getResumePoint(
+                    packet.getByte(OpCodes.UpgradeSyncCFM.RESUME_POINT_OFFSET));
             //noinspection UnusedAssignment
-            int identifier = VMUUtils.extractIntFromByteArray(data, OpCodes.UpgradeSyncCFM.IDENTIFIER_OFFSET, OpCodes.UpgradeSyncCFM.IDENTIFIER_LENGTH, false);
+            int identifier = packet.getInt(OpCodes.UpgradeSyncCFM.IDENTIFIER_OFFSET,
+                    OpCodes.UpgradeSyncCFM.IDENTIFIER_LENGTH);
             //noinspection UnusedAssignment
-            byte protocolVersion = data[OpCodes.UpgradeSyncCFM.PROTOCOL_VERSION_OFFSET];
+            byte protocolVersion = packet.getByte(OpCodes.UpgradeSyncCFM.PROTOCOL_VERSION_OFFSET);
             setResumePoint(step);
         }
         else {
             setResumePoint(ResumePoints.Enum.DATA_TRANSFER);
         }
+        if (isNewSession && mResumePoint != ResumePoints.Enum.DATA_TRANSFER) {
+            // the Device already has the whole image
+            onTransferResumed(mImageSource.getLength());
+            isFirstDataRequest = false;
+        }
+        isNewSession = false;
         sendStartReq();
     }
 
@@ -685,18 +1797,21 @@ public class UpgradeManager {
      * @param packet
      *            The received packet.
      */
-    private void receiveStartCFM(VMUPacket packet) {
-        byte[] data = packet.getData();
-
+    private void receiveStartCFM(VMUPacketView packet) {
         // the packet has to have a content.
-        if (data.length >= OpCodes.UpgradeStartCFM.DATA_LENGTH) {
+        if (packet.getDataLength() >= OpCodes.UpgradeStartCFM.DATA_LENGTH) {
             // to get the battery level
             //noinspection UnusedAssignment
-            short batteryLevel = VMUUtils.extractShortFromByteArray(data, OpCodes.UpgradeStartCFM
-                    .BATTERY_LEVEL_OFFSET, OpCodes.UpgradeStartCFM.BATTERY_LEVEL_LENGTH, false);
+            int batteryLevel = packet.getInt(OpCodes.UpgradeStartCFM.BATTERY_LEVEL_OFFSET,
+                    OpCodes.UpgradeStartCFM.BATTERY_LEVEL_LENGTH);
+            byte status = packet.getByte(OpCodes.UpgradeStartCFM.STATUS_OFFSET);
 
-            if (data[OpCodes.UpgradeStartCFM.STATUS_OFFSET] == OpCodes.UpgradeStartCFM.Status.SUCCESS) {
+            if (status == OpCodes.UpgradeStartCFM.Status.SUCCESS) {
+                if (mStartAttempts > 0) {
+                    onDeviceReady(mScheduler.now() - mFirstStartRequestTime);
+                }
                 mStartAttempts = 0;
+                mFirstStartRequestTime = -1;
                 // the device is ready for the upgrade, we can go to the resume point or to the upgrade beginning.
                 switch (mResumePoint) {
                     case ResumePoints.Enum.COMMIT:
@@ -717,24 +1832,27 @@ public class UpgradeManager {
                         break;
                 }
             }
-            else if (data[OpCodes.UpgradeStartCFM.STATUS_OFFSET] == OpCodes.UpgradeStartCFM.Status.ERROR_APP_NOT_READY) {
-                int START_ATTEMPTS_MAX = 5;
-                int START_ATTEMPTS_TIME = 2000;
+            else if (status == OpCodes.UpgradeStartCFM.Status.ERROR_APP_NOT_READY) {
+                mRetryStatistics.onAppNotReady();
+                record(UpgradeTimeline.Event.APP_NOT_READY, mStartAttempts + 1);
+                long elapsed = mScheduler.now() - mFirstStartRequestTime;
+                long suggested = 0;
+                if (mStartAttempts == 0 && mReadinessCache != null && mReadinessKey != null) {
+                    // the first retry is sent when the device is expected to be ready
+                    suggested = mReadinessCache.getReadinessTime(mReadinessKey) - elapsed;
+                }
+                long delay = mStartPolicy.getDelay(mStartAttempts + 1, suggested, mRandom.nextDouble());
 
-                if (mStartAttempts < START_ATTEMPTS_MAX) {
+                if (mStartPolicy.canRetry(mStartAttempts, elapsed, delay)) {
                     // device not ready we will ask it again.
                     mStartAttempts++;
-                    mHandler.postDelayed(new Runnable() {
-                        @Override
-                        public void run() {
-                            sendStartReq();
-                        }
-                    }, START_ATTEMPTS_TIME);
+                    mScheduler.schedule(mStartRetry, delay);
                 }
                 else {
+                    Log.w(TAG, "Device not ready after " + mStartAttempts + " retries and " + elapsed + " ms.");
                     mStartAttempts = 0;
-                    UpgradeError error = new UpgradeError(UpgradeError.ErrorTypes.ERROR_BOARD_NOT_READY);
-                    startAbortion(error);
+                    mRetryStatistics.onPolicyExhausted();
+                    onDeviceNotReady();
                 }
             }
             else {
@@ -748,6 +1866,21 @@ public class UpgradeManager {
         }
     }
 
+    /**
+     * <p>To record the time the device has taken to accept the upgrade after it has answered that it was not
+     * ready.</p>
+     *
+     * @param time
+     *          The time in ms between the first UPGRADE_START_REQ and the UPGRADE_START_CFM which accepted the
+     *          upgrade.
+     */
+    private void onDeviceReady(long time) {
+        mRetryStatistics.onReadiness(time);
+        if (mReadinessCache != null && mReadinessKey != null) {
+            mReadinessCache.recordReadinessTime(mReadinessKey, time);
+        }
+    }
+
     /**
      * This method is called when we received an UPGRADE_DATA_BYTES_REQ message. We manage this packet and use it for the
      * next step which is to upload the file on the device using UPGRADE_DATA messages.
@@ -755,28 +1888,35 @@ public class UpgradeManager {
      * @param packet
      *            The received packet.
      */
-    private void receiveDataBytesREQ(VMUPacket packet) {
-        byte[] data = packet.getData();
-
+    private void receiveDataBytesREQ(VMUPacketView packet) {
         // Checking the data has the good length
-        if (data.length == OpCodes.UpgradeDataBytesREQ.DATA_LENGTH) {
+        if (packet.getDataLength() == OpCodes.UpgradeDataBytesREQ.DATA_LENGTH) {
 
             // retrieving information from the received packet
-            mBytesToSend = VMUUtils.extractIntFromByteArray(data, OpCodes.UpgradeDataBytesREQ.NB_BYTES_OFFSET,
-                    OpCodes.UpgradeDataBytesREQ.NB_BYTES_LENGTH, false);
-            int fileOffset = VMUUtils.extractIntFromByteArray(data, OpCodes.UpgradeDataBytesREQ.FILE_OFFSET_OFFSET,
-                    OpCodes.UpgradeDataBytesREQ.FILE_OFFSET_LENGTH, false);
+            mBytesToSend = packet.getInt(OpCodes.UpgradeDataBytesREQ.NB_BYTES_OFFSET,
+                    OpCodes.UpgradeDataBytesREQ.NB_BYTES_LENGTH);
+            int fileOffset = packet.getInt(OpCodes.UpgradeDataBytesREQ.FILE_OFFSET_OFFSET,
+                    OpCodes.UpgradeDataBytesREQ.FILE_OFFSET_LENGTH);
 
             // we check the value for the offset
-            mStartOffset += (fileOffset > 0 && fileOffset+mStartOffset < mBytesFile.length) ? fileOffset : 0;
+            int fileLength = mImageSource.getLength();
+            mStartOffset += (fileOffset > 0 && fileOffset+mStartOffset < fileLength) ? fileOffset : 0;
 
             // if the asked length doesn't fit with possibilities we use the maximum length we can use.
             mBytesToSend = (mBytesToSend > 0) ? mBytesToSend : 0;
             // if the requested length will look for bytes out of the array we reduce it to the remaining length.
-            int remainingLength = mBytesFile.length - mStartOffset;
+            int remainingLength = fileLength - mStartOffset;
             mBytesToSend = (mBytesToSend < remainingLength) ? mBytesToSend : remainingLength;
 
-            sendNextDataPacket();
+            if (isFirstDataRequest) {
+                isFirstDataRequest = false;
+                onTransferResumed(mStartOffset);
+            }
+
+            if (mInFlightCount < mWindowSize) {
+                sendNextDataPacket();
+                fillDataWindow();
+            }
         }
         else {
             UpgradeError error = new UpgradeError(UpgradeError.ErrorTypes.WRONG_DATA_PARAMETER);
@@ -788,20 +1928,23 @@ public class UpgradeManager {
      * This method is called when we received an UPGRADE_IS_VALIDATION_DONE_CFM message. We manage this packet and use
      * it for the next step which is to send an UPGRADE_IS_VALIDATION_DONE_REQ.
      */
-    private void receiveValidationDoneCFM(VMUPacket packet) {
-        byte[] data = packet.getBytes();
-        if (data.length == OpCodes.UpgradeIsValidationDoneCFM.DATA_LENGTH) {
-            long time = VMUUtils.extractLongFromByteArray(data, OpCodes.UpgradeIsValidationDoneCFM
-                    .WAITING_TIME_OFFSET, OpCodes.UpgradeIsValidationDoneCFM.WAITING_TIME_LENGTH, false);
-            mHandler.postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    sendValidationDoneReq();
-                }
-            }, time);
+    private void receiveValidationDoneCFM(VMUPacketView packet) {
+        long time = 0;
+        if (packet.getDataLength() == OpCodes.UpgradeIsValidationDoneCFM.DATA_LENGTH) {
+            time = packet.getLong(OpCodes.UpgradeIsValidationDoneCFM.WAITING_TIME_OFFSET,
+                    OpCodes.UpgradeIsValidationDoneCFM.WAITING_TIME_LENGTH);
+        }
+
+        // the waiting time given by the device is bounded by the policy, without it the policy backoff is used
+        long elapsed = mScheduler.now() - mValidationStartTime;
+        long delay = mValidationPolicy.getDelay(mValidationPolls, time, mRandom.nextDouble());
+        if (mValidationPolicy.canRetry(mValidationPolls - 1, elapsed, delay)) {
+            mScheduler.schedule(mValidationRetry, delay);
         }
         else {
-            sendValidationDoneReq();
+            Log.w(TAG, "Validation not done after " + mValidationPolls + " requests and " + elapsed + " ms.");
+            mRetryStatistics.onPolicyExhausted();
+            onDeviceNotReady();
         }
     }
 
@@ -810,6 +1953,9 @@ public class UpgradeManager {
      * next step which is to send a validation to continue the process or to abort it temporally - it will be done later.
      */
     private void receiveTransferCompleteIND() {
+        if (mValidationStartTime >= 0) {
+            mRetryStatistics.onValidationDone(mScheduler.now() - mValidationStartTime);
+        }
         setResumePoint(ResumePoints.Enum.TRANSFER_COMPLETE);
         askForConfirmation(ConfirmationType.TRANSFER_COMPLETE);
     }
@@ -827,7 +1973,11 @@ public class UpgradeManager {
      * This method is called when we received an UPGRADE_COMPLETE_IND message.
      */
     private void receiveCompleteIND() {
+        record(UpgradeTimeline.Event.ENDED, 1);
         isUpgrading = false;
+        releaseImageSource();
+        endJournalSession();
+        removeCheckpoint();
         mListener.onUpgradeFinished();
     }
 
@@ -841,6 +1991,16 @@ public class UpgradeManager {
 
     // ====== INTERFACES ===========================================================================
 
+    /**
+     * <p>The handler of a type of packet received from the Device.</p>
+     */
+    private interface PacketHandler {
+        /**
+         * <p>To manage a received packet. The view is only valid during this call.</p>
+         */
+        void handle(VMUPacketView packet);
+    }
+
     /**
      * <p>This interface allows this manager to dispatch messages or event to a listener.</p>
      */
@@ -856,7 +2016,8 @@ public class UpgradeManager {
 
         /**
          * <p>Called when an error occurs during the upgrade process on the application. When this method is called
-         * the abortion of the process has already started.</p>
+         * the abortion of the process has already started, or the upgrade has already been stopped without being
+         * aborted if it has been {@link #setCheckpoints(TransferCheckpoints, String) checkpointed}.</p>
          *
          * @param error
          *              The error which occurs during the upgrade process.
@@ -904,6 +2065,44 @@ public class UpgradeManager {
         void disconnectUpgrade();
     }
 
+    /**
+     * <p>This interface allows this manager to send the
+     * {@link OpCodes.Enum#UPGRADE_DATA UPGRADE_DATA} packets as complete frames of the transport protocol, see
+     * {@link UpgradeManager#setFrameListener(UpgradeFrameListener) setFrameListener}.</p>
+     * <p>The frames are built by this manager with room for the transport header and trailer around the VMU packet.
+     * A frame is reused once its acknowledgement has been received: the listener must not keep any reference to it
+     * after that.</p>
+     */
+    public interface UpgradeFrameListener {
+        /**
+         * <p>To get the number of bytes the transport protocol needs before the VMU packet.</p>
+         *
+         * @return the offset of the VMU packet in the frames.
+         */
+        int getFrameHeaderLength();
+
+        /**
+         * <p>To get the number of bytes the transport protocol needs after the VMU packet.</p>
+         *
+         * @return the number of bytes after the VMU packet in the frames.
+         */
+        int getFrameTrailerLength();
+
+        /**
+         * <p>To complete the header and the trailer of a frame and send it over the defined protocol
+         * communication.</p>
+         * <p>If the frame cannot be sent the implementation must call
+         * {@link UpgradeManager#receiveUpgradeFrameFailed() receiveUpgradeFrameFailed} before this method returns.</p>
+         *
+         * @param frame
+         *              The frame to send, the VMU packet starts at
+         *              {@link #getFrameHeaderLength() getFrameHeaderLength}.
+         * @param packetLength
+         *              The number of bytes of the VMU packet contained in the frame.
+         */
+        void sendUpgradeFrame(byte[] frame, int packetLength);
+    }
+
     /**
      * <p>All the types of confirmation this manager could request from the listener depending on the messages
      * received from the board.</p>
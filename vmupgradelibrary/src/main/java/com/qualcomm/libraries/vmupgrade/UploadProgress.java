@@ -6,11 +6,19 @@ package com.qualcomm.libraries.vmupgrade;
 
 /**
  * <p>This class encapsulates the progress during the file upload.</p>
- * <p>It provides the current percentage and an estimation of the remaining time. The estimated remaining time is
- * based on the spent time since the last resume of the upgrade.</p>
+ * <p>It provides the current percentage, the number of bytes which remain to be acknowledged by the Device, the
+ * throughput of the link and an estimation of the remaining time. The throughput and the estimated remaining time
+ * are based on the bytes acknowledged by the Device since the last resume of the upgrade, see
+ * {@link ThroughputEstimator ThroughputEstimator}. It also provides the number of file bytes which are sent in
+ * each data packet, see {@link PacketSizeController PacketSizeController}.</p>
  */
 public class UploadProgress {
 
+    /**
+     * The value of the remaining time when it cannot be estimated yet.
+     */
+    public static final long UNKNOWN_TIME = -1;
+
     /**
      * Represents the percentage of the file which has been uploaded on the Device.
      */
@@ -19,6 +27,22 @@ public class UploadProgress {
      * Represents the estimated remaining time.
      */
     private final long mRemainingTime;
+    /**
+     * Represents the number of bytes of the file which have not been acknowledged by the Device yet.
+     */
+    private final long mRemainingBytes;
+    /**
+     * Represents the throughput in bytes/s over the last sampling period.
+     */
+    private final double mInstantaneousThroughput;
+    /**
+     * Represents the throughput in bytes/s since the transfer has started or resumed.
+     */
+    private final double mAverageThroughput;
+    /**
+     * Represents the number of file bytes sent in each data packet.
+     */
+    private final int mPacketLength;
 
     /**
      * <p>Constructor to build an instance of this class. The given values cannot be changed.</p>
@@ -30,8 +54,54 @@ public class UploadProgress {
      *        The estimated remaining time. This value has to be greater than 0.
      */
     public UploadProgress (double percentage, long remainingTime) {
+        this(percentage, remainingTime < 0 ? 0 : remainingTime, 0, 0, 0);
+    }
+
+    /**
+     * <p>Constructor to build an instance of this class. The given values cannot be changed.</p>
+     *
+     * @param percentage
+     *        The percentage of the file which has already been uploaded on the Device. This value has to be between
+     *        0 and 100 included.
+     * @param remainingTime
+     *        The estimated remaining time in ms or {@link #UNKNOWN_TIME UNKNOWN_TIME} if it cannot be estimated yet.
+     * @param remainingBytes
+     *        The number of bytes of the file which have not been acknowledged by the Device yet.
+     * @param instantaneousThroughput
+     *        The throughput in bytes/s over the last sampling period, 0 if not known.
+     * @param averageThroughput
+     *        The throughput in bytes/s since the transfer has started or resumed, 0 if not known.
+     */
+    public UploadProgress (double percentage, long remainingTime, long remainingBytes,
+                           double instantaneousThroughput, double averageThroughput) {
+        this(percentage, remainingTime, remainingBytes, instantaneousThroughput, averageThroughput, 0);
+    }
+
+    /**
+     * <p>Constructor to build an instance of this class. The given values cannot be changed.</p>
+     *
+     * @param percentage
+     *        The percentage of the file which has already been uploaded on the Device. This value has to be between
+     *        0 and 100 included.
+     * @param remainingTime
+     *        The estimated remaining time in ms or {@link #UNKNOWN_TIME UNKNOWN_TIME} if it cannot be estimated yet.
+     * @param remainingBytes
+     *        The number of bytes of the file which have not been acknowledged by the Device yet.
+     * @param instantaneousThroughput
+     *        The throughput in bytes/s over the last sampling period, 0 if not known.
+     * @param averageThroughput
+     *        The throughput in bytes/s since the transfer has started or resumed, 0 if not known.
+     * @param packetLength
+     *        The number of file bytes sent in each data packet, 0 if not known.
+     */
+    public UploadProgress (double percentage, long remainingTime, long remainingBytes,
+                           double instantaneousThroughput, double averageThroughput, int packetLength) {
         mPercentage = (percentage < 0) ? 0 : (percentage > 100) ? 100 : percentage;
-        mRemainingTime = remainingTime < 0 ? 0 : remainingTime;
+        mRemainingTime = remainingTime < 0 ? UNKNOWN_TIME : remainingTime;
+        mRemainingBytes = remainingBytes < 0 ? 0 : remainingBytes;
+        mInstantaneousThroughput = instantaneousThroughput < 0 ? 0 : instantaneousThroughput;
+        mAverageThroughput = averageThroughput < 0 ? 0 : averageThroughput;
+        mPacketLength = packetLength < 0 ? 0 : packetLength;
     }
 
     /**
@@ -46,10 +116,57 @@ public class UploadProgress {
     /**
      * To get the exact value of the remaining time.
      *
-     * @return The exact value of the remaining time in ms.
+     * @return The exact value of the remaining time in ms or {@link #UNKNOWN_TIME UNKNOWN_TIME} if it cannot be
+     * estimated yet.
      */
     public long getRemainingTime() {
         return mRemainingTime;
     }
 
+    /**
+     * To know if the remaining time could be estimated.
+     *
+     * @return true if {@link #getRemainingTime() getRemainingTime} returns an estimation.
+     */
+    public boolean hasRemainingTime() {
+        return mRemainingTime != UNKNOWN_TIME;
+    }
+
+    /**
+     * To get the number of bytes of the file which have not been acknowledged by the Device yet.
+     *
+     * @return The number of remaining bytes.
+     */
+    public long getRemainingBytes() {
+        return mRemainingBytes;
+    }
+
+    /**
+     * To get the throughput of the link over the last sampling period.
+     *
+     * @return The throughput in bytes/s, 0 if it is not known yet.
+     */
+    public double getInstantaneousThroughput() {
+        return mInstantaneousThroughput;
+    }
+
+    /**
+     * To get the average throughput of the link since the transfer has started or resumed.
+     *
+     * @return The throughput in bytes/s, 0 if it is not known yet.
+     */
+    public double getAverageThroughput() {
+        return mAverageThroughput;
+    }
+
+    /**
+     * To get the number of file bytes which are sent in each data packet. This length is chosen from the
+     * capabilities of the link and adjusted during the transfer.
+     *
+     * @return The number of file bytes, 0 if it is not known.
+     */
+    public int getPacketLength() {
+        return mPacketLength;
+    }
+
 }
@@ -6,13 +6,16 @@ package com.qualcomm.libraries.vmupgrade;
 
 import android.util.Log;
 
+import com.qualcomm.libraries.vmupgrade.image.ChunkedImageSource;
+import com.qualcomm.libraries.vmupgrade.image.ImageDigester;
+import com.qualcomm.libraries.vmupgrade.image.MappedImageSource;
+import com.qualcomm.libraries.vmupgrade.image.UpgradeImageSource;
 import com.qualcomm.libraries.vmupgrade.packet.VMUException;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.MessageDigest;
 
 /**
  * This class contains all useful methods for this library.
@@ -178,43 +181,70 @@ public final class VMUUtils {
         return stringBuilder.toString();
     }
 
+    /**
+     * <p>To get a compact hexadecimal representation of a byte array with two characters per byte and no
+     * separator, as used to save a byte array in a text file.</p>
+     *
+     * @param value
+     *         The byte array.
+     *
+     * @return The hexadecimal representation which can be read with
+     * {@link #getBytesFromHexadecimalDigits(String) getBytesFromHexadecimalDigits}.
+     */
+    public static String getHexadecimalDigitsFromBytes(byte[] value) {
+        final StringBuilder stringBuilder = new StringBuilder(value.length * 2);
+        //noinspection ForLoopReplaceableByForEach // the for loop used less ressources than the foreach one.
+        for (int i = 0; i < value.length; i++) {
+            stringBuilder.append(String.format("%02x", value[i]));
+        }
+        return stringBuilder.toString();
+    }
+
+    /**
+     * <p>To get the bytes represented by a string built with
+     * {@link #getHexadecimalDigitsFromBytes(byte[]) getHexadecimalDigitsFromBytes}.</p>
+     *
+     * @param string
+     *         The hexadecimal representation.
+     *
+     * @return the bytes or null if the string is not a valid representation.
+     */
+    public static byte[] getBytesFromHexadecimalDigits(String string) {
+        if (string.length() % 2 != 0) {
+            return null;
+        }
+        byte[] bytes = new byte[string.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(string.charAt(2 * i), 16);
+            int low = Character.digit(string.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+
     /**
      * To obtain the MD5 checksum from a file.
+     * <p>This method reads the whole file on the calling thread, an
+     * {@link com.qualcomm.libraries.vmupgrade.image.ImageDigester ImageDigester} computes it in the background and
+     * can be cancelled.</p>
      *
      * @param file
      *                  The path to the file which we want the MD5 checksum.
+     *
+     * @return the MD5 checksum or an empty array if the file could not be read.
      */
     public static byte[] getMD5FromFile(File file) {
-        InputStream inputStream = null;
         try {
-            inputStream = new FileInputStream(file);
-            byte[] buffer = new byte[1024];
-            MessageDigest digest = MessageDigest.getInstance("MD5");
-            int numRead = 0;
-            while (numRead != -1) {
-                numRead = inputStream.read(buffer);
-                if (numRead > 0) {
-                    digest.update(buffer, 0, numRead);
-                }
-            }
-            return digest.digest();
+            return ImageDigester.compute(file).getIdentifier();
         }
-        catch (Exception e) {
+        catch (VMUException e) {
             Log.e(TAG, "Exception occurs when tried to get MD5 check sum for file: " + file.getName());
             Log.e(TAG, "Exception: " + e.getMessage());
             return new byte[0];
         }
-        finally {
-            if (inputStream != null) {
-                try {
-                    inputStream.close();
-                }
-                catch (Exception e) {
-                    Log.w(TAG, "Exception occurs when tried to get MD5 check sum for file: " + file.getName());
-                    Log.w(TAG, "Exception: " + e.getMessage());
-                }
-            }
-        }
     }
 
     /**
@@ -252,6 +282,36 @@ public final class VMUUtils {
         }
     }
 
+    /**
+     * <p>To get an {@link UpgradeImageSource UpgradeImageSource} to read the bytes of a file without loading the
+     * whole file in memory.</p>
+     * <p>The file is mapped in memory, if the mapping fails the file is read through a
+     * {@link ChunkedImageSource ChunkedImageSource}.</p>
+     *
+     * @param file
+     *              The file to read.
+     *
+     * @return A source to read the file, it has to be closed once it is not used anymore.
+     *
+     * @throws VMUException for types:
+     * <ul>
+     *     <li>{@link VMUException.Type#FILE_TOO_BIG FILE_TOO_BIG}</li>
+     *     <li>{@link VMUException.Type#GET_BYTES_FILE_FAILED GET_BYTES_FILE_FAILED}</li>
+     * </ul>
+     */
+    public static UpgradeImageSource getImageSourceFromFile(File file) throws VMUException {
+        try {
+            return new MappedImageSource(file);
+        }
+        catch (VMUException e) {
+            if (e.getType() == VMUException.Type.FILE_TOO_BIG) {
+                throw e;
+            }
+            Log.w(TAG, "Mapping of file " + file.getName() + " failed, file is read by chunks: " + e.toString());
+            return new ChunkedImageSource(file);
+        }
+    }
+
     /**
      * <p>This method allows copying of a int value into a byte array from the specified <code>offset</code> location to
      * the <code>offset + length</code> location.</p>
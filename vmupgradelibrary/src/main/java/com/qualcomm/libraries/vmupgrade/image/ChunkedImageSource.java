@@ -0,0 +1,155 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.image;
+
+import android.util.Log;
+
+import com.qualcomm.libraries.vmupgrade.packet.VMUException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * <p>An {@link UpgradeImageSource UpgradeImageSource} which reads the image file through a fixed size chunk.</p>
+ * <p>The chunk is refilled from the file each time a requested range is not contained in it. As the image is read
+ * sequentially during an upgrade, most of the reads are served from the chunk.</p>
+ */
+public class ChunkedImageSource implements UpgradeImageSource {
+
+    /**
+     * <p>The tag to display for logs.</p>
+     */
+    private static final String TAG = "ChunkedImageSource";
+    /**
+     * <p>The default number of bytes read from the file at once.</p>
+     */
+    public static final int DEFAULT_CHUNK_LENGTH = 4096;
+    /**
+     * <p>The file to read.</p>
+     */
+    private final RandomAccessFile mFile;
+    /**
+     * <p>The length of the image.</p>
+     */
+    private final int mLength;
+    /**
+     * <p>The bytes of the file which have been read last.</p>
+     */
+    private final byte[] mChunk;
+    /**
+     * <p>The position in the image of the first byte of the chunk.</p>
+     */
+    private int mChunkPosition = 0;
+    /**
+     * <p>The number of valid bytes in the chunk.</p>
+     */
+    private int mChunkLength = 0;
+
+    /**
+     * <p>To open the given file with a chunk of {@link #DEFAULT_CHUNK_LENGTH DEFAULT_CHUNK_LENGTH} bytes.</p>
+     *
+     * @param file
+     *          The image file.
+     *
+     * @throws VMUException for types:
+     * <ul>
+     *     <li>{@link VMUException.Type#FILE_TOO_BIG FILE_TOO_BIG}</li>
+     *     <li>{@link VMUException.Type#GET_BYTES_FILE_FAILED GET_BYTES_FILE_FAILED}</li>
+     * </ul>
+     */
+    public ChunkedImageSource(File file) throws VMUException {
+        this(file, DEFAULT_CHUNK_LENGTH);
+    }
+
+    /**
+     * <p>To open the given file.</p>
+     *
+     * @param file
+     *          The image file.
+     * @param chunkLength
+     *          The number of bytes to read from the file at once.
+     *
+     * @throws VMUException for types:
+     * <ul>
+     *     <li>{@link VMUException.Type#FILE_TOO_BIG FILE_TOO_BIG}</li>
+     *     <li>{@link VMUException.Type#GET_BYTES_FILE_FAILED GET_BYTES_FILE_FAILED}</li>
+     * </ul>
+     */
+    public ChunkedImageSource(File file, int chunkLength) throws VMUException {
+        long fileLength = file.length();
+        if ((int) fileLength != fileLength) {
+            throw new VMUException(VMUException.Type.FILE_TOO_BIG);
+        }
+        mLength = (int) fileLength;
+        mChunk = new byte[chunkLength > 0 ? chunkLength : DEFAULT_CHUNK_LENGTH];
+
+        try {
+            mFile = new RandomAccessFile(file, "r");
+        }
+        catch (IOException e) {
+            throw new VMUException(VMUException.Type.GET_BYTES_FILE_FAILED, e.getMessage());
+        }
+    }
+
+    @Override // UpgradeImageSource
+    public int getLength() {
+        return mLength;
+    }
+
+    @Override // UpgradeImageSource
+    public void read(int position, byte[] destination, int offset, int length) throws VMUException {
+        if (position < 0 || length < 0 || position + length > mLength) {
+            throw new VMUException(VMUException.Type.GET_BYTES_FILE_FAILED, "range [" + position + ", "
+                    + (position + length) + "[ is out of the image of " + mLength + " bytes");
+        }
+
+        while (length > 0) {
+            if (position < mChunkPosition || position >= mChunkPosition + mChunkLength) {
+                fillChunk(position);
+            }
+            int available = mChunkPosition + mChunkLength - position;
+            int count = length < available ? length : available;
+            System.arraycopy(mChunk, position - mChunkPosition, destination, offset, count);
+            position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override // UpgradeImageSource
+    public void close() {
+        try {
+            mFile.close();
+        }
+        catch (IOException e) {
+            Log.w(TAG, "Exception occurs when closing the image file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * <p>To read the chunk which starts at the given position in the image.</p>
+     *
+     * @param position
+     *          The position of the first byte of the chunk.
+     *
+     * @throws VMUException type {@link VMUException.Type#GET_BYTES_FILE_FAILED GET_BYTES_FILE_FAILED} if the file
+     * could not be read.
+     */
+    private void fillChunk(int position) throws VMUException {
+        int remaining = mLength - position;
+        int length = remaining < mChunk.length ? remaining : mChunk.length;
+        try {
+            mFile.seek(position);
+            mFile.readFully(mChunk, 0, length);
+        }
+        catch (IOException e) {
+            mChunkLength = 0;
+            throw new VMUException(VMUException.Type.GET_BYTES_FILE_FAILED, e.getMessage());
+        }
+        mChunkPosition = position;
+        mChunkLength = length;
+    }
+}
@@ -0,0 +1,246 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.image;
+
+import android.util.Log;
+
+import com.qualcomm.libraries.vmupgrade.AtomicFile;
+import com.qualcomm.libraries.vmupgrade.VMUUtils;
+import com.qualcomm.libraries.vmupgrade.packet.VMUException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>This class keeps the MD5 digests of the images which have been used for an upgrade.</p>
+ * <p>A digest is identified by the absolute path, the length and the last modification time of the image file: if
+ * any of them changes the digest is computed again. The digests are saved in a file so they survive a restart of
+ * the application: resuming or retrying an upgrade does not need to read the whole image again.</p>
+ * <p>The file contains one line per image with the following tab separated fields:
+ * <blockquote><pre>
+ *     PATH    LENGTH    LAST MODIFIED    DIGEST
+ * </pre></blockquote>
+ * The digest is written as an hexadecimal string.</p>
+ */
+@SuppressWarnings("unused")
+public class ImageDigestCache {
+
+    /**
+     * <p>The tag to display for logs.</p>
+     */
+    private static final String TAG = "ImageDigestCache";
+    /**
+     * <p>The algorithm used to compute the digests.</p>
+     */
+    private static final String ALGORITHM = "MD5";
+    /**
+     * <p>The maximum number of digests kept by this cache, the least recently used ones are removed first.</p>
+     */
+    private static final int MAX_ENTRIES = 16;
+    /**
+     * <p>The separator between the fields of a line of the file.</p>
+     */
+    private static final String SEPARATOR = "\t";
+    /**
+     * <p>The number of bytes read at once to compute a digest.</p>
+     */
+    private static final int BUFFER_LENGTH = 8192;
+    /**
+     * <p>The file in which the digests are saved.</p>
+     */
+    private final AtomicFile mStorage;
+    /**
+     * <p>The known digests for their key, ordered from the least to the most recently used.</p>
+     */
+    private final Map<String, byte[]> mDigests = new LinkedHashMap<String, byte[]>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    /**
+     * <p>To know if the storage file has been read.</p>
+     */
+    private boolean isLoaded = false;
+
+    /**
+     * <p>To build a cache which saves its digests in the given file.</p>
+     *
+     * @param storage
+     *          The file to read and write the digests, it is created if it does not exist.
+     */
+    public ImageDigestCache(File storage) {
+        mStorage = new AtomicFile(storage);
+    }
+
+    /**
+     * <p>To get the MD5 digest of an image.</p>
+     * <p>If the digest of the file is not known, it is computed by reading the given source once and it is saved.</p>
+     *
+     * @param file
+     *          The image file.
+     * @param source
+     *          A source opened on the given file.
+     *
+     * @return The MD5 digest of the image.
+     *
+     * @throws VMUException type {@link VMUException.Type#GET_BYTES_FILE_FAILED GET_BYTES_FILE_FAILED} if the source
+     * could not be read.
+     */
+    public synchronized byte[] getDigest(File file, UpgradeImageSource source) throws VMUException {
+        load();
+        String key = getKey(file);
+        byte[] digest = mDigests.get(key);
+
+        if (digest == null) {
+            digest = computeDigest(source);
+            mDigests.put(key, digest);
+            save();
+        }
+
+        return digest;
+    }
+
+    /**
+     * <p>To get the MD5 digest of an image if it is known, without reading the image.</p>
+     *
+     * @param file
+     *          The image file.
+     *
+     * @return The MD5 digest of the image or null if it is not known or if the file has changed since it has been
+     * computed.
+     */
+    public synchronized byte[] getCachedDigest(File file) {
+        load();
+        return mDigests.get(getKey(file));
+    }
+
+    /**
+     * <p>To keep the MD5 digest of an image which has been computed elsewhere, for instance by an
+     * {@link ImageDigester ImageDigester}.</p>
+     *
+     * @param file
+     *          The image file.
+     * @param digest
+     *          The MD5 digest of the image.
+     */
+    public synchronized void putDigest(File file, byte[] digest) {
+        load();
+        mDigests.put(getKey(file), digest);
+        save();
+    }
+
+    /**
+     * <p>To remove all the digests from this cache and from its file.</p>
+     */
+    public synchronized void clear() {
+        mDigests.clear();
+        isLoaded = true;
+        mStorage.delete();
+    }
+
+    /**
+     * <p>To compute the MD5 digest of an image by reading all its bytes.</p>
+     *
+     * @param source
+     *          The source to read the image.
+     *
+     * @return The MD5 digest of the image.
+     *
+     * @throws VMUException type {@link VMUException.Type#GET_BYTES_FILE_FAILED GET_BYTES_FILE_FAILED} if the source
+     * could not be read.
+     */
+    public static byte[] computeDigest(UpgradeImageSource source) throws VMUException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new VMUException(VMUException.Type.GET_BYTES_FILE_FAILED, e.getMessage());
+        }
+
+        int length = source.getLength();
+        byte[] buffer = new byte[length < BUFFER_LENGTH ? length : BUFFER_LENGTH];
+        int position = 0;
+        while (position < length) {
+            int count = length - position < buffer.length ? length - position : buffer.length;
+            source.read(position, buffer, 0, count);
+            digest.update(buffer, 0, count);
+            position += count;
+        }
+
+        return digest.digest();
+    }
+
+    /**
+     * <p>To build the key which identifies the current content of a file.</p>
+     *
+     * @param file
+     *          The file to get a key for.
+     *
+     * @return a key based on the path, length and last modification time of the file.
+     */
+    private static String getKey(File file) {
+        return file.getAbsolutePath() + SEPARATOR + file.length() + SEPARATOR + file.lastModified();
+    }
+
+    /**
+     * <p>To read the digests saved in the storage file if they have not been read yet.</p>
+     */
+    private void load() {
+        if (isLoaded) {
+            return;
+        }
+        isLoaded = true;
+
+        if (!mStorage.exists()) {
+            return;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = mStorage.openReader();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int index = line.lastIndexOf(SEPARATOR);
+                if (index > 0) {
+                    byte[] digest = VMUUtils.getBytesFromHexadecimalDigits(line.substring(index + 1));
+                    if (digest != null) {
+                        mDigests.put(line.substring(0, index), digest);
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            Log.w(TAG, "Exception occurs when reading the digest cache: " + e.getMessage());
+        }
+        finally {
+            AtomicFile.closeQuietly(reader);
+        }
+    }
+
+    /**
+     * <p>To write all the known digests in the storage file.</p>
+     */
+    private void save() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, byte[]> entry : mDigests.entrySet()) {
+            builder.append(entry.getKey()).append(SEPARATOR)
+                    .append(VMUUtils.getHexadecimalDigitsFromBytes(entry.getValue())).append('\n');
+        }
+        try {
+            mStorage.write(builder.toString().getBytes(AtomicFile.CHARSET));
+        }
+        catch (UnsupportedEncodingException e) {
+            Log.w(TAG, "Exception occurs when saving the digest cache: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,427 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.image;
+
+import android.util.Log;
+
+import com.qualcomm.libraries.scheduler.Scheduler;
+import com.qualcomm.libraries.vmupgrade.packet.VMUException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <p>This class computes the digests of the upgrade images in the background.</p>
+ * <p>The {@link #IDENTIFIER_ALGORITHM MD5} digest which identifies an upgrade with the Device is always computed.
+ * Stronger digests - such as {@link #SHA_256 SHA_256} to verify an image against a published hash - can be
+ * requested: all the digests are computed in a single pass over the file.</p>
+ * <p>The file is read through a {@link FileChannel FileChannel} by blocks of {@link #BLOCK_LENGTH BLOCK_LENGTH}
+ * bytes into a direct buffer, which is given as it is to each digest: there is no intermediate copy of the bytes and
+ * a big image needs a few hundred reads instead of the tens of thousands of an input stream.</p>
+ * <p>Each computation is a {@link DigestJob DigestJob} which can be cancelled at any time: the reading stops at the
+ * next block and nothing is delivered to its {@link DigestListener DigestListener}. The progress and the result are
+ * delivered through the {@link Scheduler Scheduler} given at construction, usually the one of the main thread, so
+ * that the main thread never waits for a digest.</p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ImageDigester {
+
+    // ====== CONSTS FIELDS ========================================================================
+
+    /**
+     * <p>The algorithm of the digest which identifies an upgrade with the Device.</p>
+     */
+    public static final String IDENTIFIER_ALGORITHM = "MD5";
+    /**
+     * <p>The name of the SHA-256 algorithm.</p>
+     */
+    public static final String SHA_256 = "SHA-256";
+    /**
+     * <p>The number of bytes read at once from the file.</p>
+     */
+    public static final int BLOCK_LENGTH = 256 * 1024;
+    /**
+     * <p>The number of progress notifications delivered for a file at most.</p>
+     */
+    private static final int PROGRESS_STEPS = 100;
+    /**
+     * <p>The tag to display for logs.</p>
+     */
+    private static final String TAG = "ImageDigester";
+
+
+    // ====== PRIVATE FIELDS =======================================================================
+
+    /**
+     * <p>The scheduler to deliver the progress and the results to the listeners.</p>
+     */
+    private final Scheduler mScheduler;
+    /**
+     * <p>The executor which runs the computations.</p>
+     */
+    private final Executor mExecutor;
+    /**
+     * <p>True if the executor has been created by this digester and has to be shut down on release.</p>
+     */
+    private final boolean isExecutorOwned;
+
+
+    // ====== CONSTRUCTORS =========================================================================
+
+    /**
+     * <p>To build a digester which runs the computations on its own worker thread.</p>
+     *
+     * @param scheduler
+     *          The scheduler to deliver the progress and the results to the listeners.
+     */
+    public ImageDigester(Scheduler scheduler) {
+        this(scheduler, Executors.newSingleThreadExecutor(), true);
+    }
+
+    /**
+     * <p>To build a digester which runs the computations with the given executor.</p>
+     *
+     * @param scheduler
+     *          The scheduler to deliver the progress and the results to the listeners.
+     * @param executor
+     *          The executor to run the computations.
+     */
+    public ImageDigester(Scheduler scheduler, Executor executor) {
+        this(scheduler, executor, false);
+    }
+
+    private ImageDigester(Scheduler scheduler, Executor executor, boolean ownsExecutor) {
+        mScheduler = scheduler;
+        mExecutor = executor;
+        isExecutorOwned = ownsExecutor;
+    }
+
+
+    // ====== PUBLIC METHODS =======================================================================
+
+    /**
+     * <p>To compute the digests of an image in the background.</p>
+     *
+     * @param file
+     *          The image file.
+     * @param listener
+     *          The listener to inform about the progress and the result, can be null.
+     * @param algorithms
+     *          The algorithms of the digests to compute in addition to the {@link #IDENTIFIER_ALGORITHM MD5}
+     *          one.
+     *
+     * @return the job which computes the digests, to cancel it.
+     */
+    public DigestJob digest(final File file, final DigestListener listener, String... algorithms) {
+        final DigestJob job = new DigestJob(file, listener);
+        final String[] allAlgorithms = getAlgorithms(algorithms);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (job.isCancelled()) {
+                    return;
+                }
+                try {
+                    ImageDigests digests = computeDigests(file, allAlgorithms, job);
+                    if (digests != null) {
+                        Log.i(TAG, "Digests computed: " + digests.toString());
+                        job.deliverResult(digests);
+                    }
+                }
+                catch (VMUException exception) {
+                    Log.w(TAG, "Digest of " + file.getName() + " failed: " + exception.toString());
+                    job.deliverFailure(exception);
+                }
+            }
+        });
+        return job;
+    }
+
+    /**
+     * <p>To compute the digests of an image on the calling thread.</p>
+     * <p>This method reads the whole image: it should not be called on the main thread.</p>
+     *
+     * @param file
+     *          The image file.
+     * @param algorithms
+     *          The algorithms of the digests to compute in addition to the {@link #IDENTIFIER_ALGORITHM MD5}
+     *          one.
+     *
+     * @return the digests of the image.
+     *
+     * @throws VMUException type {@link VMUException.Type#GET_BYTES_FILE_FAILED GET_BYTES_FILE_FAILED} if the file
+     * could not be read or if an algorithm is not supported.
+     */
+    public static ImageDigests compute(File file, String... algorithms) throws VMUException {
+        return computeDigests(file, getAlgorithms(algorithms), null);
+    }
+
+    /**
+     * <p>To release the resources used by this digester: the pending computations are interrupted. It cannot be used
+     * anymore once it has been released.</p>
+     */
+    public void release() {
+        if (isExecutorOwned) {
+            ((ExecutorService) mExecutor).shutdownNow();
+        }
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    /**
+     * <p>To build the list of the algorithms to compute: the identifier algorithm followed by the given ones without
+     * duplicates.</p>
+     */
+    private static String[] getAlgorithms(String[] algorithms) {
+        List<String> list = new ArrayList<>();
+        list.add(IDENTIFIER_ALGORITHM);
+        if (algorithms != null) {
+            for (String algorithm : algorithms) {
+                boolean known = false;
+                for (String added : list) {
+                    known |= added.equalsIgnoreCase(algorithm);
+                }
+                if (!known) {
+                    list.add(algorithm);
+                }
+            }
+        }
+        return list.toArray(new String[list.size()]);
+    }
+
+    /**
+     * <p>To compute the digests of a file by reading it once by blocks.</p>
+     *
+     * @param file
+     *          The file to read.
+     * @param algorithms
+     *          The algorithms of the digests to compute.
+     * @param job
+     *          The job to report the progress to and to check for a cancellation, can be null.
+     *
+     * @return the digests or null if the job has been cancelled.
+     */
+    private static ImageDigests computeDigests(File file, String[] algorithms, DigestJob job) throws VMUException {
+        MessageDigest[] digests = new MessageDigest[algorithms.length];
+        try {
+            for (int i = 0; i < algorithms.length; i++) {
+                digests[i] = MessageDigest.getInstance(algorithms[i]);
+            }
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new VMUException(VMUException.Type.GET_BYTES_FILE_FAILED, e.getMessage());
+        }
+
+        long start = System.currentTimeMillis();
+        long lastModified = file.lastModified();
+        FileInputStream input = null;
+        try {
+            input = new FileInputStream(file);
+            FileChannel channel = input.getChannel();
+            long length = channel.size();
+            long step = Math.max(BLOCK_LENGTH, length / PROGRESS_STEPS);
+            long nextProgress = step;
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.max(1, Math.min(BLOCK_LENGTH, length)));
+            long position = 0;
+
+            while (position < length) {
+                if (job != null && job.isCancelled()) {
+                    return null;
+                }
+                buffer.clear();
+                int count = channel.read(buffer);
+                if (count < 0) {
+                    throw new VMUException(VMUException.Type.GET_BYTES_FILE_FAILED,
+                            "the file has changed while it was read: " + file.getName());
+                }
+                buffer.flip();
+                for (MessageDigest digest : digests) {
+                    buffer.rewind();
+                    digest.update(buffer);
+                }
+                position += count;
+
+                if (job != null && (position >= nextProgress || position == length)) {
+                    nextProgress = position + step;
+                    job.deliverProgress(position, length);
+                }
+            }
+
+            byte[][] values = new byte[digests.length][];
+            for (int i = 0; i < digests.length; i++) {
+                values[i] = digests[i].digest();
+            }
+            return new ImageDigests(file, length, lastModified, algorithms, values,
+                    System.currentTimeMillis() - start);
+        }
+        catch (IOException e) {
+            throw new VMUException(VMUException.Type.GET_BYTES_FILE_FAILED, e.getMessage());
+        }
+        finally {
+            if (input != null) {
+                try {
+                    input.close();
+                }
+                catch (IOException e) {
+                    Log.w(TAG, "Exception occurs when closing the file: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+
+    // ====== INNER CLASS ==========================================================================
+
+    /**
+     * <p>The computation of the digests of a file, which can be cancelled.</p>
+     */
+    public final class DigestJob {
+        /**
+         * <p>The file the digests are computed for.</p>
+         */
+        private final File mFile;
+        /**
+         * <p>The listener to inform about the progress and the result, can be null.</p>
+         */
+        private final DigestListener mListener;
+        /**
+         * <p>True once the job has been cancelled.</p>
+         */
+        private volatile boolean isCancelled = false;
+        /**
+         * <p>True once the result or the failure has been delivered.</p>
+         */
+        private volatile boolean isDone = false;
+
+        private DigestJob(File file, DigestListener listener) {
+            mFile = file;
+            mListener = listener;
+        }
+
+        /**
+         * <p>To cancel this job: the file is not read any further and nothing is delivered to the listener from now
+         * on. To be called on the thread of the scheduler of the digester for the latter to be guaranteed.</p>
+         */
+        public void cancel() {
+            isCancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return isCancelled;
+        }
+
+        /**
+         * <p>To know if the result or the failure of this job has been delivered to its listener.</p>
+         */
+        public boolean isDone() {
+            return isDone;
+        }
+
+        public File getFile() {
+            return mFile;
+        }
+
+        /**
+         * <p>To deliver the progress of the computation to the listener on the thread of the scheduler.</p>
+         */
+        private void deliverProgress(final long read, final long length) {
+            if (mListener != null) {
+                mScheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isCancelled) {
+                            mListener.onDigestProgress(mFile, read, length);
+                        }
+                    }
+                }, 0);
+            }
+        }
+
+        /**
+         * <p>To deliver the result of the computation to the listener on the thread of the scheduler.</p>
+         */
+        private void deliverResult(final ImageDigests digests) {
+            mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isCancelled) {
+                        isDone = true;
+                        if (mListener != null) {
+                            mListener.onDigestComplete(digests);
+                        }
+                    }
+                }
+            }, 0);
+        }
+
+        /**
+         * <p>To deliver the failure of the computation to the listener on the thread of the scheduler.</p>
+         */
+        private void deliverFailure(final VMUException exception) {
+            mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isCancelled) {
+                        isDone = true;
+                        if (mListener != null) {
+                            mListener.onDigestFailed(mFile, exception);
+                        }
+                    }
+                }
+            }, 0);
+        }
+    }
+
+
+    // ====== INTERFACES ===========================================================================
+
+    /**
+     * <p>The listener to be informed about the progress and the result of a computation. All the methods are called
+     * on the thread of the scheduler of the digester.</p>
+     */
+    public interface DigestListener {
+
+        /**
+         * <p>Called while the file is read.</p>
+         *
+         * @param file
+         *          The image file.
+         * @param read
+         *          The number of bytes which have been read.
+         * @param length
+         *          The number of bytes of the file.
+         */
+        void onDigestProgress(File file, long read, long length);
+
+        /**
+         * <p>Called when the digests of an image have been computed.</p>
+         *
+         * @param digests
+         *          The digests of the image.
+         */
+        void onDigestComplete(ImageDigests digests);
+
+        /**
+         * <p>Called when the file could not be read.</p>
+         *
+         * @param file
+         *          The image file.
+         * @param exception
+         *          The reason of the failure.
+         */
+        void onDigestFailed(File file, VMUException exception);
+    }
+}
@@ -0,0 +1,133 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.image;
+
+import com.qualcomm.libraries.vmupgrade.VMUUtils;
+
+import java.io.File;
+
+/**
+ * <p>This class contains the digests of an upgrade image computed by an {@link ImageDigester ImageDigester}.</p>
+ * <p>The {@link ImageDigester#IDENTIFIER_ALGORITHM MD5} digest which identifies the upgrade with the Device is
+ * always computed, the other digests are the ones which have been requested.</p>
+ */
+@SuppressWarnings("unused")
+public class ImageDigests {
+
+    // ====== PRIVATE FIELDS =======================================================================
+
+    /**
+     * <p>The file the digests have been computed for.</p>
+     */
+    private final File mFile;
+    /**
+     * <p>The number of bytes which have been read.</p>
+     */
+    private final long mLength;
+    /**
+     * <p>The last modification time of the file when its digests have been computed.</p>
+     */
+    private final long mLastModified;
+    /**
+     * <p>The algorithms of the digests.</p>
+     */
+    private final String[] mAlgorithms;
+    /**
+     * <p>The digests in the order of their algorithms.</p>
+     */
+    private final byte[][] mDigests;
+    /**
+     * <p>The time the computation took in ms.</p>
+     */
+    private final long mDuration;
+
+
+    // ====== CONSTRUCTOR ==========================================================================
+
+    /**
+     * <p>To build the result of the computation of the digests of an image.</p>
+     */
+    /*package*/ ImageDigests(File file, long length, long lastModified, String[] algorithms, byte[][] digests,
+                             long duration) {
+        mFile = file;
+        mLength = length;
+        mLastModified = lastModified;
+        mAlgorithms = algorithms;
+        mDigests = digests;
+        mDuration = duration;
+    }
+
+
+    // ====== PUBLIC METHODS =======================================================================
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * <p>To get the number of bytes which have been read to compute the digests.</p>
+     */
+    public long getLength() {
+        return mLength;
+    }
+
+    /**
+     * <p>To get the MD5 digest of the image which identifies the upgrade with the Device.</p>
+     */
+    public byte[] getIdentifier() {
+        return getDigest(ImageDigester.IDENTIFIER_ALGORITHM);
+    }
+
+    /**
+     * <p>To get the digest of the image for an algorithm.</p>
+     *
+     * @param algorithm
+     *          The name of the algorithm as given to the {@link ImageDigester ImageDigester}, for instance
+     *          {@link ImageDigester#SHA_256 SHA_256}.
+     *
+     * @return the digest or null if it has not been computed for that algorithm.
+     */
+    public byte[] getDigest(String algorithm) {
+        for (int i = 0; i < mAlgorithms.length; i++) {
+            if (mAlgorithms[i].equalsIgnoreCase(algorithm)) {
+                return mDigests[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * <p>To know if these digests still describe the given file: it is the same file and it has not changed since
+     * they have been computed.</p>
+     *
+     * @param file
+     *          The file to check.
+     *
+     * @return true if the digests can be used for the file.
+     */
+    public boolean isValidFor(File file) {
+        return file != null && mFile.getAbsolutePath().equals(file.getAbsolutePath())
+                && file.length() == mLength && file.lastModified() == mLastModified;
+    }
+
+    /**
+     * <p>To get the time the computation took in ms.</p>
+     */
+    public long getDuration() {
+        return mDuration;
+    }
+
+    @Override // Object
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(mFile.getName()).append(": ").append(mLength).append(" bytes");
+        for (int i = 0; i < mAlgorithms.length; i++) {
+            builder.append(", ").append(mAlgorithms[i]).append("=")
+                    .append(VMUUtils.getHexadecimalDigitsFromBytes(mDigests[i]));
+        }
+        builder.append(", computed in ").append(mDuration).append(" ms");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,294 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.image;
+
+import android.util.Log;
+
+import com.qualcomm.libraries.vmupgrade.VMUUtils;
+import com.qualcomm.libraries.vmupgrade.packet.VMUException;
+
+import java.io.File;
+
+/**
+ * <p>This class contains the result of the pre-flight analysis of an upgrade image: everything the
+ * {@link com.qualcomm.libraries.vmupgrade.UpgradeManager UpgradeManager} needs to know about the image before
+ * sending anything to the Device.</p>
+ * <p>The analysis {@link #analyse(File, int, ImageDigestCache) maps the image}, checks its size and its header and
+ * computes its identifier. It is long for big images and should not run on the main thread, see
+ * {@link ImagePreflightAnalyser ImagePreflightAnalyser}.</p>
+ * <p>The source opened by the analysis is kept by this object until an upgrade
+ * {@link #takeSource() takes it}: the image is then not opened a second time.</p>
+ */
+@SuppressWarnings("unused")
+public class ImagePreflight {
+
+    // ====== CONSTS FIELDS =======================================================================
+
+    /**
+     * <p>The value returned by {@link #getHeaderVersion() getHeaderVersion} when the image does not start with an
+     * upgrade header.</p>
+     */
+    public static final int NO_HEADER = -1;
+    /**
+     * <p>The tag to display for logs.</p>
+     */
+    private static final String TAG = "ImagePreflight";
+    /**
+     * <p>The identifier which starts the header of an upgrade image, it is followed by the version digit of the
+     * header.</p>
+     */
+    private static final byte[] HEADER_ID = { 'A', 'P', 'P', 'U', 'H', 'D', 'R' };
+    /**
+     * <p>The offset of the version digit in the header.</p>
+     */
+    private static final int HEADER_VERSION_OFFSET = HEADER_ID.length;
+    /**
+     * <p>The offset of the length of the header data in the header.</p>
+     */
+    private static final int HEADER_LENGTH_OFFSET = HEADER_VERSION_OFFSET + 1;
+    /**
+     * <p>The number of bytes of the length of the header data.</p>
+     */
+    private static final int HEADER_LENGTH_LENGTH = 4;
+    /**
+     * <p>The number of bytes which precede the header data.</p>
+     */
+    private static final int HEADER_PREFIX_LENGTH = HEADER_LENGTH_OFFSET + HEADER_LENGTH_LENGTH;
+
+
+    // ====== PRIVATE FIELDS =======================================================================
+
+    /**
+     * <p>The analysed file.</p>
+     */
+    private final File mFile;
+    /**
+     * <p>The length of the file when it has been analysed.</p>
+     */
+    private final long mFileLength;
+    /**
+     * <p>The last modification time of the file when it has been analysed.</p>
+     */
+    private final long mLastModified;
+    /**
+     * <p>The MD5 digest of the image.</p>
+     */
+    private final byte[] mIdentifier;
+    /**
+     * <p>The version of the upgrade header or {@link #NO_HEADER NO_HEADER}.</p>
+     */
+    private final int mHeaderVersion;
+    /**
+     * <p>The maximum number of file bytes in an UPGRADE_DATA packet.</p>
+     */
+    private final int mChunkLength;
+    /**
+     * <p>The time the analysis took in ms.</p>
+     */
+    private final long mDuration;
+    /**
+     * <p>The source opened on the image during the analysis, null once it has been taken or released.</p>
+     */
+    private UpgradeImageSource mSource;
+
+
+    // ====== CONSTRUCTOR ==========================================================================
+
+    /**
+     * <p>To build the result of the analysis of an image.</p>
+     */
+    private ImagePreflight(File file, long fileLength, long lastModified, UpgradeImageSource source,
+                           byte[] identifier, int headerVersion, int chunkLength, long duration) {
+        mFile = file;
+        mFileLength = fileLength;
+        mLastModified = lastModified;
+        mSource = source;
+        mIdentifier = identifier;
+        mHeaderVersion = headerVersion;
+        mChunkLength = chunkLength;
+        mDuration = duration;
+    }
+
+
+    // ====== PUBLIC METHODS =======================================================================
+
+    /**
+     * <p>To analyse an image: the file is mapped, checked through {@link #checkImage(UpgradeImageSource)
+     * checkImage} and read once to compute its identifier.</p>
+     * <p>This method reads the whole image: it should not be called on the main thread.</p>
+     *
+     * @param file
+     *          The image file.
+     * @param chunkLength
+     *          The maximum number of file bytes in an UPGRADE_DATA packet for the link with the Device.
+     * @param cache
+     *          The cache of the image digests, null to always compute the identifier.
+     *
+     * @return The result of the analysis which holds the opened source of the image.
+     *
+     * @throws VMUException for types:
+     * <ul>
+     *     <li>{@link VMUException.Type#FILE_TOO_BIG FILE_TOO_BIG}</li>
+     *     <li>{@link VMUException.Type#GET_BYTES_FILE_FAILED GET_BYTES_FILE_FAILED}</li>
+     *     <li>{@link VMUException.Type#INVALID_IMAGE INVALID_IMAGE}</li>
+     * </ul>
+     */
+    public static ImagePreflight analyse(File file, int chunkLength, ImageDigestCache cache) throws VMUException {
+        if (chunkLength <= 0) {
+            throw new IllegalArgumentException("The chunk length must be positive: " + chunkLength);
+        }
+        if (!file.isFile()) {
+            throw new VMUException(VMUException.Type.GET_BYTES_FILE_FAILED, "file not found: " + file.getName());
+        }
+
+        long start = System.currentTimeMillis();
+        long fileLength = file.length();
+        long lastModified = file.lastModified();
+        UpgradeImageSource source = VMUUtils.getImageSourceFromFile(file);
+        try {
+            int headerVersion = checkImage(source);
+            byte[] identifier = cache != null ? cache.getDigest(file, source) : ImageDigestCache.computeDigest(source);
+            return new ImagePreflight(file, fileLength, lastModified, source, identifier, headerVersion,
+                    chunkLength, System.currentTimeMillis() - start);
+        }
+        catch (VMUException e) {
+            source.close();
+            throw e;
+        }
+    }
+
+    /**
+     * <p>To check that an image can be used for an upgrade.</p>
+     * <p>An empty image is rejected. If the image starts with an upgrade header, the length of the header has to fit
+     * in the image. An image without a header is accepted - a Device might support other formats - but it is
+     * logged.</p>
+     *
+     * @param source
+     *          The source to read the image.
+     *
+     * @return The version of the upgrade header of the image or {@link #NO_HEADER NO_HEADER}.
+     *
+     * @throws VMUException for types:
+     * <ul>
+     *     <li>{@link VMUException.Type#GET_BYTES_FILE_FAILED GET_BYTES_FILE_FAILED}</li>
+     *     <li>{@link VMUException.Type#INVALID_IMAGE INVALID_IMAGE}</li>
+     * </ul>
+     */
+    public static int checkImage(UpgradeImageSource source) throws VMUException {
+        int length = source.getLength();
+        if (length == 0) {
+            throw new VMUException(VMUException.Type.INVALID_IMAGE, "the file is empty");
+        }
+
+        if (length < HEADER_PREFIX_LENGTH) {
+            Log.w(TAG, "The image is too short to contain an upgrade header: " + length + " bytes.");
+            return NO_HEADER;
+        }
+
+        byte[] prefix = new byte[HEADER_PREFIX_LENGTH];
+        source.read(0, prefix, 0, HEADER_PREFIX_LENGTH);
+        for (int i = 0; i < HEADER_ID.length; i++) {
+            if (prefix[i] != HEADER_ID[i]) {
+                Log.w(TAG, "The image does not start with an upgrade header.");
+                return NO_HEADER;
+            }
+        }
+
+        long headerLength = VMUUtils.extractIntFromByteArray(prefix, HEADER_LENGTH_OFFSET, HEADER_LENGTH_LENGTH,
+                false) & 0xFFFFFFFFL;
+        if (HEADER_PREFIX_LENGTH + headerLength > length) {
+            throw new VMUException(VMUException.Type.INVALID_IMAGE, "the header length (" + headerLength
+                    + " bytes) exceeds the file length (" + length + " bytes)");
+        }
+
+        int version = prefix[HEADER_VERSION_OFFSET] - '0';
+        return version >= 0 && version <= 9 ? version : NO_HEADER;
+    }
+
+    /**
+     * <p>To know if this result still describes the given file: it is the same file and it has not changed since it
+     * has been analysed.</p>
+     *
+     * @param file
+     *          The file to check.
+     *
+     * @return true if the result of this analysis can be used for the file.
+     */
+    public boolean isValidFor(File file) {
+        return file != null && mFile.getAbsolutePath().equals(file.getAbsolutePath())
+                && file.length() == mFileLength && file.lastModified() == mLastModified;
+    }
+
+    /**
+     * <p>To get the source opened on the image during the analysis. The caller becomes its owner and has to close
+     * it once it is not used anymore.</p>
+     * <p>The source can only be taken once, the following calls return null.</p>
+     *
+     * @return The opened source or null if it has already been taken or released.
+     */
+    public synchronized UpgradeImageSource takeSource() {
+        UpgradeImageSource source = mSource;
+        mSource = null;
+        return source;
+    }
+
+    /**
+     * <p>To close the source opened during the analysis if it has not been taken.</p>
+     */
+    public synchronized void release() {
+        if (mSource != null) {
+            mSource.close();
+            mSource = null;
+        }
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * <p>To get the number of bytes of the image.</p>
+     */
+    public int getLength() {
+        return (int) mFileLength;
+    }
+
+    /**
+     * <p>To get the MD5 digest of the image which identifies the upgrade with the Device.</p>
+     */
+    public byte[] getIdentifier() {
+        return mIdentifier;
+    }
+
+    public boolean hasUpgradeHeader() {
+        return mHeaderVersion != NO_HEADER;
+    }
+
+    public int getHeaderVersion() {
+        return mHeaderVersion;
+    }
+
+    /**
+     * <p>To get the maximum number of file bytes in an UPGRADE_DATA packet this analysis has been made for.</p>
+     */
+    public int getChunkLength() {
+        return mChunkLength;
+    }
+
+    /**
+     * <p>To get the time the analysis took in ms.</p>
+     */
+    public long getDuration() {
+        return mDuration;
+    }
+
+    @Override // Object
+    public String toString() {
+        return mFile.getName() + ": " + mFileLength + " bytes, header="
+                + (hasUpgradeHeader() ? "v" + mHeaderVersion : "none") + ", chunks of " + mChunkLength
+                + " bytes, id=" + VMUUtils.getHexadecimalDigitsFromBytes(mIdentifier)
+                + ", analysed in " + mDuration + " ms";
+    }
+}
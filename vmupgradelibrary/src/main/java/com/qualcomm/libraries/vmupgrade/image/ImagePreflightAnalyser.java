@@ -0,0 +1,265 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.image;
+
+import android.util.Log;
+
+import com.qualcomm.libraries.scheduler.Scheduler;
+import com.qualcomm.libraries.vmupgrade.packet.VMUException;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <p>This class runs the {@link ImagePreflight pre-flight analysis} of the upgrade images in the background and
+ * keeps their results.</p>
+ * <p>An image should be analysed as soon as it has been picked: when the upgrade starts, the
+ * {@link com.qualcomm.libraries.vmupgrade.UpgradeManager UpgradeManager} gets the result from this analyser and can
+ * send its first request at once, and an invalid image is reported before anything has been sent to the
+ * Device.</p>
+ * <p>The analyses run one after the other on a worker thread. Their results are delivered to the
+ * {@link PreflightListener PreflightListener} through the {@link Scheduler Scheduler} given at construction.</p>
+ */
+@SuppressWarnings("unused")
+public class ImagePreflightAnalyser {
+
+    /**
+     * <p>The tag to display for logs.</p>
+     */
+    private static final String TAG = "ImagePreflightAnalyser";
+    /**
+     * <p>The maximum number of results kept by this analyser, the least recently used ones are released first.</p>
+     */
+    private static final int MAX_ENTRIES = 4;
+    /**
+     * <p>The scheduler to deliver the results to the listeners.</p>
+     */
+    private final Scheduler mScheduler;
+    /**
+     * <p>The executor which runs the analyses.</p>
+     */
+    private final Executor mExecutor;
+    /**
+     * <p>True if the executor has been created by this analyser and has to be shut down on release.</p>
+     */
+    private final boolean isExecutorOwned;
+    /**
+     * <p>The cache of the digests used to compute the identifiers, null to always compute them.</p>
+     */
+    private ImageDigestCache mDigestCache;
+    /**
+     * <p>The known results for the absolute path of their file, ordered from the least to the most recently
+     * used.</p>
+     */
+    private final Map<String, ImagePreflight> mResults =
+            new LinkedHashMap<String, ImagePreflight>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ImagePreflight> eldest) {
+            if (size() > MAX_ENTRIES) {
+                eldest.getValue().release();
+                return true;
+            }
+            return false;
+        }
+    };
+
+
+    // ====== CONSTRUCTORS =========================================================================
+
+    /**
+     * <p>To build an analyser which runs the analyses on its own worker thread.</p>
+     *
+     * @param scheduler
+     *          The scheduler to deliver the results to the listeners.
+     */
+    public ImagePreflightAnalyser(Scheduler scheduler) {
+        this(scheduler, Executors.newSingleThreadExecutor(), true);
+    }
+
+    /**
+     * <p>To build an analyser which runs the analyses with the given executor.</p>
+     *
+     * @param scheduler
+     *          The scheduler to deliver the results to the listeners.
+     * @param executor
+     *          The executor to run the analyses.
+     */
+    public ImagePreflightAnalyser(Scheduler scheduler, Executor executor) {
+        this(scheduler, executor, false);
+    }
+
+    private ImagePreflightAnalyser(Scheduler scheduler, Executor executor, boolean ownsExecutor) {
+        mScheduler = scheduler;
+        mExecutor = executor;
+        isExecutorOwned = ownsExecutor;
+    }
+
+
+    // ====== PUBLIC METHODS =======================================================================
+
+    /**
+     * <p>To define the cache of the digests used to compute the identifiers of the images.</p>
+     *
+     * @param cache
+     *          The cache to use, null to not use any cache.
+     */
+    public void setDigestCache(ImageDigestCache cache) {
+        mDigestCache = cache;
+    }
+
+    /**
+     * <p>To analyse an image in the background.</p>
+     * <p>If the image has already been analysed and has not changed since, the known result is delivered
+     * without reading the image again.</p>
+     *
+     * @param file
+     *          The image file.
+     * @param chunkLength
+     *          The maximum number of file bytes in an UPGRADE_DATA packet for the link with the Device.
+     * @param listener
+     *          The listener to inform about the result, can be null.
+     */
+    public void analyse(final File file, final int chunkLength, final PreflightListener listener) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ImagePreflight preflight = getPreflight(file);
+                if (preflight == null || preflight.getChunkLength() != chunkLength) {
+                    try {
+                        preflight = ImagePreflight.analyse(file, chunkLength, mDigestCache);
+                        Log.i(TAG, "Image analysed: " + preflight.toString());
+                        put(preflight);
+                    }
+                    catch (VMUException exception) {
+                        Log.w(TAG, "Analysis of " + file.getName() + " failed: " + exception.toString());
+                        deliverFailure(listener, file, exception);
+                        return;
+                    }
+                }
+                deliverResult(listener, preflight);
+            }
+        });
+    }
+
+    /**
+     * <p>To get the result of the analysis of an image if it is known and if the image has not changed since it has
+     * been analysed.</p>
+     *
+     * @param file
+     *          The image file.
+     *
+     * @return the known result or null if the image has not been analysed yet.
+     */
+    public synchronized ImagePreflight getPreflight(File file) {
+        if (file == null) {
+            return null;
+        }
+
+        String key = file.getAbsolutePath();
+        ImagePreflight preflight = mResults.get(key);
+        if (preflight != null && !preflight.isValidFor(file)) {
+            // the file has changed since it has been analysed
+            mResults.remove(key);
+            preflight.release();
+            preflight = null;
+        }
+        return preflight;
+    }
+
+    /**
+     * <p>To forget all the known results and release their sources.</p>
+     */
+    public synchronized void clear() {
+        Iterator<ImagePreflight> iterator = mResults.values().iterator();
+        while (iterator.hasNext()) {
+            iterator.next().release();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * <p>To release all the resources used by this analyser. It cannot be used anymore once it has been
+     * released.</p>
+     */
+    public void release() {
+        if (isExecutorOwned) {
+            ((ExecutorService) mExecutor).shutdownNow();
+        }
+        clear();
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    /**
+     * <p>To keep the result of an analysis, replacing any previous result for the same file.</p>
+     */
+    private synchronized void put(ImagePreflight preflight) {
+        ImagePreflight previous = mResults.put(preflight.getFile().getAbsolutePath(), preflight);
+        if (previous != null && previous != preflight) {
+            previous.release();
+        }
+    }
+
+    /**
+     * <p>To deliver the result of an analysis to the listener on the thread of the scheduler.</p>
+     */
+    private void deliverResult(final PreflightListener listener, final ImagePreflight preflight) {
+        if (listener != null) {
+            mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onPreflightComplete(preflight);
+                }
+            }, 0);
+        }
+    }
+
+    /**
+     * <p>To deliver the failure of an analysis to the listener on the thread of the scheduler.</p>
+     */
+    private void deliverFailure(final PreflightListener listener, final File file, final VMUException exception) {
+        if (listener != null) {
+            mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onPreflightFailed(file, exception);
+                }
+            }, 0);
+        }
+    }
+
+
+    // ====== INTERFACES ===========================================================================
+
+    /**
+     * <p>The listener to be informed about the result of an analysis.</p>
+     */
+    public interface PreflightListener {
+
+        /**
+         * <p>Called when an image has been analysed and can be used for an upgrade.</p>
+         *
+         * @param preflight
+         *          The result of the analysis.
+         */
+        void onPreflightComplete(ImagePreflight preflight);
+
+        /**
+         * <p>Called when an image cannot be used for an upgrade.</p>
+         *
+         * @param file
+         *          The image file.
+         * @param exception
+         *          The reason of the failure.
+         */
+        void onPreflightFailed(File file, VMUException exception);
+    }
+}
@@ -0,0 +1,108 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.image;
+
+import android.util.Log;
+
+import com.qualcomm.libraries.vmupgrade.packet.VMUException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>An {@link UpgradeImageSource UpgradeImageSource} which maps the image file in memory.</p>
+ * <p>The mapped bytes are not part of the Java heap: the system pages them in when they are read, the image is
+ * never copied as a whole.</p>
+ */
+public class MappedImageSource implements UpgradeImageSource {
+
+    /**
+     * <p>The tag to display for logs.</p>
+     */
+    private static final String TAG = "MappedImageSource";
+    /**
+     * <p>The file which is mapped.</p>
+     */
+    private final RandomAccessFile mFile;
+    /**
+     * <p>The mapped content of the file.</p>
+     */
+    private final MappedByteBuffer mBuffer;
+    /**
+     * <p>The length of the image.</p>
+     */
+    private final int mLength;
+
+    /**
+     * <p>To map the given file in memory.</p>
+     *
+     * @param file
+     *          The image file.
+     *
+     * @throws VMUException for types:
+     * <ul>
+     *     <li>{@link VMUException.Type#FILE_TOO_BIG FILE_TOO_BIG}</li>
+     *     <li>{@link VMUException.Type#GET_BYTES_FILE_FAILED GET_BYTES_FILE_FAILED}</li>
+     * </ul>
+     */
+    public MappedImageSource(File file) throws VMUException {
+        long fileLength = file.length();
+        if ((int) fileLength != fileLength) {
+            throw new VMUException(VMUException.Type.FILE_TOO_BIG);
+        }
+        mLength = (int) fileLength;
+
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            mBuffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, mLength);
+            mFile = randomAccessFile;
+        }
+        catch (IOException e) {
+            closeQuietly(randomAccessFile);
+            throw new VMUException(VMUException.Type.GET_BYTES_FILE_FAILED, e.getMessage());
+        }
+    }
+
+    @Override // UpgradeImageSource
+    public int getLength() {
+        return mLength;
+    }
+
+    @Override // UpgradeImageSource
+    public void read(int position, byte[] destination, int offset, int length) throws VMUException {
+        if (position < 0 || length < 0 || position + length > mLength) {
+            throw new VMUException(VMUException.Type.GET_BYTES_FILE_FAILED, "range [" + position + ", "
+                    + (position + length) + "[ is out of the image of " + mLength + " bytes");
+        }
+        mBuffer.position(position);
+        mBuffer.get(destination, offset, length);
+    }
+
+    @Override // UpgradeImageSource
+    public void close() {
+        closeQuietly(mFile);
+    }
+
+    /**
+     * <p>To close the given file, logging any failure.</p>
+     *
+     * @param file
+     *          The file to close, can be null.
+     */
+    private static void closeQuietly(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            }
+            catch (IOException e) {
+                Log.w(TAG, "Exception occurs when closing the image file: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.image;
+
+import com.qualcomm.libraries.vmupgrade.packet.VMUException;
+
+/**
+ * <p>This interface represents the image which is uploaded on a Device during an upgrade.</p>
+ * <p>An image source gives access to any range of bytes of the image without requiring the whole image to be
+ * loaded in memory: the {@link com.qualcomm.libraries.vmupgrade.UpgradeManager UpgradeManager} only reads the bytes
+ * it needs to build the next {@link com.qualcomm.libraries.vmupgrade.codes.OpCodes.Enum#UPGRADE_DATA UPGRADE_DATA}
+ * packet.</p>
+ */
+public interface UpgradeImageSource {
+
+    /**
+     * <p>To get the number of bytes of the image.</p>
+     *
+     * @return the length of the image.
+     */
+    int getLength();
+
+    /**
+     * <p>To copy some bytes of the image into the given array.</p>
+     *
+     * @param position
+     *          The position in the image of the first byte to copy.
+     * @param destination
+     *          The array to copy the bytes into.
+     * @param offset
+     *          The offset in the destination array at which the first byte is copied.
+     * @param length
+     *          The number of bytes to copy.
+     *
+     * @throws VMUException type {@link VMUException.Type#GET_BYTES_FILE_FAILED GET_BYTES_FILE_FAILED} if the bytes
+     * could not be read.
+     */
+    void read(int position, byte[] destination, int offset, int length) throws VMUException;
+
+    /**
+     * <p>To release any resource used by this source. The source cannot be read once it has been closed.</p>
+     */
+    void close();
+}
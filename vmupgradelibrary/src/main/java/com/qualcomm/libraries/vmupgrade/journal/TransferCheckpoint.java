@@ -0,0 +1,195 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.journal;
+
+import com.qualcomm.libraries.vmupgrade.codes.ResumePoints;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>This class represents what a Device has received of an image: the identifier of the image, its length, the
+ * ranges of bytes which have been acknowledged by the Device and the last resume point of the upgrade.</p>
+ * <p>The ranges are kept sorted and merged: each range is given by its start offset, included, and its end offset,
+ * excluded.</p>
+ * <p>A checkpoint is not thread safe: it is updated by the {@link com.qualcomm.libraries.vmupgrade.UpgradeManager
+ * UpgradeManager} on the thread of the upgrade.</p>
+ */
+@SuppressWarnings("unused")
+public class TransferCheckpoint {
+
+    /**
+     * <p>The identifier of the upgrade which is sent to the Device.</p>
+     */
+    private final byte[] mIdentifier;
+    /**
+     * <p>The number of bytes of the image.</p>
+     */
+    private final int mLength;
+    /**
+     * <p>The acknowledged ranges as pairs of start and end offsets, ordered by their start offset.</p>
+     */
+    private final List<int[]> mRanges = new ArrayList<>();
+    /**
+     * <p>The last resume point which has been reached.</p>
+     */
+    private @ResumePoints.Enum int mResumePoint = ResumePoints.Enum.DATA_TRANSFER;
+
+    /**
+     * <p>To build an empty checkpoint for an image.</p>
+     *
+     * @param identifier
+     *          The identifier of the upgrade.
+     * @param length
+     *          The number of bytes of the image.
+     */
+    public TransferCheckpoint(byte[] identifier, int length) {
+        mIdentifier = identifier;
+        mLength = length;
+    }
+
+    /**
+     * <p>To know if this checkpoint has been recorded for the given image.</p>
+     *
+     * @param identifier
+     *          The identifier of the upgrade.
+     * @param length
+     *          The number of bytes of the image.
+     */
+    public boolean isForImage(byte[] identifier, int length) {
+        return mLength == length && Arrays.equals(mIdentifier, identifier);
+    }
+
+    /**
+     * <p>To get the identifier of the upgrade which has been sent to the Device.</p>
+     */
+    public byte[] getIdentifier() {
+        return mIdentifier;
+    }
+
+    /**
+     * <p>To get the number of bytes of the image.</p>
+     */
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * <p>To get the last resume point which has been reached.</p>
+     */
+    public @ResumePoints.Enum int getResumePoint() {
+        return mResumePoint;
+    }
+
+    /**
+     * <p>To define the last resume point which has been reached.</p>
+     */
+    public void setResumePoint(@ResumePoints.Enum int point) {
+        mResumePoint = point;
+    }
+
+    /**
+     * <p>To know if the Device has made any progress with the image: some bytes have been acknowledged or the
+     * upgrade has gone beyond the data transfer.</p>
+     */
+    public boolean hasProgress() {
+        return !mRanges.isEmpty() || mResumePoint != ResumePoints.Enum.DATA_TRANSFER;
+    }
+
+    /**
+     * <p>To add a range of bytes which has been acknowledged by the Device.</p>
+     *
+     * @param offset
+     *          The offset of the first byte of the range.
+     * @param length
+     *          The number of bytes of the range. The range is ignored if it is empty.
+     */
+    public void addRange(int offset, int length) {
+        if (length <= 0) {
+            return;
+        }
+        int start = offset;
+        int end = offset + length;
+
+        // the acknowledged bytes follow each other: the last range is extended in most cases
+        int index = mRanges.size();
+        while (index > 0 && mRanges.get(index - 1)[0] > start) {
+            index--;
+        }
+        if (index > 0 && mRanges.get(index - 1)[1] >= start) {
+            index--;
+            start = mRanges.get(index)[0];
+            end = Math.max(end, mRanges.get(index)[1]);
+            mRanges.remove(index);
+        }
+        while (index < mRanges.size() && mRanges.get(index)[0] <= end) {
+            end = Math.max(end, mRanges.get(index)[1]);
+            mRanges.remove(index);
+        }
+        mRanges.add(index, new int[] { start, end });
+    }
+
+    /**
+     * <p>To make this checkpoint match the offset from which the Device has requested the image: the Device has
+     * all the bytes before that offset and none after it.</p>
+     *
+     * @param offset
+     *          The offset requested by the Device.
+     */
+    public void resetTo(int offset) {
+        mRanges.clear();
+        addRange(0, offset);
+    }
+
+    /**
+     * <p>To get the number of acknowledged bytes within the given part of the image.</p>
+     *
+     * @param from
+     *          The offset of the first byte of the part.
+     * @param to
+     *          The offset which follows the last byte of the part.
+     */
+    public int getAcknowledgedBytes(int from, int to) {
+        int count = 0;
+        for (int[] range : mRanges) {
+            int start = Math.max(range[0], from);
+            int end = Math.min(range[1], to);
+            if (end > start) {
+                count += end - start;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * <p>To get the number of acknowledged bytes of the image.</p>
+     */
+    public int getAcknowledgedBytes() {
+        return getAcknowledgedBytes(0, mLength);
+    }
+
+    /**
+     * <p>To get the acknowledged ranges as pairs of start and end offsets.</p>
+     */
+    public int[][] getRanges() {
+        int[][] ranges = new int[mRanges.size()][];
+        for (int i = 0; i < ranges.length; i++) {
+            ranges[i] = mRanges.get(i).clone();
+        }
+        return ranges;
+    }
+
+    @Override // Object
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("length=").append(mLength).append(", resume point=")
+                .append(ResumePoints.getLabel(mResumePoint)).append(", ranges=");
+        for (int[] range : mRanges) {
+            builder.append('[').append(range[0]).append(", ").append(range[1]).append('[');
+        }
+        return builder.toString();
+    }
+}
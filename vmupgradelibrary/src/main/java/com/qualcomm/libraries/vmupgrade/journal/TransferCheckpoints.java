@@ -0,0 +1,252 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.journal;
+
+import android.util.Log;
+
+import com.qualcomm.libraries.vmupgrade.AtomicFile;
+import com.qualcomm.libraries.vmupgrade.VMUUtils;
+import com.qualcomm.libraries.vmupgrade.codes.ResumePoints;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>This class keeps the {@link TransferCheckpoint TransferCheckpoint} of each Device: what the Device has received
+ * of the image of its last upgrade which has not been completed or aborted.</p>
+ * <p>A Device keeps the bytes it has received when the link is lost or when the upgrade is stopped without being
+ * aborted. When an upgrade of the same image is started again, the Device requests the image from the offset it has
+ * reached and the checkpoint gives the bytes which do not have to be sent again. The checkpoints are saved in a file
+ * so they survive a restart of the application.</p>
+ * <p>The checkpoints are kept in memory and the file is written in the background: the upgrade does not wait for the
+ * storage when it saves its progress. {@link #flush() flush} writes the file at once, when the progress must not be
+ * lost.</p>
+ * <p>The file contains one line per Device with the following tab separated fields:
+ * <blockquote><pre>
+ *     DEVICE    IDENTIFIER    LENGTH    RESUME POINT    RANGES
+ * </pre></blockquote>
+ * The identifier is written as an hexadecimal string and the ranges as a comma separated list of
+ * <code>start-end</code> offsets.</p>
+ */
+@SuppressWarnings("unused")
+public class TransferCheckpoints {
+
+    /**
+     * <p>The tag to display for logs.</p>
+     */
+    private static final String TAG = "TransferCheckpoints";
+    /**
+     * <p>The minimum time in ms between two savings of the checkpoint of a Device while its image is being
+     * transferred.</p>
+     */
+    public static final long SAVE_INTERVAL_MS = 1000;
+    /**
+     * <p>The maximum number of Devices kept by this store, the least recently used ones are removed first.</p>
+     */
+    private static final int MAX_ENTRIES = 16;
+    /**
+     * <p>The separator between the fields of a line of the file.</p>
+     */
+    private static final String SEPARATOR = "\t";
+    /**
+     * <p>The separator between the ranges of a line of the file.</p>
+     */
+    private static final String RANGE_SEPARATOR = ",";
+    /**
+     * <p>The separator between the start and the end offsets of a range.</p>
+     */
+    private static final String OFFSET_SEPARATOR = "-";
+    /**
+     * <p>The number of fields of a line of the file.</p>
+     */
+    private static final int FIELDS_COUNT = 5;
+    /**
+     * <p>The file in which the checkpoints are saved.</p>
+     */
+    private final AtomicFile mStorage;
+    /**
+     * <p>The checkpoints for their Device, ordered from the least to the most recently used.</p>
+     */
+    private final Map<String, TransferCheckpoint> mCheckpoints = new LinkedHashMap<String, TransferCheckpoint>
+            (MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TransferCheckpoint> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    /**
+     * <p>To know if the storage file has been read.</p>
+     */
+    private boolean isLoaded = false;
+
+    /**
+     * <p>To build a store which saves the checkpoints in the given file.</p>
+     *
+     * @param storage
+     *          The file to read and write the checkpoints, it is created if it does not exist.
+     */
+    public TransferCheckpoints(File storage) {
+        mStorage = new AtomicFile(storage);
+    }
+
+    /**
+     * <p>To get the checkpoint of a Device.</p>
+     *
+     * @param device
+     *          The identifier of the Device, such as its Bluetooth address.
+     *
+     * @return The checkpoint or null if there is no checkpoint for the Device.
+     */
+    public synchronized TransferCheckpoint get(String device) {
+        load();
+        return mCheckpoints.get(device);
+    }
+
+    /**
+     * <p>To set the checkpoint of a Device and to save all the checkpoints.</p>
+     * <p>A Device only keeps the image of its last upgrade: the given checkpoint replaces any previous one.</p>
+     *
+     * @param device
+     *          The identifier of the Device, such as its Bluetooth address.
+     * @param checkpoint
+     *          The checkpoint to save.
+     */
+    public synchronized void put(String device, TransferCheckpoint checkpoint) {
+        load();
+        mCheckpoints.put(device, checkpoint);
+        save();
+    }
+
+    /**
+     * <p>To remove the checkpoint of a Device once the Device has completed or aborted its upgrade.</p>
+     *
+     * @param device
+     *          The identifier of the Device, such as its Bluetooth address.
+     */
+    public synchronized void remove(String device) {
+        load();
+        if (mCheckpoints.remove(device) != null) {
+            save();
+        }
+    }
+
+    /**
+     * <p>To write on the calling thread the checkpoints which are waiting to be saved in the background. This
+     * returns once they have been written.</p>
+     */
+    public void flush() {
+        mStorage.flush();
+    }
+
+    /**
+     * <p>To remove all the checkpoints from this store and from its file.</p>
+     */
+    public synchronized void clear() {
+        mCheckpoints.clear();
+        isLoaded = true;
+        mStorage.delete();
+    }
+
+    /**
+     * <p>To read the checkpoints saved in the storage file if they have not been read yet.</p>
+     */
+    private void load() {
+        if (isLoaded) {
+            return;
+        }
+        isLoaded = true;
+
+        if (!mStorage.exists()) {
+            return;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = mStorage.openReader();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(SEPARATOR, -1);
+                TransferCheckpoint checkpoint = fields.length == FIELDS_COUNT ? parse(fields) : null;
+                if (checkpoint != null) {
+                    mCheckpoints.put(fields[0], checkpoint);
+                }
+                else {
+                    Log.w(TAG, "Invalid line in the transfer checkpoints: " + line);
+                }
+            }
+        }
+        catch (IOException e) {
+            Log.w(TAG, "Exception occurs when reading the transfer checkpoints: " + e.getMessage());
+        }
+        finally {
+            AtomicFile.closeQuietly(reader);
+        }
+    }
+
+    /**
+     * <p>To build a checkpoint from the fields of a line of the file.</p>
+     *
+     * @return the checkpoint or null if the fields are not valid.
+     */
+    private static TransferCheckpoint parse(String[] fields) {
+        byte[] identifier = VMUUtils.getBytesFromHexadecimalDigits(fields[1]);
+        if (identifier == null) {
+            return null;
+        }
+        try {
+            TransferCheckpoint checkpoint = new TransferCheckpoint(identifier, Integer.parseInt(fields[2]));
+            checkpoint.setResumePoint(ResumePoints.getResumePoint(Byte.parseByte(fields[3])));
+            if (!fields[4].isEmpty()) {
+                for (String range : fields[4].split(RANGE_SEPARATOR)) {
+                    int index = range.indexOf(OFFSET_SEPARATOR);
+                    if (index <= 0) {
+                        return null;
+                    }
+                    int start = Integer.parseInt(range.substring(0, index));
+                    int end = Integer.parseInt(range.substring(index + 1));
+                    checkpoint.addRange(start, end - start);
+                }
+            }
+            return checkpoint;
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * <p>To write all the known checkpoints in the storage file, in the background.</p>
+     * <p>The checkpoints are modified by their upgrade after they have been saved, so their content is copied
+     * here.</p>
+     */
+    private void save() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, TransferCheckpoint> entry : mCheckpoints.entrySet()) {
+            TransferCheckpoint checkpoint = entry.getValue();
+            builder.append(entry.getKey()).append(SEPARATOR)
+                    .append(VMUUtils.getHexadecimalDigitsFromBytes(checkpoint.getIdentifier())).append(SEPARATOR)
+                    .append(checkpoint.getLength()).append(SEPARATOR)
+                    .append(checkpoint.getResumePoint()).append(SEPARATOR);
+            int[][] ranges = checkpoint.getRanges();
+            for (int i = 0; i < ranges.length; i++) {
+                if (i > 0) {
+                    builder.append(RANGE_SEPARATOR);
+                }
+                builder.append(ranges[i][0]).append(OFFSET_SEPARATOR).append(ranges[i][1]);
+            }
+            builder.append('\n');
+        }
+        try {
+            mStorage.writeAsync(builder.toString().getBytes(AtomicFile.CHARSET));
+        }
+        catch (UnsupportedEncodingException e) {
+            Log.w(TAG, "Exception occurs when saving the transfer checkpoints: " + e.getMessage());
+        }
+    }
+}
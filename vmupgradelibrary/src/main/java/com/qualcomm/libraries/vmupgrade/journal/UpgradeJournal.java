@@ -0,0 +1,388 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.journal;
+
+import android.util.Log;
+
+import com.qualcomm.libraries.vmupgrade.VMUUtils;
+import com.qualcomm.libraries.vmupgrade.codes.ResumePoints;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>This class records the progress of an upgrade in an append-only file so that an upgrade which has been
+ * interrupted by the end of the application process can be offered to be resumed on the next launch, see
+ * {@link #getSession() getSession}.</p>
+ * <p>The file contains one line per record with the following tab separated fields:
+ * <blockquote><pre>
+ *     S    PATH    LENGTH    LAST MODIFIED    IDENTIFIER      the start of an upgrade
+ *     P    RESUME POINT                                       a new resume point
+ *     O    OFFSET                                             an offset acknowledged by the Device
+ *     E                                                       the end of the upgrade
+ * </pre></blockquote>
+ * The identifier is written as an hexadecimal string. A new upgrade replaces the content of the file.</p>
+ * <p>The records are written and synchronised with the storage on a background thread. The start, the end and the
+ * resume points are synchronised as soon as they are recorded. The acknowledged offsets are recorded at most once
+ * every {@link #SYNC_INTERVAL_MS SYNC_INTERVAL_MS}: the data transfer does not wait for the storage and only the
+ * last offset of a batch is written.</p>
+ * <p>A line is only taken into account when it is complete: a record which has been interrupted while being written
+ * is ignored when the file is read.</p>
+ */
+@SuppressWarnings("unused")
+public class UpgradeJournal {
+
+    // ====== CONSTS FIELDS =======================================================================
+
+    /**
+     * <p>The tag to display for logs.</p>
+     */
+    private static final String TAG = "UpgradeJournal";
+    /**
+     * <p>The minimum time in ms between two records of an acknowledged offset.</p>
+     */
+    public static final long SYNC_INTERVAL_MS = 1000;
+    /**
+     * <p>The separator between the fields of a record.</p>
+     */
+    private static final String SEPARATOR = "\t";
+    /**
+     * <p>The end of a record.</p>
+     */
+    private static final char LINE_END = '\n';
+    /**
+     * <p>The encoding used to write the records.</p>
+     */
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    /**
+     * <p>The type of the record which starts an upgrade.</p>
+     */
+    private static final String RECORD_START = "S";
+    /**
+     * <p>The type of the record for a new resume point.</p>
+     */
+    private static final String RECORD_RESUME_POINT = "P";
+    /**
+     * <p>The type of the record for an acknowledged offset.</p>
+     */
+    private static final String RECORD_OFFSET = "O";
+    /**
+     * <p>The type of the record which ends an upgrade.</p>
+     */
+    private static final String RECORD_END = "E";
+
+
+    // ====== PRIVATE FIELDS =======================================================================
+
+    /**
+     * <p>The file in which the records are written.</p>
+     */
+    private final File mStorage;
+    /**
+     * <p>The thread which writes the records in the file.</p>
+     */
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor();
+    /**
+     * <p>The stream to append records to the file, only used by the {@link #mWriter writer}.</p>
+     */
+    private FileOutputStream mStream;
+    /**
+     * <p>The upgrade which is recorded or has been read from the file, null if there is none.</p>
+     */
+    private UpgradeSession mSession;
+    /**
+     * <p>To know if the file has been read.</p>
+     */
+    private boolean isLoaded = false;
+    /**
+     * <p>The last acknowledged offset which has not been written yet, -1 if there is none.</p>
+     */
+    private long mPendingOffset = -1;
+    /**
+     * <p>The time at which the last acknowledged offset has been written.</p>
+     */
+    private long mLastOffsetTime = 0;
+    /**
+     * <p>To know if this journal has been closed.</p>
+     */
+    private boolean isClosed = false;
+
+
+    // ====== CONSTRUCTOR =======================================================================
+
+    /**
+     * <p>To build a journal which records the upgrades in the given file.</p>
+     *
+     * @param storage
+     *          The file to read and write the records, it is created if it does not exist.
+     */
+    public UpgradeJournal(File storage) {
+        mStorage = storage;
+    }
+
+
+    // ====== PUBLIC METHODS =======================================================================
+
+    /**
+     * <p>To get the upgrade which has been started and has not ended.</p>
+     * <p>The first call of this method reads the file: if the application process has ended during an upgrade, the
+     * returned session is the one which has been interrupted.</p>
+     *
+     * @return The session of the upgrade or null if there is no upgrade to resume.
+     */
+    public synchronized UpgradeSession getSession() {
+        if (!isLoaded) {
+            isLoaded = true;
+            mSession = read(mStorage);
+        }
+        return mSession;
+    }
+
+    /**
+     * <p>To record the start of an upgrade. This replaces any previous record.</p>
+     *
+     * @param file
+     *          The file used for the upgrade.
+     * @param identifier
+     *          The identifier of the upgrade which is sent to the Device.
+     */
+    public synchronized void startSession(File file, byte[] identifier) {
+        isLoaded = true;
+        mSession = new UpgradeSession(file, file.length(), file.lastModified(), identifier);
+        mPendingOffset = -1;
+        mLastOffsetTime = 0;
+        String record = RECORD_START + SEPARATOR + file.getAbsolutePath() + SEPARATOR + mSession.getFileLength()
+                + SEPARATOR + mSession.getFileLastModified()
+                + SEPARATOR + VMUUtils.getHexadecimalDigitsFromBytes(identifier);
+        write(record, true);
+    }
+
+    /**
+     * <p>To record a new resume point of the upgrade.</p>
+     *
+     * @param point
+     *          The new resume point.
+     */
+    public synchronized void recordResumePoint(@ResumePoints.Enum int point) {
+        if (mSession != null) {
+            mSession.setResumePoint(point);
+            writePendingOffset();
+            write(RECORD_RESUME_POINT + SEPARATOR + point, false);
+        }
+    }
+
+    /**
+     * <p>To record the offset of the file which has been acknowledged by the Device.</p>
+     * <p>The offset is only written if the last written offset is older than
+     * {@link #SYNC_INTERVAL_MS SYNC_INTERVAL_MS}, otherwise it is kept until the next record.</p>
+     *
+     * @param offset
+     *          The number of bytes of the file which have been acknowledged by the Device.
+     * @param time
+     *          The current time in ms from a monotonic clock.
+     */
+    public synchronized void recordAcknowledgedOffset(long offset, long time) {
+        if (mSession != null) {
+            mSession.setAcknowledgedOffset(offset);
+            mPendingOffset = offset;
+            if (time - mLastOffsetTime >= SYNC_INTERVAL_MS) {
+                mLastOffsetTime = time;
+                writePendingOffset();
+            }
+        }
+    }
+
+    /**
+     * <p>To record the end of the upgrade - successful or not. Once ended an upgrade cannot be resumed.</p>
+     */
+    public synchronized void endSession() {
+        if (mSession != null) {
+            mSession = null;
+            mPendingOffset = -1;
+            write(RECORD_END, false);
+        }
+    }
+
+    /**
+     * <p>To write any pending record and to release the file. This journal cannot record anything after this
+     * method has been called.</p>
+     */
+    public void close() {
+        synchronized (this) {
+            if (isClosed) {
+                return;
+            }
+            writePendingOffset();
+            isClosed = true;
+        }
+
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                closeStream();
+            }
+        });
+        mWriter.shutdown();
+        try {
+            if (!mWriter.awaitTermination(SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Closing of the journal timed out.");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * <p>To read the upgrade which has been recorded in a journal file and has not ended.</p>
+     *
+     * @param storage
+     *          The file of the journal.
+     *
+     * @return The session of the upgrade or null if there is no upgrade to resume.
+     */
+    public static UpgradeSession read(File storage) {
+        if (!storage.exists()) {
+            return null;
+        }
+
+        String content;
+        try {
+            content = new String(readBytes(storage), CHARSET);
+        }
+        catch (IOException e) {
+            Log.w(TAG, "Exception occurs when reading the upgrade journal: " + e.getMessage());
+            return null;
+        }
+
+        UpgradeSession session = null;
+        int start = 0;
+        int end;
+        // the characters after the last line end are an interrupted record
+        while ((end = content.indexOf(LINE_END, start)) >= 0) {
+            String[] fields = content.substring(start, end).split(SEPARATOR);
+            start = end + 1;
+            try {
+                if (RECORD_START.equals(fields[0]) && fields.length == 5) {
+                    byte[] identifier = VMUUtils.getBytesFromHexadecimalDigits(fields[4]);
+                    session = identifier == null ? null : new UpgradeSession(new File(fields[1]),
+                            Long.parseLong(fields[2]), Long.parseLong(fields[3]), identifier);
+                }
+                else if (session != null && RECORD_RESUME_POINT.equals(fields[0]) && fields.length == 2) {
+                    session.setResumePoint(ResumePoints.getResumePoint(Byte.parseByte(fields[1])));
+                }
+                else if (session != null && RECORD_OFFSET.equals(fields[0]) && fields.length == 2) {
+                    session.setAcknowledgedOffset(Long.parseLong(fields[1]));
+                }
+                else if (RECORD_END.equals(fields[0])) {
+                    session = null;
+                }
+            }
+            catch (NumberFormatException e) {
+                Log.w(TAG, "Invalid record in the upgrade journal: " + e.getMessage());
+            }
+        }
+
+        return session;
+    }
+
+
+    // ====== PRIVATE METHODS =======================================================================
+
+    /**
+     * <p>To write the pending acknowledged offset if there is one.</p>
+     */
+    private void writePendingOffset() {
+        if (mPendingOffset >= 0) {
+            write(RECORD_OFFSET + SEPARATOR + mPendingOffset, false);
+            mPendingOffset = -1;
+        }
+    }
+
+    /**
+     * <p>To append a record to the file from the {@link #mWriter writer} thread and to synchronise the file with the
+     * storage.</p>
+     *
+     * @param record
+     *          The record to write, without its line end.
+     * @param replace
+     *          True to replace the content of the file by the record.
+     */
+    private void write(String record, final boolean replace) {
+        if (isClosed) {
+            Log.w(TAG, "Record ignored as the journal is closed: " + record);
+            return;
+        }
+
+        final byte[] bytes = (record + LINE_END).getBytes(CHARSET);
+        try {
+            mWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (replace) {
+                            closeStream();
+                        }
+                        if (mStream == null) {
+                            mStream = new FileOutputStream(mStorage, !replace);
+                        }
+                        mStream.write(bytes);
+                        mStream.getFD().sync();
+                    }
+                    catch (IOException e) {
+                        Log.w(TAG, "Exception occurs when writing the upgrade journal: " + e.getMessage());
+                        closeStream();
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            Log.w(TAG, "Record ignored as the journal is closed: " + record);
+        }
+    }
+
+    /**
+     * <p>To close the stream to the file if it is opened.</p>
+     */
+    private void closeStream() {
+        if (mStream != null) {
+            try {
+                mStream.close();
+            }
+            catch (IOException e) {
+                Log.w(TAG, "Exception occurs when closing the upgrade journal: " + e.getMessage());
+            }
+            mStream = null;
+        }
+    }
+
+    /**
+     * <p>To read all the bytes of a file.</p>
+     */
+    private static byte[] readBytes(File file) throws IOException {
+        InputStream input = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[1024];
+            int count;
+            while ((count = input.read(buffer)) > 0) {
+                output.write(buffer, 0, count);
+            }
+            return output.toByteArray();
+        }
+        finally {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.journal;
+
+import com.qualcomm.libraries.vmupgrade.codes.ResumePoints;
+
+import java.io.File;
+
+/**
+ * <p>This class represents the state of an upgrade as it has been recorded by an
+ * {@link UpgradeJournal UpgradeJournal}.</p>
+ * <p>A session is used after the application has been restarted in order to offer to resume an upgrade which has
+ * not ended: it gives the file which was used, the identifier sent to the Device and the progress of the upgrade
+ * when the application stopped.</p>
+ */
+@SuppressWarnings("unused")
+public class UpgradeSession {
+
+    /**
+     * <p>The file used for the upgrade.</p>
+     */
+    private final File mFile;
+    /**
+     * <p>The length of the file when the upgrade has started.</p>
+     */
+    private final long mFileLength;
+    /**
+     * <p>The last modification time of the file when the upgrade has started.</p>
+     */
+    private final long mFileLastModified;
+    /**
+     * <p>The identifier of the upgrade which is sent to the Device.</p>
+     */
+    private final byte[] mIdentifier;
+    /**
+     * <p>The last resume point which has been recorded.</p>
+     */
+    private @ResumePoints.Enum int mResumePoint = ResumePoints.Enum.DATA_TRANSFER;
+    /**
+     * <p>The last offset of the file which has been acknowledged by the Device.</p>
+     */
+    private long mAcknowledgedOffset = 0;
+
+    /**
+     * <p>To build a session for an upgrade which starts.</p>
+     *
+     * @param file
+     *          The file used for the upgrade.
+     * @param fileLength
+     *          The length of the file.
+     * @param lastModified
+     *          The last modification time of the file.
+     * @param identifier
+     *          The identifier of the upgrade.
+     */
+    /*package*/ UpgradeSession(File file, long fileLength, long lastModified, byte[] identifier) {
+        mFile = file;
+        mFileLength = fileLength;
+        mFileLastModified = lastModified;
+        mIdentifier = identifier;
+    }
+
+    /**
+     * <p>To get the file which was used for the upgrade.</p>
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * <p>To get the identifier of the upgrade which has been sent to the Device.</p>
+     */
+    public byte[] getIdentifier() {
+        return mIdentifier;
+    }
+
+    /**
+     * <p>To get the last recorded resume point.</p>
+     */
+    public @ResumePoints.Enum int getResumePoint() {
+        return mResumePoint;
+    }
+
+    /**
+     * <p>To get the last recorded offset of the file which had been acknowledged by the Device. Offsets are
+     * recorded by batches: the Device might have acknowledged more bytes.</p>
+     */
+    public long getAcknowledgedOffset() {
+        return mAcknowledgedOffset;
+    }
+
+    /**
+     * <p>To get the percentage of the file which had been acknowledged by the Device.</p>
+     *
+     * @return a value between 0 and 100 included.
+     */
+    public double getPercentage() {
+        if (mResumePoint != ResumePoints.Enum.DATA_TRANSFER || mFileLength <= 0) {
+            return mResumePoint == ResumePoints.Enum.DATA_TRANSFER ? 0 : 100;
+        }
+        double percentage = mAcknowledgedOffset * 100.0 / mFileLength;
+        return percentage > 100 ? 100 : percentage;
+    }
+
+    /**
+     * <p>To know if the file used for the upgrade still exists and has not been modified since the upgrade has
+     * started. If it has been modified, the recorded identifier does not correspond to the file anymore.</p>
+     *
+     * @return true if the upgrade can be resumed with the same file.
+     */
+    public boolean isFileUnchanged() {
+        return mFile.isFile() && mFile.length() == mFileLength && mFile.lastModified() == mFileLastModified;
+    }
+
+    /**
+     * <p>To know if this session has been recorded for the given file in its current state.</p>
+     */
+    public boolean isForFile(File file) {
+        return file != null && mFile.getAbsolutePath().equals(file.getAbsolutePath()) && isFileUnchanged();
+    }
+
+    /*package*/ long getFileLength() {
+        return mFileLength;
+    }
+
+    /*package*/ long getFileLastModified() {
+        return mFileLastModified;
+    }
+
+    /*package*/ void setResumePoint(@ResumePoints.Enum int point) {
+        mResumePoint = point;
+    }
+
+    /*package*/ void setAcknowledgedOffset(long offset) {
+        mAcknowledgedOffset = offset;
+    }
+}
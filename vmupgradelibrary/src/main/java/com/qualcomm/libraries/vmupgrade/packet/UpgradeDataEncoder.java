@@ -0,0 +1,158 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.packet;
+
+import com.qualcomm.libraries.vmupgrade.codes.OpCodes;
+import com.qualcomm.libraries.vmupgrade.image.UpgradeImageSource;
+
+import java.util.ArrayDeque;
+
+/**
+ * <p>This class builds {@link OpCodes.Enum#UPGRADE_DATA UPGRADE_DATA} packets directly into the frames which are
+ * sent over the transport.</p>
+ * <p>A frame is composed as follows:
+ * <blockquote><pre>
+ *      0 bytes        header      header+1  header+3  header+4                          length
+ *      +---------...---+---------+---------+---------+---------+---------...---+---------...---+
+ *      |    HEADER     | OPCODE  |      LENGTH       |  LAST   | FILE BYTES... |    TRAILER    |
+ *      +---------...---+---------+---------+---------+---------+---------...---+---------...---+
+ * </pre></blockquote>
+ * The header and the trailer belong to the transport protocol and are written by the transport once the VMU packet
+ * has been encoded. The file bytes are read from the {@link UpgradeImageSource UpgradeImageSource} straight into the
+ * frame.</p>
+ * <p>The frames are pooled by length: a frame which is {@link #release(byte[]) released} is reused to encode another
+ * packet of the same length. As long as the number of frames waiting to be released stays bounded, encoding packets
+ * does not allocate any memory.</p>
+ */
+@SuppressWarnings("unused")
+public class UpgradeDataEncoder {
+
+    /**
+     * <p>The maximum number of unused frames kept for each frame length.</p>
+     */
+    private static final int MAX_POOLED_FRAMES = 16;
+    /**
+     * <p>The number of bytes of a frame which are used by the transport before the VMU packet.</p>
+     */
+    private final int mHeaderLength;
+    /**
+     * <p>The number of bytes of a frame which are used by the transport after the VMU packet.</p>
+     */
+    private final int mTrailerLength;
+    /**
+     * <p>The unused frames indexed by the number of file bytes they can contain.</p>
+     */
+    private final ArrayDeque<byte[]>[] mFreeFrames;
+
+    /**
+     * <p>To build a new encoder.</p>
+     *
+     * @param headerLength
+     *          The number of bytes the transport writes before the VMU packet.
+     * @param trailerLength
+     *          The number of bytes the transport writes after the VMU packet.
+     * @param maxFileBytes
+     *          The maximum number of file bytes a packet can contain.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"}) // generic arrays cannot be created
+    public UpgradeDataEncoder(int headerLength, int trailerLength, int maxFileBytes) {
+        mHeaderLength = headerLength;
+        mTrailerLength = trailerLength;
+        mFreeFrames = new ArrayDeque[maxFileBytes + 1];
+    }
+
+    /**
+     * <p>To get the number of bytes of the VMU packet which contains the given number of file bytes.</p>
+     *
+     * @param fileBytes
+     *          The number of file bytes.
+     *
+     * @return the length of the VMU packet, excluding the header and trailer of the frame.
+     */
+    public static int getPacketLength(int fileBytes) {
+        return VMUPacket.REQUIRED_INFORMATION_LENGTH + OpCodes.UpgradeData.FILE_BYTES_OFFSET + fileBytes;
+    }
+
+    /**
+     * <p>To get the number of bytes the transport writes before the VMU packet.</p>
+     *
+     * @return the offset of the VMU packet in the frames built by this encoder.
+     */
+    public int getHeaderLength() {
+        return mHeaderLength;
+    }
+
+    /**
+     * <p>To build a frame which contains an {@link OpCodes.Enum#UPGRADE_DATA UPGRADE_DATA} packet.</p>
+     * <p>The header and the trailer of the returned frame still have to be written by the transport. Once the frame
+     * is not used anymore, it should be given back through {@link #release(byte[]) release}.</p>
+     *
+     * @param lastPacket
+     *          True if the packet contains the last bytes of the file.
+     * @param source
+     *          The source to read the file bytes from.
+     * @param position
+     *          The position of the first byte to send in the file.
+     * @param length
+     *          The number of file bytes to send.
+     *
+     * @return a frame of <code>header + {@link #getPacketLength(int) getPacketLength(length)} + trailer</code> bytes.
+     *
+     * @throws VMUException type {@link VMUException.Type#GET_BYTES_FILE_FAILED GET_BYTES_FILE_FAILED} if the file
+     * bytes could not be read.
+     */
+    public byte[] encode(boolean lastPacket, UpgradeImageSource source, int position, int length)
+            throws VMUException {
+        byte[] frame = acquire(length);
+        int dataOffset = VMUPacket.writeHeader(frame, mHeaderLength, OpCodes.Enum.UPGRADE_DATA,
+                OpCodes.UpgradeData.FILE_BYTES_OFFSET + length);
+        frame[dataOffset + OpCodes.UpgradeData.LAST_PACKET_OFFSET] = lastPacket
+                ? OpCodes.UpgradeData.LastPacket.IS_LAST_PACKET : OpCodes.UpgradeData.LastPacket.IS_NOT_LAST_PACKET;
+
+        try {
+            source.read(position, frame, dataOffset + OpCodes.UpgradeData.FILE_BYTES_OFFSET, length);
+        }
+        catch (VMUException e) {
+            release(frame);
+            throw e;
+        }
+
+        return frame;
+    }
+
+    /**
+     * <p>To give back a frame built by this encoder once it is not used anymore, so it can be reused.</p>
+     *
+     * @param frame
+     *          A frame which has been returned by {@link #encode(boolean, UpgradeImageSource, int, int) encode}.
+     */
+    public void release(byte[] frame) {
+        int fileBytes = frame.length - mHeaderLength - mTrailerLength - getPacketLength(0);
+        if (fileBytes < 0 || fileBytes >= mFreeFrames.length) {
+            return; // not a frame from this encoder
+        }
+
+        ArrayDeque<byte[]> frames = mFreeFrames[fileBytes];
+        if (frames == null) {
+            frames = new ArrayDeque<>(MAX_POOLED_FRAMES);
+            mFreeFrames[fileBytes] = frames;
+        }
+        if (frames.size() < MAX_POOLED_FRAMES) {
+            frames.push(frame);
+        }
+    }
+
+    /**
+     * <p>To get a frame which can contain the given number of file bytes, from the pool if there is one
+     * available.</p>
+     */
+    private byte[] acquire(int fileBytes) {
+        ArrayDeque<byte[]> frames = fileBytes < mFreeFrames.length ? mFreeFrames[fileBytes] : null;
+        if (frames != null && !frames.isEmpty()) {
+            return frames.pop();
+        }
+        return new byte[mHeaderLength + getPacketLength(fileBytes) + mTrailerLength];
+    }
+}
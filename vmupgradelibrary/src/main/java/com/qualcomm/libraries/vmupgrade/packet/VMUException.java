@@ -34,7 +34,8 @@ public class VMUException extends Exception {
     /**
      * <p></p>All types of VMU exceptions.</p>
      */
-    @IntDef(flag = true, value = { Type.DATA_TOO_SHORT, Type.FILE_TOO_BIG, Type.GET_BYTES_FILE_FAILED })
+    @IntDef(flag = true, value = { Type.DATA_TOO_SHORT, Type.FILE_TOO_BIG, Type.GET_BYTES_FILE_FAILED,
+            Type.INVALID_IMAGE })
     @Retention(RetentionPolicy.SOURCE)
     @SuppressLint("ShiftFlags") // values are more readable this way
     public @interface Type {
@@ -62,6 +63,12 @@ public class VMUException extends Exception {
          * <p>This exception occurs when it has not been possible to get the bytes of a file.</p>
          */
         int GET_BYTES_FILE_FAILED = 3;
+
+        /**
+         * <p>This exception occurs when the given file cannot be an upgrade image: it is empty or its header
+         * does not match its content.</p>
+         */
+        int INVALID_IMAGE = 4;
     }
 
     /**
@@ -140,6 +147,13 @@ public class VMUException extends Exception {
             }
             break;
 
+        case Type.INVALID_IMAGE:
+            strBuilder.append("Invalid upgrade image");
+            if (mMessage.length() > 0) {
+                strBuilder.append(": ").append(mMessage);
+            }
+            break;
+
         default:
             strBuilder.append("VMU Exception occurs");
         }
@@ -156,6 +156,29 @@ public class VMUPacket {
         return packet;
     }
 
+    /**
+     * <p>To write the operation code and the length of a VMU packet into an existing array. The data of the packet
+     * have to be written by the caller right after these fields, at the returned offset.</p>
+     * <p>This method does not allocate any memory: it allows to build a packet directly into an array which is
+     * reused.</p>
+     *
+     * @param target
+     *            The array to write the packet into.
+     * @param offset
+     *            The offset in the array of the first byte of the packet.
+     * @param opCode
+     *            The operation code of the packet.
+     * @param dataLength
+     *            The number of bytes of the packet data.
+     *
+     * @return The offset in the array at which the data of the packet starts.
+     */
+    public static int writeHeader(byte[] target, int offset, @OpCodes.Enum int opCode, int dataLength) {
+        target[offset + OPCODE_OFFSET] = (byte) opCode;
+        VMUUtils.copyIntIntoByteArray(dataLength, target, offset + LENGTH_OFFSET, LENGTH_LENGTH, false);
+        return offset + DATA_OFFSET;
+    }
+
     /**
      * To get the operation code.
      * 
@@ -0,0 +1,181 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.packet;
+
+import android.util.Log;
+
+import com.qualcomm.libraries.vmupgrade.VMUUtils;
+import com.qualcomm.libraries.vmupgrade.codes.OpCodes;
+
+/**
+ * <p>This class is a reusable view of a VMU packet received from a Device: it reads the fields of the packet in
+ * the array it has been received in.</p>
+ * <p>Unlike {@link VMUPacket#VMUPacket(byte[]) VMUPacket(byte[])}, {@link #wrap(byte[], int, int) wrapping} some
+ * bytes does not copy them and does not allocate any object, so that one view can be used for all the packets
+ * received during an upgrade. The view is only valid until the next call to {@link #wrap(byte[], int, int) wrap}
+ * and as long as the wrapped array is not modified: the data which has to be kept has to be
+ * {@link #copyData() copied}.</p>
+ * <p>The packet is composed as described in {@link VMUPacket VMUPacket}. The offsets given to the accessors are
+ * relative to the start of the DATA field.</p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class VMUPacketView {
+
+    /**
+     * <p>The tag to display for logs.</p>
+     */
+    private static final String TAG = "VMUPacketView";
+    /**
+     * The offset for the operation code information.
+     */
+    private static final int OPCODE_OFFSET = 0;
+    /**
+     * The offset for the length information.
+     */
+    private static final int LENGTH_OFFSET = 1;
+    /**
+     * The number of bytes to define the packet length information.
+     */
+    private static final int LENGTH_LENGTH = 2;
+    /**
+     * <p>The array which contains the packet.</p>
+     */
+    private byte[] mBytes;
+    /**
+     * <p>The offset of the packet in {@link #mBytes mBytes}.</p>
+     */
+    private int mOffset;
+    /**
+     * <p>The offset of the DATA field in {@link #mBytes mBytes}.</p>
+     */
+    private int mDataOffset;
+    /**
+     * <p>The number of bytes of the DATA field.</p>
+     */
+    private int mDataLength;
+
+    /**
+     * <p>To make this view read the packet contained in the given bytes.</p>
+     * <p>As {@link VMUPacket#VMUPacket(byte[]) VMUPacket(byte[])} does, a LENGTH field which does not match the
+     * number of bytes is logged and the DATA field is made of all the bytes which follow the LENGTH field.</p>
+     *
+     * @param bytes
+     *          The array which contains the packet.
+     * @param offset
+     *          The offset of the first byte of the packet in the array.
+     * @param length
+     *          The number of bytes of the packet. To contain all the mandatory information this has to be at least
+     *          {@link VMUPacket#REQUIRED_INFORMATION_LENGTH REQUIRED_INFORMATION_LENGTH}.
+     *
+     * @throws VMUException type
+     * {@link com.qualcomm.libraries.vmupgrade.packet.VMUException.Type#DATA_TOO_SHORT DATA_TOO_SHORT}.
+     */
+    public void wrap(byte[] bytes, int offset, int length) throws VMUException {
+        if (length < VMUPacket.REQUIRED_INFORMATION_LENGTH) {
+            byte[] packet = new byte[length];
+            System.arraycopy(bytes, offset, packet, 0, length);
+            throw new VMUException(VMUException.Type.DATA_TOO_SHORT, packet);
+        }
+
+        mBytes = bytes;
+        mOffset = offset;
+        mDataOffset = offset + VMUPacket.REQUIRED_INFORMATION_LENGTH;
+        mDataLength = length - VMUPacket.REQUIRED_INFORMATION_LENGTH;
+
+        int declaredLength = VMUUtils.extractIntFromByteArray(bytes, offset + LENGTH_OFFSET, LENGTH_LENGTH, false);
+        if (declaredLength != mDataLength) {
+            Log.w(TAG, "Wrapping packet: the LENGTH (" + declaredLength + ") does not match the DATA length ("
+                    + mDataLength + ").");
+        }
+    }
+
+    /**
+     * <p>To get the raw operation code of the packet, between 0 and 255. This can be used as an index.</p>
+     */
+    public int getRawOpCode() {
+        return mBytes[mOffset + OPCODE_OFFSET] & 0xFF;
+    }
+
+    /**
+     * <p>To get the operation code of the packet.</p>
+     *
+     * @return the operation code or -1 if it is not a known one.
+     */
+    public @OpCodes.Enum int getOpCode() {
+        return OpCodes.getOpCode(mBytes[mOffset + OPCODE_OFFSET]);
+    }
+
+    /**
+     * <p>To get the number of bytes of the DATA field.</p>
+     */
+    public int getDataLength() {
+        return mDataLength;
+    }
+
+    /**
+     * <p>To get a byte of the DATA field.</p>
+     *
+     * @param offset
+     *          The offset of the byte in the DATA field.
+     */
+    public byte getByte(int offset) {
+        checkField(offset, 1);
+        return mBytes[mDataOffset + offset];
+    }
+
+    /**
+     * <p>To get an unsigned big endian field of up to 4 bytes from the DATA field.</p>
+     *
+     * @param offset
+     *          The offset of the field in the DATA field.
+     * @param length
+     *          The number of bytes of the field.
+     */
+    public int getInt(int offset, int length) {
+        checkField(offset, length);
+        return VMUUtils.extractIntFromByteArray(mBytes, mDataOffset + offset, length, false);
+    }
+
+    /**
+     * <p>To get an unsigned big endian field of up to 8 bytes from the DATA field.</p>
+     *
+     * @param offset
+     *          The offset of the field in the DATA field.
+     * @param length
+     *          The number of bytes of the field.
+     */
+    public long getLong(int offset, int length) {
+        checkField(offset, length);
+        return VMUUtils.extractLongFromByteArray(mBytes, mDataOffset + offset, length, false);
+    }
+
+    /**
+     * <p>To copy the DATA field into a new array, for the data which has to be kept after the next packet has been
+     * wrapped.</p>
+     */
+    public byte[] copyData() {
+        byte[] data = new byte[mDataLength];
+        System.arraycopy(mBytes, mDataOffset, data, 0, mDataLength);
+        return data;
+    }
+
+    @Override // Object
+    public String toString() {
+        return OpCodes.getString(getOpCode()) + ": " + VMUUtils.getHexadecimalStringFromBytes(copyData());
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    /**
+     * <p>To check that a field is within the DATA field, so that a short packet cannot be read beyond its end.</p>
+     */
+    private void checkField(int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > mDataLength) {
+            throw new IndexOutOfBoundsException("Field [" + offset + ", " + (offset + length) + "[ out of DATA of "
+                    + mDataLength + " bytes.");
+        }
+    }
+}
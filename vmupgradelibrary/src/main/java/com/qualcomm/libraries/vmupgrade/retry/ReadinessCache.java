@@ -0,0 +1,181 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.retry;
+
+import android.util.Log;
+
+import com.qualcomm.libraries.vmupgrade.AtomicFile;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>This class learns how long each Device takes to be ready for an upgrade: the time between the first
+ * UPGRADE_START_REQ and the UPGRADE_START_CFM which accepts the upgrade, when the Device has first answered that it
+ * was not ready.</p>
+ * <p>The readiness time of a Device is a moving average of the times which have been measured, so that the first
+ * retry of the next upgrade can be sent when the Device is expected to be ready. The times are saved in a file so
+ * they survive a restart of the application. A new time is saved in the background, the upgrade does not wait for
+ * the storage.</p>
+ * <p>The file contains one line per Device with the following tab separated fields:
+ * <blockquote><pre>
+ *     DEVICE    READINESS TIME
+ * </pre></blockquote></p>
+ */
+@SuppressWarnings("unused")
+public class ReadinessCache {
+
+    /**
+     * <p>The tag to display for logs.</p>
+     */
+    private static final String TAG = "ReadinessCache";
+    /**
+     * <p>The value returned when the readiness time of a Device is not known.</p>
+     */
+    public static final long UNKNOWN = -1;
+    /**
+     * <p>The weight given to a new measure in the moving average.</p>
+     */
+    private static final double SMOOTHING_FACTOR = 0.5;
+    /**
+     * <p>The maximum number of Devices kept by this cache, the least recently used ones are removed first.</p>
+     */
+    private static final int MAX_ENTRIES = 32;
+    /**
+     * <p>The separator between the fields of a line of the file.</p>
+     */
+    private static final String SEPARATOR = "\t";
+    /**
+     * <p>The file in which the readiness times are saved.</p>
+     */
+    private final AtomicFile mStorage;
+    /**
+     * <p>The readiness times for their Device, ordered from the least to the most recently used.</p>
+     */
+    private final Map<String, Long> mTimes = new LinkedHashMap<String, Long>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    /**
+     * <p>To know if the storage file has been read.</p>
+     */
+    private boolean isLoaded = false;
+
+    /**
+     * <p>To build a cache which saves the readiness times in the given file.</p>
+     *
+     * @param storage
+     *          The file to read and write the readiness times, it is created if it does not exist.
+     */
+    public ReadinessCache(File storage) {
+        mStorage = new AtomicFile(storage);
+    }
+
+    /**
+     * <p>To get the time a Device is expected to take to be ready for an upgrade.</p>
+     *
+     * @param device
+     *          The identifier of the Device, such as its Bluetooth address.
+     *
+     * @return The readiness time in ms or {@link #UNKNOWN UNKNOWN}.
+     */
+    public synchronized long getReadinessTime(String device) {
+        load();
+        Long time = mTimes.get(device);
+        return time == null ? UNKNOWN : time;
+    }
+
+    /**
+     * <p>To record the time a Device has taken to be ready for an upgrade.</p>
+     *
+     * @param device
+     *          The identifier of the Device, such as its Bluetooth address.
+     * @param time
+     *          The measured readiness time in ms.
+     */
+    public synchronized void recordReadinessTime(String device, long time) {
+        load();
+        Long previous = mTimes.get(device);
+        long value = previous == null ? time : Math.round(previous + SMOOTHING_FACTOR * (time - previous));
+        mTimes.put(device, value);
+        save();
+    }
+
+    /**
+     * <p>To write on the calling thread the readiness times which are waiting to be saved in the background. This
+     * returns once they have been written.</p>
+     */
+    public void flush() {
+        mStorage.flush();
+    }
+
+    /**
+     * <p>To remove all the readiness times from this cache and from its file.</p>
+     */
+    public synchronized void clear() {
+        mTimes.clear();
+        isLoaded = true;
+        mStorage.delete();
+    }
+
+    /**
+     * <p>To read the readiness times saved in the storage file if they have not been read yet.</p>
+     */
+    private void load() {
+        if (isLoaded) {
+            return;
+        }
+        isLoaded = true;
+
+        if (!mStorage.exists()) {
+            return;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = mStorage.openReader();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int index = line.lastIndexOf(SEPARATOR);
+                if (index > 0) {
+                    try {
+                        mTimes.put(line.substring(0, index), Long.parseLong(line.substring(index + 1)));
+                    }
+                    catch (NumberFormatException e) {
+                        Log.w(TAG, "Invalid line in the readiness cache: " + line);
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            Log.w(TAG, "Exception occurs when reading the readiness cache: " + e.getMessage());
+        }
+        finally {
+            AtomicFile.closeQuietly(reader);
+        }
+    }
+
+    /**
+     * <p>To write all the known readiness times in the storage file, in the background.</p>
+     */
+    private void save() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Long> entry : mTimes.entrySet()) {
+            builder.append(entry.getKey()).append(SEPARATOR).append(entry.getValue()).append('\n');
+        }
+        try {
+            mStorage.writeAsync(builder.toString().getBytes(AtomicFile.CHARSET));
+        }
+        catch (UnsupportedEncodingException e) {
+            Log.w(TAG, "Exception occurs when saving the readiness cache: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.retry;
+
+/**
+ * <p>This class defines when a request to the Device which has not been fulfilled yet should be sent again, such as
+ * an UPGRADE_START_REQ answered with ERROR_APP_NOT_READY or an UPGRADE_IS_VALIDATION_DONE_REQ.</p>
+ * <p>The delay before an attempt is either a delay suggested by the caller - given by the Device or learnt from
+ * previous upgrades - or an exponential backoff: <code>initialDelay * multiplier<sup>attempt - 1</sup></code>. The
+ * delay is then bounded by the maximum delay and spread by a random jitter of <code>&plusmn; jitter * delay</code>
+ * so that the Devices of a fleet do not all retry at the same time.</p>
+ * <p>The retries end when the maximum number of attempts is reached or when the next attempt would happen after
+ * the deadline.</p>
+ * <p>A policy is immutable and can be shared between managers.</p>
+ */
+@SuppressWarnings("unused")
+public class RetryPolicy {
+
+    // ====== CONSTS FIELDS =======================================================================
+
+    /**
+     * <p>The value to use for no maximum number of attempts or no deadline.</p>
+     */
+    public static final int UNLIMITED = 0;
+    /**
+     * <p>The default policy to retry an UPGRADE_START_REQ when the Device is not ready: the first retry is sent after
+     * 250 ms and the Device has 30 s to become ready.</p>
+     */
+    public static final RetryPolicy DEFAULT_START = new RetryPolicy(250, 4000, 2, 0.2, UNLIMITED, 30000);
+    /**
+     * <p>The default policy to poll the Device during the validation of the image: the waiting time given by the
+     * Device is bounded to 5 s and the validation has to end within 2 minutes.</p>
+     */
+    public static final RetryPolicy DEFAULT_VALIDATION = new RetryPolicy(100, 5000, 2, 0.1, UNLIMITED, 120000);
+
+
+    // ====== PRIVATE FIELDS =======================================================================
+
+    private final long mInitialDelay;
+    private final long mMaxDelay;
+    private final double mMultiplier;
+    private final double mJitter;
+    private final int mMaxAttempts;
+    private final long mDeadline;
+
+
+    // ====== CONSTRUCTORS =======================================================================
+
+    /**
+     * <p>To build a retry policy.</p>
+     *
+     * @param initialDelay
+     *          The delay in ms before the first retry when no delay is suggested.
+     * @param maxDelay
+     *          The maximum delay in ms between two attempts, before the jitter is applied.
+     * @param multiplier
+     *          The factor applied to the delay at each new attempt, 1 for a fixed delay.
+     * @param jitter
+     *          The proportion of the delay which is randomly added or removed, from 0 to 1.
+     * @param maxAttempts
+     *          The maximum number of retries, {@link #UNLIMITED UNLIMITED} to only use the deadline.
+     * @param deadline
+     *          The time in ms from the first attempt after which no retry is sent, {@link #UNLIMITED UNLIMITED} to
+     *          only use the maximum number of attempts.
+     */
+    public RetryPolicy(long initialDelay, long maxDelay, double multiplier, double jitter, int maxAttempts,
+                       long deadline) {
+        mInitialDelay = initialDelay < 0 ? 0 : initialDelay;
+        mMaxDelay = maxDelay < mInitialDelay ? mInitialDelay : maxDelay;
+        mMultiplier = multiplier < 1 ? 1 : multiplier;
+        mJitter = jitter < 0 ? 0 : jitter > 1 ? 1 : jitter;
+        mMaxAttempts = maxAttempts < 0 ? UNLIMITED : maxAttempts;
+        mDeadline = deadline < 0 ? UNLIMITED : deadline;
+    }
+
+    /**
+     * <p>To build a policy which retries a given number of times after a fixed delay, without jitter nor
+     * deadline.</p>
+     */
+    public static RetryPolicy fixed(long delay, int maxAttempts) {
+        return new RetryPolicy(delay, delay, 1, 0, maxAttempts, UNLIMITED);
+    }
+
+
+    // ====== PUBLIC METHODS =======================================================================
+
+    /**
+     * <p>To get the delay to wait before an attempt.</p>
+     *
+     * @param attempt
+     *          The number of the retry, starting at 1.
+     * @param suggestedDelay
+     *          A delay suggested by the Device or learnt from previous upgrades, 0 or less to use the exponential
+     *          backoff.
+     * @param random
+     *          A random value in [0, 1) to apply the jitter.
+     *
+     * @return The delay in ms to wait.
+     */
+    public long getDelay(int attempt, long suggestedDelay, double random) {
+        double delay;
+        if (suggestedDelay > 0) {
+            delay = suggestedDelay;
+        }
+        else {
+            delay = mInitialDelay * Math.pow(mMultiplier, attempt > 1 ? attempt - 1 : 0);
+        }
+        delay = delay < mMaxDelay ? delay : mMaxDelay;
+        delay += delay * mJitter * (2 * random - 1);
+        return delay > 0 ? Math.round(delay) : 0;
+    }
+
+    /**
+     * <p>To know if another attempt can be made.</p>
+     *
+     * @param attempts
+     *          The number of retries which have already been made.
+     * @param elapsedTime
+     *          The time in ms since the first attempt.
+     * @param delay
+     *          The delay before the next attempt.
+     *
+     * @return true if the maximum number of attempts has not been reached and the next attempt would happen before
+     * the deadline.
+     */
+    public boolean canRetry(int attempts, long elapsedTime, long delay) {
+        return (mMaxAttempts == UNLIMITED || attempts < mMaxAttempts)
+                && (mDeadline == UNLIMITED || elapsedTime + delay <= mDeadline);
+    }
+
+    public long getInitialDelay() {
+        return mInitialDelay;
+    }
+
+    public long getMaxDelay() {
+        return mMaxDelay;
+    }
+
+    public double getMultiplier() {
+        return mMultiplier;
+    }
+
+    public double getJitter() {
+        return mJitter;
+    }
+
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    public long getDeadline() {
+        return mDeadline;
+    }
+}
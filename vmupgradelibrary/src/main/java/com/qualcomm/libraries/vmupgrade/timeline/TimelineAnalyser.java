@@ -0,0 +1,250 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.timeline;
+
+import com.qualcomm.libraries.vmupgrade.codes.OpCodes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * <p>This class analyses an {@link UpgradeTimeline UpgradeTimeline} to build a {@link TimelineReport
+ * TimelineReport}.</p>
+ * <p>The time between two consecutive events is given to the {@link TimelineReport.Phase phase} the upgrade was in.
+ * The phase changes with the requests sent by the Host: UPGRADE_SYNC_REQ starts the
+ * {@link TimelineReport.Phase#SYNC SYNC} phase, UPGRADE_START_REQ the {@link TimelineReport.Phase#START START}
+ * phase, etc. The time before a {@link UpgradeTimeline.Event#RESUMED RESUMED} event is given to the
+ * {@link TimelineReport.Phase#RECONNECTION RECONNECTION} phase, unless the Device was rebooting, as well as the time
+ * between a {@link UpgradeTimeline.Event#LINK_LOST LINK_LOST} event and the next RESUMED event.</p>
+ * <p>The reboot of the Device into the new image is measured from the UPGRADE_TRANSFER_COMPLETE_RES to the
+ * UPGRADE_COMMIT_CFM: the time without link, the time to set up the link again until the upgrade is resumed and the
+ * total time until the Host commits the new image.</p>
+ * <p>The data packets are acknowledged in the order they have been sent: the latency of an acknowledgement is the
+ * time since the oldest data packet which has not been acknowledged.</p>
+ * <p>Any time between two events longer than the stall threshold is reported as a
+ * {@link TimelineReport.Stall Stall}.</p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class TimelineAnalyser {
+
+    /**
+     * <p>The default minimum time in ms without any event to report a stall.</p>
+     */
+    public static final long DEFAULT_STALL_THRESHOLD = 2000;
+    /**
+     * <p>The minimum time in ms without any event to report a stall.</p>
+     */
+    private final long mStallThreshold;
+
+    /**
+     * <p>To build an analyser which reports the stalls longer than
+     * {@link #DEFAULT_STALL_THRESHOLD DEFAULT_STALL_THRESHOLD}.</p>
+     */
+    public TimelineAnalyser() {
+        this(DEFAULT_STALL_THRESHOLD);
+    }
+
+    /**
+     * <p>To build an analyser which reports the stalls longer than the given threshold.</p>
+     *
+     * @param stallThreshold
+     *          The minimum time in ms without any event to report a stall.
+     */
+    public TimelineAnalyser(long stallThreshold) {
+        mStallThreshold = stallThreshold;
+    }
+
+    public long getStallThreshold() {
+        return mStallThreshold;
+    }
+
+    /**
+     * <p>To analyse the given timeline.</p>
+     *
+     * @param timeline
+     *          The timeline to analyse, it is not modified.
+     *
+     * @return the report of the timeline.
+     */
+    public TimelineReport analyse(UpgradeTimeline timeline) {
+        long[] phaseDurations = new long[TimelineReport.PHASES_COUNT];
+        List<TimelineReport.Stall> stalls = new ArrayList<>();
+        LinkedList<Long> unacknowledged = new LinkedList<>();
+        long[] latencies = new long[16];
+        int ackCount = 0;
+        int dataRequests = 0;
+        long requestWaitingTime = 0;
+        long maxRequestWaitingTime = 0;
+        int appNotReadyAnswers = 0;
+        int reconnections = 0;
+        long rebootTime = -1;
+        long rebootLinkRestoredTime = -1;
+        long rebootLinkDownTime = -1;
+        long rebootLinkSetupTime = -1;
+        long rebootToCommitTime = -1;
+        int rebootConnectionAttempts = 0;
+        boolean isLinkLost = false;
+        long duration = 0;
+        long droppedEvents;
+
+        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized (timeline) {
+            int size = timeline.size();
+            droppedEvents = timeline.getDroppedEvents();
+            if (size > 0) {
+                duration = timeline.getTime(size - 1) - timeline.getTime(0);
+            }
+
+            @TimelineReport.Phase int phase = TimelineReport.Phase.SYNC;
+            long previousTime = -1;
+            int previousEvent = UpgradeTimeline.Event.UPGRADE_STARTED;
+            int previousValue = 0;
+
+            for (int i = 0; i < size; i++) {
+                long time = timeline.getTime(i);
+                @UpgradeTimeline.Event int event = timeline.getEvent(i);
+                int value = timeline.getValue(i);
+
+                if (previousTime >= 0) {
+                    long gap = time - previousTime;
+                    @TimelineReport.Phase int gapPhase = (event == UpgradeTimeline.Event.RESUMED || isLinkLost)
+                            && phase != TimelineReport.Phase.REBOOT ? TimelineReport.Phase.RECONNECTION : phase;
+                    phaseDurations[gapPhase] += gap;
+                    if (gap > mStallThreshold) {
+                        //noinspection WrongConstant
+                        stalls.add(new TimelineReport.Stall(previousTime, gap, gapPhase, previousEvent,
+                                previousValue));
+                    }
+                }
+
+                switch (event) {
+                    case UpgradeTimeline.Event.UPGRADE_STARTED:
+                    case UpgradeTimeline.Event.RESUMED:
+                        // the packets in flight have been lost
+                        unacknowledged.clear();
+                        if (event == UpgradeTimeline.Event.RESUMED) {
+                            reconnections++;
+                            if (phase == TimelineReport.Phase.REBOOT && rebootLinkRestoredTime >= 0) {
+                                rebootLinkSetupTime = time - rebootLinkRestoredTime;
+                            }
+                        }
+                        isLinkLost = false;
+                        phase = TimelineReport.Phase.SYNC;
+                        break;
+
+                    case UpgradeTimeline.Event.PACKET_SENT:
+                        phase = getPhase(value, phase);
+                        if (value == OpCodes.Enum.UPGRADE_TRANSFER_COMPLETE_RES) {
+                            // the Device reboots into the new image
+                            rebootTime = time;
+                            rebootLinkRestoredTime = -1;
+                            rebootLinkDownTime = -1;
+                            rebootLinkSetupTime = -1;
+                            rebootToCommitTime = -1;
+                            rebootConnectionAttempts = 0;
+                        }
+                        else if (value == OpCodes.Enum.UPGRADE_COMMIT_CFM && rebootTime >= 0
+                                && rebootToCommitTime < 0) {
+                            rebootToCommitTime = time - rebootTime;
+                        }
+                        break;
+
+                    case UpgradeTimeline.Event.LINK_LOST:
+                        isLinkLost = true;
+                        break;
+
+                    case UpgradeTimeline.Event.LINK_RESTORED:
+                        if (phase == TimelineReport.Phase.REBOOT && rebootTime >= 0) {
+                            rebootLinkRestoredTime = time;
+                            rebootLinkDownTime = time - rebootTime;
+                            rebootConnectionAttempts += value;
+                        }
+                        break;
+
+                    case UpgradeTimeline.Event.PACKET_RECEIVED:
+                        if (value == OpCodes.Enum.UPGRADE_DATA_BYTES_REQ) {
+                            dataRequests++;
+                            if (previousTime >= 0 && unacknowledged.isEmpty()
+                                    && phase == TimelineReport.Phase.DATA_TRANSFER) {
+                                // the Host had nothing to send until this request
+                                long waiting = time - previousTime;
+                                requestWaitingTime += waiting;
+                                maxRequestWaitingTime = Math.max(maxRequestWaitingTime, waiting);
+                            }
+                        }
+                        else if (value == OpCodes.Enum.UPGRADE_TRANSFER_COMPLETE_IND
+                                || value == OpCodes.Enum.UPGRADE_COMMIT_REQ) {
+                            phase = TimelineReport.Phase.CONFIRMATION;
+                        }
+                        break;
+
+                    case UpgradeTimeline.Event.DATA_SENT:
+                        unacknowledged.add(time);
+                        break;
+
+                    case UpgradeTimeline.Event.DATA_ACKNOWLEDGED:
+                        if (!unacknowledged.isEmpty()) {
+                            if (ackCount == latencies.length) {
+                                latencies = Arrays.copyOf(latencies, latencies.length * 2);
+                            }
+                            latencies[ackCount++] = time - unacknowledged.removeFirst();
+                        }
+                        break;
+
+                    case UpgradeTimeline.Event.APP_NOT_READY:
+                        appNotReadyAnswers++;
+                        break;
+
+                    case UpgradeTimeline.Event.RESUME_POINT:
+                    case UpgradeTimeline.Event.ERROR:
+                    case UpgradeTimeline.Event.ENDED:
+                        break;
+                }
+
+                previousTime = time;
+                previousEvent = event;
+                previousValue = value;
+            }
+        }
+
+        latencies = Arrays.copyOf(latencies, ackCount);
+        Arrays.sort(latencies);
+        return new TimelineReport(duration, phaseDurations, latencies, dataRequests, requestWaitingTime,
+                maxRequestWaitingTime, appNotReadyAnswers, reconnections, rebootLinkDownTime, rebootLinkSetupTime,
+                rebootToCommitTime, rebootConnectionAttempts, mStallThreshold, stalls, droppedEvents);
+    }
+
+    /**
+     * <p>To get the phase the upgrade enters when the Host sends the given packet.</p>
+     *
+     * @param opCode
+     *          The operation code of the sent packet.
+     * @param current
+     *          The phase the upgrade is in.
+     *
+     * @return the new phase of the upgrade, the current one if the packet does not change it.
+     */
+    private static @TimelineReport.Phase int getPhase(int opCode, @TimelineReport.Phase int current) {
+        switch (opCode) {
+            case OpCodes.Enum.UPGRADE_SYNC_REQ:
+                return TimelineReport.Phase.SYNC;
+            case OpCodes.Enum.UPGRADE_START_REQ:
+                return TimelineReport.Phase.START;
+            case OpCodes.Enum.UPGRADE_START_DATA_REQ:
+                return TimelineReport.Phase.DATA_TRANSFER;
+            case OpCodes.Enum.UPGRADE_IS_VALIDATION_DONE_REQ:
+                return TimelineReport.Phase.VALIDATION;
+            case OpCodes.Enum.UPGRADE_TRANSFER_COMPLETE_RES:
+                return TimelineReport.Phase.REBOOT;
+            case OpCodes.Enum.UPGRADE_IN_PROGRESS_RES:
+            case OpCodes.Enum.UPGRADE_COMMIT_CFM:
+                return TimelineReport.Phase.COMMIT;
+            default:
+                return current;
+        }
+    }
+}
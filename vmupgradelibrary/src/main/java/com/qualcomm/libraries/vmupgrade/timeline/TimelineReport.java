@@ -0,0 +1,409 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.timeline;
+
+import android.annotation.SuppressLint;
+import android.support.annotation.IntDef;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>This class contains the result of the {@link TimelineAnalyser analysis} of an
+ * {@link UpgradeTimeline UpgradeTimeline}: the time spent in each {@link Phase phase} of the upgrade, the latency of
+ * the acknowledgements of the data packets, the time the Host waited for the Device to request more bytes and the
+ * stalls of the upgrade.</p>
+ * <p>A report can be {@link #writeTo(Writer) exported} as tab separated lines to compare upgrades offline.</p>
+ * <p>All times are in ms.</p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class TimelineReport {
+
+    // ====== ENUM =================================================================================
+
+    /**
+     * <p>The phases of an upgrade the time of a timeline is distributed to.</p>
+     */
+    @IntDef(flag = true, value = { Phase.SYNC, Phase.START, Phase.DATA_TRANSFER, Phase.VALIDATION,
+            Phase.CONFIRMATION, Phase.REBOOT, Phase.COMMIT, Phase.RECONNECTION })
+    @Retention(RetentionPolicy.SOURCE)
+    @SuppressLint("ShiftFlags") // values are more readable this way
+    public @interface Phase {
+        /**
+         * <p>From the UPGRADE_SYNC_REQ to the first UPGRADE_START_REQ.</p>
+         */
+        int SYNC = 0;
+        /**
+         * <p>From the first UPGRADE_START_REQ to the UPGRADE_START_DATA_REQ, including the retries while the
+         * Device is not ready.</p>
+         */
+        int START = 1;
+        /**
+         * <p>From the UPGRADE_START_DATA_REQ to the first UPGRADE_IS_VALIDATION_DONE_REQ.</p>
+         */
+        int DATA_TRANSFER = 2;
+        /**
+         * <p>From the first UPGRADE_IS_VALIDATION_DONE_REQ to the UPGRADE_TRANSFER_COMPLETE_IND.</p>
+         */
+        int VALIDATION = 3;
+        /**
+         * <p>The time waiting for the confirmation of the user after an UPGRADE_TRANSFER_COMPLETE_IND or an
+         * UPGRADE_COMMIT_REQ.</p>
+         */
+        int CONFIRMATION = 4;
+        /**
+         * <p>From the UPGRADE_TRANSFER_COMPLETE_RES to the reconnection with the rebooted Device.</p>
+         */
+        int REBOOT = 5;
+        /**
+         * <p>From the UPGRADE_IN_PROGRESS_RES or the UPGRADE_COMMIT_CFM to the UPGRADE_COMPLETE_IND.</p>
+         */
+        int COMMIT = 6;
+        /**
+         * <p>The time to reconnect after an unexpected loss of the link.</p>
+         */
+        int RECONNECTION = 7;
+    }
+
+    /**
+     * <p>The number of {@link Phase phases}.</p>
+     */
+    public static final int PHASES_COUNT = 8;
+
+
+    // ====== PRIVATE FIELDS =======================================================================
+
+    private final long mDuration;
+    private final long[] mPhaseDurations;
+    private final long[] mAckLatencies;
+    private final int mDataRequests;
+    private final long mRequestWaitingTime;
+    private final long mMaxRequestWaitingTime;
+    private final int mAppNotReadyAnswers;
+    private final int mReconnections;
+    private final long mRebootLinkDownTime;
+    private final long mRebootLinkSetupTime;
+    private final long mRebootToCommitTime;
+    private final int mRebootConnectionAttempts;
+    private final long mStallThreshold;
+    private final List<Stall> mStalls;
+    private final long mDroppedEvents;
+
+
+    // ====== CONSTRUCTOR ==========================================================================
+
+    /**
+     * <p>To build the report of a timeline, see {@link TimelineAnalyser TimelineAnalyser}.</p>
+     *
+     * @param ackLatencies
+     *          The latencies of the acknowledgements sorted in ascending order.
+     * @param rebootLinkDownTime
+     *          The time without link while the Device rebooted, -1 if it has not been measured.
+     * @param rebootLinkSetupTime
+     *          The time to set up the link until the upgrade has been resumed after the reboot, -1 if it has not been
+     *          measured.
+     * @param rebootToCommitTime
+     *          The time from the reboot to the UPGRADE_COMMIT_CFM, -1 if it has not been measured.
+     */
+    /*package*/ TimelineReport(long duration, long[] phaseDurations, long[] ackLatencies, int dataRequests,
+                               long requestWaitingTime, long maxRequestWaitingTime, int appNotReadyAnswers,
+                               int reconnections, long rebootLinkDownTime, long rebootLinkSetupTime,
+                               long rebootToCommitTime, int rebootConnectionAttempts, long stallThreshold,
+                               List<Stall> stalls, long droppedEvents) {
+        mDuration = duration;
+        mPhaseDurations = phaseDurations;
+        mAckLatencies = ackLatencies;
+        mDataRequests = dataRequests;
+        mRequestWaitingTime = requestWaitingTime;
+        mMaxRequestWaitingTime = maxRequestWaitingTime;
+        mAppNotReadyAnswers = appNotReadyAnswers;
+        mReconnections = reconnections;
+        mRebootLinkDownTime = rebootLinkDownTime;
+        mRebootLinkSetupTime = rebootLinkSetupTime;
+        mRebootToCommitTime = rebootToCommitTime;
+        mRebootConnectionAttempts = rebootConnectionAttempts;
+        mStallThreshold = stallThreshold;
+        mStalls = Collections.unmodifiableList(stalls);
+        mDroppedEvents = droppedEvents;
+    }
+
+
+    // ====== PUBLIC METHODS =======================================================================
+
+    /**
+     * <p>To get the time between the first and the last events of the timeline.</p>
+     */
+    public long getDuration() {
+        return mDuration;
+    }
+
+    /**
+     * <p>To get the time spent in the given phase.</p>
+     */
+    public long getPhaseDuration(@Phase int phase) {
+        return mPhaseDurations[phase];
+    }
+
+    /**
+     * <p>To get the number of data packets which have been acknowledged.</p>
+     */
+    public int getAckCount() {
+        return mAckLatencies.length;
+    }
+
+    /**
+     * <p>To get a percentile of the time between the sending of a data packet and its acknowledgement.</p>
+     *
+     * @param percentile
+     *          The percentile between 0 and 100, 50 to get the median.
+     *
+     * @return The latency or 0 if no data packet has been acknowledged.
+     */
+    public long getAckLatency(double percentile) {
+        if (mAckLatencies.length == 0) {
+            return 0;
+        }
+        // nearest rank
+        int rank = (int) Math.ceil(percentile / 100 * mAckLatencies.length);
+        rank = rank < 1 ? 1 : rank > mAckLatencies.length ? mAckLatencies.length : rank;
+        return mAckLatencies[rank - 1];
+    }
+
+    /**
+     * <p>To get the number of UPGRADE_DATA_BYTES_REQ received from the Device.</p>
+     */
+    public int getDataRequests() {
+        return mDataRequests;
+    }
+
+    /**
+     * <p>To get the total time the Host has waited for an UPGRADE_DATA_BYTES_REQ once all the requested bytes had
+     * been acknowledged.</p>
+     */
+    public long getRequestWaitingTime() {
+        return mRequestWaitingTime;
+    }
+
+    public long getMaxRequestWaitingTime() {
+        return mMaxRequestWaitingTime;
+    }
+
+    public int getAppNotReadyAnswers() {
+        return mAppNotReadyAnswers;
+    }
+
+    /**
+     * <p>To get the number of times the upgrade has been resumed after a reconnection.</p>
+     */
+    public int getReconnections() {
+        return mReconnections;
+    }
+
+    /**
+     * <p>To get the time from the UPGRADE_TRANSFER_COMPLETE_RES - when the Device reboots into the new image - to the
+     * connection of the link with the rebooted Device.</p>
+     *
+     * @return the time or -1 if the link has not been connected again after the reboot.
+     */
+    public long getRebootLinkDownTime() {
+        return mRebootLinkDownTime;
+    }
+
+    /**
+     * <p>To get the time from the connection of the link with the rebooted Device to the resumption of the upgrade:
+     * the time to discover the services and to register for the GAIA notifications.</p>
+     *
+     * @return the time or -1 if the upgrade has not been resumed after the reboot.
+     */
+    public long getRebootLinkSetupTime() {
+        return mRebootLinkSetupTime;
+    }
+
+    /**
+     * <p>To get the time from the UPGRADE_TRANSFER_COMPLETE_RES to the UPGRADE_COMMIT_CFM: the total time for the
+     * Device to reboot and for the Host to commit the new image. This includes the time waiting for the confirmation
+     * of the user if the commit has to be confirmed.</p>
+     *
+     * @return the time or -1 if the upgrade has not reached the UPGRADE_COMMIT_CFM after a reboot.
+     */
+    public long getRebootToCommitTime() {
+        return mRebootToCommitTime;
+    }
+
+    /**
+     * <p>To get the number of connection attempts made to connect the link with the rebooted Device.</p>
+     */
+    public int getRebootConnectionAttempts() {
+        return mRebootConnectionAttempts;
+    }
+
+    /**
+     * <p>To get the periods without any event longer than the threshold of the analyser.</p>
+     */
+    public List<Stall> getStalls() {
+        return mStalls;
+    }
+
+    /**
+     * <p>To get the number of events which were missing from the timeline because it was full: the report does not
+     * cover the beginning of the upgrade if this is not 0.</p>
+     */
+    public long getDroppedEvents() {
+        return mDroppedEvents;
+    }
+
+    /**
+     * <p>To write this report as tab separated lines: one line per value with its name and the value, and one line
+     * per stall with the fields of the stall.</p>
+     *
+     * @param writer
+     *          The writer to write to, it is not closed by this method.
+     *
+     * @throws IOException if the writer fails.
+     */
+    public void writeTo(Writer writer) throws IOException {
+        writeLine(writer, "duration", mDuration);
+        for (int phase = 0; phase < PHASES_COUNT; phase++) {
+            //noinspection WrongConstant
+            writeLine(writer, "phase." + getPhaseLabel(phase), mPhaseDurations[phase]);
+        }
+        writeLine(writer, "ack.count", mAckLatencies.length);
+        writeLine(writer, "ack.p50", getAckLatency(50));
+        writeLine(writer, "ack.p90", getAckLatency(90));
+        writeLine(writer, "ack.p99", getAckLatency(99));
+        writeLine(writer, "ack.max", getAckLatency(100));
+        writeLine(writer, "requests.count", mDataRequests);
+        writeLine(writer, "requests.waiting", mRequestWaitingTime);
+        writeLine(writer, "requests.waiting.max", mMaxRequestWaitingTime);
+        writeLine(writer, "start.not_ready", mAppNotReadyAnswers);
+        writeLine(writer, "reconnections", mReconnections);
+        writeLine(writer, "reboot.link_down", mRebootLinkDownTime);
+        writeLine(writer, "reboot.link_setup", mRebootLinkSetupTime);
+        writeLine(writer, "reboot.to_commit", mRebootToCommitTime);
+        writeLine(writer, "reboot.attempts", mRebootConnectionAttempts);
+        writeLine(writer, "events.dropped", mDroppedEvents);
+        writeLine(writer, "stalls.threshold", mStallThreshold);
+        for (Stall stall : mStalls) {
+            writer.write("stall\t" + stall.getStartTime() + "\t" + stall.getDuration() + "\t"
+                    + getPhaseLabel(stall.getPhase()) + "\t" + UpgradeTimeline.getEventLabel(stall.getLastEvent())
+                    + "\t" + stall.getLastValue() + "\n");
+        }
+        writer.flush();
+    }
+
+    @Override // Object
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("duration=").append(mDuration).append(" ms");
+        for (int phase = 0; phase < PHASES_COUNT; phase++) {
+            if (mPhaseDurations[phase] > 0) {
+                //noinspection WrongConstant
+                builder.append(", ").append(getPhaseLabel(phase)).append("=").append(mPhaseDurations[phase]);
+            }
+        }
+        builder.append(", ack p50/p90/p99=").append(getAckLatency(50)).append("/").append(getAckLatency(90))
+                .append("/").append(getAckLatency(99)).append(" ms, request waiting=").append(mRequestWaitingTime)
+                .append(" ms, stalls=").append(mStalls.size());
+        if (mRebootToCommitTime >= 0) {
+            builder.append(", reboot to commit=").append(mRebootToCommitTime).append(" ms (link down=")
+                    .append(mRebootLinkDownTime).append(", link setup=").append(mRebootLinkSetupTime)
+                    .append(", attempts=").append(mRebootConnectionAttempts).append(")");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * <p>To get a label for the given phase.</p>
+     */
+    public static String getPhaseLabel(@Phase int phase) {
+        switch (phase) {
+            case Phase.SYNC:
+                return "SYNC";
+            case Phase.START:
+                return "START";
+            case Phase.DATA_TRANSFER:
+                return "DATA_TRANSFER";
+            case Phase.VALIDATION:
+                return "VALIDATION";
+            case Phase.CONFIRMATION:
+                return "CONFIRMATION";
+            case Phase.REBOOT:
+                return "REBOOT";
+            case Phase.COMMIT:
+                return "COMMIT";
+            case Phase.RECONNECTION:
+                return "RECONNECTION";
+            default:
+                return "UNKNOWN " + phase;
+        }
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    private static void writeLine(Writer writer, String name, long value) throws IOException {
+        writer.write(name + "\t" + value + "\n");
+    }
+
+
+    // ====== INNER CLASS ==========================================================================
+
+    /**
+     * <p>A period of an upgrade without any event for longer than the threshold of the analyser.</p>
+     */
+    public static class Stall {
+
+        private final long mStartTime;
+        private final long mDuration;
+        private final @Phase int mPhase;
+        private final @UpgradeTimeline.Event int mLastEvent;
+        private final int mLastValue;
+
+        /*package*/ Stall(long startTime, long duration, @Phase int phase, @UpgradeTimeline.Event int lastEvent,
+                          int lastValue) {
+            mStartTime = startTime;
+            mDuration = duration;
+            mPhase = phase;
+            mLastEvent = lastEvent;
+            mLastValue = lastValue;
+        }
+
+        /**
+         * <p>To get the time of the last event before the stall.</p>
+         */
+        public long getStartTime() {
+            return mStartTime;
+        }
+
+        public long getDuration() {
+            return mDuration;
+        }
+
+        /**
+         * <p>To get the phase the upgrade was in during the stall.</p>
+         */
+        public @Phase int getPhase() {
+            return mPhase;
+        }
+
+        /**
+         * <p>To get the type of the last event before the stall.</p>
+         */
+        public @UpgradeTimeline.Event int getLastEvent() {
+            return mLastEvent;
+        }
+
+        /**
+         * <p>To get the value of the last event before the stall.</p>
+         */
+        public int getLastValue() {
+            return mLastValue;
+        }
+    }
+}
@@ -0,0 +1,370 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.timeline;
+
+import android.annotation.SuppressLint;
+import android.support.annotation.IntDef;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * <p>This class records the protocol events of an upgrade with their time, so that the time spent in each step of
+ * an upgrade can be {@link TimelineAnalyser analysed} once it has ended.</p>
+ * <p>The events are kept in a fixed size ring buffer made of primitive arrays: recording an event does not allocate
+ * any object and, once the buffer is full, the oldest events are overwritten. Each event is made of its
+ * {@link Event type}, its time - given by the clock of the
+ * {@link com.qualcomm.libraries.vmupgrade.UpgradeManager UpgradeManager}, which is monotonic - and a value which
+ * depends on the type.</p>
+ * <p>A timeline can be {@link #writeTo(OutputStream) exported} in a compact binary format and
+ * {@link #readFrom(InputStream) read} again to compare upgrades offline. The format is the following, all values are
+ * big endian:
+ * <blockquote><pre>
+ *     0 bytes  4        8          12                 20     24
+ *     +--------+--------+----------+------------------+------+----------------------+
+ *     | MAGIC  | VERSION| CAPACITY | DROPPED EVENTS   | SIZE | EVENTS ...           |
+ *     +--------+--------+----------+------------------+------+----------------------+
+ * </pre></blockquote>
+ * Each event is written on {@link #RECORD_LENGTH RECORD_LENGTH} bytes: its type on 1 byte, its time on 8 bytes and
+ * its value on 4 bytes.</p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class UpgradeTimeline {
+
+    // ====== CONSTS FIELDS =======================================================================
+
+    /**
+     * <p>The default number of events a timeline can contain.</p>
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+    /**
+     * <p>The number of bytes of an event in the binary format.</p>
+     */
+    public static final int RECORD_LENGTH = 13;
+    /**
+     * <p>The first bytes of the binary format: "VMUT".</p>
+     */
+    private static final int MAGIC = 0x564D5554;
+    /**
+     * <p>The version of the binary format.</p>
+     */
+    private static final int VERSION = 1;
+
+
+    // ====== ENUM =================================================================================
+
+    /**
+     * <p>All the types of events a timeline records.</p>
+     */
+    @IntDef(flag = true, value = { Event.UPGRADE_STARTED, Event.PACKET_SENT, Event.PACKET_RECEIVED, Event.DATA_SENT,
+            Event.DATA_ACKNOWLEDGED, Event.APP_NOT_READY, Event.RESUME_POINT, Event.RESUMED, Event.ERROR,
+            Event.ENDED, Event.LINK_LOST, Event.LINK_RESTORED })
+    @Retention(RetentionPolicy.SOURCE)
+    @SuppressLint("ShiftFlags") // values are more readable this way
+    public @interface Event {
+        /**
+         * <p>The upgrade has started, the value is the length of the image.</p>
+         */
+        int UPGRADE_STARTED = 0;
+        /**
+         * <p>A VMU packet other than UPGRADE_DATA has been sent, the value is its operation code.</p>
+         */
+        int PACKET_SENT = 1;
+        /**
+         * <p>A VMU packet has been received, the value is its operation code.</p>
+         */
+        int PACKET_RECEIVED = 2;
+        /**
+         * <p>An UPGRADE_DATA packet has been sent, the value is the number of file bytes it contains.</p>
+         */
+        int DATA_SENT = 3;
+        /**
+         * <p>An UPGRADE_DATA packet has been acknowledged, the value is the number of file bytes it contains.</p>
+         */
+        int DATA_ACKNOWLEDGED = 4;
+        /**
+         * <p>The Device has answered that it was not ready for the upgrade, the value is the number of such answers
+         * since the first UPGRADE_START_REQ.</p>
+         */
+        int APP_NOT_READY = 5;
+        /**
+         * <p>The resume point has changed, the value is the new resume point.</p>
+         */
+        int RESUME_POINT = 6;
+        /**
+         * <p>The upgrade is resumed after a reconnection, the value is the current resume point.</p>
+         */
+        int RESUMED = 7;
+        /**
+         * <p>An error has occurred, the value is the
+         * {@link com.qualcomm.libraries.vmupgrade.UpgradeError.ErrorTypes type} of the error.</p>
+         */
+        int ERROR = 8;
+        /**
+         * <p>The upgrade has ended, the value is 1 if it has succeeded, 0 otherwise.</p>
+         */
+        int ENDED = 9;
+        /**
+         * <p>The link with the Device has been lost, the value is the current resume point.</p>
+         */
+        int LINK_LOST = 10;
+        /**
+         * <p>The link with the Device has been connected again, the value is the number of connection attempts
+         * which have been made since the link has been lost.</p>
+         */
+        int LINK_RESTORED = 11;
+    }
+
+
+    // ====== PRIVATE FIELDS =======================================================================
+
+    /**
+     * <p>The times of the events.</p>
+     */
+    private final long[] mTimes;
+    /**
+     * <p>The types of the events.</p>
+     */
+    private final byte[] mEvents;
+    /**
+     * <p>The values of the events.</p>
+     */
+    private final int[] mValues;
+    /**
+     * <p>The index in the arrays of the oldest event.</p>
+     */
+    private int mHead = 0;
+    /**
+     * <p>The number of events in the arrays.</p>
+     */
+    private int mSize = 0;
+    /**
+     * <p>The number of events which have been overwritten since the timeline has been cleared.</p>
+     */
+    private long mDroppedEvents = 0;
+
+
+    // ====== CONSTRUCTORS =========================================================================
+
+    /**
+     * <p>To build a timeline which can contain {@link #DEFAULT_CAPACITY DEFAULT_CAPACITY} events.</p>
+     */
+    public UpgradeTimeline() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * <p>To build a timeline which can contain the given number of events.</p>
+     *
+     * @param capacity
+     *          The maximum number of events, once it is reached the oldest events are overwritten.
+     */
+    public UpgradeTimeline(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity of a timeline must be positive: " + capacity);
+        }
+        mTimes = new long[capacity];
+        mEvents = new byte[capacity];
+        mValues = new int[capacity];
+    }
+
+
+    // ====== PUBLIC METHODS =======================================================================
+
+    /**
+     * <p>To record an event. If the timeline is full the oldest event is overwritten.</p>
+     *
+     * @param event
+     *          The type of the event.
+     * @param time
+     *          The time of the event in ms.
+     * @param value
+     *          The value of the event, see {@link Event Event}.
+     */
+    public synchronized void record(@Event int event, long time, int value) {
+        int index = (mHead + mSize) % mTimes.length;
+        if (mSize == mTimes.length) {
+            mHead = (mHead + 1) % mTimes.length;
+            mDroppedEvents++;
+        }
+        else {
+            mSize++;
+        }
+        mTimes[index] = time;
+        mEvents[index] = (byte) event;
+        mValues[index] = value;
+    }
+
+    /**
+     * <p>To remove all the events of this timeline.</p>
+     */
+    public synchronized void clear() {
+        mHead = 0;
+        mSize = 0;
+        mDroppedEvents = 0;
+    }
+
+    /**
+     * <p>To get the number of events in this timeline.</p>
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    public int getCapacity() {
+        return mTimes.length;
+    }
+
+    /**
+     * <p>To get the number of events which have been overwritten because the timeline was full.</p>
+     */
+    public synchronized long getDroppedEvents() {
+        return mDroppedEvents;
+    }
+
+    /**
+     * <p>To get the time of an event.</p>
+     *
+     * @param index
+     *          The index of the event, 0 is the oldest one.
+     */
+    public synchronized long getTime(int index) {
+        return mTimes[getArrayIndex(index)];
+    }
+
+    /**
+     * <p>To get the type of an event.</p>
+     *
+     * @param index
+     *          The index of the event, 0 is the oldest one.
+     */
+    public synchronized @Event int getEvent(int index) {
+        return mEvents[getArrayIndex(index)];
+    }
+
+    /**
+     * <p>To get the value of an event.</p>
+     *
+     * @param index
+     *          The index of the event, 0 is the oldest one.
+     */
+    public synchronized int getValue(int index) {
+        return mValues[getArrayIndex(index)];
+    }
+
+    /**
+     * <p>To write this timeline in the binary format described in this class.</p>
+     *
+     * @param output
+     *          The stream to write to, it is not closed by this method.
+     *
+     * @throws IOException if the stream could not be written.
+     */
+    public synchronized void writeTo(OutputStream output) throws IOException {
+        DataOutputStream stream = new DataOutputStream(output);
+        stream.writeInt(MAGIC);
+        stream.writeInt(VERSION);
+        stream.writeInt(mTimes.length);
+        stream.writeLong(mDroppedEvents);
+        stream.writeInt(mSize);
+        for (int i = 0; i < mSize; i++) {
+            int index = (mHead + i) % mTimes.length;
+            stream.writeByte(mEvents[index]);
+            stream.writeLong(mTimes[index]);
+            stream.writeInt(mValues[index]);
+        }
+        stream.flush();
+    }
+
+    /**
+     * <p>To read a timeline which has been written with {@link #writeTo(OutputStream) writeTo}.</p>
+     *
+     * @param input
+     *          The stream to read from, it is not closed by this method.
+     *
+     * @return the timeline read from the stream.
+     *
+     * @throws IOException if the stream could not be read or does not contain a timeline.
+     */
+    public static UpgradeTimeline readFrom(InputStream input) throws IOException {
+        DataInputStream stream = new DataInputStream(input);
+        if (stream.readInt() != MAGIC) {
+            throw new IOException("The stream does not contain an upgrade timeline.");
+        }
+        int version = stream.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version of upgrade timeline: " + version);
+        }
+        int capacity = stream.readInt();
+        long dropped = stream.readLong();
+        int size = stream.readInt();
+        if (capacity <= 0 || size < 0 || size > capacity) {
+            throw new IOException("Corrupted upgrade timeline: capacity=" + capacity + ", size=" + size);
+        }
+
+        UpgradeTimeline timeline = new UpgradeTimeline(capacity);
+        for (int i = 0; i < size; i++) {
+            int event = stream.readByte();
+            long time = stream.readLong();
+            int value = stream.readInt();
+            //noinspection WrongConstant
+            timeline.record(event, time, value);
+        }
+        timeline.mDroppedEvents = dropped;
+        return timeline;
+    }
+
+    /**
+     * <p>To get a label for the given type of event.</p>
+     */
+    public static String getEventLabel(@Event int event) {
+        switch (event) {
+            case Event.UPGRADE_STARTED:
+                return "UPGRADE_STARTED";
+            case Event.PACKET_SENT:
+                return "PACKET_SENT";
+            case Event.PACKET_RECEIVED:
+                return "PACKET_RECEIVED";
+            case Event.DATA_SENT:
+                return "DATA_SENT";
+            case Event.DATA_ACKNOWLEDGED:
+                return "DATA_ACKNOWLEDGED";
+            case Event.APP_NOT_READY:
+                return "APP_NOT_READY";
+            case Event.RESUME_POINT:
+                return "RESUME_POINT";
+            case Event.RESUMED:
+                return "RESUMED";
+            case Event.ERROR:
+                return "ERROR";
+            case Event.ENDED:
+                return "ENDED";
+            case Event.LINK_LOST:
+                return "LINK_LOST";
+            case Event.LINK_RESTORED:
+                return "LINK_RESTORED";
+            default:
+                return "UNKNOWN " + event;
+        }
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    /**
+     * <p>To get the index in the arrays of the event at the given position from the oldest one.</p>
+     */
+    private int getArrayIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + mSize);
+        }
+        return (mHead + index) % mTimes.length;
+    }
+}
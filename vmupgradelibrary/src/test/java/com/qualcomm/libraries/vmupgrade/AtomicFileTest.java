@@ -0,0 +1,98 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Unit tests for the {@link AtomicFile AtomicFile}.</p>
+ */
+public class AtomicFileTest {
+
+    private File mStorage;
+
+    @Before
+    public void setUp() throws IOException {
+        mStorage = File.createTempFile("atomic", ".txt");
+        assertTrue(mStorage.delete());
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        mStorage.delete();
+        //noinspection ResultOfMethodCallIgnored
+        new File(mStorage.getPath() + ".tmp").delete();
+    }
+
+    @Test
+    public void write_replacesTheFile() throws IOException {
+        AtomicFile file = new AtomicFile(mStorage);
+        assertTrue(file.write(getBytes("first")));
+        assertTrue(file.write(getBytes("second")));
+
+        assertEquals("second", read(file));
+        assertFalse(new File(mStorage.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void write_doesNotReplaceTheFileIfTheContentFails() throws IOException {
+        AtomicFile file = new AtomicFile(mStorage);
+        file.write(getBytes("first"));
+
+        assertFalse(file.write(new AtomicFile.Content() {
+            @Override // AtomicFile.Content
+            public void writeTo(OutputStream output) throws IOException {
+                output.write(getBytes("partial"));
+                throw new IOException("failure");
+            }
+        }));
+        assertEquals("first", read(file));
+    }
+
+    @Test
+    public void flush_writesTheLastPendingContent() throws IOException {
+        AtomicFile file = new AtomicFile(mStorage);
+        file.writeAsync(getBytes("first"));
+        file.writeAsync(getBytes("second"));
+        file.flush();
+
+        assertEquals("second", read(file));
+    }
+
+    @Test
+    public void delete_dropsThePendingContent() throws IOException {
+        AtomicFile file = new AtomicFile(mStorage);
+        file.write(getBytes("first"));
+        file.writeAsync(getBytes("second"));
+
+        assertTrue(file.delete());
+        file.flush();
+        assertFalse(file.exists());
+    }
+
+    private static byte[] getBytes(String text) throws IOException {
+        return text.getBytes(AtomicFile.CHARSET);
+    }
+
+    private static String read(AtomicFile file) throws IOException {
+        BufferedReader reader = file.openReader();
+        try {
+            return reader.readLine();
+        }
+        finally {
+            AtomicFile.closeQuietly(reader);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Unit tests for the {@link PacketSizeController PacketSizeController}.</p>
+ */
+public class PacketSizeControllerTest {
+
+    @Test
+    public void stableLatency_keepsTheMaximumLength() {
+        PacketSizeController controller = new PacketSizeController(12, 200);
+        acknowledge(controller, 1000, 40);
+
+        assertEquals(200, controller.getLength());
+        assertEquals(0, controller.getDecreases());
+    }
+
+    @Test
+    public void risingLatency_decreasesTheLength() {
+        PacketSizeController controller = new PacketSizeController(12, 200);
+        acknowledge(controller, PacketSizeController.WARM_UP_SAMPLES, 40);
+        // the link layer retransmits: the latency triples
+        acknowledge(controller, 5, 120);
+
+        assertEquals(150, controller.getLength());
+        assertEquals(1, controller.getDecreases());
+    }
+
+    @Test
+    public void errors_halveTheLengthDownToTheMinimum() {
+        PacketSizeController controller = new PacketSizeController(12, 200);
+        controller.onError();
+        assertEquals(100, controller.getLength());
+
+        for (int i = 0; i < 10; i++) {
+            controller.onError();
+        }
+        assertEquals(12, controller.getLength());
+        assertEquals(11, controller.getErrors());
+    }
+
+    @Test
+    public void stableLatencyAfterADecrease_increasesTheLengthBackToTheMaximum() {
+        PacketSizeController controller = new PacketSizeController(12, 200);
+        controller.onError();
+        assertEquals(100, controller.getLength());
+
+        int acknowledgements = 0;
+        while (controller.getLength() < 200 && acknowledgements < 10000) {
+            controller.onPacketAcknowledged(controller.getLength(), 40);
+            acknowledgements++;
+        }
+        assertEquals(200, controller.getLength());
+        // an eighth of the maximum length at each increase
+        assertEquals(4, controller.getIncreases());
+    }
+
+    @Test
+    public void acknowledgementsOfOtherLengths_areIgnored() {
+        PacketSizeController controller = new PacketSizeController(12, 200);
+        acknowledge(controller, PacketSizeController.WARM_UP_SAMPLES, 40);
+        // the last packets of the requests of the Device are shorter
+        for (int i = 0; i < 50; i++) {
+            controller.onPacketAcknowledged(20, 500);
+        }
+
+        assertEquals(200, controller.getLength());
+    }
+
+    @Test
+    public void setMaxLength_reducesTheLength() {
+        PacketSizeController controller = new PacketSizeController(12, 244);
+        controller.setMaxLength(12);
+        assertEquals(12, controller.getLength());
+
+        controller.setMaxLength(5);
+        assertEquals(5, controller.getMinLength());
+        assertEquals(5, controller.getLength());
+
+        controller.setMaxLength(244);
+        controller.reset();
+        assertEquals(244, controller.getLength());
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    private static void acknowledge(PacketSizeController controller, int packets, long latency) {
+        for (int i = 0; i < packets; i++) {
+            controller.onPacketAcknowledged(controller.getLength(), latency);
+        }
+    }
+}
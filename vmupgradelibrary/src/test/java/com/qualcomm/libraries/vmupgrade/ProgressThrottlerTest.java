@@ -0,0 +1,88 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade;
+
+import com.qualcomm.libraries.scheduler.VirtualScheduler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Unit tests for the {@link ProgressThrottler ProgressThrottler}.</p>
+ */
+public class ProgressThrottlerTest {
+
+    private VirtualScheduler mScheduler;
+    private ProgressThrottler mThrottler;
+    private int mValue;
+    private final List<Integer> mDelivered = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mScheduler = new VirtualScheduler();
+        mThrottler = new ProgressThrottler(mScheduler, new Runnable() {
+            @Override
+            public void run() {
+                mDelivered.add(mValue);
+            }
+        });
+    }
+
+    @Test
+    public void noRate_deliversEveryRequest() {
+        for (mValue = 0; mValue < 5; mValue++) {
+            mThrottler.request();
+        }
+
+        assertEquals(5, mDelivered.size());
+        assertFalse(mScheduler.hasPendingTasks());
+    }
+
+    @Test
+    public void maxRate_coalescesWithLatestValue() {
+        mThrottler.setMaxRate(10);
+        assertEquals(100, mThrottler.getMinInterval());
+
+        // one request every 10 ms for 250 ms
+        for (mValue = 0; mValue < 25; mValue++) {
+            mThrottler.request();
+            mScheduler.advanceBy(10);
+        }
+        mScheduler.runUntilIdle(10);
+
+        // first at once, then at 100 ms and 200 ms with the latest value at those times, then the trailing one
+        assertEquals(4, mDelivered.size());
+        assertEquals(0, (int) mDelivered.get(0));
+        assertEquals(9, (int) mDelivered.get(1));
+        assertEquals(19, (int) mDelivered.get(2));
+        assertEquals(25, (int) mDelivered.get(3));
+    }
+
+    @Test
+    public void cancel_dropsPendingDeliveryAndRestartsSeries() {
+        mThrottler.setMaxRate(10);
+        mValue = 1;
+        mThrottler.request();
+        mScheduler.advanceBy(10);
+        mValue = 2;
+        mThrottler.request();
+        assertTrue(mThrottler.isPending());
+
+        mThrottler.cancel();
+        mScheduler.runUntilIdle(10);
+        assertEquals(1, mDelivered.size());
+
+        // a new series is delivered at once
+        mValue = 3;
+        mThrottler.request();
+        assertEquals(2, mDelivered.size());
+        assertEquals(3, (int) mDelivered.get(1));
+    }
+}
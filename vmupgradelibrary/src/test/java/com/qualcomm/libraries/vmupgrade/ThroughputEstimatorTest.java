@@ -0,0 +1,87 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Unit tests for the {@link ThroughputEstimator ThroughputEstimator}.</p>
+ */
+public class ThroughputEstimatorTest {
+
+    private static final double DELTA = 0.001;
+
+    @Test
+    public void remainingTime_isUnknownBeforeFirstSample() {
+        ThroughputEstimator estimator = new ThroughputEstimator();
+        estimator.start(0);
+        estimator.onBytesAcknowledged(100, 1000);
+
+        assertEquals(0, estimator.getSmoothedRate(), DELTA);
+        assertEquals(UploadProgress.UNKNOWN_TIME, estimator.getRemainingTime(1000));
+        assertEquals(0, estimator.getRemainingTime(0));
+    }
+
+    @Test
+    public void constantRate_givesExactRemainingTime() {
+        ThroughputEstimator estimator = new ThroughputEstimator();
+        estimator.start(0);
+        // 1000 bytes every 500 ms: 2000 bytes/s
+        for (int time = 500; time <= 5000; time += 500) {
+            estimator.onBytesAcknowledged(time, 1000);
+        }
+
+        assertEquals(2000, estimator.getInstantaneousRate(), DELTA);
+        assertEquals(2000, estimator.getSmoothedRate(), DELTA);
+        assertEquals(2000, estimator.getAverageRate(), DELTA);
+        assertEquals(10000, estimator.getTotalBytes());
+        assertEquals(5000, estimator.getRemainingTime(10000));
+    }
+
+    @Test
+    public void burstsWithinSamplePeriod_areAccumulated() {
+        ThroughputEstimator estimator = new ThroughputEstimator();
+        estimator.start(0);
+        // a window of packets acknowledged at nearly the same time
+        estimator.onBytesAcknowledged(1, 500);
+        estimator.onBytesAcknowledged(2, 500);
+        assertEquals(0, estimator.getInstantaneousRate(), DELTA);
+
+        estimator.onBytesAcknowledged(ThroughputEstimator.SAMPLE_PERIOD_MS, 0);
+        assertEquals(1000 * 1000.0 / ThroughputEstimator.SAMPLE_PERIOD_MS, estimator.getInstantaneousRate(), DELTA);
+    }
+
+    @Test
+    public void smoothedRate_followsChangesProgressively() {
+        ThroughputEstimator estimator = new ThroughputEstimator(0.5);
+        estimator.start(0);
+        estimator.onBytesAcknowledged(1000, 4000);
+        estimator.onBytesAcknowledged(2000, 2000);
+
+        assertEquals(2000, estimator.getInstantaneousRate(), DELTA);
+        assertEquals(3000, estimator.getSmoothedRate(), DELTA);
+        assertEquals(3000, estimator.getAverageRate(), DELTA);
+    }
+
+    @Test
+    public void reset_discardsEstimation() {
+        ThroughputEstimator estimator = new ThroughputEstimator();
+        estimator.start(0);
+        estimator.onBytesAcknowledged(1000, 4000);
+        estimator.reset();
+
+        assertFalse(estimator.isStarted());
+        assertEquals(0, estimator.getTotalBytes());
+        assertEquals(0, estimator.getAverageRate(), DELTA);
+        assertEquals(UploadProgress.UNKNOWN_TIME, estimator.getRemainingTime(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsInvalidSmoothingFactor() {
+        new ThroughputEstimator(0);
+    }
+}
@@ -0,0 +1,169 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade;
+
+import com.qualcomm.libraries.scheduler.VirtualScheduler;
+import com.qualcomm.libraries.vmupgrade.codes.OpCodes;
+import com.qualcomm.libraries.vmupgrade.codes.ResumePoints;
+import com.qualcomm.libraries.vmupgrade.packet.VMUException;
+import com.qualcomm.libraries.vmupgrade.packet.VMUPacket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Unit tests for the {@link UpgradeManager UpgradeManager}: the Device is played by the test.</p>
+ */
+public class UpgradeManagerTest implements UpgradeManager.UpgradeManagerListener {
+
+    private static final int WINDOW_SIZE = 4;
+
+    private final VirtualScheduler mScheduler = new VirtualScheduler();
+    private final List<Integer> mSentOpCodes = new ArrayList<>();
+    private UpgradeManager mManager;
+    private File mImage;
+
+    @Before
+    public void setUp() throws IOException {
+        byte[] bytes = new byte[2000];
+        new Random(1).nextBytes(bytes);
+        mImage = File.createTempFile("image", ".bin");
+        FileOutputStream stream = new FileOutputStream(mImage);
+        try {
+            stream.write(bytes);
+        }
+        finally {
+            stream.close();
+        }
+        mManager = new UpgradeManager(this, 64, mScheduler);
+        mManager.setWindowSize(WINDOW_SIZE);
+        mManager.setFile(mImage);
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        mImage.delete();
+    }
+
+    @Test
+    public void acknowledgementOfAnotherPacket_doesNotCreditTheDataPackets() throws Exception {
+        startTransfer();
+        // the Device has asked for the data before the UPGRADE_START_DATA_REQ acknowledgement is received
+        receive(OpCodes.Enum.UPGRADE_DATA_BYTES_REQ, getDataBytesRequest(1000));
+        assertEquals(WINDOW_SIZE, getSent(OpCodes.Enum.UPGRADE_DATA));
+
+        // UPGRADE_START_DATA_REQ
+        mManager.receiveVMControlSucceed();
+        assertEquals(WINDOW_SIZE, getSent(OpCodes.Enum.UPGRADE_DATA));
+
+        // first UPGRADE_DATA
+        mManager.receiveVMControlSucceed();
+        assertEquals(WINDOW_SIZE + 1, getSent(OpCodes.Enum.UPGRADE_DATA));
+    }
+
+    @Test
+    public void timedOutDataPacket_leavesTheWindow() throws Exception {
+        startTransfer();
+        mManager.receiveVMControlSucceed();
+        receive(OpCodes.Enum.UPGRADE_DATA_BYTES_REQ, getDataBytesRequest(1000));
+        assertEquals(WINDOW_SIZE, getSent(OpCodes.Enum.UPGRADE_DATA));
+
+        mManager.receiveVMControlFailed();
+        assertEquals(WINDOW_SIZE + 1, getSent(OpCodes.Enum.UPGRADE_DATA));
+    }
+
+
+    // ====== UpgradeManager.UpgradeManagerListener ================================================
+
+    @Override // UpgradeManager.UpgradeManagerListener
+    public void sendUpgradePacket(byte[] bytes) {
+        try {
+            mSentOpCodes.add(new VMUPacket(bytes).getOpCode());
+        } catch (VMUException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    @Override // UpgradeManager.UpgradeManagerListener
+    public void onUpgradeProcessError(UpgradeError error) {
+        fail(error.getString());
+    }
+
+    @Override // UpgradeManager.UpgradeManagerListener
+    public void onResumePointChanged(@ResumePoints.Enum int point) {
+    }
+
+    @Override // UpgradeManager.UpgradeManagerListener
+    public void onUpgradeFinished() {
+    }
+
+    @Override // UpgradeManager.UpgradeManagerListener
+    public void onFileUploadProgress(UploadProgress progress) {
+    }
+
+    @Override // UpgradeManager.UpgradeManagerListener
+    public void askConfirmationFor(@UpgradeManager.ConfirmationType int type) {
+    }
+
+    @Override // UpgradeManager.UpgradeManagerListener
+    public void disconnectUpgrade() {
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    /**
+     * <p>To bring the upgrade to the point where the UPGRADE_START_DATA_REQ message has been sent and not
+     * acknowledged.</p>
+     */
+    private void startTransfer() {
+        mManager.startUpgrade();
+        assertEquals(OpCodes.Enum.UPGRADE_SYNC_REQ, getLastSent());
+        mManager.receiveVMControlSucceed();
+        receive(OpCodes.Enum.UPGRADE_SYNC_CFM, null);
+        assertEquals(OpCodes.Enum.UPGRADE_START_REQ, getLastSent());
+        mManager.receiveVMControlSucceed();
+        byte[] cfm = new byte[OpCodes.UpgradeStartCFM.DATA_LENGTH];
+        cfm[OpCodes.UpgradeStartCFM.STATUS_OFFSET] = OpCodes.UpgradeStartCFM.Status.SUCCESS;
+        receive(OpCodes.Enum.UPGRADE_START_CFM, cfm);
+        assertEquals(OpCodes.Enum.UPGRADE_START_DATA_REQ, getLastSent());
+    }
+
+    private void receive(@OpCodes.Enum int opCode, byte[] data) {
+        mManager.receiveVMUPacket(new VMUPacket(opCode, data).getBytes());
+    }
+
+    private static byte[] getDataBytesRequest(int length) {
+        byte[] req = new byte[OpCodes.UpgradeDataBytesREQ.DATA_LENGTH];
+        VMUUtils.copyIntIntoByteArray(length, req, OpCodes.UpgradeDataBytesREQ.NB_BYTES_OFFSET,
+                OpCodes.UpgradeDataBytesREQ.NB_BYTES_LENGTH, false);
+        return req;
+    }
+
+    private int getLastSent() {
+        return mSentOpCodes.get(mSentOpCodes.size() - 1);
+    }
+
+    private int getSent(@OpCodes.Enum int opCode) {
+        int count = 0;
+        for (int sent : mSentOpCodes) {
+            if (sent == opCode) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,166 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.image;
+
+import com.qualcomm.libraries.scheduler.VirtualScheduler;
+import com.qualcomm.libraries.vmupgrade.packet.VMUException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Unit tests for the {@link ImageDigester ImageDigester}.</p>
+ */
+public class ImageDigesterTest {
+
+    private static final int IMAGE_LENGTH = ImageDigester.BLOCK_LENGTH * 3 + 1000;
+
+    private final VirtualScheduler mScheduler = new VirtualScheduler();
+    private final QueueExecutor mExecutor = new QueueExecutor();
+    private final TestListener mListener = new TestListener();
+    private ImageDigester mDigester;
+    private File mImage;
+    private byte[] mContent;
+
+    @Before
+    public void setUp() throws IOException {
+        mContent = new byte[IMAGE_LENGTH];
+        new Random(1).nextBytes(mContent);
+        mImage = File.createTempFile("image", ".bin");
+        FileOutputStream output = new FileOutputStream(mImage);
+        output.write(mContent);
+        output.close();
+        mDigester = new ImageDigester(mScheduler, mExecutor);
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        mImage.delete();
+    }
+
+    @Test
+    public void digest_computesAllTheDigestsInOnePass() throws Exception {
+        ImageDigester.DigestJob job = mDigester.digest(mImage, mListener, ImageDigester.SHA_256);
+        mExecutor.runAll();
+        // nothing is delivered until the scheduler runs
+        assertNull(mListener.mDigests);
+        mScheduler.runUntilIdle(100);
+
+        ImageDigests digests = mListener.mDigests;
+        assertNotNull(digests);
+        assertTrue(job.isDone());
+        assertArrayEquals(MessageDigest.getInstance("MD5").digest(mContent), digests.getIdentifier());
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(mContent),
+                digests.getDigest(ImageDigester.SHA_256));
+        assertNull(digests.getDigest("SHA-1"));
+        assertEquals(IMAGE_LENGTH, digests.getLength());
+        assertTrue(digests.isValidFor(mImage));
+    }
+
+    @Test
+    public void digest_reportsTheProgressUntilTheWholeFileIsRead() {
+        mDigester.digest(mImage, mListener);
+        mExecutor.runAll();
+        mScheduler.runUntilIdle(100);
+
+        assertEquals(4, mListener.mProgress.size());
+        assertEquals(ImageDigester.BLOCK_LENGTH, (long) mListener.mProgress.get(0));
+        assertEquals(IMAGE_LENGTH, (long) mListener.mProgress.get(3));
+    }
+
+    @Test
+    public void cancel_preventsAnyDelivery() {
+        ImageDigester.DigestJob pending = mDigester.digest(mImage, mListener);
+        pending.cancel();
+        mExecutor.runAll();
+        assertFalse(mScheduler.hasPendingTasks());
+
+        // the computation is done but the result has not been delivered yet
+        ImageDigester.DigestJob computed = mDigester.digest(mImage, mListener);
+        mExecutor.runAll();
+        computed.cancel();
+        mScheduler.runUntilIdle(100);
+
+        assertNull(mListener.mDigests);
+        assertTrue(mListener.mProgress.isEmpty());
+        assertFalse(computed.isDone());
+    }
+
+    @Test
+    public void missingFile_isReportedAsAFailure() {
+        File missing = new File(mImage.getPath() + ".missing");
+        mDigester.digest(missing, mListener);
+        mExecutor.runAll();
+        mScheduler.runUntilIdle(100);
+
+        assertNotNull(mListener.mFailure);
+        assertEquals(VMUException.Type.GET_BYTES_FILE_FAILED, mListener.mFailure.getType());
+    }
+
+    @Test
+    public void compute_usesTheSameDigestsAsTheCache() throws Exception {
+        UpgradeImageSource source = new ChunkedImageSource(mImage);
+        try {
+            assertArrayEquals(ImageDigestCache.computeDigest(source), ImageDigester.compute(mImage).getIdentifier());
+        }
+        finally {
+            source.close();
+        }
+    }
+
+
+    // ====== INNER CLASSES ========================================================================
+
+    private static class QueueExecutor implements Executor {
+
+        private final List<Runnable> mTasks = new ArrayList<>();
+
+        @Override // Executor
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        private void runAll() {
+            while (!mTasks.isEmpty()) {
+                mTasks.remove(0).run();
+            }
+        }
+    }
+
+    private static class TestListener implements ImageDigester.DigestListener {
+
+        private final List<Long> mProgress = new ArrayList<>();
+        private ImageDigests mDigests;
+        private VMUException mFailure;
+
+        @Override // ImageDigester.DigestListener
+        public void onDigestProgress(File file, long read, long length) {
+            mProgress.add(read);
+        }
+
+        @Override // ImageDigester.DigestListener
+        public void onDigestComplete(ImageDigests digests) {
+            mDigests = digests;
+        }
+
+        @Override // ImageDigester.DigestListener
+        public void onDigestFailed(File file, VMUException exception) {
+            mFailure = exception;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.image;
+
+import com.qualcomm.libraries.scheduler.VirtualScheduler;
+import com.qualcomm.libraries.vmupgrade.packet.VMUException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Unit tests for the {@link ImagePreflight ImagePreflight} and the
+ * {@link ImagePreflightAnalyser ImagePreflightAnalyser}.</p>
+ */
+public class ImagePreflightTest implements ImagePreflightAnalyser.PreflightListener {
+
+    private static final int CHUNK_LENGTH = 100;
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private File mImage;
+    private final VirtualScheduler mScheduler = new VirtualScheduler();
+    private ImagePreflight mResult;
+    private VMUException mFailure;
+    private int mAnalysedFiles = 0;
+
+    @Before
+    public void setUp() throws IOException {
+        mImage = File.createTempFile("image", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        mImage.delete();
+    }
+
+    @Test
+    public void analyse_computesTheIdentifier() throws Exception {
+        byte[] bytes = randomBytes(1050);
+        write(bytes);
+
+        ImagePreflight preflight = ImagePreflight.analyse(mImage, CHUNK_LENGTH, null);
+        try {
+            assertEquals(1050, preflight.getLength());
+            assertEquals(CHUNK_LENGTH, preflight.getChunkLength());
+            assertFalse(preflight.hasUpgradeHeader());
+            assertTrue(preflight.isValidFor(mImage));
+
+            UpgradeImageSource source = new MappedImageSource(mImage);
+            assertArrayEquals(ImageDigestCache.computeDigest(source), preflight.getIdentifier());
+            source.close();
+        }
+        finally {
+            preflight.release();
+        }
+    }
+
+    @Test
+    public void analyse_readsTheVersionOfTheHeader() throws Exception {
+        byte[] bytes = randomBytes(200);
+        System.arraycopy("APPUHDR5".getBytes("US-ASCII"), 0, bytes, 0, 8);
+        bytes[8] = 0; bytes[9] = 0; bytes[10] = 0; bytes[11] = 50;
+        write(bytes);
+
+        ImagePreflight preflight = ImagePreflight.analyse(mImage, CHUNK_LENGTH, null);
+        preflight.release();
+
+        assertTrue(preflight.hasUpgradeHeader());
+        assertEquals(5, preflight.getHeaderVersion());
+    }
+
+    @Test
+    public void analyse_rejectsATruncatedHeader() throws Exception {
+        byte[] bytes = randomBytes(200);
+        System.arraycopy("APPUHDR5".getBytes("US-ASCII"), 0, bytes, 0, 8);
+        bytes[8] = 0; bytes[9] = 0; bytes[10] = 1; bytes[11] = 0;
+        write(bytes);
+
+        try {
+            ImagePreflight.analyse(mImage, CHUNK_LENGTH, null);
+            fail("A header longer than the file has been accepted.");
+        }
+        catch (VMUException e) {
+            assertEquals(VMUException.Type.INVALID_IMAGE, e.getType());
+        }
+    }
+
+    @Test
+    public void analyse_rejectsAnEmptyFile() throws Exception {
+        try {
+            ImagePreflight.analyse(mImage, CHUNK_LENGTH, null);
+            fail("An empty file has been accepted.");
+        }
+        catch (VMUException e) {
+            assertEquals(VMUException.Type.INVALID_IMAGE, e.getType());
+        }
+    }
+
+    @Test
+    public void takeSource_givesTheSourceOnlyOnce() throws Exception {
+        write(randomBytes(300));
+        ImagePreflight preflight = ImagePreflight.analyse(mImage, CHUNK_LENGTH, null);
+
+        UpgradeImageSource source = preflight.takeSource();
+        assertNotNull(source);
+        assertEquals(300, source.getLength());
+        assertNull(preflight.takeSource());
+        source.close();
+    }
+
+    @Test
+    public void analyser_keepsTheResultUntilTheFileChanges() throws Exception {
+        write(randomBytes(300));
+        ImagePreflightAnalyser analyser = new ImagePreflightAnalyser(mScheduler, DIRECT_EXECUTOR);
+
+        analyser.analyse(mImage, CHUNK_LENGTH, this);
+        mScheduler.runUntilIdle(1000);
+        assertNotNull(mResult);
+        assertEquals(1, mAnalysedFiles);
+        ImagePreflight first = mResult;
+
+        analyser.analyse(mImage, CHUNK_LENGTH, this);
+        mScheduler.runUntilIdle(1000);
+        assertSame(first, mResult);
+        assertSame(first, analyser.getPreflight(mImage));
+
+        write(randomBytes(400));
+        //noinspection ResultOfMethodCallIgnored
+        mImage.setLastModified(mImage.lastModified() + 2000);
+        assertNull(analyser.getPreflight(mImage));
+        assertNull(first.takeSource());
+
+        analyser.release();
+    }
+
+    @Test
+    public void analyser_reportsAnInvalidFile() throws Exception {
+        ImagePreflightAnalyser analyser = new ImagePreflightAnalyser(mScheduler, DIRECT_EXECUTOR);
+
+        analyser.analyse(mImage, CHUNK_LENGTH, this);
+        mScheduler.runUntilIdle(1000);
+
+        assertNull(mResult);
+        assertNotNull(mFailure);
+        assertEquals(VMUException.Type.INVALID_IMAGE, mFailure.getType());
+        assertNull(analyser.getPreflight(mImage));
+    }
+
+
+    // ====== ImagePreflightAnalyser.PreflightListener =============================================
+
+    @Override // ImagePreflightAnalyser.PreflightListener
+    public void onPreflightComplete(ImagePreflight preflight) {
+        if (preflight != mResult) {
+            mAnalysedFiles++;
+        }
+        mResult = preflight;
+    }
+
+    @Override // ImagePreflightAnalyser.PreflightListener
+    public void onPreflightFailed(File file, VMUException exception) {
+        mFailure = exception;
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        bytes[0] = 0; // not the start of an upgrade header
+        return bytes;
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        FileOutputStream stream = new FileOutputStream(mImage);
+        try {
+            stream.write(bytes);
+        }
+        finally {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.journal;
+
+import com.qualcomm.libraries.vmupgrade.codes.ResumePoints;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Unit tests for the {@link TransferCheckpoints TransferCheckpoints} and their
+ * {@link TransferCheckpoint TransferCheckpoint}.</p>
+ */
+public class TransferCheckpointsTest {
+
+    private static final String DEVICE = "00:02:5B:00:00:01";
+    private static final String OTHER_DEVICE = "00:02:5B:00:00:02";
+    private static final byte[] IDENTIFIER = { 0x01, 0x23, 0x45, 0x67 };
+
+    private File mStorage;
+
+    @Before
+    public void setUp() throws IOException {
+        mStorage = File.createTempFile("checkpoints", ".txt");
+        assertTrue(mStorage.delete());
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        mStorage.delete();
+    }
+
+    @Test
+    public void addRange_mergesTheAdjacentRanges() {
+        TransferCheckpoint checkpoint = new TransferCheckpoint(IDENTIFIER, 1000);
+        checkpoint.addRange(0, 100);
+        checkpoint.addRange(100, 50);
+        checkpoint.addRange(300, 100);
+        checkpoint.addRange(500, 0);
+
+        assertRanges(new int[][] { { 0, 150 }, { 300, 400 } }, checkpoint);
+        assertEquals(250, checkpoint.getAcknowledgedBytes());
+
+        // a range which fills the gap merges all of them
+        checkpoint.addRange(120, 200);
+        assertRanges(new int[][] { { 0, 400 } }, checkpoint);
+        assertEquals(100, checkpoint.getAcknowledgedBytes(300, 1000));
+    }
+
+    @Test
+    public void resetTo_keepsTheBytesBeforeTheOffset() {
+        TransferCheckpoint checkpoint = new TransferCheckpoint(IDENTIFIER, 1000);
+        checkpoint.addRange(0, 600);
+        assertEquals(200, checkpoint.getAcknowledgedBytes(400, 1000));
+
+        checkpoint.resetTo(400);
+        assertRanges(new int[][] { { 0, 400 } }, checkpoint);
+        assertTrue(checkpoint.hasProgress());
+
+        checkpoint.resetTo(0);
+        assertFalse(checkpoint.hasProgress());
+    }
+
+    @Test
+    public void checkpoints_areReadAgainFromTheFile() {
+        TransferCheckpoints checkpoints = new TransferCheckpoints(mStorage);
+        TransferCheckpoint checkpoint = new TransferCheckpoint(IDENTIFIER, 1000);
+        checkpoint.addRange(0, 250);
+        checkpoint.addRange(500, 10);
+        checkpoint.setResumePoint(ResumePoints.Enum.VALIDATION);
+        checkpoints.put(DEVICE, checkpoint);
+        checkpoints.put(OTHER_DEVICE, new TransferCheckpoint(new byte[] { 0x09 }, 20));
+        checkpoints.flush();
+
+        TransferCheckpoint read = new TransferCheckpoints(mStorage).get(DEVICE);
+        assertNotNull(read);
+        assertTrue(read.isForImage(IDENTIFIER, 1000));
+        assertFalse(read.isForImage(IDENTIFIER, 999));
+        assertEquals(ResumePoints.Enum.VALIDATION, read.getResumePoint());
+        assertRanges(new int[][] { { 0, 250 }, { 500, 510 } }, read);
+
+        TransferCheckpoint empty = new TransferCheckpoints(mStorage).get(OTHER_DEVICE);
+        assertNotNull(empty);
+        assertEquals(0, empty.getRanges().length);
+    }
+
+    @Test
+    public void remove_forgetsTheDevice() {
+        TransferCheckpoints checkpoints = new TransferCheckpoints(mStorage);
+        checkpoints.put(DEVICE, new TransferCheckpoint(IDENTIFIER, 1000));
+        checkpoints.remove(DEVICE);
+        checkpoints.flush();
+
+        assertNull(checkpoints.get(DEVICE));
+        assertNull(new TransferCheckpoints(mStorage).get(DEVICE));
+    }
+
+    @Test
+    public void put_savesTheCheckpointAsItIsWhenItIsPut() {
+        TransferCheckpoints checkpoints = new TransferCheckpoints(mStorage);
+        TransferCheckpoint checkpoint = new TransferCheckpoint(IDENTIFIER, 1000);
+        checkpoint.addRange(0, 100);
+        checkpoints.put(DEVICE, checkpoint);
+        checkpoint.addRange(100, 100);
+        checkpoints.flush();
+
+        assertEquals(200, checkpoints.get(DEVICE).getAcknowledgedBytes());
+        assertEquals(100, new TransferCheckpoints(mStorage).get(DEVICE).getAcknowledgedBytes());
+    }
+
+    @Test
+    public void load_ignoresTheInvalidLines() throws IOException {
+        FileOutputStream output = new FileOutputStream(mStorage);
+        output.write((DEVICE + "\tZZ\t1000\t0\t\n" + OTHER_DEVICE + "\t0123\t1000\t0\t0-100\n")
+                .getBytes("UTF-8"));
+        output.close();
+
+        TransferCheckpoints checkpoints = new TransferCheckpoints(mStorage);
+        assertNull(checkpoints.get(DEVICE));
+        assertNotNull(checkpoints.get(OTHER_DEVICE));
+        assertEquals(100, checkpoints.get(OTHER_DEVICE).getAcknowledgedBytes());
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    private static void assertRanges(int[][] expected, TransferCheckpoint checkpoint) {
+        assertEquals(Arrays.deepToString(expected), Arrays.deepToString(checkpoint.getRanges()));
+    }
+}
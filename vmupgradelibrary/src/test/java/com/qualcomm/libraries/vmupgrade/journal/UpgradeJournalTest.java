@@ -0,0 +1,169 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.journal;
+
+import com.qualcomm.libraries.vmupgrade.codes.ResumePoints;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Unit tests for the {@link UpgradeJournal UpgradeJournal}.</p>
+ */
+public class UpgradeJournalTest {
+
+    private static final byte[] IDENTIFIER = { 0x01, 0x23, 0x45, 0x67, (byte) 0x89, (byte) 0xAB, (byte) 0xCD,
+            (byte) 0xEF };
+
+    private File mImage;
+    private File mStorage;
+
+    @Before
+    public void setUp() throws IOException {
+        mImage = File.createTempFile("image", ".bin");
+        write(mImage, new byte[1024], false);
+        mStorage = File.createTempFile("journal", ".txt");
+        assertTrue(mStorage.delete());
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        mImage.delete();
+        //noinspection ResultOfMethodCallIgnored
+        mStorage.delete();
+    }
+
+    @Test
+    public void read_returnsNullWithoutJournal() {
+        assertNull(UpgradeJournal.read(mStorage));
+        assertNull(new UpgradeJournal(mStorage).getSession());
+    }
+
+    @Test
+    public void read_replaysInterruptedSession() {
+        UpgradeJournal journal = new UpgradeJournal(mStorage);
+        journal.startSession(mImage, IDENTIFIER);
+        journal.recordResumePoint(ResumePoints.Enum.DATA_TRANSFER);
+        journal.recordAcknowledgedOffset(256, 1000);
+        journal.recordAcknowledgedOffset(512, 1500);
+        journal.close();
+
+        UpgradeSession session = new UpgradeJournal(mStorage).getSession();
+        assertNotNull(session);
+        assertEquals(mImage.getAbsolutePath(), session.getFile().getAbsolutePath());
+        assertArrayEquals(IDENTIFIER, session.getIdentifier());
+        assertEquals(ResumePoints.Enum.DATA_TRANSFER, session.getResumePoint());
+        // the offset which was pending is written when the journal is closed
+        assertEquals(512, session.getAcknowledgedOffset());
+        assertEquals(50, session.getPercentage(), 0.001);
+        assertTrue(session.isFileUnchanged());
+        assertTrue(session.isForFile(mImage));
+    }
+
+    @Test
+    public void recordAcknowledgedOffset_writesOffsetsByBatch() {
+        UpgradeJournal journal = new UpgradeJournal(mStorage);
+        journal.startSession(mImage, IDENTIFIER);
+        journal.recordAcknowledgedOffset(100, UpgradeJournal.SYNC_INTERVAL_MS);
+        journal.recordAcknowledgedOffset(200, UpgradeJournal.SYNC_INTERVAL_MS + 10);
+        journal.recordAcknowledgedOffset(300, UpgradeJournal.SYNC_INTERVAL_MS + 20);
+        // a new resume point writes the pending offset first
+        journal.recordResumePoint(ResumePoints.Enum.VALIDATION);
+        journal.close();
+
+        // start, offset 100, offset 300 and resume point: offset 200 has been replaced before being written
+        assertEquals(4, countLines(mStorage));
+        UpgradeSession session = UpgradeJournal.read(mStorage);
+        assertNotNull(session);
+        assertEquals(300, session.getAcknowledgedOffset());
+        assertEquals(ResumePoints.Enum.VALIDATION, session.getResumePoint());
+    }
+
+    @Test
+    public void read_ignoresEndedSession() {
+        UpgradeJournal journal = new UpgradeJournal(mStorage);
+        journal.startSession(mImage, IDENTIFIER);
+        journal.recordResumePoint(ResumePoints.Enum.COMMIT);
+        journal.endSession();
+        assertNull(journal.getSession());
+        journal.close();
+
+        assertNull(UpgradeJournal.read(mStorage));
+    }
+
+    @Test
+    public void read_ignoresInterruptedRecord() throws IOException {
+        UpgradeJournal journal = new UpgradeJournal(mStorage);
+        journal.startSession(mImage, IDENTIFIER);
+        journal.recordAcknowledgedOffset(128, UpgradeJournal.SYNC_INTERVAL_MS);
+        journal.close();
+        // the process ended while writing a record
+        write(mStorage, "E".getBytes("UTF-8"), true);
+
+        UpgradeSession session = UpgradeJournal.read(mStorage);
+        assertNotNull(session);
+        assertEquals(128, session.getAcknowledgedOffset());
+    }
+
+    @Test
+    public void startSession_replacesPreviousSession() {
+        UpgradeJournal journal = new UpgradeJournal(mStorage);
+        journal.startSession(mImage, new byte[] { 0x00 });
+        journal.recordResumePoint(ResumePoints.Enum.TRANSFER_COMPLETE);
+        journal.startSession(mImage, IDENTIFIER);
+        journal.close();
+
+        UpgradeSession session = UpgradeJournal.read(mStorage);
+        assertNotNull(session);
+        assertArrayEquals(IDENTIFIER, session.getIdentifier());
+        assertEquals(ResumePoints.Enum.DATA_TRANSFER, session.getResumePoint());
+    }
+
+    @Test
+    public void isFileUnchanged_detectsModifiedFile() throws IOException {
+        UpgradeJournal journal = new UpgradeJournal(mStorage);
+        journal.startSession(mImage, IDENTIFIER);
+        journal.close();
+        write(mImage, new byte[16], true);
+
+        UpgradeSession session = UpgradeJournal.read(mStorage);
+        assertNotNull(session);
+        assertFalse(session.isFileUnchanged());
+        assertFalse(session.isForFile(mImage));
+    }
+
+    private static void write(File file, byte[] bytes, boolean append) throws IOException {
+        FileOutputStream stream = new FileOutputStream(file, append);
+        try {
+            stream.write(bytes);
+        }
+        finally {
+            stream.close();
+        }
+    }
+
+    private static int countLines(File file) {
+        int count = 0;
+        try {
+            java.io.BufferedReader reader = new java.io.BufferedReader(new java.io.FileReader(file));
+            while (reader.readLine() != null) {
+                count++;
+            }
+            reader.close();
+        }
+        catch (IOException e) {
+            fail(e.getMessage());
+        }
+        return count;
+    }
+}
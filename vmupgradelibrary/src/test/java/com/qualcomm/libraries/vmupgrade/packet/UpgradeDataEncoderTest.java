@@ -0,0 +1,144 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.packet;
+
+import com.qualcomm.libraries.vmupgrade.codes.OpCodes;
+import com.qualcomm.libraries.vmupgrade.image.UpgradeImageSource;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * <p>Unit tests for the {@link UpgradeDataEncoder UpgradeDataEncoder}.</p>
+ */
+public class UpgradeDataEncoderTest {
+
+    /**
+     * The frame header length used in these tests, as for a GAIA packet over BLE.
+     */
+    private static final int HEADER_LENGTH = 4;
+    /**
+     * The frame trailer length used in these tests, as for a checksum.
+     */
+    private static final int TRAILER_LENGTH = 1;
+    /**
+     * The number of file bytes per packet used in these tests.
+     */
+    private static final int FILE_BYTES = 12;
+
+    @Test
+    public void encode_writesVMUPacketBetweenHeaderAndTrailer() throws Exception {
+        ArrayImageSource source = new ArrayImageSource(64);
+        UpgradeDataEncoder encoder = new UpgradeDataEncoder(HEADER_LENGTH, TRAILER_LENGTH, FILE_BYTES);
+
+        byte[] frame = encoder.encode(true, source, 10, 5);
+
+        assertEquals(HEADER_LENGTH + UpgradeDataEncoder.getPacketLength(5) + TRAILER_LENGTH, frame.length);
+        VMUPacket packet = new VMUPacket(copyOfRange(frame, HEADER_LENGTH, frame.length - TRAILER_LENGTH));
+        assertEquals(OpCodes.Enum.UPGRADE_DATA, packet.getOpCode());
+        assertEquals(6, packet.getLength());
+        assertEquals(OpCodes.UpgradeData.LastPacket.IS_LAST_PACKET,
+                packet.getData()[OpCodes.UpgradeData.LAST_PACKET_OFFSET]);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(source.bytes[10 + i], packet.getData()[OpCodes.UpgradeData.FILE_BYTES_OFFSET + i]);
+        }
+    }
+
+    @Test
+    public void encode_reusesReleasedFrames() throws Exception {
+        ArrayImageSource source = new ArrayImageSource(64);
+        UpgradeDataEncoder encoder = new UpgradeDataEncoder(HEADER_LENGTH, TRAILER_LENGTH, FILE_BYTES);
+
+        byte[] first = encoder.encode(false, source, 0, FILE_BYTES);
+        encoder.release(first);
+        byte[] second = encoder.encode(false, source, FILE_BYTES, FILE_BYTES);
+
+        assertSame(first, second);
+        assertEquals(source.bytes[FILE_BYTES],
+                second[HEADER_LENGTH + VMUPacket.REQUIRED_INFORMATION_LENGTH + OpCodes.UpgradeData.FILE_BYTES_OFFSET]);
+    }
+
+    @Test
+    public void encode_steadyStateDoesNotAllocatePerPacket() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        final int WINDOW = 4;
+        final int PACKETS = 100000;
+        ArrayImageSource source = new ArrayImageSource(FILE_BYTES * 1024);
+        UpgradeDataEncoder encoder = new UpgradeDataEncoder(HEADER_LENGTH, TRAILER_LENGTH, FILE_BYTES);
+        byte[][] inFlight = new byte[WINDOW][];
+
+        // warm up: fills the pool and lets the JIT compile the data path
+        transfer(encoder, source, inFlight, PACKETS);
+
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        transfer(encoder, source, inFlight, PACKETS);
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue("Encoding allocated " + allocated + " bytes for " + PACKETS + " packets", allocated < PACKETS);
+    }
+
+    /**
+     * To encode packets as the UpgradeManager does: a frame is released when it leaves the window.
+     */
+    private static void transfer(UpgradeDataEncoder encoder, ArrayImageSource source, byte[][] inFlight,
+                                 int packets) throws VMUException {
+        int position = 0;
+        for (int i = 0; i < packets; i++) {
+            int index = i % inFlight.length;
+            if (inFlight[index] != null) {
+                encoder.release(inFlight[index]);
+            }
+            if (position + FILE_BYTES > source.getLength()) {
+                position = 0;
+            }
+            inFlight[index] = encoder.encode(false, source, position, FILE_BYTES);
+            position += FILE_BYTES;
+        }
+    }
+
+    private static byte[] copyOfRange(byte[] array, int from, int to) {
+        byte[] result = new byte[to - from];
+        System.arraycopy(array, from, result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * An image source which reads its bytes from memory.
+     */
+    private static class ArrayImageSource implements UpgradeImageSource {
+        final byte[] bytes;
+
+        ArrayImageSource(int length) {
+            bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = (byte) (i * 31 + 7);
+            }
+        }
+
+        @Override
+        public int getLength() {
+            return bytes.length;
+        }
+
+        @Override
+        public void read(int position, byte[] destination, int offset, int length) {
+            System.arraycopy(bytes, position, destination, offset, length);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
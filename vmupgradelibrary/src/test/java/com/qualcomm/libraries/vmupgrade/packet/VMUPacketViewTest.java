@@ -0,0 +1,113 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.packet;
+
+import com.qualcomm.libraries.vmupgrade.codes.OpCodes;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * <p>Unit tests for the {@link VMUPacketView VMUPacketView}.</p>
+ */
+public class VMUPacketViewTest {
+
+    @Test
+    public void wrap_readsTheFieldsInPlace() throws Exception {
+        byte[] data = { 0x00, 0x00, 0x01, 0x00, 0x00, 0x00, 0x00, 0x20 };
+        byte[] packet = new VMUPacket(OpCodes.Enum.UPGRADE_DATA_BYTES_REQ, data).getBytes();
+        // the packet is received after a GAIA event byte
+        byte[] payload = new byte[packet.length + 1];
+        System.arraycopy(packet, 0, payload, 1, packet.length);
+
+        VMUPacketView view = new VMUPacketView();
+        view.wrap(payload, 1, packet.length);
+
+        assertEquals(OpCodes.Enum.UPGRADE_DATA_BYTES_REQ, view.getOpCode());
+        assertEquals(OpCodes.Enum.UPGRADE_DATA_BYTES_REQ, view.getRawOpCode());
+        assertEquals(8, view.getDataLength());
+        assertEquals(256, view.getInt(OpCodes.UpgradeDataBytesREQ.NB_BYTES_OFFSET,
+                OpCodes.UpgradeDataBytesREQ.NB_BYTES_LENGTH));
+        assertEquals(0x20, view.getInt(OpCodes.UpgradeDataBytesREQ.FILE_OFFSET_OFFSET,
+                OpCodes.UpgradeDataBytesREQ.FILE_OFFSET_LENGTH));
+        assertArrayEquals(data, view.copyData());
+    }
+
+    @Test
+    public void wrap_readsTheFieldsAsVMUPacketDoes() throws Exception {
+        byte[] bytes = { OpCodes.Enum.UPGRADE_START_CFM, 0x00, 0x03, 0x09, (byte) 0xF0, 0x12 };
+        VMUPacket packet = new VMUPacket(bytes);
+        VMUPacketView view = new VMUPacketView();
+        view.wrap(bytes, 0, bytes.length);
+
+        assertEquals(packet.getOpCode(), view.getOpCode());
+        assertEquals(packet.getLength(), view.getDataLength());
+        assertArrayEquals(packet.getData(), view.copyData());
+        assertEquals(0xF012, view.getInt(1, 2));
+        assertEquals(0x09F012L, view.getLong(0, 3));
+    }
+
+    @Test
+    public void wrap_rejectsAPacketWithoutHeader() {
+        try {
+            new VMUPacketView().wrap(new byte[] { 0x01, 0x02, 0x03 }, 1, 2);
+            fail("A packet without length has been accepted.");
+        }
+        catch (VMUException e) {
+            assertEquals(VMUException.Type.DATA_TOO_SHORT, e.getType());
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getInt_doesNotReadBeyondThePacket() throws Exception {
+        // the array is longer than the packet
+        byte[] bytes = { OpCodes.Enum.UPGRADE_SYNC_CFM, 0x00, 0x01, 0x05, 0x00, 0x00, 0x00 };
+        VMUPacketView view = new VMUPacketView();
+        view.wrap(bytes, 0, 4);
+        view.getInt(0, 2);
+    }
+
+    @Test
+    public void wrap_doesNotAllocatePerPacket() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        final int PACKETS = 100000;
+        byte[] bytes = new VMUPacket(OpCodes.Enum.UPGRADE_DATA_BYTES_REQ, new byte[8]).getBytes();
+        VMUPacketView view = new VMUPacketView();
+
+        // warm up: lets the JIT compile the receive path
+        read(view, bytes, PACKETS);
+
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        read(view, bytes, PACKETS);
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue("Reading allocated " + allocated + " bytes for " + PACKETS + " packets", allocated < PACKETS);
+    }
+
+    /**
+     * To read the packets as the UpgradeManager does for an UPGRADE_DATA_BYTES_REQ.
+     */
+    private static int read(VMUPacketView view, byte[] bytes, int packets) throws VMUException {
+        int sum = 0;
+        for (int i = 0; i < packets; i++) {
+            bytes[bytes.length - 1] = (byte) i;
+            view.wrap(bytes, 0, bytes.length);
+            sum += view.getRawOpCode() + view.getInt(OpCodes.UpgradeDataBytesREQ.NB_BYTES_OFFSET,
+                    OpCodes.UpgradeDataBytesREQ.NB_BYTES_LENGTH) + view.getInt(
+                    OpCodes.UpgradeDataBytesREQ.FILE_OFFSET_OFFSET, OpCodes.UpgradeDataBytesREQ.FILE_OFFSET_LENGTH);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,77 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.retry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Unit tests for the {@link ReadinessCache ReadinessCache}.</p>
+ */
+public class ReadinessCacheTest {
+
+    private static final String DEVICE = "00:02:5B:00:00:01";
+    private static final String OTHER_DEVICE = "00:02:5B:00:00:02";
+
+    private File mStorage;
+
+    @Before
+    public void setUp() throws IOException {
+        mStorage = File.createTempFile("readiness", ".txt");
+        assertTrue(mStorage.delete());
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        mStorage.delete();
+    }
+
+    @Test
+    public void getReadinessTime_isUnknownForANewDevice() {
+        assertEquals(ReadinessCache.UNKNOWN, new ReadinessCache(mStorage).getReadinessTime(DEVICE));
+    }
+
+    @Test
+    public void recordReadinessTime_averagesTheMeasures() {
+        ReadinessCache cache = new ReadinessCache(mStorage);
+        cache.recordReadinessTime(DEVICE, 1000);
+        assertEquals(1000, cache.getReadinessTime(DEVICE));
+
+        cache.recordReadinessTime(DEVICE, 2000);
+        assertEquals(1500, cache.getReadinessTime(DEVICE));
+        assertEquals(ReadinessCache.UNKNOWN, cache.getReadinessTime(OTHER_DEVICE));
+    }
+
+    @Test
+    public void readinessTimes_areReadAgainFromTheFile() {
+        ReadinessCache cache = new ReadinessCache(mStorage);
+        cache.recordReadinessTime(DEVICE, 1200);
+        cache.recordReadinessTime(OTHER_DEVICE, 300);
+        cache.flush();
+
+        ReadinessCache reloaded = new ReadinessCache(mStorage);
+        assertEquals(1200, reloaded.getReadinessTime(DEVICE));
+        assertEquals(300, reloaded.getReadinessTime(OTHER_DEVICE));
+    }
+
+    @Test
+    public void clear_removesTheFile() {
+        ReadinessCache cache = new ReadinessCache(mStorage);
+        cache.recordReadinessTime(DEVICE, 1200);
+        cache.flush();
+        assertTrue(mStorage.exists());
+
+        cache.clear();
+        assertFalse(mStorage.exists());
+        assertEquals(ReadinessCache.UNKNOWN, new ReadinessCache(mStorage).getReadinessTime(DEVICE));
+    }
+}
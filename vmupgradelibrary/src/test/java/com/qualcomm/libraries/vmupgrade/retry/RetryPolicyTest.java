@@ -0,0 +1,70 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.retry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Unit tests for the {@link RetryPolicy RetryPolicy}.</p>
+ */
+public class RetryPolicyTest {
+
+    /**
+     * <p>The random value which does not move the delay.</p>
+     */
+    private static final double NO_JITTER = 0.5;
+
+    @Test
+    public void getDelay_backsOffExponentiallyUpToTheMaximum() {
+        RetryPolicy policy = new RetryPolicy(100, 1000, 2, 0.2, RetryPolicy.UNLIMITED, RetryPolicy.UNLIMITED);
+
+        assertEquals(100, policy.getDelay(1, 0, NO_JITTER));
+        assertEquals(200, policy.getDelay(2, 0, NO_JITTER));
+        assertEquals(400, policy.getDelay(3, 0, NO_JITTER));
+        assertEquals(800, policy.getDelay(4, 0, NO_JITTER));
+        assertEquals(1000, policy.getDelay(5, 0, NO_JITTER));
+        assertEquals(1000, policy.getDelay(50, 0, NO_JITTER));
+    }
+
+    @Test
+    public void getDelay_appliesTheJitterAroundTheDelay() {
+        RetryPolicy policy = new RetryPolicy(1000, 1000, 1, 0.2, RetryPolicy.UNLIMITED, RetryPolicy.UNLIMITED);
+
+        assertEquals(800, policy.getDelay(1, 0, 0));
+        assertEquals(1200, policy.getDelay(1, 0, 1));
+        for (double random = 0; random < 1; random += 0.05) {
+            long delay = policy.getDelay(1, 0, random);
+            assertTrue(delay >= 800 && delay <= 1200);
+        }
+    }
+
+    @Test
+    public void getDelay_usesTheSuggestedDelayWithinTheMaximum() {
+        RetryPolicy policy = new RetryPolicy(100, 5000, 2, 0, RetryPolicy.UNLIMITED, RetryPolicy.UNLIMITED);
+
+        assertEquals(1500, policy.getDelay(1, 1500, NO_JITTER));
+        assertEquals(1500, policy.getDelay(4, 1500, NO_JITTER));
+        assertEquals(5000, policy.getDelay(1, 65535, NO_JITTER));
+    }
+
+    @Test
+    public void canRetry_stopsAtTheMaximumAttempts() {
+        RetryPolicy policy = RetryPolicy.fixed(2000, 5);
+
+        assertEquals(2000, policy.getDelay(3, 0, 0));
+        assertTrue(policy.canRetry(4, 100000, 2000));
+        assertFalse(policy.canRetry(5, 0, 2000));
+    }
+
+    @Test
+    public void canRetry_stopsWhenTheNextAttemptIsAfterTheDeadline() {
+        RetryPolicy policy = new RetryPolicy(250, 4000, 2, 0, RetryPolicy.UNLIMITED, 30000);
+
+        assertTrue(policy.canRetry(100, 26000, 4000));
+        assertFalse(policy.canRetry(1, 26001, 4000));
+    }
+}
@@ -0,0 +1,187 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.timeline;
+
+import com.qualcomm.libraries.vmupgrade.codes.OpCodes;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Unit tests for the {@link TimelineAnalyser TimelineAnalyser} and its {@link TimelineReport TimelineReport}.</p>
+ */
+public class TimelineAnalyserTest {
+
+    @Test
+    public void analyse_givesTheTimeToThePhases() {
+        UpgradeTimeline timeline = new UpgradeTimeline();
+        timeline.record(UpgradeTimeline.Event.UPGRADE_STARTED, 0, 100);
+        sent(timeline, 0, OpCodes.Enum.UPGRADE_SYNC_REQ);
+        received(timeline, 10, OpCodes.Enum.UPGRADE_SYNC_CFM);
+        sent(timeline, 10, OpCodes.Enum.UPGRADE_START_REQ);
+        received(timeline, 20, OpCodes.Enum.UPGRADE_START_CFM);
+        timeline.record(UpgradeTimeline.Event.APP_NOT_READY, 20, 1);
+        sent(timeline, 520, OpCodes.Enum.UPGRADE_START_REQ);
+        received(timeline, 530, OpCodes.Enum.UPGRADE_START_CFM);
+        sent(timeline, 530, OpCodes.Enum.UPGRADE_START_DATA_REQ);
+        received(timeline, 540, OpCodes.Enum.UPGRADE_DATA_BYTES_REQ);
+        timeline.record(UpgradeTimeline.Event.DATA_SENT, 540, 100);
+        timeline.record(UpgradeTimeline.Event.DATA_ACKNOWLEDGED, 600, 100);
+        sent(timeline, 600, OpCodes.Enum.UPGRADE_IS_VALIDATION_DONE_REQ);
+        received(timeline, 700, OpCodes.Enum.UPGRADE_TRANSFER_COMPLETE_IND);
+        sent(timeline, 1000, OpCodes.Enum.UPGRADE_TRANSFER_COMPLETE_RES);
+        timeline.record(UpgradeTimeline.Event.RESUMED, 1500, 2);
+        sent(timeline, 1500, OpCodes.Enum.UPGRADE_SYNC_REQ);
+        received(timeline, 1510, OpCodes.Enum.UPGRADE_SYNC_CFM);
+        sent(timeline, 1520, OpCodes.Enum.UPGRADE_IN_PROGRESS_RES);
+        received(timeline, 1600, OpCodes.Enum.UPGRADE_COMPLETE_IND);
+        timeline.record(UpgradeTimeline.Event.ENDED, 1600, 1);
+
+        TimelineReport report = new TimelineAnalyser().analyse(timeline);
+
+        assertEquals(1600, report.getDuration());
+        assertEquals(10 + 20, report.getPhaseDuration(TimelineReport.Phase.SYNC));
+        assertEquals(520, report.getPhaseDuration(TimelineReport.Phase.START));
+        assertEquals(70, report.getPhaseDuration(TimelineReport.Phase.DATA_TRANSFER));
+        assertEquals(100, report.getPhaseDuration(TimelineReport.Phase.VALIDATION));
+        assertEquals(300, report.getPhaseDuration(TimelineReport.Phase.CONFIRMATION));
+        assertEquals(500, report.getPhaseDuration(TimelineReport.Phase.REBOOT));
+        assertEquals(80, report.getPhaseDuration(TimelineReport.Phase.COMMIT));
+        assertEquals(0, report.getPhaseDuration(TimelineReport.Phase.RECONNECTION));
+        assertEquals(1, report.getAppNotReadyAnswers());
+        assertEquals(1, report.getReconnections());
+        assertEquals(1, report.getDataRequests());
+        assertEquals(60, report.getAckLatency(50));
+        assertTrue(report.getStalls().isEmpty());
+    }
+
+    @Test
+    public void analyse_computesTheAckLatencyPercentiles() {
+        UpgradeTimeline timeline = new UpgradeTimeline();
+        timeline.record(UpgradeTimeline.Event.UPGRADE_STARTED, 0, 1000);
+        // the packet i is acknowledged 10 * i ms after it has been sent
+        long time = 0;
+        for (int i = 1; i <= 10; i++) {
+            timeline.record(UpgradeTimeline.Event.DATA_SENT, time, 100);
+            timeline.record(UpgradeTimeline.Event.DATA_ACKNOWLEDGED, time + 10 * i, 100);
+            time += 10 * i;
+        }
+
+        TimelineReport report = new TimelineAnalyser().analyse(timeline);
+
+        assertEquals(10, report.getAckCount());
+        assertEquals(10, report.getAckLatency(0));
+        assertEquals(50, report.getAckLatency(50));
+        assertEquals(90, report.getAckLatency(90));
+        assertEquals(100, report.getAckLatency(99));
+        assertEquals(100, report.getAckLatency(100));
+    }
+
+    @Test
+    public void analyse_forgetsThePacketsLostWithTheLink() {
+        UpgradeTimeline timeline = new UpgradeTimeline();
+        timeline.record(UpgradeTimeline.Event.UPGRADE_STARTED, 0, 1000);
+        sent(timeline, 0, OpCodes.Enum.UPGRADE_START_DATA_REQ);
+        timeline.record(UpgradeTimeline.Event.DATA_SENT, 0, 100);
+        timeline.record(UpgradeTimeline.Event.RESUMED, 3000, 1);
+        timeline.record(UpgradeTimeline.Event.DATA_SENT, 3100, 100);
+        timeline.record(UpgradeTimeline.Event.DATA_ACKNOWLEDGED, 3120, 100);
+
+        TimelineReport report = new TimelineAnalyser().analyse(timeline);
+
+        assertEquals(3000, report.getPhaseDuration(TimelineReport.Phase.RECONNECTION));
+        assertEquals(1, report.getAckCount());
+        assertEquals(20, report.getAckLatency(100));
+        assertEquals(1, report.getStalls().size());
+        TimelineReport.Stall stall = report.getStalls().get(0);
+        assertEquals(0, stall.getStartTime());
+        assertEquals(3000, stall.getDuration());
+        assertEquals(TimelineReport.Phase.RECONNECTION, stall.getPhase());
+        assertEquals(UpgradeTimeline.Event.DATA_SENT, stall.getLastEvent());
+    }
+
+    @Test
+    public void analyse_reportsTheStallsLongerThanTheThreshold() {
+        UpgradeTimeline timeline = new UpgradeTimeline();
+        timeline.record(UpgradeTimeline.Event.UPGRADE_STARTED, 0, 1000);
+        sent(timeline, 0, OpCodes.Enum.UPGRADE_START_DATA_REQ);
+        received(timeline, 400, OpCodes.Enum.UPGRADE_DATA_BYTES_REQ);
+        timeline.record(UpgradeTimeline.Event.DATA_SENT, 410, 100);
+        timeline.record(UpgradeTimeline.Event.DATA_ACKNOWLEDGED, 450, 100);
+        received(timeline, 650, OpCodes.Enum.UPGRADE_DATA_BYTES_REQ);
+
+        TimelineReport report = new TimelineAnalyser(300).analyse(timeline);
+
+        assertEquals(2, report.getDataRequests());
+        assertEquals(600, report.getRequestWaitingTime());
+        assertEquals(400, report.getMaxRequestWaitingTime());
+        assertEquals(1, report.getStalls().size());
+        assertEquals(TimelineReport.Phase.DATA_TRANSFER, report.getStalls().get(0).getPhase());
+        assertEquals(OpCodes.Enum.UPGRADE_START_DATA_REQ, report.getStalls().get(0).getLastValue());
+    }
+
+    @Test
+    public void analyse_measuresTheRebootUntilTheCommit() {
+        UpgradeTimeline timeline = new UpgradeTimeline();
+        timeline.record(UpgradeTimeline.Event.UPGRADE_STARTED, 0, 1000);
+        sent(timeline, 0, OpCodes.Enum.UPGRADE_START_DATA_REQ);
+        timeline.record(UpgradeTimeline.Event.LINK_LOST, 100, 0);
+        timeline.record(UpgradeTimeline.Event.LINK_RESTORED, 400, 1);
+        timeline.record(UpgradeTimeline.Event.RESUMED, 600, 0);
+        sent(timeline, 600, OpCodes.Enum.UPGRADE_IS_VALIDATION_DONE_REQ);
+        received(timeline, 700, OpCodes.Enum.UPGRADE_TRANSFER_COMPLETE_IND);
+        sent(timeline, 1000, OpCodes.Enum.UPGRADE_TRANSFER_COMPLETE_RES);
+        timeline.record(UpgradeTimeline.Event.LINK_LOST, 1050, 2);
+        timeline.record(UpgradeTimeline.Event.LINK_RESTORED, 2800, 3);
+        timeline.record(UpgradeTimeline.Event.RESUMED, 3000, 2);
+        sent(timeline, 3000, OpCodes.Enum.UPGRADE_SYNC_REQ);
+        received(timeline, 3010, OpCodes.Enum.UPGRADE_COMMIT_REQ);
+        sent(timeline, 3100, OpCodes.Enum.UPGRADE_COMMIT_CFM);
+        received(timeline, 3200, OpCodes.Enum.UPGRADE_COMPLETE_IND);
+
+        TimelineReport report = new TimelineAnalyser().analyse(timeline);
+
+        // the loss of the link during the transfer is not a part of the reboot
+        assertEquals(500, report.getPhaseDuration(TimelineReport.Phase.RECONNECTION));
+        assertEquals(100, report.getPhaseDuration(TimelineReport.Phase.DATA_TRANSFER));
+        assertEquals(2000, report.getPhaseDuration(TimelineReport.Phase.REBOOT));
+        assertEquals(2, report.getReconnections());
+        assertEquals(1800, report.getRebootLinkDownTime());
+        assertEquals(200, report.getRebootLinkSetupTime());
+        assertEquals(2100, report.getRebootToCommitTime());
+        assertEquals(3, report.getRebootConnectionAttempts());
+    }
+
+    @Test
+    public void writeTo_writesOneLinePerValue() throws Exception {
+        UpgradeTimeline timeline = new UpgradeTimeline();
+        timeline.record(UpgradeTimeline.Event.UPGRADE_STARTED, 0, 1000);
+        sent(timeline, 0, OpCodes.Enum.UPGRADE_SYNC_REQ);
+        timeline.record(UpgradeTimeline.Event.ERROR, 5000, 3);
+
+        StringWriter writer = new StringWriter();
+        new TimelineAnalyser().analyse(timeline).writeTo(writer);
+        String text = writer.toString();
+
+        assertTrue(text.startsWith("duration\t5000\n"));
+        assertTrue(text.contains("phase.SYNC\t5000\n"));
+        assertTrue(text.contains("stall\t0\t5000\tSYNC\tPACKET_SENT\t19\n"));
+        assertTrue(text.contains("reboot.to_commit\t-1\n"));
+    }
+
+
+    // ====== PRIVATE METHODS ======================================================================
+
+    private static void sent(UpgradeTimeline timeline, long time, int opCode) {
+        timeline.record(UpgradeTimeline.Event.PACKET_SENT, time, opCode);
+    }
+
+    private static void received(UpgradeTimeline timeline, long time, int opCode) {
+        timeline.record(UpgradeTimeline.Event.PACKET_RECEIVED, time, opCode);
+    }
+}
@@ -0,0 +1,85 @@
+/**************************************************************************************************
+ * Copyright 2017 Qualcomm Technologies International, Ltd.                                       *
+ **************************************************************************************************/
+
+package com.qualcomm.libraries.vmupgrade.timeline;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * <p>Unit tests for the {@link UpgradeTimeline UpgradeTimeline}.</p>
+ */
+public class UpgradeTimelineTest {
+
+    @Test
+    public void record_keepsTheEventsInOrder() {
+        UpgradeTimeline timeline = new UpgradeTimeline(4);
+        timeline.record(UpgradeTimeline.Event.UPGRADE_STARTED, 10, 1000);
+        timeline.record(UpgradeTimeline.Event.PACKET_SENT, 12, 0x13);
+
+        assertEquals(2, timeline.size());
+        assertEquals(UpgradeTimeline.Event.UPGRADE_STARTED, timeline.getEvent(0));
+        assertEquals(10, timeline.getTime(0));
+        assertEquals(1000, timeline.getValue(0));
+        assertEquals(UpgradeTimeline.Event.PACKET_SENT, timeline.getEvent(1));
+        assertEquals(0x13, timeline.getValue(1));
+        assertEquals(0, timeline.getDroppedEvents());
+    }
+
+    @Test
+    public void record_overwritesTheOldestEventsWhenFull() {
+        UpgradeTimeline timeline = new UpgradeTimeline(3);
+        for (int i = 0; i < 5; i++) {
+            timeline.record(UpgradeTimeline.Event.DATA_SENT, i, i);
+        }
+
+        assertEquals(3, timeline.size());
+        assertEquals(2, timeline.getDroppedEvents());
+        assertEquals(2, timeline.getTime(0));
+        assertEquals(4, timeline.getTime(2));
+
+        timeline.clear();
+        assertEquals(0, timeline.size());
+        assertEquals(0, timeline.getDroppedEvents());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getTime_rejectsAnIndexOutOfTheTimeline() {
+        UpgradeTimeline timeline = new UpgradeTimeline(3);
+        timeline.record(UpgradeTimeline.Event.DATA_SENT, 1, 1);
+        timeline.getTime(1);
+    }
+
+    @Test
+    public void writeTo_canBeReadAgain() throws IOException {
+        UpgradeTimeline timeline = new UpgradeTimeline(2);
+        timeline.record(UpgradeTimeline.Event.UPGRADE_STARTED, 5, 300);
+        timeline.record(UpgradeTimeline.Event.DATA_SENT, 7, 250);
+        timeline.record(UpgradeTimeline.Event.DATA_ACKNOWLEDGED, 9, 250);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        timeline.writeTo(output);
+        assertEquals(24 + 2 * UpgradeTimeline.RECORD_LENGTH, output.size());
+
+        UpgradeTimeline read = UpgradeTimeline.readFrom(new ByteArrayInputStream(output.toByteArray()));
+        assertEquals(2, read.getCapacity());
+        assertEquals(2, read.size());
+        assertEquals(1, read.getDroppedEvents());
+        assertEquals(UpgradeTimeline.Event.DATA_SENT, read.getEvent(0));
+        assertEquals(7, read.getTime(0));
+        assertEquals(250, read.getValue(0));
+        assertEquals(UpgradeTimeline.Event.DATA_ACKNOWLEDGED, read.getEvent(1));
+        assertEquals(9, read.getTime(1));
+    }
+
+    @Test(expected = IOException.class)
+    public void readFrom_rejectsAnotherFormat() throws IOException {
+        UpgradeTimeline.readFrom(new ByteArrayInputStream(new byte[] { 'A', 'P', 'P', 'U', 0, 0, 0, 1 }));
+    }
+}